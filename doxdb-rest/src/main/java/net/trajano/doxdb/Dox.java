@@ -5,9 +5,14 @@ import java.nio.ByteBuffer;
 import java.security.Principal;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
 import javax.persistence.Basic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -16,20 +21,25 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Index;
+import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.LockModeType;
+import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
 import javax.persistence.UniqueConstraint;
 import javax.persistence.Version;
 
 import org.bson.BsonBinaryReader;
 import org.bson.BsonBinaryWriter;
 import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
 import org.bson.BsonInt32;
 import org.bson.BsonString;
 import org.bson.codecs.BsonDocumentCodec;
@@ -38,50 +48,168 @@ import org.bson.codecs.EncoderContext;
 import org.bson.io.BasicOutputBuffer;
 
 import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
+import net.trajano.doxdb.internal.BsonBufferPool;
+import net.trajano.doxdb.internal.DoxContentCodec;
 import net.trajano.doxdb.internal.DoxPrincipal;
+import net.trajano.doxdb.internal.JsonBsonCodec;
 
 @Entity
 @Table(
-    indexes = @Index(columnList = "collectionName") ,
+    indexes = @Index(columnList = "collectionId") ,
     uniqueConstraints = @UniqueConstraint(columnNames = {
         "doxId",
-        "collectionName"
+        "collectionId"
 }) )
 @NamedQueries({
     @NamedQuery(name = Dox.READ_META_BY_COLLECTION_NAME_DOX_ID,
-        query = "select new net.trajano.doxdb.DoxMeta(e.doxRecordId, e.doxId, e.version, e.collectionName, e.collectionSchemaVersion, e.accessKey, e.createdBy, e.createdOn, e.lastUpdatedBy, e.lastUpdatedOn) from Dox e where e.collectionName = :collectionName and e.doxId = :doxId",
+        query = "select new net.trajano.doxdb.DoxMeta(e.doxRecordId, e.doxId, e.version, e.collection.name, e.collectionSchemaVersion, e.accessKey, e.createdBy.name, e.createdOn, e.lastUpdatedBy.name, e.lastUpdatedOn) from Dox e where e.collection = :collection and e.doxId = :doxId",
         lockMode = LockModeType.OPTIMISTIC),
 
     @NamedQuery(name = Dox.READ_BY_COLLECTION_NAME_DOX_ID,
-        query = "from Dox e where e.collectionName = :collectionName and e.doxId = :doxId",
+        query = "from Dox e where e.collection = :collection and e.doxId = :doxId",
         lockMode = LockModeType.OPTIMISTIC),
 
+    @NamedQuery(name = Dox.READ_META_BY_COLLECTION_NAME_DOX_IDS,
+        query = "select new net.trajano.doxdb.DoxMeta(e.doxRecordId, e.doxId, e.version, e.collection.name, e.collectionSchemaVersion, e.accessKey, e.createdBy.name, e.createdOn, e.lastUpdatedBy.name, e.lastUpdatedOn) from Dox e where e.collection = :collection and e.doxId in :doxIds",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.UPDATE_IMPORTED_BY_ID_VERSION,
+        query = "update Dox e set e.content = :content, e.accessKey = :accessKey, e.collectionSchemaVersion = :collectionSchemaVersion, e.lastUpdatedBy = :lastUpdatedBy, e.lastUpdatedOn = :lastUpdatedOn, e.indexNames = :indexNames, e.version = :importedVersion where e.doxRecordId = :id and e.version = :version"),
+
+    @NamedQuery(name = Dox.UPDATE_INDEX_NAMES_BY_ID,
+        query = "update Dox e set e.indexNames = :indexNames where e.doxRecordId = :id"),
+
+    @NamedQuery(name = Dox.UPDATE_VERSION_BY_ID,
+        query = "update Dox e set e.version = :importedVersion where e.doxRecordId = :id"),
+
     @NamedQuery(name = Dox.READ_FOR_UPDATE_META_BY_SCHEMA_NAME_DOX_ID_VERSION,
-        query = "select new net.trajano.doxdb.DoxMeta(e.doxRecordId, e.doxId, e.version, e.collectionName, e.collectionSchemaVersion, e.accessKey, e.createdBy, e.createdOn, e.lastUpdatedBy, e.lastUpdatedOn) from Dox e where e.collectionName = :collectionName and e.doxId = :doxId and e.version = :version",
+        query = "select new net.trajano.doxdb.DoxMeta(e.doxRecordId, e.doxId, e.version, e.collection.name, e.collectionSchemaVersion, e.accessKey, e.createdBy.name, e.createdOn, e.lastUpdatedBy.name, e.lastUpdatedOn) from Dox e where e.collection = :collection and e.doxId = :doxId and e.version = :version",
         lockMode = LockModeType.OPTIMISTIC_FORCE_INCREMENT),
 
     @NamedQuery(name = Dox.READ_ALL_BY_COLLECTION_NAME,
-        query = "from Dox e where e.collectionName = :collectionName",
+        query = "from Dox e where e.collection = :collection",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.READ_ALL_BY_COLLECTION_NAME_AFTER,
+        query = "from Dox e where e.collection = :collection and e.doxRecordId > :after order by e.doxRecordId",
         lockMode = LockModeType.NONE),
 
     @NamedQuery(name = Dox.COUNT,
         query = "select count(e) from Dox e",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.COUNT_MISSING_LOOKUP,
+        query = "select count(e) from Dox e where e.collection = :collection and not exists (select u from DoxLookup u where u.dox = e and u.lookupName = :lookupName)",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.COUNT_MISSING_UNIQUE,
+        query = "select count(e) from Dox e where e.collection = :collection and not exists (select u from DoxUnique u where u.dox = e and u.lookupName = :lookupName)",
+        lockMode = LockModeType.NONE),
+
+    // the hash is the same arithmetic as RangeChecksum.hash
+    @NamedQuery(name = Dox.RANGE_CHECKSUM,
+        query = "select count(e), sum(mod(mod(mod(mod(e.doxRecordId, 2147483647) * 48271 + e.version, 2147483647) * mod(mod(e.doxRecordId, 2147483647) * 48271 + e.version, 2147483647), 2147483647) * 16807 + mod(mod(e.doxRecordId, 2147483647) * 48271 + e.version, 2147483647), 2147483647)), max(e.doxRecordId) from Dox e where e.collection = :collection and e.doxRecordId > :after and e.doxRecordId <= :until and e.indexNames like :indexNames escape '\\'",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.READ_ALL_BY_COLLECTION_NAME_RANGE,
+        query = "from Dox e where e.collection = :collection and e.doxRecordId > :after and e.doxRecordId <= :until",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.READ_RECORD_ID_AFTER,
+        query = "select e.doxRecordId from Dox e where e.collection = :collection and e.doxRecordId > :after order by e.doxRecordId",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.READ_MISSING_LOOKUP,
+        query = "from Dox e where e.collection = :collection and e.doxRecordId > :after and e.doxRecordId <= :until and not exists (select u from DoxLookup u where u.dox = e and u.lookupName = :lookupName) order by e.doxRecordId",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = Dox.READ_MISSING_UNIQUE,
+        query = "from Dox e where e.collection = :collection and e.doxRecordId > :after and e.doxRecordId <= :until and not exists (select u from DoxUnique u where u.dox = e and u.lookupName = :lookupName) order by e.doxRecordId",
         lockMode = LockModeType.NONE)
 })
 public class Dox {
 
-    public static final String COLLECTION_NAME = "collectionName";
+    /**
+     * Shared codec for the content. Codecs are thread safe.
+     */
+    private static final BsonDocumentCodec BSON_DOCUMENT_CODEC = new BsonDocumentCodec();
+
+    /**
+     * Query parameter for the record ID after which records are read.
+     */
+    public static final String AFTER = "after";
+
+    /**
+     * Query parameter for the collection {@link DoxDictionary} entry.
+     */
+    public static final String COLLECTION = "collection";
+
+    /**
+     * Query parameter for a list of Dox IDs.
+     */
+    public static final String DOX_IDS = "doxIds";
 
     /**
      * Named query {@value #COUNT};
      */
     public static final String COUNT = "countDox";
 
+    /**
+     * Named query {@value #COUNT_MISSING_LOOKUP};
+     */
+    public static final String COUNT_MISSING_LOOKUP = "countMissingLookup";
+
+    /**
+     * Named query {@value #COUNT_MISSING_UNIQUE};
+     */
+    public static final String COUNT_MISSING_UNIQUE = "countMissingUnique";
+
+    /**
+     * Query parameter for the index names of a record or the
+     * {@link #indexNamePattern(String)} they are matched against.
+     */
+    public static final String INDEX_NAMES = "indexNames";
+
+    /**
+     * Select expression for lookup results on the record aliased
+     * <code>e</code>. Each row is the Dox ID, version, collection schema
+     * version and stored content. The content is selected explicitly so it is
+     * loaded by the same statement rather than lazily for each record.
+     */
+    public static final String LOOKUP_RESULT = "e.doxId, e.version, e.collectionSchemaVersion, e.content";
+
+    /**
+     * Select expression for the {@link DoxMeta} of the record aliased
+     * <code>e</code> followed by its stored content.
+     */
+    public static final String META_WITH_CONTENT = "new net.trajano.doxdb.DoxMeta(e.doxRecordId, e.doxId, e.version, e.collection.name, e.collectionSchemaVersion, e.accessKey, e.createdBy.name, e.createdOn, e.lastUpdatedBy.name, e.lastUpdatedOn), e.content";
+
+    /**
+     * Named query {@value #RANGE_CHECKSUM}. Count, sum of the
+     * {@link RangeChecksum#hash(long, int)} and highest record ID of the
+     * records of the collection in the record ID range whose index names match
+     * the {@link #indexNamePattern(String)} of an index.
+     */
+    public static final String RANGE_CHECKSUM = "rangeChecksum";
+
     /**
      * Named query {@value #READ_ALL_BY_COLLECTION_NAME};
      */
     public static final String READ_ALL_BY_COLLECTION_NAME = "readAllByCollectionName";
 
+    /**
+     * Named query {@value #READ_ALL_BY_COLLECTION_NAME_AFTER}. Records of the
+     * collection after the given record ID in order.
+     */
+    public static final String READ_ALL_BY_COLLECTION_NAME_AFTER = "readAllByCollectionNameAfter";
+
+    /**
+     * Named query {@value #READ_ALL_BY_COLLECTION_NAME_RANGE}. Records of the
+     * collection in the record ID range.
+     */
+    public static final String READ_ALL_BY_COLLECTION_NAME_RANGE = "readAllByCollectionNameRange";
+
     /**
      * Named query {@value #READ_BY_COLLECTION_NAME_DOX_ID};
      */
@@ -97,21 +225,148 @@ public class Dox {
      */
     public static final String READ_META_BY_COLLECTION_NAME_DOX_ID = "readMetaBySchemaNameDoxID";
 
+    /**
+     * Named query {@value #READ_META_BY_COLLECTION_NAME_DOX_IDS}. Meta data of
+     * the records of the collection with the given Dox IDs.
+     */
+    public static final String READ_META_BY_COLLECTION_NAME_DOX_IDS = "readMetaByCollectionNameDoxIds";
+
+    /**
+     * Named query {@value #READ_MISSING_LOOKUP}. Records of the collection in
+     * the record ID range that do not have a {@link DoxLookup} row for the
+     * lookup name.
+     */
+    public static final String READ_MISSING_LOOKUP = "readMissingLookup";
+
+    /**
+     * Named query {@value #READ_MISSING_UNIQUE}. Records of the collection in
+     * the record ID range that do not have a {@link DoxUnique} row for the
+     * lookup name.
+     */
+    public static final String READ_MISSING_UNIQUE = "readMissingUnique";
+
+    /**
+     * Named query {@value #READ_RECORD_ID_AFTER}. Record IDs of the collection
+     * after the given record ID in order.
+     */
+    public static final String READ_RECORD_ID_AFTER = "readRecordIdAfter";
+
+    /**
+     * Query parameter for the last record ID that is read.
+     */
+    public static final String UNTIL = "until";
+
+    /**
+     * Named query {@value #UPDATE_IMPORTED_BY_ID_VERSION}. Replaces the
+     * content and meta data of a record with an imported one including its
+     * version, which the entity would otherwise increment.
+     */
+    public static final String UPDATE_IMPORTED_BY_ID_VERSION = "updateImportedByIdVersion";
+
+    /**
+     * Named query {@value #UPDATE_INDEX_NAMES_BY_ID}. Records the index names
+     * of a record without changing its version.
+     */
+    public static final String UPDATE_INDEX_NAMES_BY_ID = "updateIndexNamesById";
+
+    /**
+     * Named query {@value #UPDATE_VERSION_BY_ID}. Sets the version of an
+     * imported record once it is inserted as the entity always starts at the
+     * first version.
+     */
+    public static final String UPDATE_VERSION_BY_ID = "updateVersionById";
+
+    /**
+     * Shared decoder context.
+     */
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder()
+        .build();
+
+    /**
+     * Shared encoder context.
+     */
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder()
+        .build();
+
+    /**
+     * Decodes stored content as a {@link JsonObject}. This is used when the
+     * content was selected without loading the entity.
+     *
+     * @param codec
+     *            codec that decodes the stored content
+     * @param content
+     *            stored content
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @return content
+     */
+    public static JsonObject decodeContent(final DoxContentCodec codec,
+        final byte[] content,
+        final DoxProjection projection) {
+
+        if (projection == null) {
+            return JsonBsonCodec.decode(codec.decode(content));
+        }
+        final BsonDocument projected = projection.project(codec.decode(content));
+        return JsonBsonCodec.readObject(new BsonDocumentReader(projected));
+    }
+
+    /**
+     * Builds the pattern that matches the {@link #indexNames(IndexView[])} of
+     * the records that are in an index.
+     *
+     * @param index
+     *            index name
+     * @return pattern for a <code>like</code> with <code>\</code> as the
+     *         escape character
+     */
+    public static String indexNamePattern(final String index) {
+
+        return "%," + index.replace("\\", "\\\\")
+            .replace("%", "\\%")
+            .replace("_", "\\_") + ",%";
+    }
+
+    /**
+     * Builds the index names of a record from the views the indexer made for
+     * it. The names are sorted and each one is enclosed in commas so a single
+     * name can be matched with {@link #indexNamePattern(String)}.
+     *
+     * @param indexViews
+     *            views
+     * @return index names
+     */
+    public static String indexNames(final IndexView[] indexViews) {
+
+        final Set<String> names = new TreeSet<>();
+        for (final IndexView indexView : indexViews) {
+            names.add(indexView.getIndex());
+        }
+        final StringBuilder b = new StringBuilder(",");
+        for (final String name : names) {
+            b.append(name)
+                .append(',');
+        }
+        return b.toString();
+    }
+
     @Basic(fetch = FetchType.EAGER)
     @Column(nullable = true,
         length = DoxLength.ACCESS_KEY_LENGTH)
     private byte[] accessKey;
 
-    @Column(nullable = false,
-        updatable = false,
-        length = DoxLength.COLLECTION_NAME_LENGTH)
-    private String collectionName;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "collectionId",
+        nullable = false,
+        updatable = false)
+    private DoxDictionary collection;
 
     @Column(nullable = false)
     private int collectionSchemaVersion;
 
     /**
-     * Content stored as a serialized BSON object.
+     * Content stored as a serialized BSON object. It may be compressed by the
+     * {@link DoxContentCodec}.
      */
     @Lob
     @Basic(fetch = FetchType.LAZY)
@@ -119,10 +374,44 @@ public class Dox {
         length = DoxLength.CONTENT_LENGTH)
     private byte[] content;
 
-    @Column(nullable = false,
-        updatable = false,
-        length = DoxLength.PRINCIPAL_LENGTH)
-    private String createdBy;
+    /**
+     * Codec used to encode the content when it is set and to decode it. The
+     * default cannot decode content compressed with a preset dictionary.
+     */
+    @Transient
+    private DoxContentCodec contentCodec = DoxContentCodec.NONE;
+
+    /**
+     * Memoized decoded content as BSON.
+     */
+    @Transient
+    private BsonDocument decodedBson;
+
+    /**
+     * The content that the memoized values were decoded from. This is compared
+     * by identity so the memoized values are discarded when the content is
+     * replaced by a setter or by the persistence provider.
+     */
+    @Transient
+    private byte[] decodedFrom;
+
+    /**
+     * Memoized decoded content as JSON.
+     */
+    @Transient
+    private JsonObject decodedJson;
+
+    /**
+     * Memoized decoded content as a JSON string without the reserved fields.
+     */
+    @Transient
+    private String decodedJsonContent;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "createdById",
+        nullable = false,
+        updatable = false)
+    private DoxDictionary createdBy;
 
     @Column(nullable = false,
         updatable = false)
@@ -135,12 +424,28 @@ public class Dox {
     private String doxId;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @TableGenerator(name = DoxSequence.DOX_GENERATOR,
+        table = DoxSequence.TABLE,
+        pkColumnName = DoxSequence.PK_COLUMN_NAME,
+        valueColumnName = DoxSequence.VALUE_COLUMN_NAME,
+        pkColumnValue = DoxSequence.DOX_PK_COLUMN_VALUE,
+        allocationSize = DoxSequence.DOX_ALLOCATION_SIZE)
+    @GeneratedValue(strategy = GenerationType.TABLE,
+        generator = DoxSequence.DOX_GENERATOR)
     private long doxRecordId;
 
-    @Column(nullable = false,
-        length = DoxLength.PRINCIPAL_LENGTH)
-    private String lastUpdatedBy;
+    /**
+     * Names of the indexes the record was last sent to, see
+     * {@link #indexNames(IndexView[])}. <code>null</code> if it is not known.
+     */
+    @Column(nullable = true,
+        length = DoxLength.INDEX_NAMES_LENGTH)
+    private String indexNames;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "lastUpdatedById",
+        nullable = false)
+    private DoxDictionary lastUpdatedBy;
 
     @Column(nullable = false)
     @Temporal(TemporalType.TIMESTAMP)
@@ -164,19 +469,19 @@ public class Dox {
      *            when it was deleted
      * @return tombstone data
      */
-    public DoxTombstone buildTombstone(final Principal deletedBy,
+    public DoxTombstone buildTombstone(final DoxDictionary deletedBy,
         final Date deletedOn) {
 
         final DoxTombstone tombstone = new DoxTombstone();
         tombstone.setContent(content);
         tombstone.setCreatedBy(createdBy);
         tombstone.setCreatedOn(createdOn);
-        tombstone.setDeletedBy(deletedBy.getName());
+        tombstone.setDeletedBy(deletedBy);
         tombstone.setDeletedOn(deletedOn);
         tombstone.setDoxId(getDoxId());
         tombstone.setLastUpdatedBy(lastUpdatedBy);
         tombstone.setLastUpdatedOn(lastUpdatedOn);
-        tombstone.setSchemaName(collectionName);
+        tombstone.setCollection(collection);
         tombstone.setSchemaVersion(collectionSchemaVersion);
         return tombstone;
     }
@@ -186,9 +491,14 @@ public class Dox {
         return accessKey;
     }
 
+    public DoxDictionary getCollection() {
+
+        return collection;
+    }
+
     public String getCollectionName() {
 
-        return collectionName;
+        return collection.getName();
     }
 
     public int getCollectionSchemaVersion() {
@@ -196,10 +506,34 @@ public class Dox {
         return collectionSchemaVersion;
     }
 
+    /**
+     * Discards the memoized values if the content has changed since they were
+     * decoded.
+     */
+    private void checkDecoded() {
+
+        if (decodedFrom != content) {
+            decodedFrom = content;
+            decodedBson = null;
+            decodedJson = null;
+            decodedJsonContent = null;
+        }
+    }
+
+    /**
+     * Gets the content as a {@link BsonDocument} with the <code>_id</code> and
+     * <code>_version</code> fields. The decoded document is memoized, a copy is
+     * returned as {@link BsonDocument} is mutable.
+     *
+     * @return content
+     */
     public BsonDocument getContent() {
 
-        final BsonDocument decoded = new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(content)), DecoderContext.builder()
-            .build());
+        checkDecoded();
+        if (decodedBson == null) {
+            decodedBson = BSON_DOCUMENT_CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(contentCodec.decode(content))), DECODER_CONTEXT);
+        }
+        final BsonDocument decoded = decodedBson.clone();
         decoded.put("_id", new BsonString(doxId.toString()));
         decoded.put("_version", new BsonInt32(version));
         return decoded;
@@ -207,7 +541,7 @@ public class Dox {
 
     public Principal getCreatedBy() {
 
-        return new DoxPrincipal(createdBy);
+        return new DoxPrincipal(createdBy.getName());
     }
 
     public Date getCreatedOn() {
@@ -225,25 +559,73 @@ public class Dox {
         return doxRecordId;
     }
 
+    public String getIndexNames() {
+
+        return indexNames;
+    }
+
+    /**
+     * Gets the content as a JSON string without the <code>_id</code> and
+     * <code>_version</code> fields. The string is memoized.
+     *
+     * @return content
+     */
     public String getJsonContent() {
 
-        final BsonDocument decoded = new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(content)), DecoderContext.builder()
-            .build());
-        decoded.remove("_id");
-        decoded.remove("_version");
-        return decoded.toJson();
+        checkDecoded();
+        if (decodedJsonContent != null) {
+            return decodedJsonContent;
+        }
+        final JsonObject decoded = getJsonObject();
+        if (!decoded.containsKey("_id") && !decoded.containsKey("_version")) {
+            decodedJsonContent = decoded.toString();
+            return decodedJsonContent;
+        }
+        final JsonObjectBuilder b = Json.createObjectBuilder();
+        for (final Map.Entry<String, JsonValue> entry : decoded.entrySet()) {
+            if (!"_id".equals(entry.getKey()) && !"_version".equals(entry.getKey())) {
+                b.add(entry.getKey(), entry.getValue());
+            }
+        }
+        decodedJsonContent = b.build().toString();
+        return decodedJsonContent;
     }
 
+    /**
+     * Gets the content as a {@link JsonObject}. The stored BSON is read
+     * directly into the JSON object model. The object is immutable so it is
+     * memoized and shared.
+     *
+     * @return content
+     */
     public JsonObject getJsonObject() {
 
-        final BsonDocument decoded = new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(content)), DecoderContext.builder()
-            .build());
-        return Json.createReader(new StringReader(decoded.toJson())).readObject();
+        checkDecoded();
+        if (decodedJson == null) {
+            decodedJson = JsonBsonCodec.decode(contentCodec.decode(content));
+        }
+        return decodedJson;
+    }
+
+    /**
+     * Gets the content as a {@link JsonObject} containing only the fields in
+     * the projection. Only the requested fields are decoded.
+     *
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @return projected content
+     */
+    public JsonObject getJsonObject(final DoxProjection projection) {
+
+        if (projection == null) {
+            return getJsonObject();
+        }
+        return decodeContent(contentCodec, content, projection);
     }
 
     public Principal getLastUpdatedBy() {
 
-        return new DoxPrincipal(lastUpdatedBy);
+        return new DoxPrincipal(lastUpdatedBy.getName());
     }
 
     public Date getLastUpdatedOn() {
@@ -261,9 +643,9 @@ public class Dox {
         this.accessKey = accessKey;
     }
 
-    public void setCollectionName(final String collectionName) {
+    public void setCollection(final DoxDictionary collection) {
 
-        this.collectionName = collectionName;
+        this.collection = collection;
     }
 
     public void setCollectionSchemaVersion(final int collectionSchemaVersion) {
@@ -273,10 +655,13 @@ public class Dox {
 
     public void setContent(final BsonDocument bson) {
 
-        final BasicOutputBuffer basicOutputBuffer = new BasicOutputBuffer();
-        new BsonDocumentCodec().encode(new BsonBinaryWriter(basicOutputBuffer), bson, EncoderContext.builder()
-            .build());
-        content = basicOutputBuffer.toByteArray();
+        final BasicOutputBuffer basicOutputBuffer = BsonBufferPool.acquire();
+        try {
+            BSON_DOCUMENT_CODEC.encode(new BsonBinaryWriter(basicOutputBuffer), bson, ENCODER_CONTEXT);
+            content = contentCodec.encode(basicOutputBuffer.toByteArray());
+        } finally {
+            BsonBufferPool.release(basicOutputBuffer);
+        }
     }
 
     /**
@@ -287,10 +672,7 @@ public class Dox {
      */
     public void setContent(final JsonObject content) {
 
-        final BasicOutputBuffer basicOutputBuffer = new BasicOutputBuffer();
-        new BsonDocumentCodec().encode(new BsonBinaryWriter(basicOutputBuffer), BsonDocument.parse(content.toString()), EncoderContext.builder()
-            .build());
-        this.content = basicOutputBuffer.toByteArray();
+        this.content = contentCodec.encode(JsonBsonCodec.encode(content));
     }
 
     /**
@@ -301,16 +683,36 @@ public class Dox {
      */
     public void setContent(final String content) {
 
-        final BasicOutputBuffer basicOutputBuffer = new BasicOutputBuffer();
-        new BsonDocumentCodec().encode(new BsonBinaryWriter(basicOutputBuffer), BsonDocument.parse(content), EncoderContext.builder()
-            .build());
-        this.content = basicOutputBuffer.toByteArray();
+        setContent(Json.createReader(new StringReader(content)).readObject());
+    }
+
+    /**
+     * Sets the content value where the content is already encoded with the
+     * content codec. This lets the content be encoded on another thread.
+     *
+     * @param content
+     *            encoded content
+     */
+    public void setEncodedContent(final byte[] content) {
+
+        this.content = content;
     }
 
-    public void setCreatedBy(final Principal createdBy) {
+    /**
+     * Sets the codec used to encode and decode the content. This must be set
+     * before the content is set or read.
+     *
+     * @param contentCodec
+     *            content codec
+     */
+    public void setContentCodec(final DoxContentCodec contentCodec) {
+
+        this.contentCodec = contentCodec;
+    }
 
-        this.createdBy = createdBy.getName();
+    public void setCreatedBy(final DoxDictionary createdBy) {
 
+        this.createdBy = createdBy;
     }
 
     public void setCreatedOn(final Date createdOn) {
@@ -336,10 +738,14 @@ public class Dox {
         doxRecordId = id;
     }
 
-    public void setLastUpdatedBy(final Principal lastUpdatedBy) {
+    public void setIndexNames(final String indexNames) {
+
+        this.indexNames = indexNames;
+    }
 
-        this.lastUpdatedBy = lastUpdatedBy.getName();
+    public void setLastUpdatedBy(final DoxDictionary lastUpdatedBy) {
 
+        this.lastUpdatedBy = lastUpdatedBy;
     }
 
     public void setLastUpdatedOn(final Date lastUpdatedOn) {
@@ -0,0 +1,127 @@
+package net.trajano.doxdb;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.LockModeType;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.UniqueConstraint;
+
+import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
+
+/**
+ * <p>
+ * Maps the names that are repeated on every row such as collection names,
+ * lookup names and principal names to small integer surrogate keys. The other
+ * tables refer to the surrogate rather than storing the name so their rows
+ * and indices are smaller.
+ * </p>
+ * <p>
+ * Entries are never updated or removed once created. Instances are cached and
+ * shared by {@link net.trajano.doxdb.ejb.DoxDictionaryBean} so they must not be
+ * modified.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Entity
+@Table(
+    uniqueConstraints = @UniqueConstraint(columnNames = {
+        "kind",
+        "name"
+}) )
+@NamedQueries({
+    @NamedQuery(name = DoxDictionary.READ_BY_KIND_NAME,
+        query = "from DoxDictionary e where e.kind = :kind and e.name = :name",
+        lockMode = LockModeType.NONE)
+})
+public class DoxDictionary {
+
+    /**
+     * Kind for collection names.
+     */
+    public static final int COLLECTION = 1;
+
+    /**
+     * Kind for lookup names.
+     */
+    public static final int LOOKUP = 2;
+
+    /**
+     * Kind for principal names.
+     */
+    public static final int PRINCIPAL = 3;
+
+    /**
+     * Named query {@value #READ_BY_KIND_NAME};
+     */
+    public static final String READ_BY_KIND_NAME = "readDictionaryByKindName";
+
+    @Id
+    @TableGenerator(name = DoxSequence.DICTIONARY_GENERATOR,
+        table = DoxSequence.TABLE,
+        pkColumnName = DoxSequence.PK_COLUMN_NAME,
+        valueColumnName = DoxSequence.VALUE_COLUMN_NAME,
+        pkColumnValue = DoxSequence.DICTIONARY_PK_COLUMN_VALUE,
+        allocationSize = DoxSequence.DICTIONARY_ALLOCATION_SIZE)
+    @GeneratedValue(strategy = GenerationType.TABLE,
+        generator = DoxSequence.DICTIONARY_GENERATOR)
+    private int id;
+
+    @Column(nullable = false,
+        updatable = false)
+    private int kind;
+
+    @Column(nullable = false,
+        updatable = false,
+        length = DoxLength.PRINCIPAL_LENGTH)
+    private String name;
+
+    /**
+     * Constructs DoxDictionary. Used by JPA.
+     */
+    protected DoxDictionary() {
+
+    }
+
+    /**
+     * Constructs a new entry.
+     *
+     * @param kind
+     *            kind of name
+     * @param name
+     *            name
+     */
+    public DoxDictionary(final int kind,
+        final String name) {
+        this.kind = kind;
+        this.name = name;
+    }
+
+    public int getId() {
+
+        return id;
+    }
+
+    public int getKind() {
+
+        return kind;
+    }
+
+    public String getName() {
+
+        return name;
+    }
+
+    @Override
+    public String toString() {
+
+        return name;
+    }
+}
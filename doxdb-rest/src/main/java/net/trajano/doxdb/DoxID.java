@@ -5,10 +5,26 @@ import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * An generated ID object. Unlike a UUID, it has less character restrictions. It
- * is a {@value #LENGTH} character random number string. Implementation wise it
- * uses a less secure but more performant {@link ThreadLocalRandom} generator to
- * generate new values.
+ * <p>
+ * An generated ID object. Unlike a UUID, it has less character restrictions.
+ * Its string form is {@value #LENGTH} characters of lower case letters or
+ * numbers. Implementation wise it uses a less secure but more performant
+ * {@link ThreadLocalRandom} generator to generate new values.
+ * </p>
+ * <p>
+ * Generated IDs are 128-bit values with a 48-bit millisecond timestamp
+ * prefix followed by 80 random bits similar to a ULID. The string form is the
+ * value in lower case hexadecimal so IDs generated close together sort close
+ * together which keeps inserts into the indices on the ID localized. The
+ * value can be obtained as {@value #BINARY_LENGTH} bytes using
+ * {@link #toByteArray()}.
+ * </p>
+ * <p>
+ * IDs that were generated by earlier versions are random base 36 strings.
+ * These are still accepted and kept as characters. A string that consists
+ * only of hexadecimal digits is always parsed into the binary form so the
+ * two forms never represent the same string.
+ * </p>
  *
  * @author Archimedes
  */
@@ -29,6 +45,16 @@ public final class DoxID implements
      */
     private static final boolean[] ALLOWED_MAP;
 
+    /**
+     * Size of the binary form in bytes.
+     */
+    public static final int BINARY_LENGTH = 16;
+
+    /**
+     * Hexadecimal digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     /**
      * Size of the ID in bytes.
      */
@@ -37,7 +63,7 @@ public final class DoxID implements
     /**
      * bare_field_name.
      */
-    private static final long serialVersionUID = -1726922680838907757L;
+    private static final long serialVersionUID = 4213620373049658113L;
 
     static {
         ALLOWED = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
@@ -48,33 +74,103 @@ public final class DoxID implements
     }
 
     /**
-     * Generate a new instance with a randomized ID value.
+     * Finalization step of MurmurHash3 which mixes all the bits of the input
+     * into the output.
+     *
+     * @param k
+     *            value
+     * @return mixed value
+     */
+    private static long fmix64(final long k) {
+
+        long h = k;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Generate a new instance with a time ordered ID value.
      *
      * @return
      */
     public static DoxID generate() {
 
-        return new DoxID();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new DoxID(System.currentTimeMillis() << 16 | random.nextInt() & 0xffff, random.nextLong());
 
     }
 
-    private final char[] b = new char[LENGTH];
+    /**
+     * Converts a hexadecimal digit to its value.
+     *
+     * @param c
+     *            character
+     * @return value or -1 if it is not a lower case hexadecimal digit.
+     */
+    private static int hexValue(final char c) {
+
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Most significant 64 bits of the binary form.
+     */
+    private final long high;
+
+    /**
+     * Characters of an ID in the earlier random form. This is
+     * <code>null</code> for the binary form.
+     */
+    private final char[] legacy;
+
+    /**
+     * Least significant 64 bits of the binary form.
+     */
+    private final long low;
 
     /**
      * Calculated hashcode value.
      */
-    private final int hash;
+    private transient int hash;
 
-    private DoxID() {
+    /**
+     * Constructs the ID from its binary form.
+     *
+     * @param bytes
+     *            {@value #BINARY_LENGTH} bytes
+     */
+    public DoxID(final byte[] bytes) {
 
-        final ThreadLocalRandom random = ThreadLocalRandom.current();
-        int currentHash = LENGTH;
-        for (int i = 0; i < LENGTH; ++i) {
-            final int rand = random.nextInt(0, ALLOWED.length);
-            b[i] = ALLOWED[rand];
-            currentHash += b[i];
+        if (bytes.length != BINARY_LENGTH) {
+            throw new IllegalArgumentException("input needs to be " + BINARY_LENGTH + " in length.");
         }
-        hash = currentHash;
+        long h = 0;
+        long l = 0;
+        for (int i = 0; i < 8; ++i) {
+            h = h << 8 | bytes[i] & 0xff;
+            l = l << 8 | bytes[i + 8] & 0xff;
+        }
+        high = h;
+        low = l;
+        legacy = null;
+    }
+
+    private DoxID(final long high,
+        final long low) {
+
+        this.high = high;
+        this.low = low;
+        legacy = null;
 
     }
 
@@ -83,18 +179,32 @@ public final class DoxID implements
         if (s.length() != LENGTH) {
             throw new IllegalArgumentException("input needs to be " + LENGTH + " in length.");
         }
-        int currentHash = LENGTH;
         final char[] chars = s.toCharArray();
+        long h = 0;
+        long l = 0;
+        boolean hex = true;
         for (int i = 0; i < LENGTH; ++i) {
-            if (ALLOWED_MAP[chars[i]]) {
-                b[i] = chars[i];
-                currentHash += chars[i];
-            } else {
+            if (chars[i] >= ALLOWED_MAP.length || !ALLOWED_MAP[chars[i]]) {
                 throw new IllegalArgumentException("Invalid character for DoxID");
             }
-
+            final int v = hexValue(chars[i]);
+            if (v == -1) {
+                hex = false;
+            } else if (i < LENGTH / 2) {
+                h = h << 4 | v;
+            } else {
+                l = l << 4 | v;
+            }
+        }
+        if (hex) {
+            high = h;
+            low = l;
+            legacy = null;
+        } else {
+            high = 0;
+            low = 0;
+            legacy = chars;
         }
-        hash = currentHash;
     }
 
     @Override
@@ -110,15 +220,75 @@ public final class DoxID implements
             return false;
         }
         final DoxID other = (DoxID) obj;
-        return Arrays.equals(b, other.b);
+        return high == other.high && low == other.low && Arrays.equals(legacy, other.legacy);
+    }
+
+    /**
+     * Gets the time the ID was generated.
+     *
+     * @return milliseconds since the epoch or <code>-1</code> if the ID is in
+     *         the earlier random form.
+     */
+    public long getTimestamp() {
+
+        if (legacy != null) {
+            return -1;
+        }
+        return high >>> 16;
     }
 
+    /**
+     * The hash code mixes all the bits of the ID so it spreads evenly in hash
+     * tables.
+     */
     @Override
     public int hashCode() {
 
+        if (hash == 0) {
+            long h;
+            if (legacy == null) {
+                h = fmix64(high) ^ fmix64(low + 0x9e3779b97f4a7c15L);
+            } else {
+                h = LENGTH;
+                for (final char c : legacy) {
+                    h = fmix64(h ^ c);
+                }
+            }
+            hash = (int) (h ^ h >>> 32);
+        }
         return hash;
     }
 
+    /**
+     * Checks if the ID is in the binary form.
+     *
+     * @return <code>true</code> if the ID has a binary form.
+     */
+    public boolean isBinary() {
+
+        return legacy == null;
+    }
+
+    /**
+     * Gets the binary form of the ID.
+     *
+     * @return {@value #BINARY_LENGTH} bytes
+     * @throws IllegalStateException
+     *             if the ID is in the earlier random form
+     */
+    public byte[] toByteArray() {
+
+        if (legacy != null) {
+            throw new IllegalStateException("DoxID " + toString() + " does not have a binary form");
+        }
+        final byte[] bytes = new byte[BINARY_LENGTH];
+        for (int i = 0; i < 8; ++i) {
+            bytes[i] = (byte) (high >>> 56 - i * 8);
+            bytes[i + 8] = (byte) (low >>> 56 - i * 8);
+        }
+        return bytes;
+    }
+
     /**
      * This is the string representation of the key. This is normally used for
      * persisting.
@@ -126,6 +296,14 @@ public final class DoxID implements
     @Override
     public String toString() {
 
-        return new String(b);
+        if (legacy != null) {
+            return new String(legacy);
+        }
+        final char[] chars = new char[LENGTH];
+        for (int i = 0; i < LENGTH / 2; ++i) {
+            chars[i] = HEX[(int) (high >>> 60 - i * 4) & 0xf];
+            chars[i + LENGTH / 2] = HEX[(int) (low >>> 60 - i * 4) & 0xf];
+        }
+        return new String(chars);
     }
 }
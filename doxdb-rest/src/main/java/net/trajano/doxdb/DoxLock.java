@@ -17,11 +17,12 @@ import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.UniqueConstraint;
 
-import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
 import net.trajano.doxdb.internal.DoxPrincipal;
 
 @Entity
@@ -34,25 +35,48 @@ import net.trajano.doxdb.internal.DoxPrincipal;
 }) )
 @NamedQueries({
     @NamedQuery(name = DoxLock.READ_LOCK_BY_COLLECTION_NAME_DOX_ID,
-        query = "from DoxLock e where e.lockedDox.collectionName = :collectionName and e.lockedDox.doxId = :doxId",
+        query = "from DoxLock e where e.lockedDox.collection = :collection and e.lockedDox.doxId = :doxId and (e.expiresOn is null or e.expiresOn > :now)",
+        lockMode = LockModeType.NONE),
+
+    @NamedQuery(name = DoxLock.READ_LOCK_FOR_UPDATE_BY_COLLECTION_NAME_DOX_ID_LOCK_ID_VERSION,
+        query = "from DoxLock e join fetch e.lockedDox where e.lockedDox.collection = :collection and e.lockedDox.doxId = :doxId and e.lockedDox.version = :version and e.lockId = :lockId and (e.expiresOn is null or e.expiresOn > :now)",
         lockMode = LockModeType.NONE),
 
     @NamedQuery(name = DoxLock.REMOVE_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID,
-        query = "delete from DoxLock e where e.lockedDox.collectionName = :collectionName and e.lockedDox.doxId = :doxId and e.lockId = :lockId"),
+        query = "delete from DoxLock e where e.lockedDox.collection = :collection and e.lockedDox.doxId = :doxId and e.lockId = :lockId"),
+
+    @NamedQuery(name = DoxLock.REMOVE_EXPIRED_LOCK_FOR_DOX,
+        query = "delete from DoxLock e where e.lockedDox = :dox and e.expiresOn <= :now"),
+
+    @NamedQuery(name = DoxLock.REMOVE_EXPIRED_LOCKS,
+        query = "delete from DoxLock e where e.expiresOn <= :now"),
+
+    @NamedQuery(name = DoxLock.RENEW_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID,
+        query = "update DoxLock e set e.expiresOn = :expiresOn where e.lockedDox.collection = :collection and e.lockedDox.doxId = :doxId and e.lockId = :lockId and (e.expiresOn is null or e.expiresOn > :now)"),
 
     @NamedQuery(name = DoxLock.READ_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID,
-        query = "from DoxLock e where e.lockedDox.collectionName = :collectionName and e.lockedDox.doxId = :doxId and e.lockId = :lockId",
+        query = "from DoxLock e where e.lockedDox.collection = :collection and e.lockedDox.doxId = :doxId and e.lockId = :lockId and (e.expiresOn is null or e.expiresOn > :now)",
         lockMode = LockModeType.NONE)
 
 })
 public class DoxLock {
 
-    public static final String COLLECTION_NAME = "collectionName";
+    public static final String COLLECTION = "collection";
+
+    public static final String DOX = "dox";
 
     public static final String DOXID = "doxId";
 
+    public static final String EXPIRES_ON = "expiresOn";
+
     public static final String LOCKID = "lockId";
 
+    /**
+     * Query parameter for the current time. Locks that expire at or before it
+     * are not held.
+     */
+    public static final String NOW = "now";
+
     /**
      * Named query {@value #READ_LOCK_BY_COLLECTION_NAME_DOX_ID};
      */
@@ -63,22 +87,61 @@ public class DoxLock {
      */
     public static final String READ_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID = "readLockByCollectionNameDoxIDLockId";
 
+    /**
+     * Named query {@value #READ_LOCK_FOR_UPDATE_BY_COLLECTION_NAME_DOX_ID_LOCK_ID_VERSION}.
+     * Reads the lock with the record it locks only if the record is at the
+     * given version so the lock and the version are checked in one query.
+     */
+    public static final String READ_LOCK_FOR_UPDATE_BY_COLLECTION_NAME_DOX_ID_LOCK_ID_VERSION = "readLockForUpdateByCollectionNameDoxIDLockIdVersion";
+
     /**
      * Named query {@value #REMOVE_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID};
      */
     public static final String REMOVE_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID = "removeLockByCollectionNameDoxIDLockId";
 
+    /**
+     * Named query {@value #REMOVE_EXPIRED_LOCK_FOR_DOX};
+     */
+    public static final String REMOVE_EXPIRED_LOCK_FOR_DOX = "removeExpiredLockForDox";
+
+    /**
+     * Named query {@value #REMOVE_EXPIRED_LOCKS};
+     */
+    public static final String REMOVE_EXPIRED_LOCKS = "removeExpiredLocks";
+
+    /**
+     * Named query {@value #RENEW_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID};
+     */
+    public static final String RENEW_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID = "renewLockByCollectionNameDoxIDLockId";
+
+    public static final String VERSION = "version";
+
+    /**
+     * Time the lock expires, <code>null</code> if it does not expire.
+     */
+    @Column(nullable = true)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date expiresOn;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @TableGenerator(name = DoxSequence.LOCK_GENERATOR,
+        table = DoxSequence.TABLE,
+        pkColumnName = DoxSequence.PK_COLUMN_NAME,
+        valueColumnName = DoxSequence.VALUE_COLUMN_NAME,
+        pkColumnValue = DoxSequence.LOCK_PK_COLUMN_VALUE,
+        allocationSize = DoxSequence.LOCK_ALLOCATION_SIZE)
+    @GeneratedValue(strategy = GenerationType.TABLE,
+        generator = DoxSequence.LOCK_GENERATOR)
     private long id;
 
     /**
      * Principal of the person that requested the lock.
      */
-    @Column(nullable = false,
-        updatable = false,
-        length = DoxLength.PRINCIPAL_LENGTH)
-    private String lockedBy;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "lockedById",
+        nullable = false,
+        updatable = false)
+    private DoxDictionary lockedBy;
 
     @ManyToOne(fetch = FetchType.LAZY,
         optional = false)
@@ -105,9 +168,14 @@ public class DoxLock {
         return lockId;
     }
 
+    public Date getExpiresOn() {
+
+        return expiresOn;
+    }
+
     public Principal getLockedBy() {
 
-        return new DoxPrincipal(lockedBy);
+        return new DoxPrincipal(lockedBy.getName());
     }
 
     public Dox getLockedDox() {
@@ -125,13 +193,12 @@ public class DoxLock {
         return lockId;
     }
 
-    public void setLockedBy(final Principal lockedBy) {
-
-        this.lockedBy = lockedBy.getName();
+    public void setExpiresOn(final Date expiresOn) {
 
+        this.expiresOn = expiresOn;
     }
 
-    public void setLockedBy(final String lockedBy) {
+    public void setLockedBy(final DoxDictionary lockedBy) {
 
         this.lockedBy = lockedBy;
     }
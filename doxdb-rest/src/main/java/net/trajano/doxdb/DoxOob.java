@@ -9,18 +9,28 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.UniqueConstraint;
 
 import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
 
 /**
- * Out of band data for Dox.
+ * Out of band data for Dox. The content is never loaded through the entity,
+ * it is streamed to and from the CONTENT column with JDBC so an attachment
+ * does not have to fit in memory. The entity only writes an empty content
+ * when the row is created. When an {@link net.trajano.doxdb.schema.OobStoreType}
+ * is configured the content is kept in the file system by its hash instead and
+ * the column stays empty.
  *
  * @author Archimedes Trajano
  */
@@ -29,14 +39,94 @@ import net.trajano.doxdb.ejb.internal.DoxLength;
     uniqueConstraints = @UniqueConstraint(columnNames = {
         "parentId",
         "oobName"
-}) )
+}) ,
+    indexes = @Index(columnList = "contentHash") )
+@NamedQueries({
+    @NamedQuery(name = DoxOob.READ_META_BY_COLLECTION_NAME_DOX_ID_OOB_NAME,
+        query = "select new net.trajano.doxdb.DoxOobMeta(e.id, e.oobName, e.contentType, e.contentLength, e.contentHash, e.lastUpdatedBy, e.lastUpdatedOn) from DoxOob e where e.parentDox.collection = :collection and e.parentDox.doxId = :doxId and e.oobName = :oobName"),
+
+    @NamedQuery(name = DoxOob.READ_CONTENT_HASHES_IN,
+        query = "select distinct e.contentHash from DoxOob e where e.contentHash in :contentHashes"),
+
+    @NamedQuery(name = DoxOob.REMOVE_BY_ID,
+        query = "delete from DoxOob e where e.id = :id"),
+
+    @NamedQuery(name = DoxOob.REMOVE_BY_PARENT,
+        query = "delete from DoxOob e where e.parentDox = :parentDox"),
+
+    @NamedQuery(name = DoxOob.UPDATE_CONTENT_META_BY_ID,
+        query = "update DoxOob e set e.contentType = :contentType, e.contentLength = :contentLength, e.contentHash = :contentHash, e.lastUpdatedBy = :lastUpdatedBy, e.lastUpdatedOn = :lastUpdatedOn where e.id = :id")
+})
 public class DoxOob {
 
+    public static final String COLLECTION = "collection";
+
+    public static final String CONTENT_HASH = "contentHash";
+
+    public static final String CONTENT_HASHES = "contentHashes";
+
+    public static final String CONTENT_LENGTH = "contentLength";
+
+    public static final String CONTENT_TYPE = "contentType";
+
+    public static final String DOXID = "doxId";
+
+    public static final String ID = "id";
+
+    public static final String LAST_UPDATED_BY = "lastUpdatedBy";
+
+    public static final String LAST_UPDATED_ON = "lastUpdatedOn";
+
+    public static final String OOB_NAME = "oobName";
+
+    public static final String PARENT_DOX = "parentDox";
+
+    /**
+     * Named query {@value #READ_CONTENT_HASHES_IN};
+     */
+    public static final String READ_CONTENT_HASHES_IN = "oobReadContentHashesIn";
+
+    /**
+     * Named query {@value #READ_META_BY_COLLECTION_NAME_DOX_ID_OOB_NAME};
+     */
+    public static final String READ_META_BY_COLLECTION_NAME_DOX_ID_OOB_NAME = "oobReadMetaByCollectionNameDoxIdOobName";
+
+    /**
+     * Named query {@value #REMOVE_BY_ID};
+     */
+    public static final String REMOVE_BY_ID = "oobRemoveById";
+
+    /**
+     * Named query {@value #REMOVE_BY_PARENT}. Removes the attachments of a
+     * record.
+     */
+    public static final String REMOVE_BY_PARENT = "oobRemoveByParent";
+
+    /**
+     * Named query {@value #UPDATE_CONTENT_META_BY_ID};
+     */
+    public static final String UPDATE_CONTENT_META_BY_ID = "oobUpdateContentMetaById";
+
     @Lob
     @Basic(fetch = FetchType.LAZY)
     @Column(nullable = false,
-        length = DoxLength.CONTENT_LENGTH)
-    private byte[] content;
+        updatable = false,
+        length = DoxLength.OOB_LENGTH)
+    private byte[] content = new byte[0];
+
+    /**
+     * SHA-256 of the content in hex.
+     */
+    @Column(nullable = false,
+        length = 64)
+    private String contentHash;
+
+    @Column(nullable = false)
+    private long contentLength;
+
+    @Column(nullable = true,
+        length = DoxLength.CONTENT_TYPE_LENGTH)
+    private String contentType;
 
     @Column(nullable = false,
         updatable = false,
@@ -49,7 +139,14 @@ public class DoxOob {
     private Date createdOn;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @TableGenerator(name = DoxSequence.OOB_GENERATOR,
+        table = DoxSequence.TABLE,
+        pkColumnName = DoxSequence.PK_COLUMN_NAME,
+        valueColumnName = DoxSequence.VALUE_COLUMN_NAME,
+        pkColumnValue = DoxSequence.OOB_PK_COLUMN_VALUE,
+        allocationSize = DoxSequence.OOB_ALLOCATION_SIZE)
+    @GeneratedValue(strategy = GenerationType.TABLE,
+        generator = DoxSequence.OOB_GENERATOR)
     private long id;
 
     @Column(nullable = false,
@@ -71,9 +168,19 @@ public class DoxOob {
         nullable = false)
     private Dox parentDox;
 
-    public byte[] getContent() {
+    public String getContentHash() {
+
+        return contentHash;
+    }
+
+    public long getContentLength() {
 
-        return content;
+        return contentLength;
+    }
+
+    public String getContentType() {
+
+        return contentType;
     }
 
     public String getCreatedBy() {
@@ -111,9 +218,19 @@ public class DoxOob {
         return parentDox;
     }
 
-    public void setContent(final byte[] content) {
+    public void setContentHash(final String contentHash) {
+
+        this.contentHash = contentHash;
+    }
+
+    public void setContentLength(final long contentLength) {
+
+        this.contentLength = contentLength;
+    }
+
+    public void setContentType(final String contentType) {
 
-        this.content = content;
+        this.contentType = contentType;
     }
 
     public void setCreatedBy(final String createdBy) {
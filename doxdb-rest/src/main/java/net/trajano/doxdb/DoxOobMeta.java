@@ -0,0 +1,84 @@
+package net.trajano.doxdb;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Meta data of an out of band attachment without its content.
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxOobMeta implements
+    Serializable {
+
+    private static final long serialVersionUID = 4467185328766934812L;
+
+    /**
+     * SHA-256 of the content in hex.
+     */
+    private final String contentHash;
+
+    private final long contentLength;
+
+    private final String contentType;
+
+    private final long id;
+
+    private final String lastUpdatedBy;
+
+    private final Date lastUpdatedOn;
+
+    private final String oobName;
+
+    public DoxOobMeta(final long id,
+        final String oobName,
+        final String contentType,
+        final long contentLength,
+        final String contentHash,
+        final String lastUpdatedBy,
+        final Date lastUpdatedOn) {
+
+        this.id = id;
+        this.oobName = oobName;
+        this.contentType = contentType;
+        this.contentLength = contentLength;
+        this.contentHash = contentHash;
+        this.lastUpdatedBy = lastUpdatedBy;
+        this.lastUpdatedOn = lastUpdatedOn;
+    }
+
+    public String getContentHash() {
+
+        return contentHash;
+    }
+
+    public long getContentLength() {
+
+        return contentLength;
+    }
+
+    public String getContentType() {
+
+        return contentType;
+    }
+
+    public long getId() {
+
+        return id;
+    }
+
+    public String getLastUpdatedBy() {
+
+        return lastUpdatedBy;
+    }
+
+    public Date getLastUpdatedOn() {
+
+        return lastUpdatedOn;
+    }
+
+    public String getOobName() {
+
+        return oobName;
+    }
+}
@@ -11,11 +11,13 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Lob;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.UniqueConstraint;
 
 import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
 
 /**
  * Out of band tombstone data for Dox. This has a bit more meta-data as the
@@ -73,7 +75,14 @@ public class DoxOobTombstone {
     private String doxId;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @TableGenerator(name = DoxSequence.OOB_TOMBSTONE_GENERATOR,
+        table = DoxSequence.TABLE,
+        pkColumnName = DoxSequence.PK_COLUMN_NAME,
+        valueColumnName = DoxSequence.VALUE_COLUMN_NAME,
+        pkColumnValue = DoxSequence.OOB_TOMBSTONE_PK_COLUMN_VALUE,
+        allocationSize = DoxSequence.OOB_TOMBSTONE_ALLOCATION_SIZE)
+    @GeneratedValue(strategy = GenerationType.TABLE,
+        generator = DoxSequence.OOB_TOMBSTONE_GENERATOR)
     private long id;
 
     @Column(nullable = false,
@@ -0,0 +1,105 @@
+package net.trajano.doxdb;
+
+import java.io.Serializable;
+
+/**
+ * State of a resumable attachment upload.
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxOobUpload implements
+    Serializable {
+
+    private static final long serialVersionUID = -2208454816397365147L;
+
+    private final String collectionName;
+
+    private final String contentType;
+
+    private final String createdBy;
+
+    private final DoxID doxId;
+
+    /**
+     * Total length of the attachment.
+     */
+    private final long length;
+
+    /**
+     * Number of bytes received so far.
+     */
+    private final long offset;
+
+    private final String oobName;
+
+    private final String uploadId;
+
+    public DoxOobUpload(final String uploadId,
+        final String collectionName,
+        final DoxID doxId,
+        final String oobName,
+        final String contentType,
+        final long length,
+        final long offset,
+        final String createdBy) {
+
+        this.uploadId = uploadId;
+        this.collectionName = collectionName;
+        this.doxId = doxId;
+        this.oobName = oobName;
+        this.contentType = contentType;
+        this.length = length;
+        this.offset = offset;
+        this.createdBy = createdBy;
+    }
+
+    public String getCollectionName() {
+
+        return collectionName;
+    }
+
+    public String getContentType() {
+
+        return contentType;
+    }
+
+    public String getCreatedBy() {
+
+        return createdBy;
+    }
+
+    public DoxID getDoxId() {
+
+        return doxId;
+    }
+
+    public long getLength() {
+
+        return length;
+    }
+
+    public long getOffset() {
+
+        return offset;
+    }
+
+    public String getOobName() {
+
+        return oobName;
+    }
+
+    public String getUploadId() {
+
+        return uploadId;
+    }
+
+    /**
+     * Checks if every byte has been received.
+     *
+     * @return <code>true</code> if the upload is complete.
+     */
+    public boolean isComplete() {
+
+        return offset == length;
+    }
+}
@@ -0,0 +1,223 @@
+package net.trajano.doxdb;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.DecoderContext;
+
+/**
+ * <p>
+ * A field projection on the content of a Dox record. It is built from a comma
+ * separated list of top level field names or dot separated paths to nested
+ * fields such as <code>name,address.city</code>.
+ * </p>
+ * <p>
+ * The projection is applied directly on the serialized BSON. Fields that are
+ * not requested are skipped over using their encoded lengths, so only the
+ * requested values are decoded.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class DoxProjection implements
+    Serializable {
+
+    /**
+     * A node in the tree of requested paths.
+     */
+    private static final class Node {
+
+        /**
+         * Requested child fields.
+         */
+        private final Map<String, Node> children = new LinkedHashMap<>();
+
+        /**
+         * Indicates that the whole value is requested.
+         */
+        private boolean whole;
+    }
+
+    /**
+     * Decoder context.
+     */
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder()
+        .build();
+
+    /**
+     * bare_field_name.
+     */
+    private static final long serialVersionUID = 6521097346541128764L;
+
+    /**
+     * Codec used to decode the requested values.
+     */
+    private static final BsonValueCodec VALUE_CODEC = new BsonValueCodec();
+
+    /**
+     * Copies the requested fields from the reader into the target.
+     *
+     * @param reader
+     *            reader positioned at the start of a document
+     * @param node
+     *            requested fields for the document
+     * @param target
+     *            document to write the requested fields to
+     */
+    private static void project(final BsonBinaryReader reader,
+        final Node node,
+        final BsonDocument target) {
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final String name = reader.readName();
+            final Node child = node.children.get(name);
+            if (child == null) {
+                reader.skipValue();
+            } else if (child.whole) {
+                target.put(name, VALUE_CODEC.decode(reader, DECODER_CONTEXT));
+            } else if (reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                final BsonDocument nested = new BsonDocument();
+                project(reader, child, nested);
+                if (!nested.isEmpty()) {
+                    target.put(name, nested);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+    }
+
+    /**
+     * Requested fields as they were specified.
+     */
+    private final Set<String> fields;
+
+    /**
+     * Root of the tree of requested paths. It is transient as it can be
+     * rebuilt from the fields.
+     */
+    private transient Node root;
+
+    /**
+     * Constructs the projection from a comma separated list of fields. This
+     * signature allows it to be used directly as a JAX-RS parameter.
+     *
+     * @param fields
+     *            comma separated list of fields
+     */
+    public DoxProjection(final String fields) {
+
+        final Set<String> parsed = new LinkedHashSet<>();
+        for (final String field : fields.split(",")) {
+            final String trimmed = field.trim();
+            if (!trimmed.isEmpty()) {
+                parsed.add(trimmed);
+            }
+        }
+        this.fields = Collections.unmodifiableSet(parsed);
+    }
+
+    /**
+     * Builds the tree of requested paths.
+     *
+     * @return root node
+     */
+    private Node buildRoot() {
+
+        final Node r = new Node();
+        for (final String field : fields) {
+            Node current = r;
+            for (final String segment : field.split("\\.")) {
+                if (current.whole) {
+                    break;
+                }
+                Node next = current.children.get(segment);
+                if (next == null) {
+                    next = new Node();
+                    current.children.put(segment, next);
+                }
+                current = next;
+            }
+            current.whole = true;
+            current.children.clear();
+        }
+        return r;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DoxProjection)) {
+            return false;
+        }
+        return fields.equals(((DoxProjection) obj).fields);
+    }
+
+    /**
+     * Requested fields.
+     *
+     * @return requested fields
+     */
+    public Set<String> getFields() {
+
+        return fields;
+    }
+
+    @Override
+    public int hashCode() {
+
+        return fields.hashCode();
+    }
+
+    /**
+     * Applies the projection to serialized BSON.
+     *
+     * @param bson
+     *            serialized BSON
+     * @return a document containing only the requested fields.
+     */
+    public BsonDocument project(final byte[] bson) {
+
+        if (root == null) {
+            root = buildRoot();
+        }
+        final BsonDocument result = new BsonDocument();
+        final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bson));
+        try {
+            project(reader, root, result);
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * The comma separated list of fields.
+     */
+    @Override
+    public String toString() {
+
+        final StringBuilder b = new StringBuilder();
+        for (final String field : fields) {
+            if (b.length() > 0) {
+                b.append(',');
+            }
+            b.append(field);
+        }
+        return b.toString();
+    }
+}
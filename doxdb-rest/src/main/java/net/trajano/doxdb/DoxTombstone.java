@@ -9,22 +9,29 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.JoinColumn;
 import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.UniqueConstraint;
 
 import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
 
 @Entity
 @Table(
     uniqueConstraints = @UniqueConstraint(columnNames = {
         "doxId",
-        "schemaName"
+        "collectionId"
 }) )
 public class DoxTombstone {
 
+    /**
+     * Content in the same stored form as {@link Dox}, it may be compressed.
+     */
     @Lob
     @Basic(fetch = FetchType.LAZY)
     @Column(nullable = false,
@@ -32,20 +39,28 @@ public class DoxTombstone {
         length = DoxLength.CONTENT_LENGTH)
     private byte[] content;
 
-    @Column(nullable = false,
-        updatable = false,
-        length = DoxLength.PRINCIPAL_LENGTH)
-    private String createdBy;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "collectionId",
+        nullable = false,
+        updatable = false)
+    private DoxDictionary collection;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "createdById",
+        nullable = false,
+        updatable = false)
+    private DoxDictionary createdBy;
 
     @Column(nullable = false,
         updatable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date createdOn;
 
-    @Column(nullable = false,
-        updatable = false,
-        length = DoxLength.PRINCIPAL_LENGTH)
-    private String deletedBy;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "deletedById",
+        nullable = false,
+        updatable = false)
+    private DoxDictionary deletedBy;
 
     @Column(nullable = false,
         updatable = false)
@@ -59,24 +74,27 @@ public class DoxTombstone {
     private String doxId;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @TableGenerator(name = DoxSequence.TOMBSTONE_GENERATOR,
+        table = DoxSequence.TABLE,
+        pkColumnName = DoxSequence.PK_COLUMN_NAME,
+        valueColumnName = DoxSequence.VALUE_COLUMN_NAME,
+        pkColumnValue = DoxSequence.TOMBSTONE_PK_COLUMN_VALUE,
+        allocationSize = DoxSequence.TOMBSTONE_ALLOCATION_SIZE)
+    @GeneratedValue(strategy = GenerationType.TABLE,
+        generator = DoxSequence.TOMBSTONE_GENERATOR)
     private long id;
 
-    @Column(nullable = false,
-        updatable = false,
-        length = DoxLength.PRINCIPAL_LENGTH)
-    private String lastUpdatedBy;
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "lastUpdatedById",
+        nullable = false,
+        updatable = false)
+    private DoxDictionary lastUpdatedBy;
 
     @Column(nullable = false,
         updatable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date lastUpdatedOn;
 
-    @Column(nullable = false,
-        updatable = false,
-        length = DoxLength.COLLECTION_NAME_LENGTH)
-    private String schemaName;
-
     @Column(nullable = false,
         updatable = false)
     private int schemaVersion;
@@ -86,7 +104,12 @@ public class DoxTombstone {
         return content;
     }
 
-    public String getCreatedBy() {
+    public DoxDictionary getCollection() {
+
+        return collection;
+    }
+
+    public DoxDictionary getCreatedBy() {
 
         return createdBy;
     }
@@ -96,7 +119,7 @@ public class DoxTombstone {
         return createdOn;
     }
 
-    public String getDeletedBy() {
+    public DoxDictionary getDeletedBy() {
 
         return deletedBy;
     }
@@ -116,7 +139,7 @@ public class DoxTombstone {
         return id;
     }
 
-    public String getLastUpdatedBy() {
+    public DoxDictionary getLastUpdatedBy() {
 
         return lastUpdatedBy;
     }
@@ -126,11 +149,6 @@ public class DoxTombstone {
         return lastUpdatedOn;
     }
 
-    public String getSchemaName() {
-
-        return schemaName;
-    }
-
     public int getSchemaVersion() {
 
         return schemaVersion;
@@ -141,7 +159,12 @@ public class DoxTombstone {
         this.content = content;
     }
 
-    public void setCreatedBy(final String createdBy) {
+    public void setCollection(final DoxDictionary collection) {
+
+        this.collection = collection;
+    }
+
+    public void setCreatedBy(final DoxDictionary createdBy) {
 
         this.createdBy = createdBy;
     }
@@ -151,7 +174,7 @@ public class DoxTombstone {
         this.createdOn = createdOn;
     }
 
-    public void setDeletedBy(final String deletedBy) {
+    public void setDeletedBy(final DoxDictionary deletedBy) {
 
         this.deletedBy = deletedBy;
     }
@@ -171,7 +194,7 @@ public class DoxTombstone {
         this.id = id;
     }
 
-    public void setLastUpdatedBy(final String lastUpdatedBy) {
+    public void setLastUpdatedBy(final DoxDictionary lastUpdatedBy) {
 
         this.lastUpdatedBy = lastUpdatedBy;
     }
@@ -181,11 +204,6 @@ public class DoxTombstone {
         this.lastUpdatedOn = lastUpdatedOn;
     }
 
-    public void setSchemaName(final String schemaName) {
-
-        this.schemaName = schemaName;
-    }
-
     public void setSchemaVersion(final int schemaVersion) {
 
         this.schemaVersion = schemaVersion;
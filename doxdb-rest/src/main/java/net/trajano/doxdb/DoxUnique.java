@@ -1,6 +1,8 @@
 package net.trajano.doxdb;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import javax.persistence.Column;
@@ -16,10 +18,15 @@ import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import javax.persistence.UniqueConstraint;
 
+import net.trajano.doxdb.ejb.DoxDictionaryBean;
 import net.trajano.doxdb.ejb.internal.DoxLength;
-import net.trajano.doxdb.jsonpath.JsonPath;
+import net.trajano.doxdb.ejb.internal.DoxLookupKeys;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
 import net.trajano.doxdb.schema.LookupType;
 import net.trajano.doxdb.schema.SchemaType;
 
@@ -33,32 +40,61 @@ import net.trajano.doxdb.schema.SchemaType;
 @Entity
 @Table(uniqueConstraints = @UniqueConstraint(
     columnNames = {
-        "collectionName",
-        "lookupName",
+        "collectionId",
+        "lookupNameId",
         "lookupKey"
 }) ,
-    indexes = @Index(columnList = "doxRecordId") )
+    indexes = {
+        @Index(columnList = "doxRecordId,lookupNameId"),
+        @Index(columnList = "collectionId,lookupNameId,longKey"),
+        @Index(columnList = "collectionId,lookupNameId,decimalKey"),
+        @Index(columnList = "collectionId,lookupNameId,dateKey")
+})
 @NamedQueries({
     @NamedQuery(name = DoxUnique.UNIQUE_LOOKUP,
-        query = "select u.dox from DoxUnique u where u.collectionName = :collectionName and u.lookupName = :lookupName and u.lookupKey = :lookupKey",
+        query = "select " + Dox.META_WITH_CONTENT + " from DoxUnique u join u.dox e where u.collection = :collection and u.lookupName = :lookupName and u.lookupKey = :lookupKey",
+        lockMode = LockModeType.NONE),
+    @NamedQuery(name = DoxUnique.UNIQUE_LOOKUP_DOX_ID,
+        query = "select e.doxId from DoxUnique u join u.dox e where u.collection = :collection and u.lookupName = :lookupName and u.lookupKey = :lookupKey",
+        lockMode = LockModeType.NONE),
+    @NamedQuery(name = DoxUnique.UNIQUE_LOOKUP_IN,
+        query = "select " + Dox.LOOKUP_RESULT + " from DoxUnique u join u.dox e where u.collection = :collection and u.lookupName = :lookupName and u.lookupKey in :lookupKeys",
+        lockMode = LockModeType.NONE),
+    @NamedQuery(name = DoxUnique.UNIQUE_LOOKUP_KEYS_IN,
+        query = "select u.lookupKey from DoxUnique u where u.collection = :collection and u.lookupName = :lookupName and u.lookupKey in :lookupKeys",
         lockMode = LockModeType.NONE),
     @NamedQuery(name = DoxUnique.REMOVE_UNIQUE_FOR_DOX,
         query = "delete from DoxUnique u where u.dox = :dox"),
     @NamedQuery(name = DoxUnique.REMOVE_ALL,
         query = "delete from DoxUnique"),
+    @NamedQuery(name = DoxUnique.REMOVE_ALL_BY_COLLECTION,
+        query = "delete from DoxUnique u where u.collection = :collection"),
     @NamedQuery(name = DoxUnique.UPDATE_UNIQUE_FOR_DOX,
-        query = "update DoxUnique u set u.lookupKey = :lookupKey where u.dox = :dox")
+        query = "update DoxUnique u set u.lookupKey = :lookupKey, u.longKey = :longKey, u.decimalKey = :decimalKey, u.dateKey = :dateKey where u.dox = :dox and u.lookupName = :lookupName")
 })
 public class DoxUnique {
 
-    public static final String COLLECTION_NAME = "collectionName";
+    public static final String COLLECTION = "collection";
+
+    public static final String DATE_KEY = "dateKey";
+
+    public static final String DECIMAL_KEY = "decimalKey";
+
+    public static final String LONG_KEY = "longKey";
 
     public static final String LOOKUP_KEY = "lookupKey";
 
+    public static final String LOOKUP_KEYS = "lookupKeys";
+
     public static final String LOOKUP_NAME = "lookupName";
 
     public static final String REMOVE_ALL = "removeAllUnique";
 
+    /**
+     * Named query {@value #REMOVE_ALL_BY_COLLECTION}.
+     */
+    public static final String REMOVE_ALL_BY_COLLECTION = "removeAllUniqueByCollection";
+
     /**
      * Named query {@value #REMOVE_UNIQUE_FOR_DOX}.
      */
@@ -69,6 +105,22 @@ public class DoxUnique {
      */
     public static final String UNIQUE_LOOKUP = "uniqueLookup";
 
+    /**
+     * Named query {@value #UNIQUE_LOOKUP_DOX_ID}.
+     */
+    public static final String UNIQUE_LOOKUP_DOX_ID = "uniqueLookupDoxId";
+
+    /**
+     * Named query {@value #UNIQUE_LOOKUP_IN}.
+     */
+    public static final String UNIQUE_LOOKUP_IN = "uniqueLookupIn";
+
+    /**
+     * Named query {@value #UNIQUE_LOOKUP_KEYS_IN}. Returns the keys in the
+     * list that are already used.
+     */
+    public static final String UNIQUE_LOOKUP_KEYS_IN = "uniqueLookupKeysIn";
+
     /**
      * Named query {@value #UPDATE_UNIQUE_FOR_DOX}.
      */
@@ -82,18 +134,21 @@ public class DoxUnique {
      *            dox
      * @param schemaType
      *            schema type
+     * @param dictionary
+     *            dictionary used to obtain the lookup name entries
      * @return list of {@link DoxUnique}.
      */
     public static List<DoxUnique> fromDox(final Dox dox,
-        final SchemaType schemaType) {
+        final SchemaType schemaType,
+        final DoxDictionaryBean dictionary) {
 
         final List<DoxUnique> a = new ArrayList<>(schemaType.getUnique().size());
         for (final LookupType lookup : schemaType.getUnique()) {
             final DoxUnique r = new DoxUnique();
-            r.collectionName = dox.getCollectionName();
+            r.collection = dox.getCollection();
             r.dox = dox;
-            r.lookupName = lookup.getName();
-            r.lookupKey = JsonPath.compile(lookup.getPath()).read(dox.getJsonObject().toString());
+            r.lookupName = dictionary.lookupName(lookup.getName());
+            r.setLookupKey(lookup, DoxLookupKeys.read(lookup, dox.getJsonObject().toString()));
             a.add(r);
         }
 
@@ -101,10 +156,22 @@ public class DoxUnique {
 
     }
 
-    @Column(nullable = false,
-        insertable = true,
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "collectionId",
+        nullable = false,
         updatable = false)
-    private String collectionName;
+    private DoxDictionary collection;
+
+    @Column(nullable = true,
+        updatable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date dateKey;
+
+    @Column(nullable = true,
+        precision = DoxLength.DECIMAL_KEY_PRECISION,
+        scale = DoxLength.DECIMAL_KEY_SCALE,
+        updatable = false)
+    private BigDecimal decimalKey;
 
     @ManyToOne(fetch = FetchType.LAZY,
         optional = false)
@@ -113,24 +180,45 @@ public class DoxUnique {
     private Dox dox;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @TableGenerator(name = DoxSequence.UNIQUE_GENERATOR,
+        table = DoxSequence.TABLE,
+        pkColumnName = DoxSequence.PK_COLUMN_NAME,
+        valueColumnName = DoxSequence.VALUE_COLUMN_NAME,
+        pkColumnValue = DoxSequence.UNIQUE_PK_COLUMN_VALUE,
+        allocationSize = DoxSequence.LOOKUP_ALLOCATION_SIZE)
+    @GeneratedValue(strategy = GenerationType.TABLE,
+        generator = DoxSequence.UNIQUE_GENERATOR)
     private long id;
 
+    @Column(nullable = true,
+        updatable = false)
+    private Long longKey;
+
     @Column(nullable = false,
         length = DoxLength.LOOKUP_KEY_LENGTH,
         insertable = true,
         updatable = false)
     private String lookupKey;
 
-    @Column(nullable = false,
-        length = DoxLength.LOOKUP_NAME_LENGTH,
-        insertable = true,
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "lookupNameId",
+        nullable = false,
         updatable = false)
-    private String lookupName;
+    private DoxDictionary lookupName;
+
+    public DoxDictionary getCollection() {
 
-    public String getCollectionName() {
+        return collection;
+    }
+
+    public Date getDateKey() {
+
+        return dateKey;
+    }
+
+    public BigDecimal getDecimalKey() {
 
-        return collectionName;
+        return decimalKey;
     }
 
     public Dox getDox() {
@@ -148,14 +236,19 @@ public class DoxUnique {
         return lookupKey;
     }
 
-    public String getLookupName() {
+    public DoxDictionary getLookupName() {
 
         return lookupName;
     }
 
-    public void setCollectionName(final String collectionName) {
+    public Long getLongKey() {
+
+        return longKey;
+    }
+
+    public void setCollection(final DoxDictionary collection) {
 
-        this.collectionName = collectionName;
+        this.collection = collection;
     }
 
     public void setDox(final Dox dox) {
@@ -163,12 +256,35 @@ public class DoxUnique {
         this.dox = dox;
     }
 
+    /**
+     * Sets a string lookup key.
+     *
+     * @param lookupKey
+     *            lookup key
+     */
     public void setLookupKey(final String lookupKey) {
 
         this.lookupKey = lookupKey;
     }
 
-    public void setLookupName(final String lookupName) {
+    /**
+     * Sets the lookup key along with the typed key for the type of the lookup.
+     *
+     * @param lookup
+     *            lookup
+     * @param lookupKey
+     *            lookup key
+     */
+    public void setLookupKey(final LookupType lookup,
+        final String lookupKey) {
+
+        this.lookupKey = lookupKey;
+        longKey = DoxLookupKeys.toLong(lookup, lookupKey);
+        decimalKey = DoxLookupKeys.toDecimal(lookup, lookupKey);
+        dateKey = DoxLookupKeys.toDate(lookup, lookupKey);
+    }
+
+    public void setLookupName(final DoxDictionary lookupName) {
 
         this.lookupName = lookupName;
     }
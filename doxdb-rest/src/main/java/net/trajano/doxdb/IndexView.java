@@ -27,6 +27,12 @@ public class IndexView implements
      */
     private DoxID doxID;
 
+    /**
+     * Record ID of the Dox. Used to compare the index with the database by
+     * ranges of record IDs.
+     */
+    private long doxRecordId;
+
     /**
      * Defines the index that will store this data view. The purpose is to allow
      * multiple indices to co-exist and prevent accidental views from another
@@ -52,6 +58,11 @@ public class IndexView implements
 
     private final Map<String, String> texts = new HashMap<>();
 
+    /**
+     * Version of the Dox that was used to populate the view.
+     */
+    private int version;
+
     public IndexView() {
 
     }
@@ -81,6 +92,11 @@ public class IndexView implements
         return doxID;
     }
 
+    public long getDoxRecordId() {
+
+        return doxRecordId;
+    }
+
     public String getIndex() {
 
         return index;
@@ -111,6 +127,11 @@ public class IndexView implements
         return texts.entrySet();
     }
 
+    public int getVersion() {
+
+        return version;
+    }
+
     public boolean isMasked() {
 
         return masked;
@@ -127,6 +148,11 @@ public class IndexView implements
 
     }
 
+    public void setDoxRecordId(final long doxRecordId) {
+
+        this.doxRecordId = doxRecordId;
+    }
+
     public IndexView setIndex(final String index) {
 
         this.index = index;
@@ -221,4 +247,9 @@ public class IndexView implements
         return this;
 
     }
+
+    public void setVersion(final int version) {
+
+        this.version = version;
+    }
 }
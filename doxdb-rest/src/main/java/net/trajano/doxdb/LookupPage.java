@@ -0,0 +1,38 @@
+package net.trajano.doxdb;
+
+import javax.json.JsonArray;
+
+/**
+ * A page of records read from an ordered lookup. A record removed before an
+ * older schema version of it could be migrated is not returned so there may
+ * be fewer records than rows read, the number of rows is what tells if there
+ * is another page.
+ *
+ * @author Archimedes Trajano
+ */
+public class LookupPage {
+
+    private final JsonArray records;
+
+    /**
+     * Number of rows the query returned for the page.
+     */
+    private final int rowCount;
+
+    public LookupPage(final JsonArray records,
+        final int rowCount) {
+
+        this.records = records;
+        this.rowCount = rowCount;
+    }
+
+    public JsonArray getRecords() {
+
+        return records;
+    }
+
+    public int getRowCount() {
+
+        return rowCount;
+    }
+}
@@ -0,0 +1,111 @@
+package net.trajano.doxdb;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * Summary of the records in a range of record IDs. Two ranges with the same
+ * count and the same sum of the {@link #hash(long, int)} of each record are
+ * taken to contain the same versions of the same records.
+ * </p>
+ * <p>
+ * The hash is not linear in the record ID and version so records that drift
+ * in opposite directions, including copies in the index that are ahead of the
+ * database, do not cancel each other out. The database computes it in a query
+ * and the search index stores it with each document, so both have to use the
+ * same arithmetic. The search index sums it as a double which is exact for
+ * ranges of a few million records, a larger range that does not match exactly
+ * is split and compared again.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public class RangeChecksum implements
+    Serializable {
+
+    /**
+     * An empty range.
+     */
+    public static final RangeChecksum EMPTY = new RangeChecksum(0, 0, 0);
+
+    /**
+     * Prime the hash is computed modulo, <code>2<sup>31</sup> - 1</code>. The
+     * square of a value below it still fits in a long.
+     */
+    public static final long HASH_MODULUS = 2147483647L;
+
+    private static final long serialVersionUID = -2616478069012399145L;
+
+    /**
+     * Hashes the record ID and version of a record. The record ID and version
+     * are combined by a multiplicative congruential step and the result is
+     * mixed by a quadratic step. The same arithmetic is used by the
+     * {@link Dox#RANGE_CHECKSUM} query.
+     *
+     * @param recordId
+     *            record ID
+     * @param version
+     *            version
+     * @return hash between <code>0</code> and {@link #HASH_MODULUS}
+     */
+    public static long hash(final long recordId,
+        final int version) {
+
+        final long x = (recordId % HASH_MODULUS * 48271 + version) % HASH_MODULUS;
+        return (x * x % HASH_MODULUS * 16807 + x) % HASH_MODULUS;
+    }
+
+    private final long count;
+
+    /**
+     * Sum of the hashes of the records.
+     */
+    private final long hashSum;
+
+    /**
+     * Highest record ID in the range, <code>0</code> if the range is empty.
+     */
+    private final long maxRecordId;
+
+    public RangeChecksum(final long count,
+        final long hashSum,
+        final long maxRecordId) {
+
+        this.count = count;
+        this.hashSum = hashSum;
+        this.maxRecordId = maxRecordId;
+    }
+
+    public long getCount() {
+
+        return count;
+    }
+
+    public long getHashSum() {
+
+        return hashSum;
+    }
+
+    public long getMaxRecordId() {
+
+        return maxRecordId;
+    }
+
+    /**
+     * Checks if the other range has the same records.
+     *
+     * @param other
+     *            other range
+     * @return <code>true</code> if the count and sum of hashes are the same.
+     */
+    public boolean matches(final RangeChecksum other) {
+
+        return count == other.count && hashSum == other.hashSum;
+    }
+
+    @Override
+    public String toString() {
+
+        return "count=" + count + " hashSum=" + hashSum + " maxRecordId=" + maxRecordId;
+    }
+}
@@ -4,18 +4,29 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.GZIPOutputStream;
 
 import javax.annotation.Resource;
 import javax.ejb.Asynchronous;
 import javax.ejb.EJB;
+import javax.ejb.EJBException;
 import javax.ejb.LocalBean;
 import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
@@ -27,14 +38,15 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
 import javax.persistence.LockModeType;
 import javax.persistence.NoResultException;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
 import javax.validation.ValidationException;
 
-import org.bson.BsonDocument;
 
 import com.github.fge.jackson.JsonLoader;
 import com.github.fge.jsonschema.core.exceptions.ProcessingException;
@@ -42,22 +54,33 @@ import com.github.fge.jsonschema.core.report.ProcessingReport;
 import com.github.fge.jsonschema.main.JsonSchema;
 
 import net.trajano.doxdb.Dox;
+import net.trajano.doxdb.DoxDictionary;
 import net.trajano.doxdb.DoxID;
 import net.trajano.doxdb.DoxLock;
 import net.trajano.doxdb.DoxLookup;
 import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.DoxOob;
+import net.trajano.doxdb.DoxOobMeta;
+import net.trajano.doxdb.DoxProjection;
 import net.trajano.doxdb.DoxTombstone;
 import net.trajano.doxdb.DoxUnique;
 import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.LookupPage;
 import net.trajano.doxdb.SearchResult;
+import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxLookupKeys;
+import net.trajano.doxdb.ejb.internal.DoxOobInputStream;
+import net.trajano.doxdb.ejb.internal.DoxReadOnly;
+import net.trajano.doxdb.ejb.internal.DoxStorage;
 import net.trajano.doxdb.ext.CollectionAccessControl;
 import net.trajano.doxdb.ext.ConfigurationProvider;
 import net.trajano.doxdb.ext.EventHandler;
 import net.trajano.doxdb.ext.Indexer;
 import net.trajano.doxdb.ext.Migrator;
-import net.trajano.doxdb.jsonpath.JsonPath;
+import net.trajano.doxdb.internal.DoxContentCodec;
 import net.trajano.doxdb.schema.CollectionType;
 import net.trajano.doxdb.schema.DoxPersistence;
+import net.trajano.doxdb.schema.LookupKeyType;
 import net.trajano.doxdb.schema.LookupType;
 import net.trajano.doxdb.schema.ReadAllType;
 import net.trajano.doxdb.schema.SchemaType;
@@ -74,6 +97,12 @@ import net.trajano.doxdb.schema.SchemaType;
 public class DoxBean implements
     DoxLocal {
 
+    /**
+     * Maximum number of keys in an <code>IN</code> list. Larger key lists are
+     * split into several queries as some databases limit the list size.
+     */
+    private static final int MAX_IN_KEYS = 500;
+
     /**
      * This will create a new JsonObject with the _id and _version fields set.
      * Also any top level values whose key starts with "_" is removed.
@@ -119,6 +148,21 @@ public class DoxBean implements
         return b.build();
     }
 
+    /**
+     * Checks if the lookup is one of the unique lookups of the schema.
+     *
+     * @param schema
+     *            collection schema
+     * @param lookup
+     *            lookup
+     * @return <code>true</code> if the lookup is unique.
+     */
+    private static boolean isUniqueLookup(final SchemaType schema,
+        final LookupType lookup) {
+
+        return schema.getUnique().contains(lookup);
+    }
+
     /**
      * This will create a new JsonObject with reserved properties removed.
      * Reserved properties start with "_" including "_id" and "_version".
@@ -146,6 +190,8 @@ public class DoxBean implements
 
     private ConfigurationProvider configurationProvider;
 
+    private DoxContentCodecBean contentCodecs;
+
     /**
      * Session context. It is injected here rather than
      * {@link #setSessionContext(SessionContext)} as the WebSphere tools flag
@@ -155,16 +201,29 @@ public class DoxBean implements
     @Resource
     private SessionContext ctx;
 
-    private DoxSearch doxSearchBean;
+    private DoxDictionaryBean dictionary;
 
-    private EntityManager em;
+    /**
+     * Entity manager for the collections that use the default tables.
+     */
+    private EntityManager defaultEntityManager;
+
+    private DoxSearch doxSearchBean;
 
     private EventHandler eventHandler;
 
     private Indexer indexer;
 
+    private DoxLockManagerBean lockManager;
+
     private Migrator migrator;
 
+    private DoxOobStoreBean oobStore;
+
+    private DoxReplicaBean replica;
+
+    private DoxUniqueCacheBean uniqueCache;
+
     @Override
     public SearchResult advancedSearch(final String index,
         final JsonObject query) {
@@ -180,6 +239,71 @@ public class DoxBean implements
         return doxSearchBean.advancedSearch(index, schemaName, query);
     }
 
+    /**
+     * Builds the JSON array for the records found by a lookup. Records that
+     * are not on the current schema version are migrated through
+     * {@link #read(String, DoxID, DoxProjection)}, a record that was removed
+     * in the meantime is left out.
+     *
+     * @param collectionName
+     *            collection name
+     * @param results
+     *            rows selected using {@link Dox#LOOKUP_RESULT}
+     * @param projection
+     *            projection, may be <code>null</code>
+     * @return array of records
+     */
+    private JsonArray buildLookupResults(final String collectionName,
+        final List<Object[]> results,
+        final DoxProjection projection) {
+
+        final JsonArrayBuilder b = Json.createArrayBuilder();
+        final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        final DoxContentCodec codec = contentCodecs.forCollection(configurationProvider.getCollection(collectionName));
+
+        for (final Object[] result : results) {
+
+            final DoxID doxId = new DoxID((String) result[0]);
+            final int version = ((Number) result[1]).intValue();
+            final int collectionSchemaVersion = ((Number) result[2]).intValue();
+            final byte[] storedContent = (byte[]) result[3];
+            // TODO check security
+            if (collectionSchemaVersion != schema.getVersion()) {
+                final DoxMeta migrated = read(collectionName, doxId, projection);
+                if (migrated != null) {
+                    b.add(migrated.getContent());
+                }
+            } else {
+                final JsonObject content = decorateWithIdVersion(Dox.decodeContent(codec, storedContent, projection), doxId, version);
+                b.add(content);
+                eventHandler.onRecordRead(ctx.getCallerPrincipal(), collectionName, doxId, content.toString());
+            }
+
+        }
+        return b.build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long countByLookups(final String collectionName,
+        final Map<String, String> lookups) {
+
+        return readOnly(configurationProvider.getCollection(collectionName), new DoxReadOnly<Long>() {
+
+            @Override
+            public Long execute(final EntityManager em) {
+
+                final TypedQuery<Long> query = createLookupsQuery(em, collectionName, lookups, "count(x0)", Long.class);
+                if (query == null) {
+                    return 0L;
+                }
+                return query.getSingleResult();
+            }
+        });
+    }
+
     @Override
     public DoxMeta create(final String collectionName,
         final JsonObject unsanitizedContent) {
@@ -197,43 +321,53 @@ public class DoxBean implements
         final String inputJson = content.toString();
         final byte[] accessKey = collectionAccessControl.buildAccessKey(config.getName(), inputJson, ctx.getCallerPrincipal().getName());
 
+        final EntityManager em = getEntityManager(config);
+        final DoxDictionary collection = dictionary.collection(config.getName());
+        final DoxDictionary principal = dictionary.principal(ctx.getCallerPrincipal());
+
         final Dox entity = new Dox();
         entity.setDoxId(doxId);
-        entity.setContent(inputJson);
-        entity.setCreatedBy(ctx.getCallerPrincipal());
+        entity.setContentCodec(contentCodecs.forCollection(config));
+        entity.setContent(content);
+        entity.setCreatedBy(principal);
         entity.setCreatedOn(ts);
-        entity.setLastUpdatedBy(ctx.getCallerPrincipal());
+        entity.setLastUpdatedBy(principal);
         entity.setLastUpdatedOn(ts);
-        entity.setCollectionName(config.getName());
+        entity.setCollection(collection);
         entity.setCollectionSchemaVersion(schema.getVersion());
         entity.setAccessKey(accessKey);
         entity.setVersion(1);
 
+        final IndexView[] indexViews = indexer.buildIndexViews(config.getName(), inputJson);
+        entity.setIndexNames(Dox.indexNames(indexViews));
+
         em.persist(entity);
 
         for (final LookupType unique : schema.getUnique()) {
-            final String lookupKey = JsonPath.compile(unique.getPath()).read(inputJson);
+            final String lookupKey = DoxLookupKeys.read(unique, inputJson);
             final DoxUnique doxUnique = new DoxUnique();
-            doxUnique.setCollectionName(config.getName());
+            doxUnique.setCollection(collection);
             doxUnique.setDox(entity);
-            doxUnique.setLookupName(unique.getName());
-            doxUnique.setLookupKey(lookupKey);
+            doxUnique.setLookupName(dictionary.lookupName(unique.getName()));
+            doxUnique.setLookupKey(unique, lookupKey);
             em.persist(doxUnique);
+            uniqueCache.evict(collection, doxUnique.getLookupName(), lookupKey);
         }
         for (final LookupType unique : schema.getLookup()) {
-            final String lookupKey = JsonPath.compile(unique.getPath()).read(inputJson);
+            final String lookupKey = DoxLookupKeys.read(unique, inputJson);
             final DoxLookup doxLookup = new DoxLookup();
-            doxLookup.setCollectionName(config.getName());
+            doxLookup.setCollection(collection);
             doxLookup.setDox(entity);
-            doxLookup.setLookupName(unique.getName());
-            doxLookup.setLookupKey(lookupKey);
+            doxLookup.setLookupName(dictionary.lookupName(unique.getName()));
+            doxLookup.setLookupKey(unique, lookupKey);
             em.persist(doxLookup);
         }
 
-        final IndexView[] indexViews = indexer.buildIndexViews(config.getName(), inputJson);
         for (final IndexView indexView : indexViews) {
             indexView.setCollection(config.getName());
             indexView.setDoxID(doxId);
+            indexView.setDoxRecordId(entity.getDoxRecordId());
+            indexView.setVersion(1);
         }
         if (indexViews.length > 0) {
             doxSearchBean.addToIndex(indexViews);
@@ -248,10 +382,87 @@ public class DoxBean implements
 
         meta.setContentJson(content, doxId, 1);
 
+        replica.recordWrite(ctx.getCallerPrincipal());
         eventHandler.onRecordCreate(meta, content.toString(), extra);
         return meta;
     }
 
+    /**
+     * Builds a query that joins the {@link DoxUnique} and {@link DoxLookup}
+     * rows of each lookup on the record so all the lookups are resolved in a
+     * single statement. The unique lookups are placed first as they match at
+     * most one record. The rows are aliased <code>x0</code> to
+     * <code>x<i>n</i></code> and the record is aliased <code>e</code>.
+     *
+     * @param em
+     *            entity manager
+     * @param collectionName
+     *            collection name
+     * @param lookups
+     *            lookup keys keyed by lookup name
+     * @param select
+     *            select expression
+     * @param resultClass
+     *            result class
+     * @return query or <code>null</code> if no record can match.
+     */
+    private <T> TypedQuery<T> createLookupsQuery(final EntityManager em,
+        final String collectionName,
+        final Map<String, String> lookups,
+        final String select,
+        final Class<T> resultClass) {
+
+        if (lookups.isEmpty()) {
+            throw new PersistenceException("at least one lookup is required");
+        }
+        final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        final List<String> lookupNames = new ArrayList<>(lookups.size());
+        final List<String> nonUniqueLookupNames = new ArrayList<>(lookups.size());
+        for (final String lookupName : lookups.keySet()) {
+            if (isUniqueLookup(schema, getLookup(schema, collectionName, lookupName))) {
+                lookupNames.add(lookupName);
+            } else {
+                nonUniqueLookupNames.add(lookupName);
+            }
+        }
+        lookupNames.addAll(nonUniqueLookupNames);
+
+        final DoxDictionary collection = dictionary.find(DoxDictionary.COLLECTION, collectionName);
+        if (collection == null) {
+            return null;
+        }
+        final List<DoxDictionary> lookupNameEntries = new ArrayList<>(lookupNames.size());
+        final StringBuilder from = new StringBuilder();
+        final StringBuilder where = new StringBuilder();
+        for (int i = 0; i < lookupNames.size(); ++i) {
+            final DoxDictionary lookupNameEntry = dictionary.find(DoxDictionary.LOOKUP, lookupNames.get(i));
+            if (lookupNameEntry == null) {
+                return null;
+            }
+            lookupNameEntries.add(lookupNameEntry);
+            final String alias = "x" + i;
+            if (i > 0) {
+                from.append(", ");
+                where.append(" and ").append(alias).append(".dox = x0.dox and ");
+            }
+            from.append(i < lookupNames.size() - nonUniqueLookupNames.size() ? "DoxUnique " : "DoxLookup ").append(alias);
+            if (i == 0) {
+                from.append(" join x0.dox e");
+            }
+            where.append(alias).append(".collection = :collection and ")
+                .append(alias).append(".lookupName = :lookupName").append(i).append(" and ")
+                .append(alias).append(".lookupKey = :lookupKey").append(i);
+        }
+
+        final TypedQuery<T> query = em.createQuery("select " + select + " from " + from + " where " + where, resultClass)
+            .setParameter(DoxLookup.COLLECTION, collection);
+        for (int i = 0; i < lookupNames.size(); ++i) {
+            query.setParameter(DoxLookup.LOOKUP_NAME + i, lookupNameEntries.get(i));
+            query.setParameter(DoxLookup.LOOKUP_KEY + i, lookups.get(lookupNames.get(i)));
+        }
+        return query;
+    }
+
     @Override
     public boolean delete(final String collectionName,
         final DoxID doxid,
@@ -261,7 +472,8 @@ public class DoxBean implements
         final Date ts = new Date();
         final CollectionType config = configurationProvider.getCollection(collectionName);
         final JsonObject extra = getExtra(extraJson);
-        final DoxMeta meta = readMetaAndLock(config.getName(), doxid, version);
+        final EntityManager em = getEntityManager(config);
+        final DoxMeta meta = readMetaAndLock(em, config.getName(), doxid, version);
 
         meta.getAccessKey();
         // TODO check the security.
@@ -271,33 +483,71 @@ public class DoxBean implements
             return false;
         }
         em.createNamedQuery(DoxUnique.REMOVE_UNIQUE_FOR_DOX).setParameter("dox", toBeDeleted).executeUpdate();
+        uniqueCache.evict(doxid);
         em.createNamedQuery(DoxLookup.REMOVE_LOOKUP_FOR_DOX).setParameter("dox", toBeDeleted).executeUpdate();
 
-        final BsonDocument contentBson = toBeDeleted.getContent();
-        final DoxTombstone tombstone = toBeDeleted.buildTombstone(ctx.getCallerPrincipal(), ts);
+        toBeDeleted.setContentCodec(contentCodecs.forCollection(config));
+        String contentJson = toBeDeleted.getJsonContent();
+        final DoxTombstone tombstone = toBeDeleted.buildTombstone(dictionary.principal(ctx.getCallerPrincipal()), ts);
         em.persist(tombstone);
         em.remove(toBeDeleted);
 
         final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
 
-        String contentJson = contentBson.toJson();
         if (meta.getCollectionSchemaVersion() != schema.getVersion()) {
             contentJson = migrator.migrate(collectionName, meta.getCollectionSchemaVersion(), schema.getVersion(), contentJson);
         }
 
         doxSearchBean.removeFromIndex(config.getName(), doxid);
+        replica.recordWrite(ctx.getCallerPrincipal());
         eventHandler.onRecordDelete(meta, contentJson, extra);
         return true;
 
     }
 
     /**
-     * Performs the update operation.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean deleteOob(final String collectionName,
+        final DoxID doxId,
+        final String oobName) {
+
+        final EntityManager em = getEntityManager(configurationProvider.getCollection(collectionName));
+        final DoxOobMeta meta = readOobMeta(em, collectionName, doxId, oobName);
+        if (meta == null) {
+            return false;
+        }
+        em.createNamedQuery(DoxOob.REMOVE_BY_ID)
+            .setParameter(DoxOob.ID, meta.getId())
+            .executeUpdate();
+        return true;
+    }
+
+    /**
+     * Performs the update operation. When a lock ID is given the lock and the
+     * version are verified by one query that also reads the record.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param unsanitizedContent
+     *            content
+     * @param version
+     *            optimistic locking version
+     * @param lockId
+     *            lock ID, <code>null</code> if the collection is not lockable
+     * @param unlock
+     *            <code>true</code> to release the lock once updated
+     * @return meta
      */
     private DoxMeta doUpdate(final String collectionName,
         final DoxID doxId,
         final JsonObject unsanitizedContent,
-        final int version) {
+        final int version,
+        final Integer lockId,
+        final boolean unlock) {
 
         final Timestamp ts = new Timestamp(System.currentTimeMillis());
         final CollectionType config = configurationProvider.getCollection(collectionName);
@@ -308,7 +558,29 @@ public class DoxBean implements
         final String inputJson = content.toString();
         validate(schema, inputJson);
 
-        final DoxMeta meta = readMetaAndLock(config.getName(), doxId, version);
+        final EntityManager em = getEntityManager(config);
+        final DoxLock lock;
+        final DoxMeta meta;
+        final Dox e;
+        if (lockId == null) {
+            lock = null;
+            meta = readMetaAndLock(em, config.getName(), doxId, version);
+            e = em.find(Dox.class, meta.getId());
+        } else {
+            lock = readLockForUpdate(em, config.getName(), doxId, version, lockId);
+            e = lock.getLockedDox();
+            meta = new DoxMeta();
+            meta.setId(e.getDoxRecordId());
+            meta.setDoxId(doxId);
+            meta.setVersion(e.getVersion());
+            meta.setCollectionName(config.getName());
+            meta.setCollectionSchemaVersion(e.getCollectionSchemaVersion());
+            meta.setAccessKey(e.getAccessKey());
+            meta.setCreatedBy(e.getCreatedBy());
+            meta.setCreatedOn(e.getCreatedOn());
+            meta.setLastUpdatedBy(e.getLastUpdatedBy());
+            meta.setLastUpdatedOn(e.getLastUpdatedOn());
+        }
         meta.incrementVersion();
 
         meta.getAccessKey();
@@ -318,29 +590,49 @@ public class DoxBean implements
 
         final byte[] accessKey = collectionAccessControl.buildAccessKey(config.getName(), inputJson, ctx.getCallerPrincipal().getName());
 
-        final Dox e = em.find(Dox.class, meta.getId());
-        e.setLastUpdatedBy(ctx.getCallerPrincipal());
+        e.setLastUpdatedBy(dictionary.principal(ctx.getCallerPrincipal()));
         e.setLastUpdatedOn(ts);
+        e.setContentCodec(contentCodecs.forCollection(config));
         e.setContent(content);
         e.setAccessKey(accessKey);
+        e.setIndexNames(Dox.indexNames(indexViews));
         em.persist(e);
 
+        uniqueCache.evict(doxId);
         for (final LookupType unique : schema.getUnique()) {
-            final String lookupKey = JsonPath.compile(unique.getPath()).read(inputJson);
-            em.createNamedQuery(DoxUnique.UPDATE_UNIQUE_FOR_DOX).setParameter("dox", e).setParameter(DoxUnique.LOOKUP_KEY, lookupKey).executeUpdate();
+            final String lookupKey = DoxLookupKeys.read(unique, inputJson);
+            final DoxDictionary lookupNameEntry = dictionary.lookupName(unique.getName());
+            em.createNamedQuery(DoxUnique.UPDATE_UNIQUE_FOR_DOX).setParameter("dox", e).setParameter(DoxUnique.LOOKUP_NAME, lookupNameEntry).setParameter(DoxUnique.LOOKUP_KEY, lookupKey)
+                .setParameter(DoxUnique.LONG_KEY, DoxLookupKeys.toLong(unique, lookupKey))
+                .setParameter(DoxUnique.DECIMAL_KEY, DoxLookupKeys.toDecimal(unique, lookupKey))
+                .setParameter(DoxUnique.DATE_KEY, DoxLookupKeys.toDate(unique, lookupKey))
+                .executeUpdate();
+            uniqueCache.evict(e.getCollection(), lookupNameEntry, lookupKey);
         }
         for (final LookupType lookup : schema.getLookup()) {
-            final String lookupKey = JsonPath.compile(lookup.getPath()).read(inputJson);
-            em.createNamedQuery(DoxLookup.UPDATE_LOOKUP_FOR_DOX).setParameter("dox", e).setParameter(DoxUnique.LOOKUP_KEY, lookupKey).executeUpdate();
+            final String lookupKey = DoxLookupKeys.read(lookup, inputJson);
+            em.createNamedQuery(DoxLookup.UPDATE_LOOKUP_FOR_DOX).setParameter("dox", e).setParameter(DoxLookup.LOOKUP_NAME, dictionary.lookupName(lookup.getName())).setParameter(DoxLookup.LOOKUP_KEY, lookupKey)
+                .setParameter(DoxLookup.LONG_KEY, DoxLookupKeys.toLong(lookup, lookupKey))
+                .setParameter(DoxLookup.DECIMAL_KEY, DoxLookupKeys.toDecimal(lookup, lookupKey))
+                .setParameter(DoxLookup.DATE_KEY, DoxLookupKeys.toDate(lookup, lookupKey))
+                .executeUpdate();
         }
 
         for (final IndexView indexView : indexViews) {
             indexView.setCollection(config.getName());
             indexView.setDoxID(doxId);
+            indexView.setDoxRecordId(meta.getId());
+            indexView.setVersion(meta.getVersion());
         }
         doxSearchBean.addToIndex(indexViews);
 
+        if (unlock) {
+            em.remove(lock);
+            lockManager.consumed(collectionName, doxId, lockId);
+        }
+
         meta.setContentJson(content, doxId, e.getVersion());
+        replica.recordWrite(ctx.getCallerPrincipal());
         eventHandler.onRecordUpdate(meta, e.getJsonContent(), extra);
         return meta;
 
@@ -352,6 +644,92 @@ public class DoxBean implements
         return configurationProvider.getPersistenceConfig();
     }
 
+    /**
+     * Gets the entity manager for the tables that store the collection.
+     *
+     * @param config
+     *            collection configuration
+     * @return entity manager
+     */
+    private EntityManager getEntityManager(final CollectionType config) {
+
+        return DoxStorage.getEntityManager(config, defaultEntityManager, ctx);
+    }
+
+    /**
+     * Gets the unique or non-unique lookup of the collection.
+     *
+     * @param schema
+     *            collection schema
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name
+     * @return lookup
+     * @throws PersistenceException
+     *             if the collection does not have the lookup.
+     */
+    private LookupType getLookup(final SchemaType schema,
+        final String collectionName,
+        final String lookupName) {
+
+        for (final LookupType unique : schema.getUnique()) {
+            if (unique.getName().equals(lookupName)) {
+                return unique;
+            }
+        }
+        for (final LookupType lookup : schema.getLookup()) {
+            if (lookup.getName().equals(lookupName)) {
+                return lookup;
+            }
+        }
+        throw new PersistenceException(lookupName + " is not a lookup of " + collectionName);
+    }
+
+    /**
+     * Runs read only work on the collection. Collections in the default tables
+     * are read from the replica if there is one and the consistency allows it,
+     * outside of the current transaction.
+     *
+     * @param config
+     *            collection configuration
+     * @param work
+     *            reads
+     * @return result of the reads
+     */
+    private <T> T readOnly(final CollectionType config,
+        final DoxReadOnly<T> work) {
+
+        if (config == null || config.getStorage() != null || !replica.isReplicaReadable(ctx.getCallerPrincipal())) {
+            return work.execute(getEntityManager(config));
+        }
+        try {
+            return replica.read((EntityManager) ctx.lookup(replica.getReplica().getPersistenceContext()), work);
+        } catch (final EJBException e) {
+            // the container wraps what the work threw
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonObject getStatistics() {
+
+        return Json.createObjectBuilder()
+            .add("compression", contentCodecs.getStatistics())
+            .add("dictionary", dictionary.getStatistics())
+            .add("locks", lockManager.getStatistics())
+            .add("oob_store", oobStore.getStatistics())
+            .add("replica", replica.getStatistics())
+            .add("unique_lookup_cache", uniqueCache.getStatistics())
+            .build();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -365,14 +743,20 @@ public class DoxBean implements
     public boolean isLocked(final String collectionName,
         final DoxID doxId) {
 
-        if (!configurationProvider.getCollection(collectionName).isLockable()) {
+        final CollectionType config = configurationProvider.getCollection(collectionName);
+        if (!config.isLockable()) {
             throw new PersistenceException(collectionName + " is not lockable");
         }
+        if (lockManager.isHeld(collectionName, doxId)) {
+            return true;
+        }
+        final EntityManager em = getEntityManager(config);
 
         try {
             em.createNamedQuery(DoxLock.READ_LOCK_BY_COLLECTION_NAME_DOX_ID)
-                .setParameter(DoxLock.COLLECTION_NAME, collectionName)
+                .setParameter(DoxLock.COLLECTION, dictionary.collection(collectionName))
                 .setParameter(DoxLock.DOXID, doxId.toString())
+                .setParameter(DoxLock.NOW, new Date())
                 .getSingleResult();
             return true;
         } catch (final NoResultException e) {
@@ -385,21 +769,38 @@ public class DoxBean implements
     public int lock(final String collectionName,
         final DoxID doxId) {
 
-        if (!configurationProvider.getCollection(collectionName).isLockable()) {
+        final CollectionType config = configurationProvider.getCollection(collectionName);
+        if (!config.isLockable()) {
             throw new PersistenceException(collectionName + " is not lockable");
         }
+        final long start = System.nanoTime();
+        if (lockManager.isHeld(collectionName, doxId)) {
+            throw new PersistenceException(collectionName + " " + doxId + " is already locked");
+        }
+        final EntityManager em = getEntityManager(config);
 
         final Date ts = new Date();
+        final Dox dox = em.createNamedQuery(Dox.READ_BY_COLLECTION_NAME_DOX_ID, Dox.class)
+            .setParameter(Dox.COLLECTION, dictionary.collection(collectionName))
+            .setParameter(DoxLock.DOXID, doxId.toString())
+            .getSingleResult();
+
+        // an expired lock that was not swept yet would violate the unique constraint
+        em.createNamedQuery(DoxLock.REMOVE_EXPIRED_LOCK_FOR_DOX)
+            .setParameter(DoxLock.DOX, dox)
+            .setParameter(DoxLock.NOW, ts)
+            .executeUpdate();
+
         final DoxLock lock = new DoxLock();
         lock.generateLockID();
-        lock.setLockedDox(em.createNamedQuery(Dox.READ_BY_COLLECTION_NAME_DOX_ID, Dox.class)
-            .setParameter(DoxLock.COLLECTION_NAME, collectionName)
-            .setParameter(DoxLock.DOXID, doxId.toString())
-            .getSingleResult());
-        lock.setLockedBy(ctx.getCallerPrincipal());
+        lock.setLockedDox(dox);
+        lock.setLockedBy(dictionary.principal(ctx.getCallerPrincipal()));
         lock.setLockedOn(ts);
+        lock.setExpiresOn(lockManager.getExpiresOn(ts));
 
         em.persist(lock);
+        em.flush();
+        lockManager.acquired(collectionName, doxId, lock.getLockId(), lock.getExpiresOn(), System.nanoTime() - start);
         return lock.getLockId();
     }
 
@@ -415,34 +816,64 @@ public class DoxBean implements
     public DoxMeta read(final String collectionName,
         final DoxID doxid) {
 
+        return read(collectionName, doxid, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoxMeta read(final String collectionName,
+        final DoxID doxid,
+        final DoxProjection projection) {
+
         final CollectionType config = configurationProvider.getCollection(collectionName);
         final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        final DoxDictionary collection = dictionary.collection(config.getName());
+        final DoxContentCodec codec = contentCodecs.forCollection(config);
 
-        final DoxMeta meta;
-        try {
-            meta = em.createNamedQuery(Dox.READ_META_BY_COLLECTION_NAME_DOX_ID, DoxMeta.class).setParameter("doxId", doxid.toString()).setParameter("collectionName", config.getName()).getSingleResult();
-        } catch (final NoResultException e) {
+        final DoxMeta meta = readOnly(config, new DoxReadOnly<DoxMeta>() {
+
+            @Override
+            public DoxMeta execute(final EntityManager em) {
+
+                // an optimistic read lock needs a transaction, the replica is read without one
+                final LockModeType lockMode = em.isJoinedToTransaction() ? LockModeType.OPTIMISTIC : LockModeType.NONE;
+                final DoxMeta meta;
+                try {
+                    meta = em.createNamedQuery(Dox.READ_META_BY_COLLECTION_NAME_DOX_ID, DoxMeta.class).setParameter("doxId", doxid.toString()).setParameter(Dox.COLLECTION, collection).setLockMode(lockMode).getSingleResult();
+                } catch (final NoResultException e) {
+                    return null;
+                }
+                meta.getAccessKey();
+                if (meta.getCollectionSchemaVersion() == schema.getVersion()) {
+                    final Dox e = em.find(Dox.class, meta.getId(), lockMode);
+                    e.setContentCodec(codec);
+                    meta.setContentJson(e.getJsonObject(projection), meta.getDoxId(), meta.getVersion());
+                }
+                return meta;
+            }
+        });
+        if (meta == null) {
             return null;
         }
-        meta.getAccessKey();
         // TODO check the security.
 
         if (meta.getCollectionSchemaVersion() != schema.getVersion()) {
-            final Dox e = em.find(Dox.class, meta.getId(), LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            // migrated records are written so they are always read from the primary
+            final EntityManager primary = getEntityManager(config);
+            final Dox e = primary.find(Dox.class, meta.getId(), LockModeType.OPTIMISTIC_FORCE_INCREMENT);
+            e.setContentCodec(codec);
             final String contentJson = migrator.migrate(collectionName, e.getCollectionSchemaVersion(), schema.getVersion(), e.getJsonContent());
             meta.setCollectionName(collectionName);
             meta.setCollectionSchemaVersion(schema.getVersion());
             e.setCollectionSchemaVersion(schema.getVersion());
             e.setContent(contentJson);
-            em.persist(e);
-            em.flush();
-            em.refresh(e);
-            final JsonObject content = e.getJsonObject();
+            primary.persist(e);
+            primary.flush();
+            primary.refresh(e);
+            final JsonObject content = e.getJsonObject(projection);
             meta.setContentJson(content, meta.getDoxId(), e.getVersion());
-        } else {
-            final Dox e = em.find(Dox.class, meta.getId(), LockModeType.OPTIMISTIC);
-            final JsonObject content = e.getJsonObject();
-            meta.setContentJson(content, meta.getDoxId(), meta.getVersion());
         }
         eventHandler.onRecordRead(ctx.getCallerPrincipal(), collectionName, doxid, meta.getContentJson());
         return meta;
@@ -455,15 +886,21 @@ public class DoxBean implements
     @Override
     public String readAll(final String collectionName) {
 
+        return readAll(collectionName, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String readAll(final String collectionName,
+        final DoxProjection projection) {
+
         final CollectionType config = configurationProvider.getCollection(collectionName);
         if (config.getReadAll() == ReadAllType.FILE) {
-            try {
-                return readAllToFile(config.getName());
-            } catch (final IOException e) {
-                throw new PersistenceException(e);
-            }
+            return readAllToFile(config, projection);
         } else if (config.getReadAll() == ReadAllType.MEMORY) {
-            return readAllToString(config.getName());
+            return readAllToString(config, projection);
         } else {
             throw new PersistenceException("Not supported");
         }
@@ -473,101 +910,314 @@ public class DoxBean implements
     /**
      * Reads all records in a collection and writes it to a file.
      *
-     * @param collectionName
-     * @return
-     * @throws IOException
+     * @param config
+     *            collection configuration
+     * @param projection
+     *            projection, may be <code>null</code>
+     * @return path of the file
      */
-    private String readAllToFile(final String collectionName) throws IOException {
+    private String readAllToFile(final CollectionType config,
+        final DoxProjection projection) {
 
+        final String collectionName = config.getName();
         final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        final DoxDictionary collection = dictionary.collection(collectionName);
+        final DoxContentCodec codec = contentCodecs.forCollection(config);
+
+        return readOnly(config, new DoxReadOnly<String>() {
+
+            @Override
+            public String execute(final EntityManager em) {
+
+                try {
+                    final File f = File.createTempFile("doxdb", collectionName);
+
+                    try (final Writer os = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(f)), "UTF-8")) {
+                        os.write('[');
+
+                        final List<Dox> results = em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME, Dox.class).setParameter(Dox.COLLECTION, collection).getResultList();
+                        final Iterator<Dox> i = results.iterator();
+                        while (i.hasNext()) {
+
+                            final Dox result = i.next();
+                            final boolean last = !i.hasNext();
+                            result.setContentCodec(codec);
+                            result.getAccessKey();
+                            // TODO check security
+                            if (result.getCollectionSchemaVersion() != schema.getVersion()) {
+                                migrator.migrate(collectionName, result.getCollectionSchemaVersion(), schema.getVersion(), result.getJsonContent());
+                                // queue migrate later?
+                            } else {
+                                os.write(decorateWithIdVersion(result.getJsonObject(projection), result.getDoxId(), result.getVersion()).toString());
+                                if (!last) {
+                                    os.write(',');
+                                }
+                            }
+
+                        }
+                        os.write(']');
+                    }
+                    return f.getCanonicalPath();
+                } catch (final IOException e) {
+                    throw new PersistenceException(e);
+                }
+            }
+        });
 
-        final File f = File.createTempFile("doxdb", collectionName);
+    }
 
-        try (final Writer os = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(f)), "UTF-8")) {
-            os.write('[');
+    private String readAllToString(final CollectionType config,
+        final DoxProjection projection) {
 
-            final List<Dox> results = em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME, Dox.class).setParameter("collectionName", collectionName).getResultList();
-            final Iterator<Dox> i = results.iterator();
-            while (i.hasNext()) {
+        final String collectionName = config.getName();
+        final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        final DoxDictionary collection = dictionary.collection(collectionName);
+        final DoxContentCodec codec = contentCodecs.forCollection(config);
 
-                final Dox result = i.next();
-                final boolean last = !i.hasNext();
-                result.getAccessKey();
-                // TODO check security
-                if (result.getCollectionSchemaVersion() != schema.getVersion()) {
-                    migrator.migrate(collectionName, result.getCollectionSchemaVersion(), schema.getVersion(), result.getJsonContent());
-                    // queue migrate later?
-                } else {
-                    os.write(decorateWithIdVersion(result.getJsonObject(), result.getDoxId(), result.getVersion()).toString());
-                    if (!last) {
-                        os.write(',');
+        return readOnly(config, new DoxReadOnly<String>() {
+
+            @Override
+            public String execute(final EntityManager em) {
+
+                final StringBuilder b = new StringBuilder("[");
+
+                final List<Dox> results = em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME, Dox.class).setParameter(Dox.COLLECTION, collection).getResultList();
+                for (final Dox result : results) {
+
+                    result.setContentCodec(codec);
+                    result.getAccessKey();
+                    // TODO check security
+                    if (result.getCollectionSchemaVersion() != schema.getVersion()) {
+                        migrator.migrate(collectionName, result.getCollectionSchemaVersion(), schema.getVersion(), result.getJsonContent());
+                        // queue migrate later?
+                    } else {
+                        b.append(decorateWithIdVersion(result.getJsonObject(projection), result.getDoxId(), result.getVersion()).toString());
+                        b.append(',');
                     }
-                }
 
+                }
+                if (b.length() > 1) {
+                    b.replace(b.length() - 1, b.length(), "]");
+                } else {
+                    b.append(']');
+                }
+                return b.toString();
             }
-            os.write(']');
-        }
-        return f.getCanonicalPath();
+        });
 
     }
 
-    private String readAllToString(final String collectionName) {
+    @Override
+    public JsonArray readByLookup(final String collectionName,
+        final String lookupName,
+        final String lookupKey) {
 
-        final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        return readByLookup(collectionName, lookupName, lookupKey, null);
+    }
 
-        final StringBuilder b = new StringBuilder("[");
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonArray readByLookup(final String collectionName,
+        final String lookupName,
+        final String lookupKey,
+        final DoxProjection projection) {
 
-        final List<Dox> results = em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME, Dox.class).setParameter(Dox.COLLECTION_NAME, collectionName).getResultList();
-        for (final Dox result : results) {
+        final DoxDictionary collection = dictionary.find(DoxDictionary.COLLECTION, collectionName);
+        final DoxDictionary lookupNameEntry = dictionary.find(DoxDictionary.LOOKUP, lookupName);
+        if (collection == null || lookupNameEntry == null) {
+            return Json.createArrayBuilder().build();
+        }
+        final List<Object[]> results = readOnly(configurationProvider.getCollection(collectionName), new DoxReadOnly<List<Object[]>>() {
 
-            result.getAccessKey();
-            // TODO check security
-            if (result.getCollectionSchemaVersion() != schema.getVersion()) {
-                migrator.migrate(collectionName, result.getCollectionSchemaVersion(), schema.getVersion(), result.getJsonContent());
-                // queue migrate later?
-            } else {
-                b.append(decorateWithIdVersion(result.getJsonObject(), result.getDoxId(), result.getVersion()).toString());
-                b.append(',');
+            @Override
+            public List<Object[]> execute(final EntityManager em) {
+
+                return em.createNamedQuery(DoxLookup.LOOKUP, Object[].class)
+                    .setParameter(DoxLookup.COLLECTION, collection)
+                    .setParameter(DoxLookup.LOOKUP_NAME, lookupNameEntry)
+                    .setParameter(DoxLookup.LOOKUP_KEY, lookupKey).getResultList();
             }
+        });
 
-        }
-        if (b.length() > 1) {
-            b.replace(b.length() - 1, b.length(), "]");
-        } else {
-            b.append(']');
-        }
-        return b.toString();
+        return buildLookupResults(collectionName, results, projection);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LookupPage readByLookupPrefix(final String collectionName,
+        final String lookupName,
+        final String prefix,
+        final DoxProjection projection,
+        final int firstResult,
+        final int maxResults) {
 
+        return readByOrderedLookup(collectionName, lookupName, null, null, prefix, projection, firstResult, maxResults);
     }
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
-    public JsonArray readByLookup(final String collectionName,
+    public LookupPage readByLookupRange(final String collectionName,
         final String lookupName,
-        final String lookupKey) {
+        final String fromKey,
+        final String toKey,
+        final DoxProjection projection,
+        final int firstResult,
+        final int maxResults) {
 
-        final List<Dox> results = em.createNamedQuery(DoxLookup.LOOKUP, Dox.class)
-            .setParameter(DoxLookup.COLLECTION_NAME, collectionName)
-            .setParameter(DoxLookup.LOOKUP_NAME, lookupName)
-            .setParameter(DoxLookup.LOOKUP_KEY, lookupKey).getResultList();
+        return readByOrderedLookup(collectionName, lookupName, fromKey, toKey, null, projection, firstResult, maxResults);
+    }
 
-        final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonArray readByLookups(final String collectionName,
+        final Map<String, String> lookups,
+        final DoxProjection projection) {
 
-        final JsonArrayBuilder b = Json.createArrayBuilder();
+        final List<Object[]> results = readOnly(configurationProvider.getCollection(collectionName), new DoxReadOnly<List<Object[]>>() {
 
-        for (final Dox result : results) {
+            @Override
+            public List<Object[]> execute(final EntityManager em) {
 
-            result.getAccessKey();
-            // TODO check security
-            if (result.getCollectionSchemaVersion() != schema.getVersion()) {
-                migrator.migrate(collectionName, result.getCollectionSchemaVersion(), schema.getVersion(), result.getJsonContent());
-                // queue migrate later?
-            } else {
-                b.add(decorateWithIdVersion(result.getJsonObject(), result.getDoxId(), result.getVersion()));
-                eventHandler.onRecordRead(ctx.getCallerPrincipal(), collectionName, result.getDoxId(), result.getJsonContent());
+                final TypedQuery<Object[]> query = createLookupsQuery(em, collectionName, lookups, Dox.LOOKUP_RESULT, Object[].class);
+                if (query == null) {
+                    return Collections.emptyList();
+                }
+                return query.getResultList();
+            }
+        });
+        return buildLookupResults(collectionName, results, projection);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonArray readByLookupKeys(final String collectionName,
+        final String lookupName,
+        final Collection<String> lookupKeys,
+        final DoxProjection projection) {
+
+        final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        final LookupType lookup = getLookup(schema, collectionName, lookupName);
+        final DoxDictionary collection = dictionary.find(DoxDictionary.COLLECTION, collectionName);
+        final DoxDictionary lookupNameEntry = dictionary.find(DoxDictionary.LOOKUP, lookupName);
+        if (collection == null || lookupNameEntry == null || lookupKeys.isEmpty()) {
+            return Json.createArrayBuilder().build();
+        }
+        final String queryName = isUniqueLookup(schema, lookup) ? DoxUnique.UNIQUE_LOOKUP_IN : DoxLookup.LOOKUP_IN;
+        final List<String> keys = new ArrayList<>(new LinkedHashSet<>(lookupKeys));
+        final List<Object[]> results = readOnly(configurationProvider.getCollection(collectionName), new DoxReadOnly<List<Object[]>>() {
+
+            @Override
+            public List<Object[]> execute(final EntityManager em) {
+
+                final List<Object[]> results = new ArrayList<>(keys.size());
+                for (int i = 0; i < keys.size(); i += MAX_IN_KEYS) {
+                    results.addAll(em.createNamedQuery(queryName, Object[].class)
+                        .setParameter(DoxLookup.COLLECTION, collection)
+                        .setParameter(DoxLookup.LOOKUP_NAME, lookupNameEntry)
+                        .setParameter(DoxLookup.LOOKUP_KEYS, keys.subList(i, Math.min(i + MAX_IN_KEYS, keys.size()))).getResultList());
+                }
+                return results;
             }
+        });
+        return buildLookupResults(collectionName, results, projection);
+    }
 
+    /**
+     * Reads the records of a lookup whose keys are in a range or start with a
+     * prefix.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name, unique or not
+     * @param fromKey
+     *            lowest key, may be <code>null</code>
+     * @param toKey
+     *            highest key, may be <code>null</code>
+     * @param prefix
+     *            key prefix, if it is not <code>null</code> the range is not
+     *            used
+     * @param projection
+     *            projection, may be <code>null</code>
+     * @param firstResult
+     *            index of the first result
+     * @param maxResults
+     *            maximum number of results
+     * @return matching records ordered by key and the number of rows read
+     */
+    private LookupPage readByOrderedLookup(final String collectionName,
+        final String lookupName,
+        final String fromKey,
+        final String toKey,
+        final String prefix,
+        final DoxProjection projection,
+        final int firstResult,
+        final int maxResults) {
+
+        final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+        final LookupType lookup = getLookup(schema, collectionName, lookupName);
+        final String entityName = isUniqueLookup(schema, lookup) ? "DoxUnique" : "DoxLookup";
+
+        final DoxDictionary collection = dictionary.find(DoxDictionary.COLLECTION, collectionName);
+        final DoxDictionary lookupNameEntry = dictionary.find(DoxDictionary.LOOKUP, lookupName);
+        if (collection == null || lookupNameEntry == null) {
+            return new LookupPage(Json.createArrayBuilder().build(), 0);
         }
-        return b.build();
+
+        final String attribute = DoxLookupKeys.getAttributeName(lookup);
+        final StringBuilder jpql = new StringBuilder("select ").append(Dox.LOOKUP_RESULT).append(" from ").append(entityName)
+            .append(" u join u.dox e where u.collection = :collection and u.lookupName = :lookupName and u.").append(attribute).append(" is not null");
+        if (prefix != null) {
+            if (lookup.getType() != LookupKeyType.STRING) {
+                throw new PersistenceException(lookupName + " is not a string lookup");
+            }
+            jpql.append(" and u.lookupKey like :prefix escape '!'");
+        } else {
+            if (fromKey != null) {
+                jpql.append(" and u.").append(attribute).append(" >= :fromKey");
+            }
+            if (toKey != null) {
+                jpql.append(" and u.").append(attribute).append(" <= :toKey");
+            }
+        }
+        jpql.append(" order by u.").append(attribute).append(", u.id");
+
+        final Object from = fromKey == null || prefix != null ? null : DoxLookupKeys.parse(lookup, fromKey);
+        final Object to = toKey == null || prefix != null ? null : DoxLookupKeys.parse(lookup, toKey);
+        final List<Object[]> results = readOnly(configurationProvider.getCollection(collectionName), new DoxReadOnly<List<Object[]>>() {
+
+            @Override
+            public List<Object[]> execute(final EntityManager em) {
+
+                final TypedQuery<Object[]> query = em.createQuery(jpql.toString(), Object[].class)
+                    .setParameter(DoxLookup.COLLECTION, collection)
+                    .setParameter(DoxLookup.LOOKUP_NAME, lookupNameEntry)
+                    .setFirstResult(firstResult)
+                    .setMaxResults(maxResults);
+                if (prefix != null) {
+                    query.setParameter("prefix", prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%");
+                } else {
+                    if (from != null) {
+                        query.setParameter("fromKey", from);
+                    }
+                    if (to != null) {
+                        query.setParameter("toKey", to);
+                    }
+                }
+                return query.getResultList();
+            }
+        });
+        return new LookupPage(buildLookupResults(collectionName, results, projection), results.size());
     }
 
     /**
@@ -578,26 +1228,194 @@ public class DoxBean implements
         final String lookupName,
         final String lookupKey) {
 
-        final Dox dox = (Dox) em.createNamedQuery(DoxUnique.UNIQUE_LOOKUP)
-            .setParameter(DoxUnique.COLLECTION_NAME, collectionName)
-            .setParameter(DoxUnique.LOOKUP_NAME, lookupName)
-            .setParameter(DoxUnique.LOOKUP_KEY, lookupKey).getSingleResult();
-        return read(collectionName, dox.getDoxId());
+        final DoxDictionary collection = dictionary.find(DoxDictionary.COLLECTION, collectionName);
+        final DoxDictionary lookupNameEntry = dictionary.find(DoxDictionary.LOOKUP, lookupName);
+        if (collection == null || lookupNameEntry == null) {
+            throw new NoResultException(collectionName + " " + lookupName);
+        }
+        final int schemaVersion = configurationProvider.getCollectionSchema(collectionName).getVersion();
+        final DoxContentCodec codec = contentCodecs.forCollection(configurationProvider.getCollection(collectionName));
+        final DoxMeta meta = readOnly(configurationProvider.getCollection(collectionName), new DoxReadOnly<DoxMeta>() {
+
+            @Override
+            public DoxMeta execute(final EntityManager em) {
+
+                final Object[] result = em.createNamedQuery(DoxUnique.UNIQUE_LOOKUP, Object[].class)
+                    .setParameter(DoxUnique.COLLECTION, collection)
+                    .setParameter(DoxUnique.LOOKUP_NAME, lookupNameEntry)
+                    .setParameter(DoxUnique.LOOKUP_KEY, lookupKey).getSingleResult();
+                final DoxMeta meta = (DoxMeta) result[0];
+                meta.getAccessKey();
+                if (meta.getCollectionSchemaVersion() == schemaVersion) {
+                    meta.setContentJson(Dox.decodeContent(codec, (byte[]) result[1], null), meta.getDoxId(), meta.getVersion());
+                }
+                return meta;
+            }
+        });
+        // TODO check the security.
+        if (meta.getCollectionSchemaVersion() != schemaVersion) {
+            // read migrates the record on the primary
+            return read(collectionName, meta.getDoxId());
+        }
+        eventHandler.onRecordRead(ctx.getCallerPrincipal(), collectionName, meta.getDoxId(), meta.getContentJson());
+        return meta;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoxID readDoxIdByUniqueLookup(final String collectionName,
+        final String lookupName,
+        final String lookupKey) {
+
+        final DoxDictionary collection = dictionary.find(DoxDictionary.COLLECTION, collectionName);
+        final DoxDictionary lookupNameEntry = dictionary.find(DoxDictionary.LOOKUP, lookupName);
+        if (collection == null || lookupNameEntry == null) {
+            return null;
+        }
+        // a lagging replica would leave a stale entry in the shared cache
+        return uniqueCache.resolve(getEntityManager(configurationProvider.getCollection(collectionName)), collection, lookupNameEntry, lookupKey);
+    }
+
+    /**
+     * Reads the lock along with the record for an update. If the lock is not
+     * held this throws the same exception as {@link #verifyLockedBy}, if the
+     * version does not match an {@link OptimisticLockException} is thrown.
+     *
+     * @param em
+     *            entity manager for the collection
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param version
+     *            version
+     * @param lockId
+     *            lock ID
+     * @return lock with the record
+     */
+    private DoxLock readLockForUpdate(final EntityManager em,
+        final String collectionName,
+        final DoxID doxId,
+        final int version,
+        final int lockId) {
+
+        try {
+            return em.createNamedQuery(DoxLock.READ_LOCK_FOR_UPDATE_BY_COLLECTION_NAME_DOX_ID_LOCK_ID_VERSION, DoxLock.class)
+                .setParameter(DoxLock.COLLECTION, dictionary.collection(collectionName))
+                .setParameter(DoxLock.DOXID, doxId.toString())
+                .setParameter(DoxLock.VERSION, version)
+                .setParameter(DoxLock.LOCKID, lockId)
+                .setParameter(DoxLock.NOW, new Date())
+                .getSingleResult();
+        } catch (final NoResultException e) {
+            // only on failure is the cause looked up
+            verifyLockedBy(em, collectionName, doxId, lockId);
+            throw new OptimisticLockException(e);
+        }
     }
 
-    private DoxMeta readMetaAndLock(
+    private DoxMeta readMetaAndLock(final EntityManager em,
         final String schemaName,
         final DoxID doxid,
         final int version) {
 
         try {
-            return em.createNamedQuery(Dox.READ_FOR_UPDATE_META_BY_SCHEMA_NAME_DOX_ID_VERSION, DoxMeta.class).setParameter("doxId", doxid.toString()).setParameter("collectionName", schemaName).setParameter("version", version).getSingleResult();
+            return em.createNamedQuery(Dox.READ_FOR_UPDATE_META_BY_SCHEMA_NAME_DOX_ID_VERSION, DoxMeta.class).setParameter("doxId", doxid.toString()).setParameter(Dox.COLLECTION, dictionary.collection(schemaName)).setParameter("version", version).getSingleResult();
 
         } catch (final NoResultException e) {
             throw new OptimisticLockException(e);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readOob(final String collectionName,
+        final DoxID doxId,
+        final String oobName,
+        final String contentHash,
+        final long offset,
+        final long length,
+        final OutputStream os) throws IOException {
+
+        final CollectionType config = configurationProvider.getCollection(collectionName);
+        final EntityManager em = getEntityManager(config);
+        final DoxOobMeta meta = readOobMeta(em, collectionName, doxId, oobName);
+        if (meta == null) {
+            throw new EntityNotFoundException(collectionName + " " + doxId + " has no attachment " + oobName);
+        }
+        if (contentHash != null && !contentHash.equals(meta.getContentHash())) {
+            throw new PersistenceException(collectionName + " " + doxId + " attachment " + oobName + " was changed");
+        }
+        // content written before the store was configured is still in the database
+        if (oobStore.isEnabled() && oobStore.exists(meta.getContentHash())) {
+            oobStore.transferTo(meta.getContentHash(), offset, length, os);
+            return;
+        }
+
+        try (final PreparedStatement stmt = em.unwrap(Connection.class).prepareStatement("select content from " + DoxStorage.getSchemaPrefix(config, null) + "doxoob where id = ?")) {
+            stmt.setLong(1, meta.getId());
+            try (final ResultSet rs = stmt.executeQuery()) {
+                // the attachment may have been deleted or moved to the store since its meta data was read
+                try (final InputStream is = rs.next() ? rs.getBinaryStream(1) : null) {
+                    if (is == null) {
+                        throw new EntityNotFoundException(collectionName + " " + doxId + " has no content for attachment " + oobName);
+                    }
+                    long skipped = 0;
+                    while (skipped < offset) {
+                        final long n = is.skip(offset - skipped);
+                        if (n <= 0) {
+                            throw new PersistenceException("Unable to skip to " + offset);
+                        }
+                        skipped += n;
+                    }
+                    final byte[] buffer = new byte[8192];
+                    long remaining = length;
+                    while (remaining > 0) {
+                        final int n = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (n == -1) {
+                            break;
+                        }
+                        os.write(buffer, 0, n);
+                        remaining -= n;
+                    }
+                }
+            }
+        } catch (final SQLException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoxOobMeta readOobMeta(final String collectionName,
+        final DoxID doxId,
+        final String oobName) {
+
+        return readOobMeta(getEntityManager(configurationProvider.getCollection(collectionName)), collectionName, doxId, oobName);
+    }
+
+    private DoxOobMeta readOobMeta(final EntityManager em,
+        final String collectionName,
+        final DoxID doxId,
+        final String oobName) {
+
+        try {
+            return em.createNamedQuery(DoxOob.READ_META_BY_COLLECTION_NAME_DOX_ID_OOB_NAME, DoxOobMeta.class)
+                .setParameter(DoxOob.COLLECTION, dictionary.collection(collectionName))
+                .setParameter(DoxOob.DOXID, doxId.toString())
+                .setParameter(DoxOob.OOB_NAME, oobName)
+                .getSingleResult();
+        } catch (final NoResultException e) {
+            return null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -610,21 +1428,28 @@ public class DoxBean implements
         // reindexing can be done in chunks and let an MDB do the process
         for (final CollectionType config : configurationProvider.getPersistenceConfig().getCollection()) {
 
-            em.createNamedQuery(DoxUnique.REMOVE_ALL)
+            final EntityManager em = getEntityManager(config);
+            final DoxDictionary collection = dictionary.collection(config.getName());
+
+            em.createNamedQuery(DoxUnique.REMOVE_ALL_BY_COLLECTION)
+                .setParameter(DoxUnique.COLLECTION, collection)
                 .executeUpdate();
 
-            em.createNamedQuery(DoxLookup.REMOVE_ALL)
+            em.createNamedQuery(DoxLookup.REMOVE_ALL_BY_COLLECTION)
+                .setParameter(DoxLookup.COLLECTION, collection)
                 .executeUpdate();
 
             final SchemaType schemaType = config.getSchema().get(config.getSchema().size() - 1);
 
             final List<IndexView> indexViews = new LinkedList<>();
-            for (final Dox e : em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME, Dox.class).setParameter(Dox.COLLECTION_NAME, config.getName()).getResultList()) {
+            final DoxContentCodec codec = contentCodecs.forCollection(config);
+            for (final Dox e : em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME, Dox.class).setParameter(Dox.COLLECTION, collection).getResultList()) {
 
-                for (final DoxUnique doxUnique : DoxUnique.fromDox(e, schemaType)) {
+                e.setContentCodec(codec);
+                for (final DoxUnique doxUnique : DoxUnique.fromDox(e, schemaType, dictionary)) {
                     em.persist(doxUnique);
                 }
-                for (final DoxLookup doxLookup : DoxLookup.fromDox(e, schemaType)) {
+                for (final DoxLookup doxLookup : DoxLookup.fromDox(e, schemaType, dictionary)) {
                     em.persist(doxLookup);
                 }
                 // TODO later
@@ -633,8 +1458,18 @@ public class DoxBean implements
                 for (final IndexView indexView : indexViewBuilt) {
                     indexView.setCollection(e.getCollectionName());
                     indexView.setDoxID(e.getDoxId());
+                    indexView.setDoxRecordId(e.getDoxRecordId());
+                    indexView.setVersion(e.getVersion());
                     indexViews.add(indexView);
                 }
+                final String indexNames = Dox.indexNames(indexViewBuilt);
+                if (!indexNames.equals(e.getIndexNames())) {
+                    // bulk update so the version of the record is kept
+                    em.createNamedQuery(Dox.UPDATE_INDEX_NAMES_BY_ID)
+                        .setParameter(Dox.INDEX_NAMES, indexNames)
+                        .setParameter("id", e.getDoxRecordId())
+                        .executeUpdate();
+                }
 
             }
             doxSearchBean.addToIndex(indexViews.toArray(new IndexView[0]));
@@ -643,6 +1478,36 @@ public class DoxBean implements
 
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Date renewLock(final String collectionName,
+        final DoxID doxId,
+        final int lockId) {
+
+        final CollectionType config = configurationProvider.getCollection(collectionName);
+        if (!config.isLockable()) {
+            throw new PersistenceException(collectionName + " is not lockable");
+        }
+        final EntityManager em = getEntityManager(config);
+
+        final Date ts = new Date();
+        final Date expiresOn = lockManager.getExpiresOn(ts);
+        final int renewed = em.createNamedQuery(DoxLock.RENEW_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID)
+            .setParameter(DoxLock.COLLECTION, dictionary.collection(collectionName))
+            .setParameter(DoxLock.DOXID, doxId.toString())
+            .setParameter(DoxLock.LOCKID, lockId)
+            .setParameter(DoxLock.EXPIRES_ON, expiresOn)
+            .setParameter(DoxLock.NOW, ts)
+            .executeUpdate();
+        if (renewed == 0) {
+            throw new PersistenceException(collectionName + " " + doxId + " is not locked by " + lockId);
+        }
+        lockManager.renewed(collectionName, doxId, lockId, expiresOn);
+        return expiresOn;
+    }
+
     @Override
     public SearchResult search(final String index,
         final String queryString,
@@ -682,6 +1547,18 @@ public class DoxBean implements
         this.configurationProvider = configurationProvider;
     }
 
+    @EJB
+    public void setContentCodecs(final DoxContentCodecBean contentCodecs) {
+
+        this.contentCodecs = contentCodecs;
+    }
+
+    @EJB
+    public void setDictionary(final DoxDictionaryBean dictionary) {
+
+        this.dictionary = dictionary;
+    }
+
     @EJB
     public void setDoxSearchBean(final DoxSearch doxSearchBean) {
 
@@ -697,7 +1574,7 @@ public class DoxBean implements
     @PersistenceContext
     public void setEntityManager(final EntityManager em) {
 
-        this.em = em;
+        defaultEntityManager = em;
     }
 
     @EJB
@@ -712,17 +1589,41 @@ public class DoxBean implements
         this.indexer = indexer;
     }
 
+    @EJB
+    public void setLockManager(final DoxLockManagerBean lockManager) {
+
+        this.lockManager = lockManager;
+    }
+
     @EJB
     public void setMigrator(final Migrator migrator) {
 
         this.migrator = migrator;
     }
 
+    @EJB
+    public void setOobStore(final DoxOobStoreBean oobStore) {
+
+        this.oobStore = oobStore;
+    }
+
+    @EJB
+    public void setReplica(final DoxReplicaBean replica) {
+
+        this.replica = replica;
+    }
+
     public void setSessionContext(final SessionContext ctx) {
 
         this.ctx = ctx;
     }
 
+    @EJB
+    public void setUniqueCache(final DoxUniqueCacheBean uniqueCache) {
+
+        this.uniqueCache = uniqueCache;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -731,14 +1632,18 @@ public class DoxBean implements
         final DoxID doxId,
         final int lockId) {
 
-        if (!configurationProvider.getCollection(collectionName).isLockable()) {
+        final CollectionType config = configurationProvider.getCollection(collectionName);
+        if (!config.isLockable()) {
             throw new PersistenceException(collectionName + " is not lockable");
         }
+        final long start = System.nanoTime();
+        final EntityManager em = getEntityManager(config);
 
         em.createNamedQuery(DoxLock.REMOVE_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID)
-            .setParameter(DoxLock.COLLECTION_NAME, collectionName)
+            .setParameter(DoxLock.COLLECTION, dictionary.collection(collectionName))
             .setParameter(DoxLock.DOXID, doxId.toString())
             .setParameter(DoxLock.LOCKID, lockId).executeUpdate();
+        lockManager.released(collectionName, doxId, lockId, System.nanoTime() - start);
 
     }
 
@@ -754,7 +1659,7 @@ public class DoxBean implements
         if (configurationProvider.getCollection(collectionName).isLockable()) {
             throw new PersistenceException("The lockId must be specified for updating " + collectionName);
         }
-        return doUpdate(collectionName, doxId, contents, version);
+        return doUpdate(collectionName, doxId, contents, version, null, false);
     }
 
     /**
@@ -767,11 +1672,24 @@ public class DoxBean implements
         final int version,
         final int lockId) {
 
+        return update(collectionName, doxId, contents, version, lockId, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoxMeta update(final String collectionName,
+        final DoxID doxId,
+        final JsonObject contents,
+        final int version,
+        final int lockId,
+        final boolean unlock) {
+
         if (!configurationProvider.getCollection(collectionName).isLockable()) {
             throw new PersistenceException(collectionName + " is not lockable");
         }
-        verifyLockedBy(collectionName, doxId, lockId);
-        return doUpdate(collectionName, doxId, contents, version);
+        return doUpdate(collectionName, doxId, contents, version, lockId, unlock);
     }
 
     private void validate(final SchemaType schema,
@@ -809,6 +1727,8 @@ public class DoxBean implements
     /**
      * Check if a record is locked by the given lock ID.
      *
+     * @param em
+     *            entity manager for the collection
      * @param collectionName
      *            collection name
      * @param doxId
@@ -816,14 +1736,99 @@ public class DoxBean implements
      * @param lockId
      *            lock ID
      */
-    private void verifyLockedBy(final String collectionName,
+    private void verifyLockedBy(final EntityManager em,
+        final String collectionName,
         final DoxID doxId,
         final int lockId) {
 
+        if (lockManager.isHeld(collectionName, doxId, lockId)) {
+            return;
+        }
         em.createNamedQuery(DoxLock.READ_LOCK_BY_COLLECTION_NAME_DOX_ID_LOCK_ID)
-            .setParameter(DoxLock.COLLECTION_NAME, collectionName)
+            .setParameter(DoxLock.COLLECTION, dictionary.collection(collectionName))
             .setParameter(DoxLock.DOXID, doxId.toString())
-            .setParameter(DoxLock.LOCKID, lockId).getSingleResult();
+            .setParameter(DoxLock.LOCKID, lockId)
+            .setParameter(DoxLock.NOW, new Date())
+            .getSingleResult();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DoxOobMeta writeOob(final String collectionName,
+        final DoxID doxId,
+        final String oobName,
+        final String contentType,
+        final InputStream content) {
+
+        if (oobName.length() > DoxLength.OOB_NAME_LENGTH) {
+            throw new PersistenceException("Attachment name " + oobName + " is longer than " + DoxLength.OOB_NAME_LENGTH);
+        }
+        final CollectionType config = configurationProvider.getCollection(collectionName);
+        final EntityManager em = getEntityManager(config);
+        final Date ts = new Date();
+        final String principal = ctx.getCallerPrincipal().getName();
+
+        final long id;
+        final DoxOobMeta existing = readOobMeta(em, collectionName, doxId, oobName);
+        if (existing == null) {
+            final Dox parent;
+            try {
+                parent = em.createNamedQuery(Dox.READ_BY_COLLECTION_NAME_DOX_ID, Dox.class)
+                    .setParameter(Dox.COLLECTION, dictionary.collection(collectionName))
+                    .setParameter(DoxOob.DOXID, doxId.toString())
+                    .getSingleResult();
+            } catch (final NoResultException e) {
+                throw new EntityNotFoundException(collectionName + " " + doxId + " was not found");
+            }
+            final DoxOob oob = new DoxOob();
+            oob.setParentDox(parent);
+            oob.setOobName(oobName);
+            oob.setContentHash(DoxOobInputStream.hash(new byte[0]));
+            oob.setCreatedBy(principal);
+            oob.setCreatedOn(ts);
+            oob.setLastUpdatedBy(principal);
+            oob.setLastUpdatedOn(ts);
+            em.persist(oob);
+            em.flush();
+            id = oob.getId();
+        } else {
+            id = existing.getId();
+        }
+
+        // the content is streamed with JDBC so it is never held in memory
+        final DoxOobInputStream is;
+        try (final PreparedStatement stmt = em.unwrap(Connection.class).prepareStatement("update " + DoxStorage.getSchemaPrefix(config, null) + "doxoob set content = ? where id = ?")) {
+            if (oobStore.isEnabled()) {
+                is = oobStore.write(content, oobStore.getMaxLength(config));
+                if (existing != null) {
+                    // clears content written before the store was configured
+                    stmt.setBytes(1, new byte[0]);
+                    stmt.setLong(2, id);
+                    stmt.executeUpdate();
+                }
+            } else {
+                is = new DoxOobInputStream(content, oobStore.getMaxLength(config));
+                stmt.setBinaryStream(1, is);
+                stmt.setLong(2, id);
+                stmt.executeUpdate();
+            }
+        } catch (final IOException
+            | SQLException e) {
+            throw new PersistenceException(e);
+        }
+
+        em.createNamedQuery(DoxOob.UPDATE_CONTENT_META_BY_ID)
+            .setParameter(DoxOob.CONTENT_TYPE, contentType)
+            .setParameter(DoxOob.CONTENT_LENGTH, is.getCount())
+            .setParameter(DoxOob.CONTENT_HASH, is.getHash())
+            .setParameter(DoxOob.LAST_UPDATED_BY, principal)
+            .setParameter(DoxOob.LAST_UPDATED_ON, ts)
+            .setParameter(DoxOob.ID, id)
+            .executeUpdate();
+        replica.recordWrite(ctx.getCallerPrincipal());
+        return new DoxOobMeta(id, oobName, contentType, is.getCount(), is.getHash(), principal, ts);
     }
 
 }
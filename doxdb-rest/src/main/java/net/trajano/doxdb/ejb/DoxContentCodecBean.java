@@ -0,0 +1,164 @@
+package net.trajano.doxdb.ejb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.persistence.PersistenceException;
+
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.internal.DoxContentCodec;
+import net.trajano.doxdb.schema.CollectionType;
+import net.trajano.doxdb.schema.CompressionType;
+
+/**
+ * Holds the content codecs of the collections. The codecs of every
+ * configured collection are built when the application starts as content is
+ * decoded without knowing its collection so a dictionary has to be known
+ * before any record compressed with it is read, not only once the collection
+ * is written to.
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@LocalBean
+@Lock(LockType.READ)
+public class DoxContentCodecBean {
+
+    /**
+     * Loads a dictionary from the class path.
+     *
+     * @param location
+     *            location relative to <code>META-INF/dictionary</code>
+     * @return dictionary bytes
+     */
+    private static byte[] loadDictionary(final String location) {
+
+        try (final InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream("META-INF/dictionary/" + location)) {
+            if (is == null) {
+                throw new PersistenceException("Unable to find compression dictionary " + location);
+            }
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int c = is.read(buffer);
+            while (c != -1) {
+                baos.write(buffer, 0, c);
+                c = is.read(buffer);
+            }
+            return baos.toByteArray();
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+    }
+
+    /**
+     * Codecs keyed by collection name.
+     */
+    private final ConcurrentMap<String, DoxContentCodec> codecs = new ConcurrentHashMap<>();
+
+    private ConfigurationProvider configurationProvider;
+
+    /**
+     * Codec used to decode content when the collection is not known.
+     */
+    private final DoxContentCodec decoder;
+
+    /**
+     * Preset dictionaries of the codecs keyed by their Adler-32 checksum.
+     */
+    private final ConcurrentMap<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    public DoxContentCodecBean() {
+        decoder = new DoxContentCodec(CompressionType.NONE, null, dictionaries);
+    }
+
+    /**
+     * Decodes stored content of any collection.
+     *
+     * @param stored
+     *            stored content
+     * @return serialized BSON
+     */
+    public byte[] decode(final byte[] stored) {
+
+        return decoder.decode(stored);
+    }
+
+    /**
+     * Gets the codec for a collection. The codec is built once per collection
+     * and reused afterwards.
+     *
+     * @param collection
+     *            collection configuration
+     * @return codec
+     */
+    public DoxContentCodec forCollection(final CollectionType collection) {
+
+        final DoxContentCodec existing = codecs.get(collection.getName());
+        if (existing != null) {
+            return existing;
+        }
+
+        byte[] dictionary = null;
+        if (collection.getCompression() != CompressionType.NONE && collection.getCompressionDictionary() != null) {
+            dictionary = loadDictionary(collection.getCompressionDictionary());
+        }
+        final DoxContentCodec codec = new DoxContentCodec(collection.getCompression(), dictionary, dictionaries);
+        final DoxContentCodec previous = codecs.putIfAbsent(collection.getName(), codec);
+        return previous == null ? codec : previous;
+    }
+
+    /**
+     * Builds the compression statistics. It contains the totals for the
+     * decoding and the encoding statistics for each collection.
+     *
+     * @return statistics
+     */
+    public JsonObject getStatistics() {
+
+        final JsonObjectBuilder collections = Json.createObjectBuilder();
+        long decodedCount = decoder.getDecodedCount();
+        long decodeNanos = decoder.getDecodeNanos();
+        for (final Map.Entry<String, DoxContentCodec> entry : codecs.entrySet()) {
+            collections.add(entry.getKey(), entry.getValue().getEncodeStatistics());
+            decodedCount += entry.getValue().getDecodedCount();
+            decodeNanos += entry.getValue().getDecodeNanos();
+        }
+        return Json.createObjectBuilder()
+            .add("collections", collections)
+            .add("decoded_count", decodedCount)
+            .add("decode_nanos", decodeNanos)
+            .build();
+    }
+
+    /**
+     * Builds the codecs of the collections.
+     */
+    @PostConstruct
+    public void init() {
+
+        for (final CollectionType collection : configurationProvider.getPersistenceConfig().getCollection()) {
+            forCollection(collection);
+        }
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+}
@@ -0,0 +1,237 @@
+package net.trajano.doxdb.ejb;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Resource;
+import javax.ejb.EJBException;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+import net.trajano.doxdb.DoxDictionary;
+
+/**
+ * <p>
+ * Resolves names to their {@link DoxDictionary} entries and keeps them cached
+ * in memory. Entries are immutable so the cache never needs to be invalidated.
+ * </p>
+ * <p>
+ * Missing entries are created in a transaction of their own so an entry is
+ * only cached once it has been committed. If another node creates the same
+ * entry at the same time the unique constraint rejects one of them and the
+ * entry that was committed is read instead.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@LocalBean
+@Lock(LockType.READ)
+@TransactionAttribute(TransactionAttributeType.SUPPORTS)
+public class DoxDictionaryBean {
+
+    /**
+     * Cached entries keyed by kind then by name.
+     */
+    private final Map<Integer, ConcurrentMap<String, DoxDictionary>> caches = new HashMap<>();
+
+    /**
+     * Session context. Used to call {@link #create(int, String)} through the
+     * container so it runs in its own transaction.
+     */
+    @Resource
+    private SessionContext ctx;
+
+    private EntityManager em;
+
+    public DoxDictionaryBean() {
+
+        caches.put(DoxDictionary.COLLECTION, new ConcurrentHashMap<String, DoxDictionary>());
+        caches.put(DoxDictionary.LOOKUP, new ConcurrentHashMap<String, DoxDictionary>());
+        caches.put(DoxDictionary.PRINCIPAL, new ConcurrentHashMap<String, DoxDictionary>());
+    }
+
+    /**
+     * Gets the entry for a collection name creating it if needed.
+     *
+     * @param collectionName
+     *            collection name
+     * @return entry
+     */
+    public DoxDictionary collection(final String collectionName) {
+
+        return get(DoxDictionary.COLLECTION, collectionName);
+    }
+
+    /**
+     * Creates an entry if it does not exist yet. This runs in its own
+     * transaction and should only be called through the container.
+     *
+     * @param kind
+     *            kind
+     * @param name
+     *            name
+     * @return entry
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public DoxDictionary create(final int kind,
+        final String name) {
+
+        final DoxDictionary existing = query(kind, name);
+        if (existing != null) {
+            return existing;
+        }
+        final DoxDictionary entry = new DoxDictionary(kind, name);
+        em.persist(entry);
+        em.flush();
+        return entry;
+    }
+
+    /**
+     * Finds an entry without creating it. Used for reads so that names that
+     * were never written do not get added.
+     *
+     * @param kind
+     *            kind
+     * @param name
+     *            name
+     * @return entry or <code>null</code> if there is none.
+     */
+    public DoxDictionary find(final int kind,
+        final String name) {
+
+        final ConcurrentMap<String, DoxDictionary> cache = caches.get(kind);
+        final DoxDictionary cached = cache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        final DoxDictionary entry = query(kind, name);
+        if (entry != null) {
+            cache.putIfAbsent(name, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Gets an entry creating it if needed.
+     *
+     * @param kind
+     *            kind
+     * @param name
+     *            name
+     * @return entry
+     */
+    public DoxDictionary get(final int kind,
+        final String name) {
+
+        final DoxDictionary found = find(kind, name);
+        if (found != null) {
+            return found;
+        }
+        DoxDictionary entry;
+        try {
+            entry = ctx.getBusinessObject(DoxDictionaryBean.class).create(kind, name);
+        } catch (EJBException
+            | PersistenceException e) {
+            entry = query(kind, name);
+            if (entry == null) {
+                throw e;
+            }
+        }
+        final DoxDictionary previous = caches.get(kind).putIfAbsent(name, entry);
+        return previous == null ? entry : previous;
+    }
+
+    /**
+     * Builds the cache statistics.
+     *
+     * @return statistics
+     */
+    public JsonObject getStatistics() {
+
+        return Json.createObjectBuilder()
+            .add("collections", caches.get(DoxDictionary.COLLECTION).size())
+            .add("lookups", caches.get(DoxDictionary.LOOKUP).size())
+            .add("principals", caches.get(DoxDictionary.PRINCIPAL).size())
+            .build();
+    }
+
+    /**
+     * Gets the entry for a lookup name creating it if needed.
+     *
+     * @param lookupName
+     *            lookup name
+     * @return entry
+     */
+    public DoxDictionary lookupName(final String lookupName) {
+
+        return get(DoxDictionary.LOOKUP, lookupName);
+    }
+
+    /**
+     * Gets the entry for a principal creating it if needed.
+     *
+     * @param principal
+     *            principal
+     * @return entry
+     */
+    public DoxDictionary principal(final Principal principal) {
+
+        return get(DoxDictionary.PRINCIPAL, principal.getName());
+    }
+
+    /**
+     * Queries the database for an entry.
+     *
+     * @param kind
+     *            kind
+     * @param name
+     *            name
+     * @return entry or <code>null</code>
+     */
+    private DoxDictionary query(final int kind,
+        final String name) {
+
+        final List<DoxDictionary> results = em.createNamedQuery(DoxDictionary.READ_BY_KIND_NAME, DoxDictionary.class)
+            .setParameter("kind", kind)
+            .setParameter("name", name)
+            .getResultList();
+        if (results.isEmpty()) {
+            return null;
+        }
+        final DoxDictionary entry = results.get(0);
+        em.detach(entry);
+        return entry;
+    }
+
+    /**
+     * Injects the {@link EntityManager}.
+     *
+     * @param em
+     *            entity manager
+     */
+    @PersistenceContext
+    public void setEntityManager(final EntityManager em) {
+
+        this.em = em;
+    }
+
+    public void setSessionContext(final SessionContext ctx) {
+
+        this.ctx = ctx;
+    }
+}
@@ -1,5 +1,6 @@
 package net.trajano.doxdb.ejb;
 
+import java.io.OutputStream;
 import java.util.Date;
 
 import javax.ejb.Local;
@@ -12,6 +13,33 @@ public interface DoxImport {
         String schema,
         Date fromLastUpdatedOn);
 
+    JsonObject exportDox(String exportPath,
+        String schema,
+        Date fromLastUpdatedOn,
+        int threads);
+
+    JsonObject exportDox(OutputStream os,
+        String schema,
+        Date fromLastUpdatedOn);
+
+    JsonObject exportDoxToSegments(String exportPath,
+        String schema,
+        Date fromLastUpdatedOn);
+
     JsonObject importDox(String importPath);
 
+    JsonObject importDox(String importPath,
+        int threads,
+        int commitSize);
+
+    JsonObject importDox(String importPath,
+        int threads,
+        int commitSize,
+        boolean deferSecondary,
+        boolean suspendRefresh);
+
+    JsonObject mergeDox(String importPath,
+        int threads,
+        int commitSize);
+
 }
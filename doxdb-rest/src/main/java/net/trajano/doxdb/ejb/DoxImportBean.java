@@ -1,15 +1,22 @@
 package net.trajano.doxdb.ejb;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.Principal;
@@ -19,29 +26,52 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
-import java.util.SortedSet;
-import java.util.TreeSet;
-
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.activation.DataHandler;
 import javax.annotation.Resource;
 import javax.ejb.EJB;
 import javax.ejb.Local;
 import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionManagement;
 import javax.ejb.TransactionManagementType;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.Dependent;
 import javax.json.Json;
+import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
 import javax.mail.BodyPart;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.util.ByteArrayDataSource;
 import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceContext;
 import javax.persistence.PersistenceException;
 import javax.sql.DataSource;
@@ -49,6 +79,7 @@ import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.NotSupportedException;
 import javax.transaction.RollbackException;
+import javax.transaction.Status;
 import javax.transaction.SystemException;
 import javax.transaction.UserTransaction;
 import javax.validation.ValidationException;
@@ -56,10 +87,6 @@ import javax.ws.rs.core.MediaType;
 import javax.xml.bind.DatatypeConverter;
 
 import org.bson.BsonBinaryReader;
-import org.bson.BsonDocument;
-import org.bson.codecs.BsonDocumentCodec;
-import org.bson.codecs.DecoderContext;
-import org.bson.json.JsonWriterSettings;
 
 import com.github.fge.jackson.JsonLoader;
 import com.github.fge.jsonschema.core.exceptions.ProcessingException;
@@ -67,20 +94,30 @@ import com.github.fge.jsonschema.core.report.ProcessingReport;
 import com.github.fge.jsonschema.main.JsonSchema;
 
 import net.trajano.doxdb.Dox;
+import net.trajano.doxdb.DoxDictionary;
 import net.trajano.doxdb.DoxID;
 import net.trajano.doxdb.DoxLookup;
 import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.DoxOob;
 import net.trajano.doxdb.DoxUnique;
 import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.ejb.internal.DoxLookupKeys;
+import net.trajano.doxdb.ejb.internal.DoxOobInputStream;
+import net.trajano.doxdb.ejb.internal.DoxSegmentReader;
+import net.trajano.doxdb.ejb.internal.DoxSegmentWriter;
+import net.trajano.doxdb.ejb.internal.DoxStorage;
 import net.trajano.doxdb.ext.CollectionAccessControl;
 import net.trajano.doxdb.ext.ConfigurationProvider;
 import net.trajano.doxdb.ext.EventHandler;
 import net.trajano.doxdb.ext.Indexer;
 import net.trajano.doxdb.ext.Migrator;
+import net.trajano.doxdb.internal.DoxContentCodec;
+import net.trajano.doxdb.internal.JsonBsonCodec;
 import net.trajano.doxdb.internal.DoxPrincipal;
-import net.trajano.doxdb.jsonpath.JsonPath;
 import net.trajano.doxdb.schema.CollectionType;
 import net.trajano.doxdb.schema.LookupType;
+import net.trajano.doxdb.schema.ReadConsistencyType;
+import net.trajano.doxdb.schema.ReplicaType;
 import net.trajano.doxdb.schema.SchemaType;
 
 @TransactionManagement(TransactionManagementType.BEAN)
@@ -90,21 +127,330 @@ import net.trajano.doxdb.schema.SchemaType;
 @Local(DoxImport.class)
 public class DoxImportBean {
 
+    /**
+     * A range of records of a collection exported by one worker in one
+     * transaction.
+     */
+    private static final class ExportRange {
+
+        private final long collectionId;
+
+        /**
+         * Last record ID in the range, inclusive.
+         */
+        private final long last;
+
+        private final long first;
+
+        private final String tableSchema;
+
+        private ExportRange(final String tableSchema,
+            final long collectionId,
+            final long first,
+            final long last) {
+            this.tableSchema = tableSchema;
+            this.collectionId = collectionId;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * A record passed between the stages of an import.
+     */
+    private static final class ImportItem {
+
+        /**
+         * Marks the end of a queue.
+         */
+        private static final ImportItem END = new ImportItem(null, null, null);
+
+        private byte[] accessKey;
+
+        /**
+         * Offset in the segment file of the block holding the record.
+         */
+        private long blockOffset;
+
+        private CollectionType config;
+
+        /**
+         * Content encoded with the codec of the collection.
+         */
+        private byte[] encodedContent;
+
+        private Exception failure;
+
+        /**
+         * File of the file export, <code>null</code> for a segment.
+         */
+        private final Path file;
+
+        /**
+         * Index names of the record, <code>null</code> when the search index
+         * is built after the import.
+         */
+        private String indexNames;
+
+        private IndexView[] indexViews;
+
+        private String inputJson;
+
+        /**
+         * Entity inserted for the record in the current batch.
+         */
+        private Dox inserted;
+
+        private final List<String> lookupKeys = new ArrayList<>();
+
+        /**
+         * Offsets of the content of the attachments in the decompressed block.
+         */
+        private final List<Long> oobOffsets = new ArrayList<>();
+
+        /**
+         * <code>oob</code> lines of a segment.
+         */
+        private final List<JsonObject> oobs = new ArrayList<>();
+
+        /**
+         * <code>dox</code> line of a segment, it is read from the file when it
+         * is prepared.
+         */
+        private JsonObject record;
+
+        private SchemaType schema;
+
+        /**
+         * Segment file holding the record, <code>null</code> for a file export.
+         */
+        private Path segment;
+
+        /**
+         * Describes where the record is in failures.
+         */
+        private final String source;
+
+        private final List<String> uniqueKeys = new ArrayList<>();
+
+        private ImportItem(final String source,
+            final Path file,
+            final JsonObject record) {
+            this.source = source;
+            this.file = file;
+            this.record = record;
+        }
+
+        private boolean isTombstone() {
+
+            return record != null && TOMBSTONE.equals(record.getString("type"));
+        }
+
+        /**
+         * Opens the content of an attachment from the segment.
+         *
+         * @param i
+         *            index of the attachment
+         * @return content
+         * @throws IOException
+         *             I/O error
+         */
+        private InputStream openOob(final int i) throws IOException {
+
+            return DoxSegmentReader.openContent(segment, blockOffset, oobOffsets.get(i), oobs.get(i).getJsonNumber("contentLength").longValue());
+        }
+    }
+
+    /**
+     * Number of records written per transaction by default.
+     */
+    private static final int DEFAULT_COMMIT_SIZE = 100;
+
     /**
      * An empty JsonObject.
      */
     private static final JsonObject EMPTY_EXTRA = Json.createObjectBuilder().build();
 
+    /**
+     * Approximate number of records in a range of a parallel export.
+     */
+    private static final int EXPORT_RANGE_SIZE = 1000;
+
+    /**
+     * Capacity of the queues between the stages of an import.
+     */
+    private static final int IMPORT_QUEUE_SIZE = 256;
+
+    /**
+     * Name of the file listing the segments of a segmented export.
+     */
+    private static final String MANIFEST = "manifest.json";
+
+    /**
+     * Compressed size after which a new segment is started.
+     */
+    private static final long SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Type of the segment line of a deleted record.
+     */
+    private static final String TOMBSTONE = "tombstone";
+
+    /**
+     * Generator factory used to write out the exported content.
+     */
+    private static final JsonGeneratorFactory PRETTY_GENERATOR_FACTORY = Json.createGeneratorFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true));
+
     private static Path buildFromCollectionAndDoxID(final String collectionName,
         final String doxIdString) {
 
         return Paths.get(collectionName, doxIdString.substring(0, 2), doxIdString.substring(2, 4), doxIdString.substring(4, 6));
     }
 
+    /**
+     * Builds the query of the exported records without the where clause.
+     *
+     * @param tableSchema
+     *            schema prefix of the Dox table
+     * @param dbSchema
+     *            schema prefix of the dictionary table
+     * @return SQL
+     */
+    private static String exportSelect(final String tableSchema,
+        final String dbSchema) {
+
+        return "select c.name collectionName, d.collectionSchemaVersion, d.doxid, d.content, d.createdOn, cb.name createdBy, d.lastupdatedOn, lb.name lastUpdatedBy, d.version, d.doxRecordId id from " + tableSchema + "dox d"
+            + " join " + dbSchema + "doxdictionary c on c.id = d.collectionId"
+            + " join " + dbSchema + "doxdictionary cb on cb.id = d.createdById"
+            + " join " + dbSchema + "doxdictionary lb on lb.id = d.lastUpdatedById";
+    }
+
+    /**
+     * Builds the <code>dox</code> line of a segment from a row of
+     * {@link #exportSelect(String, String)}.
+     *
+     * @param rs
+     *            result set
+     * @param contentCodecs
+     *            decodes the content
+     * @return record
+     * @throws SQLException
+     *             SQL error
+     */
+    private static JsonObject exportRecord(final ResultSet rs,
+        final DoxContentCodecBean contentCodecs) throws SQLException {
+
+        final Calendar createdOn = Calendar.getInstance();
+        createdOn.setTimeInMillis(rs.getTimestamp("CREATEDON").getTime());
+        final Calendar lastUpdatedOn = Calendar.getInstance();
+        lastUpdatedOn.setTimeInMillis(rs.getTimestamp("LASTUPDATEDON").getTime());
+        return Json.createObjectBuilder()
+            .add("type", "dox")
+            .add("collection", rs.getString("COLLECTIONNAME"))
+            .add("collectionSchemaVersion", rs.getInt("COLLECTIONSCHEMAVERSION"))
+            .add("doxId", rs.getString("DOXID"))
+            .add("createdBy", rs.getString("CREATEDBY"))
+            .add("createdOn", DatatypeConverter.printDateTime(createdOn))
+            .add("lastUpdatedBy", rs.getString("LASTUPDATEDBY"))
+            .add("lastUpdatedOn", DatatypeConverter.printDateTime(lastUpdatedOn))
+            .add("version", rs.getInt("VERSION"))
+            .add("content", JsonBsonCodec.decode(contentCodecs.decode(rs.getBytes("CONTENT"))))
+            .build();
+    }
+
+    /**
+     * Builds the <code>tombstone</code> line of a segment.
+     *
+     * @param rs
+     *            tombstone row
+     * @return tombstone
+     * @throws SQLException
+     *             SQL error
+     */
+    private static JsonObject exportTombstone(final ResultSet rs) throws SQLException {
+
+        final Calendar deletedOn = Calendar.getInstance();
+        deletedOn.setTimeInMillis(rs.getTimestamp("DELETEDON").getTime());
+        final Calendar lastUpdatedOn = Calendar.getInstance();
+        lastUpdatedOn.setTimeInMillis(rs.getTimestamp("LASTUPDATEDON").getTime());
+        return Json.createObjectBuilder()
+            .add("type", TOMBSTONE)
+            .add("collection", rs.getString("COLLECTIONNAME"))
+            .add("doxId", rs.getString("DOXID"))
+            .add("deletedBy", rs.getString("DELETEDBY"))
+            .add("deletedOn", DatatypeConverter.printDateTime(deletedOn))
+            .add("lastUpdatedOn", DatatypeConverter.printDateTime(lastUpdatedOn))
+            .build();
+    }
+
+    /**
+     * Builds the key of a record in the map of existing records of a merge.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxIdString
+     *            Dox ID
+     * @return key
+     */
+    private static String mergeKey(final String collectionName,
+        final String doxIdString) {
+
+        return collectionName + "\t" + doxIdString;
+    }
+
+    /**
+     * Gets the file name of a segment.
+     *
+     * @param segment
+     *            segment number
+     * @return file name
+     */
+    private static String segmentName(final int segment) {
+
+        return String.format("segment-%05d.doxs", segment);
+    }
+
+    /**
+     * Sets the parameters of a <code>? or d.lastUpdatedOn &gt;= ?</code>
+     * condition.
+     *
+     * @param stmt
+     *            statement
+     * @param index
+     *            index of the first parameter
+     * @param fromLastUpdatedOn
+     *            starting date, <code>null</code> for every record
+     * @throws SQLException
+     *             SQL error
+     */
+    private static void setFromParameters(final PreparedStatement stmt,
+        final int index,
+        final Date fromLastUpdatedOn) throws SQLException {
+
+        if (fromLastUpdatedOn == null) {
+            stmt.setBoolean(index, true);
+            stmt.setTimestamp(index + 1, new Timestamp(0));
+        } else {
+            stmt.setBoolean(index, false);
+            stmt.setTimestamp(index + 1, new Timestamp(fromLastUpdatedOn.getTime()));
+        }
+    }
+
     private CollectionAccessControl collectionAccessControl;
 
     private ConfigurationProvider configurationProvider;
 
+    private DoxContentCodecBean contentCodecs;
+
+    /**
+     * Session context. Used to look up the persistence contexts of the
+     * collections that have their own storage.
+     */
+    @Resource
+    private SessionContext ctx;
+
+    private DoxDictionaryBean dictionary;
+
     @Resource(name = "doxDataSource",
         lookup = "java:comp/DefaultDataSource")
     private DataSource doxDataSource;
@@ -115,13 +461,27 @@ public class DoxImportBean {
 
     private EventHandler eventHandler;
 
+    /**
+     * Runs the workers of a parallel export.
+     */
+    @Resource
+    private ManagedExecutorService executor;
+
     private Indexer indexer;
 
+    private DoxLookupBuildBean lookupBuild;
+
     /**
      * Data migrator.
      */
     private Migrator migrator;
 
+    private DoxOobStoreBean oobStore;
+
+    private DoxReplicaBean replica;
+
+    private DoxUniqueCacheBean uniqueCache;
+
     @Resource
     private UserTransaction txn;
 
@@ -129,6 +489,30 @@ public class DoxImportBean {
         final String schema,
         final Date fromLastUpdatedOn) {
 
+        return exportDox(exportPath, schema, fromLastUpdatedOn, 1);
+    }
+
+    /**
+     * Exports the records to files. With more than one thread the records are
+     * split by collection and record ID into ranges that are exported by
+     * workers each with their own connection.
+     *
+     * @param exportPath
+     *            directory to export to
+     * @param schema
+     *            database schema, may be <code>null</code>
+     * @param fromLastUpdatedOn
+     *            only export records updated since then, <code>null</code>
+     *            for every record
+     * @param threads
+     *            number of workers
+     * @return statistics
+     */
+    public JsonObject exportDox(final String exportPath,
+        final String schema,
+        final Date fromLastUpdatedOn,
+        final int threads) {
+
         final Path basePath = Paths.get(exportPath);
         final JsonObjectBuilder stats = Json.createObjectBuilder();
         final long start = System.currentTimeMillis();
@@ -144,58 +528,50 @@ public class DoxImportBean {
             if (fromLastUpdatedOn == null && Files.newDirectoryStream(basePath).iterator().hasNext()) {
                 throw new PersistenceException("Export path must be empty when starting date is not specified");
             }
+            if (threads > 1) {
+                exportDoxInParallel(basePath, schema, fromLastUpdatedOn, threads, stats);
+                stats.add("elapsed_time_millis", System.currentTimeMillis() - start);
+                return stats.build();
+            }
             txn.begin();
 
-            final String dbSchema;
-            if (schema == null) {
-                dbSchema = "";
-            } else {
-                dbSchema = schema + ".";
-            }
-            try (final Connection connection = doxDataSource.getConnection()) {
+            final String dbSchema = getDbSchemaPrefix(schema);
+            try (final Connection connection = getExportDataSource().getConnection()) {
 
                 int c = 0;
                 Timestamp mostRecentUpdateOn = null;
-                try (final PreparedStatement stmt = connection.prepareStatement("select collectionName, collectionSchemaVersion, doxid, content, createdOn, createdBy, lastupdatedOn, lastUpdatedBy, id from " + dbSchema + "dox where ? or lastUpdatedOn >= ?")) {
-                    if (fromLastUpdatedOn == null) {
-                        stmt.setBoolean(1, true);
-                        stmt.setTimestamp(2, new Timestamp(0));
-                    } else {
-                        stmt.setBoolean(1, false);
-                        stmt.setTimestamp(2, new Timestamp(fromLastUpdatedOn.getTime()));
-                    }
-
-                    try (final ResultSet rs = stmt.executeQuery()) {
-                        while (rs.next()) {
-                            final String collectionName = rs.getString("COLLECTIONNAME");
-                            final String doxIdString = rs.getString("DOXID");
-                            final Timestamp lastUpdatedOn = rs.getTimestamp("LASTUPDATEDON");
-                            if (mostRecentUpdateOn == null || lastUpdatedOn.after(mostRecentUpdateOn)) {
-                                mostRecentUpdateOn = lastUpdatedOn;
-                            }
-
-                            final MimeMultipart mimeMultipart = new MimeMultipart();
-                            mimeMultipart.setSubType("mixed");
+                for (final String tableSchema : getExportTableSchemas(schema)) {
+                    try (final PreparedStatement stmt = connection.prepareStatement(exportSelect(tableSchema, dbSchema) + " where ? or d.lastUpdatedOn >= ?")) {
+                        setFromParameters(stmt, 1, fromLastUpdatedOn);
+
+                        try (final ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                final String collectionName = rs.getString("COLLECTIONNAME");
+                                final String doxIdString = rs.getString("DOXID");
+                                final Timestamp lastUpdatedOn = rs.getTimestamp("LASTUPDATEDON");
+                                if (mostRecentUpdateOn == null || lastUpdatedOn.after(mostRecentUpdateOn)) {
+                                    mostRecentUpdateOn = lastUpdatedOn;
+                                }
 
-                            exportMainContentToMultipart(mimeMultipart, rs);
-                            try (final PreparedStatement oobStmt = connection.prepareStatement("select oobName, content, createdOn, createdBy, lastupdatedOn, lastUpdatedBy from " + dbSchema + "doxoob where parentid = ?")) {
-                                oobStmt.setLong(1, rs.getLong("ID"));
-                                try (final ResultSet oobRs = oobStmt.executeQuery()) {
-                                    while (oobRs.next()) {
-                                        exportOobContentToMultipart(mimeMultipart, oobRs);
+                                final MimeMultipart mimeMultipart = new MimeMultipart();
+                                mimeMultipart.setSubType("mixed");
+
+                                exportMainContentToMultipart(mimeMultipart, rs);
+                                final List<Blob> blobs = new ArrayList<>();
+                                try (final PreparedStatement oobStmt = connection.prepareStatement("select oobName, content, contentHash, contentType, createdOn, createdBy, lastupdatedOn, lastUpdatedBy from " + tableSchema + "doxoob where parentid = ?")) {
+                                    oobStmt.setLong(1, rs.getLong("ID"));
+                                    try (final ResultSet oobRs = oobStmt.executeQuery()) {
+                                        while (oobRs.next()) {
+                                            blobs.add(exportOobContentToMultipart(mimeMultipart, oobRs));
+                                        }
                                     }
+                                    writeExportFile(basePath, collectionName, doxIdString, mimeMultipart, blobs);
                                 }
+                                ++c;
                             }
-
-                            final Path outputPath = basePath.resolve(buildFromCollectionAndDoxID(collectionName, doxIdString));
-                            Files.createDirectories(outputPath);
-                            try (final OutputStream os = Files.newOutputStream(outputPath.resolve(doxIdString + ".dox"))) {
-                                mimeMultipart.writeTo(os);
-                            }
-                            ++c;
                         }
-                    }
 
+                    }
                 }
                 if (mostRecentUpdateOn != null) {
                     final Calendar mostRecentUpdateOnCal = Calendar.getInstance();
@@ -226,135 +602,854 @@ public class DoxImportBean {
     }
 
     /**
-     * @param mimeMultipart
-     * @param rs
-     * @throws SQLException
-     * @throws MessagingException
+     * Exports the records as a single segment to a stream. This is used to
+     * download an export, the segment is written as the records are read.
+     *
+     * @param os
+     *            output stream, it is not closed
+     * @param schema
+     *            database schema, may be <code>null</code>
+     * @param fromLastUpdatedOn
+     *            only export records updated since then, <code>null</code>
+     *            for every record
+     * @return statistics
      */
-    private void exportMainContentToMultipart(final MimeMultipart mimeMultipart,
-        final ResultSet rs) throws SQLException,
-            MessagingException {
-
-        {
-            final String collectionName = rs.getString("COLLECTIONNAME");
-            final String collectionSchemaVersion = String.valueOf(rs.getInt("COLLECTIONSCHEMAVERSION"));
-            final String doxIdString = rs.getString("DOXID");
-
-            final BsonDocument decoded = new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(rs.getBytes("CONTENT"))), DecoderContext.builder()
-                .build());
-            final MimeBodyPart mimeBodyPart = new MimeBodyPart();
-            final String json = decoded.toJson(new JsonWriterSettings(true));
-            mimeBodyPart.setText(json, "UTF-8", "json");
-
-            mimeBodyPart.setHeader("Collection-Name", collectionName);
-            mimeBodyPart.setHeader("Collection-Schema-Version", collectionSchemaVersion);
-
-            mimeBodyPart.setHeader("Created-By", rs.getString("CREATEDBY"));
-            final Calendar createdOn = Calendar.getInstance();
-            createdOn.setTimeInMillis(rs.getTimestamp("CREATEDON").getTime());
-            mimeBodyPart.setHeader("Created-On", DatatypeConverter.printDateTime(createdOn));
-
-            final Calendar lastUpdatedOn = Calendar.getInstance();
-            lastUpdatedOn.setTimeInMillis(rs.getTimestamp("LASTUPDATEDON").getTime());
-            mimeBodyPart.setHeader("Last-Updated-On", DatatypeConverter.printDateTime(lastUpdatedOn));
-            mimeBodyPart.setHeader("Last-Updated-By", rs.getString("LASTUPDATEDBY"));
-
-            mimeBodyPart.setHeader("Content-Length",
-                String.valueOf(json.length()));
-            mimeBodyPart.setFileName(doxIdString);
-            mimeMultipart.addBodyPart(mimeBodyPart);
-        }
-    }
-
-    private void exportOobContentToMultipart(final MimeMultipart mimeMultipart,
-        final ResultSet rs) throws MessagingException,
-            SQLException {
-
-        final Blob contentBlob = rs.getBlob("CONTENT");
-        final MimeBodyPart mimeBodyPart = new MimeBodyPart(contentBlob.getBinaryStream());
-        mimeBodyPart.setFileName(rs.getString("OOBNAME"));
-
-        mimeBodyPart.setHeader("Created-By", rs.getString("CREATEDBY"));
-        final Calendar createdOn = Calendar.getInstance();
-        createdOn.setTimeInMillis(rs.getTimestamp("CREATEDON").getTime());
-        mimeBodyPart.setHeader("Created-On", DatatypeConverter.printDateTime(createdOn));
-
-        final Calendar lastUpdatedOn = Calendar.getInstance();
-        lastUpdatedOn.setTimeInMillis(rs.getTimestamp("LASTUPDATEDON").getTime());
-        mimeBodyPart.setHeader("Last-Updated-On", DatatypeConverter.printDateTime(lastUpdatedOn));
-        mimeBodyPart.setHeader("Last-Updated-By", rs.getString("LASTUPDATEDBY"));
-        mimeMultipart.addBodyPart(mimeBodyPart);
-
-        contentBlob.free();
+    public JsonObject exportDox(final OutputStream os,
+        final String schema,
+        final Date fromLastUpdatedOn) {
 
+        return exportSegments(null, os, schema, fromLastUpdatedOn);
     }
 
-    public JsonObject importDox(final String importPath) {
+    /**
+     * Exports the records to segment files of about {@link #SEGMENT_SIZE}
+     * bytes and a manifest listing them in order. The manifest is written last
+     * so an export without one is incomplete.
+     *
+     * @param exportPath
+     *            directory to export to, it must be empty
+     * @param schema
+     *            database schema, may be <code>null</code>
+     * @param fromLastUpdatedOn
+     *            only export records updated since then, <code>null</code>
+     *            for every record
+     * @return statistics
+     */
+    public JsonObject exportDoxToSegments(final String exportPath,
+        final String schema,
+        final Date fromLastUpdatedOn) {
 
-        final JsonObjectBuilder stats = Json.createObjectBuilder();
-        final long start = System.currentTimeMillis();
+        final Path basePath = Paths.get(exportPath);
         try {
-            txn.begin();
-
-            final long numberOfRecords = em.createNamedQuery(Dox.COUNT, Long.class).getSingleResult();
-            if (numberOfRecords > 0) {
-                txn.rollback();
-                throw new PersistenceException("cannot import when Dox is not empty");
-            }
-
-            final Path basePath = Paths.get(importPath);
+            Files.createDirectories(basePath);
             if (!Files.isDirectory(basePath) ||
                 !Files.isExecutable(basePath) ||
-                !Files.isReadable(basePath)) {
-                txn.rollback();
-                throw new PersistenceException("Unable to access import path");
+                !Files.isWritable(basePath)) {
+                throw new PersistenceException("Unable to access export path");
+            }
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(basePath)) {
+                if (stream.iterator().hasNext()) {
+                    throw new PersistenceException("Export path must be empty for a segmented export");
+                }
             }
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+        return exportSegments(basePath, null, schema, fromLastUpdatedOn);
+    }
 
-            // collect the list of files first because Files.walk is not guaranteed to return in order.
-            final SortedSet<Path> files = new TreeSet<>();
+    /**
+     * Exports the records in parallel. The ranges are planned up front and
+     * taken from a queue by the workers so a worker that gets small records
+     * takes more ranges.
+     *
+     * @param basePath
+     *            directory to export to
+     * @param schema
+     *            database schema, may be <code>null</code>
+     * @param fromLastUpdatedOn
+     *            starting date, <code>null</code> for every record
+     * @param threads
+     *            number of workers
+     * @param stats
+     *            statistics
+     */
+    private void exportDoxInParallel(final Path basePath,
+        final String schema,
+        final Date fromLastUpdatedOn,
+        final int threads,
+        final JsonObjectBuilder stats) {
+
+        final String dbSchema = getDbSchemaPrefix(schema);
+        final DataSource dataSource = getExportDataSource();
+        final Queue<ExportRange> ranges = new ConcurrentLinkedQueue<>();
+        try (final Connection connection = dataSource.getConnection()) {
+            for (final String tableSchema : getExportTableSchemas(schema)) {
+                try (final PreparedStatement stmt = connection.prepareStatement("select d.collectionId, min(d.doxRecordId), max(d.doxRecordId), count(*) from " + tableSchema + "dox d where ? or d.lastUpdatedOn >= ? group by d.collectionId")) {
+                    setFromParameters(stmt, 1, fromLastUpdatedOn);
+                    try (final ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            final long min = rs.getLong(2);
+                            final long max = rs.getLong(3);
+                            final long parts = (rs.getLong(4) + EXPORT_RANGE_SIZE - 1) / EXPORT_RANGE_SIZE;
+                            final long width = (max - min) / parts + 1;
+                            for (long first = min; first <= max; first += width) {
+                                ranges.add(new ExportRange(tableSchema, rs.getLong(1), first, Math.min(max, first + width - 1)));
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (final SQLException e) {
+            throw new PersistenceException(e);
+        }
+        final int rangeCount = ranges.size();
 
-            Files.walkFileTree(basePath, new SimpleFileVisitor<Path>() {
+        final AtomicLong mostRecentUpdateOn = new AtomicLong(Long.MIN_VALUE);
+        final List<Future<JsonObject>> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            final int worker = i;
+            workers.add(executor.submit(new Callable<JsonObject>() {
 
                 @Override
-                public FileVisitResult visitFile(final Path file,
-                    final BasicFileAttributes attrs) throws IOException {
+                public JsonObject call() throws Exception {
 
-                    files.add(file);
-                    return FileVisitResult.CONTINUE;
+                    return exportRanges(worker, dataSource, ranges, dbSchema, fromLastUpdatedOn, basePath, mostRecentUpdateOn);
                 }
+            }));
+        }
 
-            });
+        int documents = 0;
+        int oobs = 0;
+        final JsonArrayBuilder workerStats = Json.createArrayBuilder();
+        try {
+            for (final Future<JsonObject> worker : workers) {
+                final JsonObject workerStat = worker.get();
+                documents += workerStat.getInt("documents");
+                oobs += workerStat.getInt("oobs");
+                workerStats.add(workerStat);
+            }
+        } catch (final InterruptedException e) {
+            ranges.clear();
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(e);
+        } catch (final ExecutionException e) {
+            // the other workers stop after their current range
+            ranges.clear();
+            throw new PersistenceException(e.getCause());
+        }
 
-            final JsonArrayBuilder failures = Json.createArrayBuilder();
-            int c = 0;
-            for (final Path file : files) {
-                try {
-                    processFile(file);
-                } catch (IOException
-                    | MessagingException
-                    | NullPointerException
-                    | PersistenceException e) {
-                    txn.rollback();
-                    final JsonObjectBuilder failure = Json.createObjectBuilder();
-                    failure.add("file", file.toString());
-                    failure.add("reason", e.getMessage());
-                    final StringWriter sw = new StringWriter();
-                    e.printStackTrace(new PrintWriter(sw));
-                    failure.add("stacktrace", sw.toString());
-                    failures.add(failure);
-                    txn.begin();
-                }
-                ++c;
-                if (c != 0 && c % 10 == 0) {
-                    txn.commit();
-                    txn.begin();
-                }
-            }
-            stats.add("number_of_imported_documents", c);
-            stats.add("failures", failures);
-            txn.commit();
-        } catch (final IOException
-            | SystemException
+        if (mostRecentUpdateOn.get() != Long.MIN_VALUE) {
+            final Calendar mostRecentUpdateOnCal = Calendar.getInstance();
+            mostRecentUpdateOnCal.setTimeInMillis(mostRecentUpdateOn.get());
+            stats.add("most_recent_update_on", DatatypeConverter.printDateTime(mostRecentUpdateOnCal));
+        }
+        stats.add("number_of_exported_documents", documents);
+        stats.add("number_of_exported_oobs", oobs);
+        stats.add("threads", threads);
+        stats.add("ranges", rangeCount);
+        stats.add("workers", workerStats);
+    }
+
+    /**
+     * Exports the ranges taken from the queue until it is empty. Each range is
+     * read in its own transaction on a connection owned by the worker and the
+     * attachments of the range are fetched by a single query that is merged
+     * with the records as both are ordered by record ID.
+     *
+     * @param worker
+     *            worker number
+     * @param dataSource
+     *            data source
+     * @param ranges
+     *            ranges to export
+     * @param dbSchema
+     *            schema prefix of the dictionary table
+     * @param fromLastUpdatedOn
+     *            starting date, <code>null</code> for every record
+     * @param basePath
+     *            directory to export to
+     * @param mostRecentUpdateOn
+     *            most recent update seen by every worker
+     * @return worker statistics
+     * @throws SQLException
+     *             SQL error
+     * @throws IOException
+     *             I/O error
+     * @throws MessagingException
+     *             MIME error
+     */
+    private JsonObject exportRanges(final int worker,
+        final DataSource dataSource,
+        final Queue<ExportRange> ranges,
+        final String dbSchema,
+        final Date fromLastUpdatedOn,
+        final Path basePath,
+        final AtomicLong mostRecentUpdateOn) throws SQLException,
+            IOException,
+            MessagingException {
+
+        final long start = System.currentTimeMillis();
+        int rangeCount = 0;
+        int documents = 0;
+        int oobs = 0;
+        try (final Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            ExportRange range;
+            while ((range = ranges.poll()) != null) {
+                final String where = " where d.collectionId = ? and d.doxRecordId between ? and ? and (? or d.lastUpdatedOn >= ?)";
+                try (final PreparedStatement stmt = connection.prepareStatement(exportSelect(range.tableSchema, dbSchema) + where + " order by d.doxRecordId");
+                    final PreparedStatement oobStmt = connection.prepareStatement("select o.parentId, o.oobName, o.content, o.contentHash, o.contentType, o.createdOn, o.createdBy, o.lastUpdatedOn, o.lastUpdatedBy from " + range.tableSchema + "doxoob o"
+                        + " join " + range.tableSchema + "dox d on d.doxRecordId = o.parentId" + where + " order by o.parentId")) {
+                    for (final PreparedStatement s : new PreparedStatement[] {
+                        stmt,
+                        oobStmt
+                    }) {
+                        s.setLong(1, range.collectionId);
+                        s.setLong(2, range.first);
+                        s.setLong(3, range.last);
+                        setFromParameters(s, 4, fromLastUpdatedOn);
+                    }
+                    try (final ResultSet rs = stmt.executeQuery();
+                        final ResultSet oobRs = oobStmt.executeQuery()) {
+                        boolean hasOob = oobRs.next();
+                        while (rs.next()) {
+                            final long id = rs.getLong("ID");
+                            final String doxIdString = rs.getString("DOXID");
+                            final long lastUpdatedOn = rs.getTimestamp("LASTUPDATEDON").getTime();
+                            long seen = mostRecentUpdateOn.get();
+                            while (lastUpdatedOn > seen && !mostRecentUpdateOn.compareAndSet(seen, lastUpdatedOn)) {
+                                seen = mostRecentUpdateOn.get();
+                            }
+
+                            final MimeMultipart mimeMultipart = new MimeMultipart();
+                            mimeMultipart.setSubType("mixed");
+                            exportMainContentToMultipart(mimeMultipart, rs);
+                            final List<Blob> blobs = new ArrayList<>();
+                            while (hasOob && oobRs.getLong("PARENTID") <= id) {
+                                if (oobRs.getLong("PARENTID") == id) {
+                                    blobs.add(exportOobContentToMultipart(mimeMultipart, oobRs));
+                                    ++oobs;
+                                }
+                                hasOob = oobRs.next();
+                            }
+                            writeExportFile(basePath, rs.getString("COLLECTIONNAME"), doxIdString, mimeMultipart, blobs);
+                            ++documents;
+                        }
+                    }
+                    connection.commit();
+                } catch (SQLException
+                    | IOException
+                    | MessagingException
+                    | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+                ++rangeCount;
+            }
+        }
+        return Json.createObjectBuilder()
+            .add("worker", worker)
+            .add("ranges", rangeCount)
+            .add("documents", documents)
+            .add("oobs", oobs)
+            .add("elapsed_time_millis", System.currentTimeMillis() - start)
+            .build();
+    }
+
+    /**
+     * Exports the records to segments. The records of each table and their
+     * attachments are read by two queries ordered by record ID that are
+     * merged so the segment is written sequentially. The records deleted since
+     * the starting date are written as tombstones at the end of the last
+     * segment.
+     *
+     * @param basePath
+     *            directory to write the segments to or <code>null</code> to
+     *            write a single segment to the stream
+     * @param os
+     *            output stream used when there is no directory
+     * @param schema
+     *            database schema, may be <code>null</code>
+     * @param fromLastUpdatedOn
+     *            starting date, <code>null</code> for every record
+     * @return statistics
+     */
+    private JsonObject exportSegments(final Path basePath,
+        final OutputStream os,
+        final String schema,
+        final Date fromLastUpdatedOn) {
+
+        final JsonObjectBuilder stats = Json.createObjectBuilder();
+        final long start = System.currentTimeMillis();
+        final String dbSchema = getDbSchemaPrefix(schema);
+        final JsonArrayBuilder segments = Json.createArrayBuilder();
+        try {
+            txn.begin();
+            OutputStream segmentStream = null;
+            try (final Connection connection = getExportDataSource().getConnection()) {
+
+                int documents = 0;
+                int oobs = 0;
+                int segmentCount = 0;
+                int tombstones = 0;
+                Timestamp mostRecentUpdateOn = null;
+                DoxSegmentWriter writer = null;
+                for (final String tableSchema : getExportTableSchemas(schema)) {
+                    try (final PreparedStatement stmt = connection.prepareStatement(exportSelect(tableSchema, dbSchema) + " where ? or d.lastUpdatedOn >= ? order by d.doxRecordId");
+                        final PreparedStatement oobStmt = connection.prepareStatement("select o.parentId, o.oobName, o.content, o.contentHash, o.contentType, o.contentLength, o.createdOn, o.createdBy, o.lastUpdatedOn, o.lastUpdatedBy from " + tableSchema + "doxoob o"
+                            + " join " + tableSchema + "dox d on d.doxRecordId = o.parentId where ? or d.lastUpdatedOn >= ? order by o.parentId")) {
+                        setFromParameters(stmt, 1, fromLastUpdatedOn);
+                        setFromParameters(oobStmt, 1, fromLastUpdatedOn);
+
+                        try (final ResultSet rs = stmt.executeQuery();
+                            final ResultSet oobRs = oobStmt.executeQuery()) {
+                            boolean hasOob = oobRs.next();
+                            while (rs.next()) {
+                                if (writer == null || basePath != null && writer.getSize() >= SEGMENT_SIZE) {
+                                    if (writer != null) {
+                                        segments.add(Json.createObjectBuilder()
+                                            .add("name", segmentName(segmentCount - 1))
+                                            .add("statistics", writer.finish()));
+                                        segmentStream.close();
+                                    }
+                                    if (basePath == null) {
+                                        segmentStream = os;
+                                    } else {
+                                        segmentStream = new BufferedOutputStream(Files.newOutputStream(basePath.resolve(segmentName(segmentCount))));
+                                    }
+                                    writer = new DoxSegmentWriter(segmentStream);
+                                    ++segmentCount;
+                                }
+
+                                final Timestamp lastUpdatedOn = rs.getTimestamp("LASTUPDATEDON");
+                                if (mostRecentUpdateOn == null || lastUpdatedOn.after(mostRecentUpdateOn)) {
+                                    mostRecentUpdateOn = lastUpdatedOn;
+                                }
+                                final String doxIdString = rs.getString("DOXID");
+                                writer.writeRecord(exportRecord(rs, contentCodecs));
+                                final long id = rs.getLong("ID");
+                                while (hasOob && oobRs.getLong("PARENTID") <= id) {
+                                    if (oobRs.getLong("PARENTID") == id) {
+                                        final Blob contentBlob = oobRs.getBlob("CONTENT");
+                                        try (final InputStream content = openOobContent(oobRs.getString("CONTENTHASH"), contentBlob)) {
+                                            writer.writeOob(exportOob(doxIdString, oobRs), content);
+                                        } finally {
+                                            contentBlob.free();
+                                        }
+                                        ++oobs;
+                                    }
+                                    hasOob = oobRs.next();
+                                }
+                                writer.endRecord();
+                                ++documents;
+                            }
+                        }
+                    }
+                }
+                if (writer == null) {
+                    // an empty export still has a segment with an index
+                    segmentStream = basePath == null ? os : new BufferedOutputStream(Files.newOutputStream(basePath.resolve(segmentName(0))));
+                    writer = new DoxSegmentWriter(segmentStream);
+                    ++segmentCount;
+                }
+                for (final String tableSchema : getExportTableSchemas(schema)) {
+                    try (final PreparedStatement stmt = connection.prepareStatement("select c.name collectionName, t.doxId, t.deletedOn, db.name deletedBy, t.lastUpdatedOn from " + tableSchema + "doxtombstone t"
+                        + " join " + dbSchema + "doxdictionary c on c.id = t.collectionId"
+                        + " join " + dbSchema + "doxdictionary db on db.id = t.deletedById where ? or t.deletedOn >= ?")) {
+                        setFromParameters(stmt, 1, fromLastUpdatedOn);
+                        try (final ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                writer.writeTombstone(exportTombstone(rs));
+                                ++tombstones;
+                            }
+                        }
+                    }
+                }
+                segments.add(Json.createObjectBuilder()
+                    .add("name", segmentName(segmentCount - 1))
+                    .add("statistics", writer.finish()));
+                if (basePath == null) {
+                    segmentStream.flush();
+                } else {
+                    segmentStream.close();
+                    final Path manifest = basePath.resolve(MANIFEST + ".tmp");
+                    try (final OutputStream manifestStream = Files.newOutputStream(manifest)) {
+                        manifestStream.write(Json.createObjectBuilder()
+                            .add("format", "segments")
+                            .add("segments", segments)
+                            .build()
+                            .toString()
+                            .getBytes("UTF-8"));
+                    }
+                    Files.move(manifest, basePath.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+                }
+                segmentStream = null;
+
+                if (mostRecentUpdateOn != null) {
+                    final Calendar mostRecentUpdateOnCal = Calendar.getInstance();
+                    mostRecentUpdateOnCal.setTimeInMillis(mostRecentUpdateOn.getTime());
+                    stats.add("most_recent_update_on", DatatypeConverter.printDateTime(mostRecentUpdateOnCal));
+                }
+                stats.add("number_of_exported_documents", documents);
+                stats.add("number_of_exported_oobs", oobs);
+                stats.add("number_of_exported_tombstones", tombstones);
+                stats.add("segments", segmentCount);
+                txn.commit();
+            } catch (SecurityException
+                | IllegalStateException
+                | RollbackException
+                | IOException
+                | SQLException
+                | HeuristicMixedException
+                | HeuristicRollbackException e) {
+                txn.rollback();
+                throw new PersistenceException(e);
+            } finally {
+                if (segmentStream != null && segmentStream != os) {
+                    segmentStream.close();
+                }
+            }
+        } catch (final SystemException
+            | IOException
+            | NotSupportedException e) {
+            throw new PersistenceException(e);
+        }
+        stats.add("elapsed_time_millis", System.currentTimeMillis() - start);
+        return stats.build();
+    }
+
+    /**
+     * Builds the <code>oob</code> line of a segment without the content.
+     *
+     * @param doxIdString
+     *            record ID
+     * @param rs
+     *            attachment row
+     * @return attachment
+     * @throws SQLException
+     *             SQL error
+     */
+    private JsonObject exportOob(final String doxIdString,
+        final ResultSet rs) throws SQLException {
+
+        final Calendar createdOn = Calendar.getInstance();
+        createdOn.setTimeInMillis(rs.getTimestamp("CREATEDON").getTime());
+        final Calendar lastUpdatedOn = Calendar.getInstance();
+        lastUpdatedOn.setTimeInMillis(rs.getTimestamp("LASTUPDATEDON").getTime());
+        final JsonObjectBuilder builder = Json.createObjectBuilder()
+            .add("type", "oob")
+            .add("doxId", doxIdString)
+            .add("name", rs.getString("OOBNAME"))
+            .add("contentHash", rs.getString("CONTENTHASH"))
+            .add("contentLength", rs.getLong("CONTENTLENGTH"))
+            .add("createdBy", rs.getString("CREATEDBY"))
+            .add("createdOn", DatatypeConverter.printDateTime(createdOn))
+            .add("lastUpdatedBy", rs.getString("LASTUPDATEDBY"))
+            .add("lastUpdatedOn", DatatypeConverter.printDateTime(lastUpdatedOn));
+        if (rs.getString("CONTENTTYPE") != null) {
+            builder.add("contentType", rs.getString("CONTENTTYPE"));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param mimeMultipart
+     * @param rs
+     * @throws SQLException
+     * @throws MessagingException
+     */
+    private void exportMainContentToMultipart(final MimeMultipart mimeMultipart,
+        final ResultSet rs) throws SQLException,
+            MessagingException {
+
+        {
+            final String collectionName = rs.getString("COLLECTIONNAME");
+            final String collectionSchemaVersion = String.valueOf(rs.getInt("COLLECTIONSCHEMAVERSION"));
+            final String doxIdString = rs.getString("DOXID");
+
+            final StringWriter jsonWriter = new StringWriter();
+            try (final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(contentCodecs.decode(rs.getBytes("CONTENT"))));
+                final JsonGenerator generator = PRETTY_GENERATOR_FACTORY.createGenerator(jsonWriter)) {
+                JsonBsonCodec.write(reader, generator);
+            }
+            final MimeBodyPart mimeBodyPart = new MimeBodyPart();
+            final String json = jsonWriter.toString();
+            mimeBodyPart.setText(json, "UTF-8", "json");
+
+            mimeBodyPart.setHeader("Collection-Name", collectionName);
+            mimeBodyPart.setHeader("Collection-Schema-Version", collectionSchemaVersion);
+
+            mimeBodyPart.setHeader("Created-By", rs.getString("CREATEDBY"));
+            final Calendar createdOn = Calendar.getInstance();
+            createdOn.setTimeInMillis(rs.getTimestamp("CREATEDON").getTime());
+            mimeBodyPart.setHeader("Created-On", DatatypeConverter.printDateTime(createdOn));
+
+            final Calendar lastUpdatedOn = Calendar.getInstance();
+            lastUpdatedOn.setTimeInMillis(rs.getTimestamp("LASTUPDATEDON").getTime());
+            mimeBodyPart.setHeader("Last-Updated-On", DatatypeConverter.printDateTime(lastUpdatedOn));
+            mimeBodyPart.setHeader("Last-Updated-By", rs.getString("LASTUPDATEDBY"));
+            mimeBodyPart.setHeader("Version", String.valueOf(rs.getInt("VERSION")));
+
+            mimeBodyPart.setHeader("Content-Length",
+                String.valueOf(json.length()));
+            mimeBodyPart.setFileName(doxIdString);
+            mimeMultipart.addBodyPart(mimeBodyPart);
+        }
+    }
+
+    /**
+     * Adds an attachment to the multipart. The content is not read until the
+     * multipart is written so it is streamed from the store or the database
+     * rather than held in memory.
+     *
+     * @param mimeMultipart
+     *            multipart
+     * @param rs
+     *            attachment row
+     * @return content blob which must be freed after the multipart is written
+     * @throws MessagingException
+     *             MIME error
+     * @throws SQLException
+     *             SQL error
+     */
+    private Blob exportOobContentToMultipart(final MimeMultipart mimeMultipart,
+        final ResultSet rs) throws MessagingException,
+            SQLException {
+
+        final String contentHash = rs.getString("CONTENTHASH");
+        final Blob contentBlob = rs.getBlob("CONTENT");
+        final String oobName = rs.getString("OOBNAME");
+        final String contentType = rs.getString("CONTENTTYPE") == null ? MediaType.APPLICATION_OCTET_STREAM : rs.getString("CONTENTTYPE");
+        final MimeBodyPart mimeBodyPart = new MimeBodyPart();
+        mimeBodyPart.setDataHandler(new DataHandler(new javax.activation.DataSource() {
+
+            @Override
+            public String getContentType() {
+
+                return contentType;
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+
+                return openOobContent(contentHash, contentBlob);
+            }
+
+            @Override
+            public String getName() {
+
+                return oobName;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+
+                throw new UnsupportedOperationException();
+            }
+        }));
+        mimeBodyPart.setHeader("Content-Type", contentType);
+        mimeBodyPart.setHeader("Content-Transfer-Encoding", "base64");
+        mimeBodyPart.setFileName(oobName);
+
+        mimeBodyPart.setHeader("Created-By", rs.getString("CREATEDBY"));
+        final Calendar createdOn = Calendar.getInstance();
+        createdOn.setTimeInMillis(rs.getTimestamp("CREATEDON").getTime());
+        mimeBodyPart.setHeader("Created-On", DatatypeConverter.printDateTime(createdOn));
+
+        final Calendar lastUpdatedOn = Calendar.getInstance();
+        lastUpdatedOn.setTimeInMillis(rs.getTimestamp("LASTUPDATEDON").getTime());
+        mimeBodyPart.setHeader("Last-Updated-On", DatatypeConverter.printDateTime(lastUpdatedOn));
+        mimeBodyPart.setHeader("Last-Updated-By", rs.getString("LASTUPDATEDBY"));
+        mimeMultipart.addBodyPart(mimeBodyPart);
+        return contentBlob;
+
+    }
+
+    /**
+     * Opens the content of an attachment from the store if it is there,
+     * otherwise from the database.
+     *
+     * @param contentHash
+     *            SHA-256 of the content
+     * @param contentBlob
+     *            content column
+     * @return input stream
+     * @throws IOException
+     *             I/O error
+     */
+    private InputStream openOobContent(final String contentHash,
+        final Blob contentBlob) throws IOException {
+
+        if (oobStore.isEnabled() && oobStore.exists(contentHash)) {
+            return oobStore.open(contentHash);
+        }
+        try {
+            return contentBlob.getBinaryStream();
+        } catch (final SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Gets the schema prefix of the dictionary table.
+     *
+     * @param schema
+     *            database schema, may be <code>null</code>
+     * @return schema prefix
+     */
+    private String getDbSchemaPrefix(final String schema) {
+
+        if (schema == null) {
+            return "";
+        }
+        return schema + ".";
+    }
+
+    /**
+     * Gets the schema prefixes of the Dox tables. Collections with their own
+     * storage are exported from their schema, the dictionary is always in the
+     * default schema.
+     *
+     * @param schema
+     *            database schema, may be <code>null</code>
+     * @return schema prefixes
+     */
+    private Set<String> getExportTableSchemas(final String schema) {
+
+        final Set<String> tableSchemas = new LinkedHashSet<>();
+        tableSchemas.add(getDbSchemaPrefix(schema));
+        for (final CollectionType config : configurationProvider.getPersistenceConfig().getCollection()) {
+            tableSchemas.add(DoxStorage.getSchemaPrefix(config, schema));
+        }
+        return tableSchemas;
+    }
+
+    /**
+     * Gets the data source the export reads from. This is the replica if it
+     * has a data source and the consistency allows reads from it. The export
+     * records the most recent update that it has seen so an export from a
+     * replica that is behind is picked up by the next incremental export.
+     *
+     * @return data source
+     */
+    private DataSource getExportDataSource() {
+
+        final ReplicaType replicaConfig = replica.getReplica();
+        if (replicaConfig == null || replicaConfig.getDataSource() == null || replicaConfig.getConsistency() == ReadConsistencyType.PRIMARY) {
+            return doxDataSource;
+        }
+        return (DataSource) ctx.lookup(replicaConfig.getDataSource());
+    }
+
+    /**
+     * Gets the entity manager for the tables that store the collection.
+     *
+     * @param config
+     *            collection configuration
+     * @return entity manager
+     */
+    private EntityManager getEntityManager(final CollectionType config) {
+
+        return DoxStorage.getEntityManager(config, em, ctx);
+    }
+
+    /**
+     * Writes a record and its attachments to its file and frees the
+     * attachment content.
+     *
+     * @param basePath
+     *            directory to export to
+     * @param collectionName
+     *            collection name
+     * @param doxIdString
+     *            record ID
+     * @param mimeMultipart
+     *            multipart
+     * @param blobs
+     *            attachment content
+     * @throws IOException
+     *             I/O error
+     * @throws MessagingException
+     *             MIME error
+     * @throws SQLException
+     *             SQL error
+     */
+    private void writeExportFile(final Path basePath,
+        final String collectionName,
+        final String doxIdString,
+        final MimeMultipart mimeMultipart,
+        final List<Blob> blobs) throws IOException,
+            MessagingException,
+            SQLException {
+
+        final Path outputPath = basePath.resolve(buildFromCollectionAndDoxID(collectionName, doxIdString));
+        Files.createDirectories(outputPath);
+        try (final OutputStream os = new BufferedOutputStream(Files.newOutputStream(outputPath.resolve(doxIdString + ".dox")))) {
+            mimeMultipart.writeTo(os);
+        } finally {
+            for (final Blob blob : blobs) {
+                blob.free();
+            }
+        }
+    }
+
+    public JsonObject importDox(final String importPath) {
+
+        return importDox(importPath, 1, DEFAULT_COMMIT_SIZE);
+    }
+
+    /**
+     * Imports an export into an empty database. The import is a pipeline, one
+     * task discovers the files or reads the segments, <code>threads</code>
+     * tasks parse and validate the records and the calling thread writes them
+     * in transactions of <code>commitSize</code> records. The stages are
+     * connected by bounded queues so a slow stage holds back the others
+     * rather than filling the memory.
+     *
+     * @param importPath
+     *            directory of the export
+     * @param threads
+     *            number of tasks parsing and validating records
+     * @param commitSize
+     *            number of records written per transaction
+     * @return statistics
+     */
+    public JsonObject importDox(final String importPath,
+        final int threads,
+        final int commitSize) {
+
+        return importDox(importPath, threads, commitSize, false, false);
+    }
+
+    /**
+     * Imports an export into an empty database. When the secondary structures
+     * are deferred only the records and their attachments are written by the
+     * pipeline, the lookups are then built in batches of
+     * <code>commitSize</code> records and the search index is built with one
+     * bulk request per batch. Suspending the refresh disables the refresh and
+     * the replicas of the search indices until the import is done.
+     *
+     * @param importPath
+     *            directory of the export
+     * @param threads
+     *            number of tasks parsing and validating records
+     * @param commitSize
+     *            number of records written per transaction
+     * @param deferSecondary
+     *            <code>true</code> to build the lookups and search index after
+     *            the records are loaded
+     * @param suspendRefresh
+     *            <code>true</code> to suspend the search index refresh during
+     *            the import
+     * @return statistics
+     */
+    public JsonObject importDox(final String importPath,
+        final int threads,
+        final int commitSize,
+        final boolean deferSecondary,
+        final boolean suspendRefresh) {
+
+        return importDox(importPath, threads, commitSize, deferSecondary, suspendRefresh, false);
+    }
+
+    /**
+     * Merges an export into a database that may already have records, such as
+     * a delta export made with a starting date. Records are matched by Dox
+     * ID, a record is inserted when it does not exist and replaces the
+     * existing one when it has a higher version, or the same version and a
+     * later last updated date. The tombstones of a segmented export remove
+     * the existing records that were not updated after the deletion. The
+     * lookups, attachments and search index are only written for the records
+     * that change.
+     *
+     * @param importPath
+     *            directory of the export
+     * @param threads
+     *            number of tasks parsing and validating records
+     * @param commitSize
+     *            number of records written per transaction
+     * @return statistics
+     */
+    public JsonObject mergeDox(final String importPath,
+        final int threads,
+        final int commitSize) {
+
+        return importDox(importPath, threads, commitSize, false, false, true);
+    }
+
+    /**
+     * Runs an import.
+     *
+     * @param importPath
+     *            directory of the export
+     * @param threads
+     *            number of tasks parsing and validating records
+     * @param commitSize
+     *            number of records written per transaction
+     * @param deferSecondary
+     *            <code>true</code> to build the lookups and search index after
+     *            the records are loaded
+     * @param suspendRefresh
+     *            <code>true</code> to suspend the search index refresh during
+     *            the import
+     * @param merge
+     *            <code>true</code> to merge into existing records
+     * @return statistics
+     */
+    private JsonObject importDox(final String importPath,
+        final int threads,
+        final int commitSize,
+        final boolean deferSecondary,
+        final boolean suspendRefresh,
+        final boolean merge) {
+
+        final JsonObjectBuilder stats = Json.createObjectBuilder();
+        final long start = System.currentTimeMillis();
+        try {
+            if (!merge) {
+                txn.begin();
+
+                long numberOfRecords = em.createNamedQuery(Dox.COUNT, Long.class).getSingleResult();
+                for (final CollectionType config : configurationProvider.getPersistenceConfig().getCollection()) {
+                    if (config.getStorage() != null) {
+                        numberOfRecords += getEntityManager(config).createNamedQuery(Dox.COUNT, Long.class).getSingleResult();
+                    }
+                }
+                txn.commit();
+                if (numberOfRecords > 0) {
+                    throw new PersistenceException("cannot import when Dox is not empty");
+                }
+            }
+
+            final Path basePath = Paths.get(importPath);
+            if (!Files.isDirectory(basePath) ||
+                !Files.isExecutable(basePath) ||
+                !Files.isReadable(basePath)) {
+                throw new PersistenceException("Unable to access import path");
+            }
+
+            final JsonObject searchSettings = suspendRefresh ? doxSearchBean.beginBulkLoad() : null;
+            try {
+                importPipeline(basePath, threads, commitSize, deferSecondary, suspendRefresh, merge, stats);
+                if (deferSecondary) {
+                    final long secondaryStart = System.currentTimeMillis();
+                    try {
+                        stats.add("lookups", lookupBuild.buildMissingLookups(commitSize));
+                    } catch (final PersistenceException e) {
+                        stats.add("lookups_failure", importFailure("lookups", e));
+                    }
+                    stats.add("number_of_indexed_documents", buildSearchIndex(commitSize));
+                    stats.add("secondary_elapsed_time_millis", System.currentTimeMillis() - secondaryStart);
+                }
+            } finally {
+                if (searchSettings != null) {
+                    doxSearchBean.endBulkLoad(searchSettings);
+                }
+            }
+            stats.add("deferred", deferSecondary);
+            stats.add("merge", merge);
+        } catch (final SystemException
             | NotSupportedException
             | SecurityException
             | IllegalStateException
@@ -367,7 +1462,701 @@ public class DoxImportBean {
         return stats.build();
     }
 
-    private void processFile(final Path file) throws IOException,
+    /**
+     * Runs the import pipeline.
+     *
+     * @param basePath
+     *            directory of the export
+     * @param threads
+     *            number of tasks parsing and validating records
+     * @param commitSize
+     *            number of records written per transaction
+     * @param deferSecondary
+     *            <code>true</code> to only write the records and attachments
+     * @param bulkLoad
+     *            <code>true</code> to wait for each search index request
+     * @param merge
+     *            <code>true</code> to merge into existing records
+     * @param stats
+     *            receives the statistics
+     * @throws SystemException
+     *             transaction error
+     * @throws NotSupportedException
+     *             transaction error
+     */
+    private void importPipeline(final Path basePath,
+        final int threads,
+        final int commitSize,
+        final boolean deferSecondary,
+        final boolean bulkLoad,
+        final boolean merge,
+        final JsonObjectBuilder stats) throws SystemException,
+            NotSupportedException {
+
+        final BlockingQueue<ImportItem> discovered = new ArrayBlockingQueue<>(IMPORT_QUEUE_SIZE);
+        final BlockingQueue<ImportItem> prepared = new ArrayBlockingQueue<>(IMPORT_QUEUE_SIZE);
+        final List<Future<Void>> tasks = new ArrayList<>(threads + 1);
+        tasks.add(executor.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+
+                try {
+                    if (Files.isRegularFile(basePath.resolve(MANIFEST))) {
+                        discoverSegments(basePath, discovered);
+                    } else {
+                        discoverFiles(basePath, discovered);
+                    }
+                } finally {
+                    for (int i = 0; i < threads; ++i) {
+                        discovered.put(ImportItem.END);
+                    }
+                }
+                return null;
+            }
+        }));
+        for (int i = 0; i < threads; ++i) {
+            tasks.add(executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws InterruptedException {
+
+                    try {
+                        ImportItem item;
+                        while ((item = discovered.take()) != ImportItem.END) {
+                            if (item.failure == null) {
+                                try {
+                                    prepareImport(item, deferSecondary);
+                                } catch (IOException
+                                    | MessagingException
+                                    | RuntimeException e) {
+                                    item.failure = e;
+                                }
+                            }
+                            prepared.put(item);
+                        }
+                    } finally {
+                        // the writer would wait forever if an error ended
+                        // the task
+                        prepared.put(ImportItem.END);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        final JsonArrayBuilder failures = Json.createArrayBuilder();
+        // read, attachments, batches, inserted, updated, unchanged, deleted
+        // and tombstones
+        final int[] counts = new int[8];
+        boolean completed = false;
+        try {
+            final List<ImportItem> batch = new ArrayList<>(commitSize);
+            int ends = 0;
+            while (ends < threads) {
+                final ImportItem item = prepared.take();
+                if (item == ImportItem.END) {
+                    ++ends;
+                    continue;
+                }
+                if (item.isTombstone()) {
+                    ++counts[7];
+                    if (!merge) {
+                        // there is nothing to delete in an empty database
+                        continue;
+                    }
+                } else if (item.file != null || item.record != null) {
+                    ++counts[0];
+                }
+                if (item.failure != null) {
+                    failures.add(importFailure(item.source, item.failure));
+                    continue;
+                }
+                batch.add(item);
+                if (batch.size() >= commitSize) {
+                    writeImportBatch(batch, bulkLoad, merge, failures, counts);
+                    batch.clear();
+                }
+            }
+            writeImportBatch(batch, bulkLoad, merge, failures, counts);
+            // the parse tasks are checked first as the discovery task may
+            // still be blocked on a queue a failed parse task stopped taking
+            for (int i = tasks.size() - 1; i >= 0; --i) {
+                tasks.get(i).get();
+            }
+            completed = true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException(e);
+        } catch (final ExecutionException e) {
+            throw new PersistenceException(e.getCause());
+        } finally {
+            if (!completed) {
+                // unblocks the stages waiting on a full queue
+                for (final Future<Void> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+        }
+        stats.add("number_of_imported_documents", counts[0]);
+        stats.add("number_of_imported_oobs", counts[1]);
+        stats.add("number_of_batches", counts[2]);
+        stats.add("number_of_tombstones", counts[7]);
+        if (merge) {
+            stats.add("number_of_inserted_documents", counts[3]);
+            stats.add("number_of_updated_documents", counts[4]);
+            stats.add("number_of_unchanged_documents", counts[5]);
+            stats.add("number_of_deleted_documents", counts[6]);
+        }
+        stats.add("threads", threads);
+        stats.add("commit_size", commitSize);
+        stats.add("failures", failures);
+    }
+
+    /**
+     * Adds every record to the search index after the records were imported
+     * with the secondary structures deferred. The records of each collection
+     * are read in pages by record ID and each page is sent as a single bulk
+     * request. The index names of the records of a page are recorded in its
+     * own transaction.
+     *
+     * @param pageSize
+     *            number of records in a page
+     * @return number of records indexed
+     * @throws SystemException
+     *             transaction error
+     * @throws NotSupportedException
+     *             transaction error
+     * @throws HeuristicRollbackException
+     *             transaction error
+     * @throws HeuristicMixedException
+     *             transaction error
+     * @throws RollbackException
+     *             transaction error
+     */
+    private int buildSearchIndex(final int pageSize) throws SystemException,
+        NotSupportedException,
+        RollbackException,
+        HeuristicMixedException,
+        HeuristicRollbackException {
+
+        int count = 0;
+        for (final CollectionType config : configurationProvider.getPersistenceConfig().getCollection()) {
+            final DoxDictionary collection = dictionary.find(DoxDictionary.COLLECTION, config.getName());
+            if (collection == null) {
+                // nothing was ever written to the collection
+                continue;
+            }
+            final EntityManager em = getEntityManager(config);
+            final DoxContentCodec codec = contentCodecs.forCollection(config);
+            long after = 0;
+            List<Dox> page;
+            do {
+                txn.begin();
+                page = em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME_AFTER, Dox.class)
+                    .setParameter(Dox.COLLECTION, collection)
+                    .setParameter(Dox.AFTER, after)
+                    .setMaxResults(pageSize)
+                    .getResultList();
+                final List<IndexView> indexViews = new ArrayList<>();
+                for (final Dox e : page) {
+                    e.setContentCodec(codec);
+                    final IndexView[] built = indexer.buildIndexViews(config.getName(), e.getJsonContent());
+                    for (final IndexView indexView : built) {
+                        indexView.setCollection(config.getName());
+                        indexView.setDoxID(e.getDoxId());
+                        indexView.setDoxRecordId(e.getDoxRecordId());
+                        indexView.setVersion(e.getVersion());
+                        indexViews.add(indexView);
+                    }
+                    em.createNamedQuery(Dox.UPDATE_INDEX_NAMES_BY_ID)
+                        .setParameter(Dox.INDEX_NAMES, Dox.indexNames(built))
+                        .setParameter("id", e.getDoxRecordId())
+                        .executeUpdate();
+                    after = e.getDoxRecordId();
+                }
+                txn.commit();
+                if (!indexViews.isEmpty()) {
+                    doxSearchBean.bulkAddToIndex(indexViews.toArray(new IndexView[indexViews.size()]));
+                }
+                count += page.size();
+                em.clear();
+            } while (page.size() == pageSize);
+        }
+        return count;
+    }
+
+    /**
+     * Queues every file under the import directory.
+     *
+     * @param basePath
+     *            directory of the export
+     * @param discovered
+     *            queue of the files to parse
+     * @throws IOException
+     *             I/O error
+     */
+    private void discoverFiles(final Path basePath,
+        final BlockingQueue<ImportItem> discovered) throws IOException {
+
+        Files.walkFileTree(basePath, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                final BasicFileAttributes attrs) throws IOException {
+
+                try {
+                    discovered.put(new ImportItem(file.toString(), file, null));
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+    /**
+     * Reads the segments listed in the manifest in order and queues each
+     * record with its attachments. Each segment is read through and checked
+     * against its index before any of its records are queued, so nothing from
+     * a truncated or corrupt segment is written. A segment that cannot be read
+     * or does not match its index is queued as a failure and the import goes
+     * on with the next one.
+     *
+     * @param basePath
+     *            directory of the export
+     * @param discovered
+     *            queue of the records to parse
+     * @throws IOException
+     *             I/O error
+     * @throws InterruptedException
+     *             interrupted
+     */
+    private void discoverSegments(final Path basePath,
+        final BlockingQueue<ImportItem> discovered) throws IOException,
+            InterruptedException {
+
+        final JsonObject manifest;
+        try (final Reader reader = Files.newBufferedReader(basePath.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+            manifest = Json.createReader(reader).readObject();
+        }
+        for (final JsonValue segment : manifest.getJsonArray("segments")) {
+            final String name = ((JsonObject) segment).getString("name");
+            final ImportItem failure = new ImportItem(name, null, null);
+            try {
+                final JsonArray entries = checkSegment(basePath.resolve(name));
+                if (entries != null) {
+                    queueSegment(basePath.resolve(name), name, entries, discovered);
+                    continue;
+                }
+                failure.failure = new PersistenceException("Segment does not match its index");
+            } catch (final IOException e) {
+                failure.failure = e;
+            }
+            discovered.put(failure);
+        }
+    }
+
+    /**
+     * Reads a segment through to check it against its index.
+     *
+     * @param file
+     *            segment file
+     * @return entries of the index or <code>null</code> if the segment does
+     *         not match it
+     * @throws IOException
+     *             I/O error
+     */
+    private JsonArray checkSegment(final Path file) throws IOException {
+
+        try (final DoxSegmentReader reader = new DoxSegmentReader(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (reader.next() != null) {
+                // only the counts are checked
+            }
+            return reader.isComplete() ? reader.getIndex().getJsonArray("entries") : null;
+        }
+    }
+
+    /**
+     * Queues the records of a segment with their attachments. The content of
+     * the attachments is not read, only where it is in the segment so it can
+     * be streamed from the file when the record is written.
+     *
+     * @param file
+     *            segment file
+     * @param name
+     *            segment name
+     * @param entries
+     *            entries of the index of the segment
+     * @param discovered
+     *            queue of the records to parse
+     * @throws IOException
+     *             I/O error
+     * @throws InterruptedException
+     *             interrupted
+     */
+    private void queueSegment(final Path file,
+        final String name,
+        final JsonArray entries,
+        final BlockingQueue<ImportItem> discovered) throws IOException,
+            InterruptedException {
+
+        try (final DoxSegmentReader reader = new DoxSegmentReader(new BufferedInputStream(Files.newInputStream(file)))) {
+            ImportItem item = null;
+            int records = 0;
+            long blockOffset = -1;
+            long blockStart = 0;
+            JsonObject line;
+            while ((line = reader.next()) != null) {
+                if ("oob".equals(line.getString("type"))) {
+                    if (item != null) {
+                        item.oobs.add(line);
+                        item.oobOffsets.add(reader.getOffset() - blockStart);
+                    }
+                    continue;
+                }
+                if (item != null) {
+                    discovered.put(item);
+                }
+                item = new ImportItem(name + " " + line.getString("doxId"), null, line);
+                if ("dox".equals(line.getString("type"))) {
+                    // a block always starts with a record
+                    final long recordBlockOffset = entries.getJsonArray(records++).getJsonNumber(2).longValue();
+                    if (recordBlockOffset != blockOffset) {
+                        blockOffset = recordBlockOffset;
+                        blockStart = reader.getLineOffset();
+                    }
+                    item.segment = file;
+                    item.blockOffset = blockOffset;
+                }
+            }
+            if (item != null) {
+                discovered.put(item);
+            }
+        }
+    }
+
+    /**
+     * Builds the description of a failed import.
+     *
+     * @param file
+     *            file that failed
+     * @param e
+     *            cause
+     * @return failure
+     */
+    private JsonObject importFailure(final String file,
+        final Exception e) {
+
+        final JsonObjectBuilder failure = Json.createObjectBuilder();
+        failure.add("file", file);
+        failure.add("reason", String.valueOf(e.getMessage()));
+        final StringWriter sw = new StringWriter();
+        e.printStackTrace(new PrintWriter(sw));
+        failure.add("stacktrace", sw.toString());
+        return failure.build();
+    }
+
+    /**
+     * Adds an attachment read from a segment to an imported record.
+     *
+     * @param parent
+     *            record
+     * @param config
+     *            collection configuration
+     * @param oob
+     *            <code>oob</code> line
+     * @param content
+     *            content streamed from the segment, it is checked against the
+     *            length and hash of the line as it is written
+     * @throws IOException
+     *             I/O error
+     * @throws SQLException
+     *             SQL error
+     */
+    private void importOob(final Dox parent,
+        final CollectionType config,
+        final JsonObject oob,
+        final InputStream content) throws IOException,
+            SQLException {
+
+        final EntityManager em = getEntityManager(config);
+
+        final DoxOob entity = new DoxOob();
+        entity.setParentDox(parent);
+        entity.setOobName(oob.getString("name"));
+        entity.setContentType(oob.getString("contentType", null));
+        entity.setContentLength(oob.getJsonNumber("contentLength").longValue());
+        entity.setContentHash(oob.getString("contentHash"));
+        entity.setCreatedBy(oob.getString("createdBy"));
+        entity.setCreatedOn(DatatypeConverter.parseDateTime(oob.getString("createdOn")).getTime());
+        entity.setLastUpdatedBy(oob.getString("lastUpdatedBy"));
+        entity.setLastUpdatedOn(DatatypeConverter.parseDateTime(oob.getString("lastUpdatedOn")).getTime());
+        em.persist(entity);
+
+        final DoxOobInputStream is;
+        if (oobStore.isEnabled()) {
+            is = oobStore.write(content, oobStore.getMaxLength(config));
+        } else {
+            em.flush();
+            is = new DoxOobInputStream(content, oobStore.getMaxLength(config));
+            try (final PreparedStatement stmt = em.unwrap(Connection.class).prepareStatement("update " + DoxStorage.getSchemaPrefix(config, null) + "doxoob set content = ? where id = ?")) {
+                stmt.setBinaryStream(1, is);
+                stmt.setLong(2, entity.getId());
+                stmt.executeUpdate();
+            }
+        }
+        if (is.getCount() != entity.getContentLength() || !is.getHash().equals(entity.getContentHash())) {
+            throw new PersistenceException("Content of attachment " + oob.getString("name") + " of " + oob.getString("doxId") + " does not match its hash");
+        }
+    }
+
+    /**
+     * Writes a record that was prepared for import. The records are persisted
+     * with the entity manager so the inserts are batched when JDBC batch
+     * writing is enabled in the persistence unit.
+     *
+     * @param item
+     *            prepared record
+     * @param indexViews
+     *            receives the index views of the record
+     * @return number of attachments written
+     * @throws IOException
+     *             I/O error
+     * @throws SQLException
+     *             SQL error
+     */
+    private int importRecord(final ImportItem item,
+        final List<IndexView> indexViews) throws IOException,
+            SQLException {
+
+        final JsonObject record = item.record;
+        final DoxID doxId = new DoxID(record.getString("doxId"));
+        final String collectionName = record.getString("collection");
+
+        final Principal createdBy = new DoxPrincipal(record.getString("createdBy"));
+        final Principal lastUpdatedBy = new DoxPrincipal(record.getString("lastUpdatedBy"));
+
+        final Date createdOn = new Date(DatatypeConverter.parseDateTime(record.getString("createdOn"))
+            .getTimeInMillis());
+        final Date lastUpdatedOn = new Date(DatatypeConverter.parseDateTime(record.getString("lastUpdatedOn"))
+            .getTimeInMillis());
+
+        final CollectionType config = item.config;
+        final SchemaType schema = item.schema;
+        final DoxDictionary collection = dictionary.collection(config.getName());
+        final EntityManager em = getEntityManager(config);
+
+        final Dox entity = new Dox();
+        entity.setDoxId(doxId);
+        entity.setContentCodec(contentCodecs.forCollection(config));
+        entity.setEncodedContent(item.encodedContent);
+        entity.setCreatedBy(dictionary.principal(createdBy));
+        entity.setCreatedOn(createdOn);
+        entity.setLastUpdatedBy(dictionary.principal(lastUpdatedBy));
+        entity.setLastUpdatedOn(lastUpdatedOn);
+        entity.setCollection(collection);
+        entity.setCollectionSchemaVersion(record.getInt("collectionSchemaVersion"));
+        entity.setAccessKey(item.accessKey);
+        entity.setIndexNames(item.indexNames);
+        entity.setVersion(1);
+
+        em.persist(entity);
+        item.inserted = entity;
+
+        for (int i = 0; i < item.uniqueKeys.size(); ++i) {
+            final LookupType unique = schema.getUnique().get(i);
+            final DoxUnique doxUnique = new DoxUnique();
+            doxUnique.setCollection(collection);
+            doxUnique.setDox(entity);
+            doxUnique.setLookupName(dictionary.lookupName(unique.getName()));
+            doxUnique.setLookupKey(unique, item.uniqueKeys.get(i));
+            em.persist(doxUnique);
+        }
+        for (int i = 0; i < item.lookupKeys.size(); ++i) {
+            final LookupType lookup = schema.getLookup().get(i);
+            final DoxLookup doxLookup = new DoxLookup();
+            doxLookup.setCollection(collection);
+            doxLookup.setDox(entity);
+            doxLookup.setLookupName(dictionary.lookupName(lookup.getName()));
+            doxLookup.setLookupKey(lookup, item.lookupKeys.get(i));
+            em.persist(doxLookup);
+        }
+        for (int i = 0; i < item.oobs.size(); ++i) {
+            try (final InputStream content = item.openOob(i)) {
+                importOob(entity, config, item.oobs.get(i), content);
+            }
+        }
+
+        final DoxMeta meta = new DoxMeta();
+        meta.setCollectionName(collectionName);
+        meta.setAccessKey(item.accessKey);
+        meta.setLastUpdatedBy(lastUpdatedBy);
+        meta.setLastUpdatedOn(lastUpdatedOn);
+        meta.setVersion(record.getInt("version", 1));
+        meta.setDoxId(doxId);
+
+        eventHandler.onRecordCreate(meta, item.inputJson, EMPTY_EXTRA);
+
+        for (final IndexView indexView : item.indexViews) {
+            indexView.setCollection(config.getName());
+            indexView.setDoxID(doxId);
+            indexView.setDoxRecordId(entity.getDoxRecordId());
+            indexView.setVersion(meta.getVersion());
+            indexViews.add(indexView);
+        }
+        return item.oobs.size();
+    }
+
+    /**
+     * Merges a prepared record or tombstone into the existing records.
+     *
+     * @param item
+     *            prepared record or tombstone
+     * @param existing
+     *            meta data of the existing record, <code>null</code> if there
+     *            is none
+     * @param indexViews
+     *            receives the index views of the inserted and updated records
+     * @param removed
+     *            receives the meta data of the removed records
+     * @param merged
+     *            receives the number of inserted, updated, unchanged and
+     *            removed records
+     * @return number of attachments written
+     * @throws IOException
+     *             I/O error
+     * @throws SQLException
+     *             SQL error
+     */
+    private int mergeRecord(final ImportItem item,
+        final DoxMeta existing,
+        final List<IndexView> indexViews,
+        final List<DoxMeta> removed,
+        final int[] merged) throws IOException,
+            SQLException {
+
+        if (item.isTombstone()) {
+            final Date deletedOn = DatatypeConverter.parseDateTime(item.record.getString("deletedOn")).getTime();
+            if (existing == null || existing.getLastUpdatedOn().getTime() > deletedOn.getTime()) {
+                ++merged[2];
+                return 0;
+            }
+            removeRecord(item, existing, deletedOn);
+            removed.add(existing);
+            ++merged[3];
+            return 0;
+        }
+        if (existing == null) {
+            ++merged[0];
+            return importRecord(item, indexViews);
+        }
+        final int version = item.record.getInt("version", 1);
+        final long lastUpdatedOn = DatatypeConverter.parseDateTime(item.record.getString("lastUpdatedOn")).getTimeInMillis();
+        if (version < existing.getVersion() || version == existing.getVersion() && lastUpdatedOn <= existing.getLastUpdatedOn().getTime()) {
+            ++merged[2];
+            return 0;
+        }
+        ++merged[1];
+        return updateRecord(item, existing, indexViews);
+    }
+
+    /**
+     * Prepares a record for import. This parses the file, validates the
+     * content and computes everything that does not need the database so it
+     * can run in parallel.
+     *
+     * @param item
+     *            record to prepare
+     * @param deferSecondary
+     *            <code>true</code> to skip the lookup keys and index views
+     * @throws IOException
+     *             I/O error
+     * @throws MessagingException
+     *             MIME error
+     */
+    private void prepareImport(final ImportItem item,
+        final boolean deferSecondary) throws IOException,
+            MessagingException {
+
+        if (item.file != null) {
+            item.record = readMimeRecord(item.file);
+        }
+        final String collectionName = item.record.getString("collection");
+        item.config = configurationProvider.getCollection(collectionName);
+        item.schema = configurationProvider.getCollectionSchema(collectionName);
+        if (item.isTombstone()) {
+            return;
+        }
+
+        final JsonObject content = item.record.getJsonObject("content");
+        item.inputJson = content.toString();
+        validate(item.schema, item.inputJson);
+
+        item.accessKey = collectionAccessControl.buildAccessKey(collectionName, item.inputJson, item.record.getString("lastUpdatedBy"));
+        item.encodedContent = contentCodecs.forCollection(item.config).encode(JsonBsonCodec.encode(content));
+        if (deferSecondary) {
+            item.indexViews = new IndexView[0];
+        } else {
+            for (final LookupType unique : item.schema.getUnique()) {
+                item.uniqueKeys.add(DoxLookupKeys.read(unique, item.inputJson));
+            }
+            for (final LookupType lookup : item.schema.getLookup()) {
+                item.lookupKeys.add(DoxLookupKeys.read(lookup, item.inputJson));
+            }
+            item.indexViews = indexer.buildIndexViews(item.config.getName(), item.inputJson);
+            item.indexNames = Dox.indexNames(item.indexViews);
+        }
+    }
+
+    /**
+     * Reads the meta data of the existing records of a batch being merged
+     * with one query per collection. The query does not flush so the records
+     * written by the batch are still sent as a JDBC batch.
+     *
+     * @param batch
+     *            prepared records
+     * @return meta data keyed by {@link #mergeKey(String, String)}
+     */
+    private Map<String, DoxMeta> readExisting(final List<ImportItem> batch) {
+
+        final Map<String, List<String>> doxIds = new HashMap<>();
+        for (final ImportItem item : batch) {
+            List<String> collectionDoxIds = doxIds.get(item.config.getName());
+            if (collectionDoxIds == null) {
+                collectionDoxIds = new ArrayList<>();
+                doxIds.put(item.config.getName(), collectionDoxIds);
+            }
+            collectionDoxIds.add(item.record.getString("doxId"));
+        }
+        final Map<String, DoxMeta> existing = new HashMap<>();
+        for (final Entry<String, List<String>> entry : doxIds.entrySet()) {
+            final CollectionType config = configurationProvider.getCollection(entry.getKey());
+            for (final DoxMeta meta : getEntityManager(config).createNamedQuery(Dox.READ_META_BY_COLLECTION_NAME_DOX_IDS, DoxMeta.class)
+                .setParameter(Dox.COLLECTION, dictionary.collection(config.getName()))
+                .setParameter(Dox.DOX_IDS, entry.getValue())
+                .setFlushMode(FlushModeType.COMMIT)
+                .getResultList()) {
+                existing.put(mergeKey(meta.getCollectionName(), meta.getDoxId().toString()), meta);
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * Reads a file of the file export as a <code>dox</code> line of a segment.
+     *
+     * @param file
+     *            file
+     * @return record
+     * @throws IOException
+     *             I/O error
+     * @throws MessagingException
+     *             MIME error
+     */
+    private JsonObject readMimeRecord(final Path file) throws IOException,
         MessagingException {
 
         try (InputStream is = Files.newInputStream(file)) {
@@ -377,82 +2166,278 @@ public class DoxImportBean {
                 throw new PersistenceException("No data was found for import");
             }
             final BodyPart mainBody = mmp.getBodyPart(0);
+            // files exported before the version was added are version 1
+            final String[] version = mainBody.getHeader("Version");
+
+            return Json.createObjectBuilder()
+                .add("type", "dox")
+                .add("collection", mainBody.getHeader("Collection-Name")[0])
+                .add("collectionSchemaVersion", Integer.valueOf(mainBody.getHeader("Collection-Schema-Version")[0]))
+                .add("doxId", mainBody.getFileName())
+                .add("createdBy", mainBody.getHeader("Created-By")[0])
+                .add("createdOn", mainBody.getHeader("Created-On")[0])
+                .add("lastUpdatedBy", mainBody.getHeader("Last-Updated-By")[0])
+                .add("lastUpdatedOn", mainBody.getHeader("Last-Updated-On")[0])
+                .add("version", version == null ? 1 : Integer.parseInt(version[0]))
+                .add("content", Json.createReader(mainBody.getInputStream()).readObject())
+                .build();
+        }
 
-            final DoxID doxId = new DoxID(mainBody.getFileName());
+    }
 
-            final String collectionName = mainBody.getHeader("Collection-Name")[0];
-            final int collectionSchemaVersion = Integer.valueOf(mainBody.getHeader("Collection-Schema-Version")[0]);
+    /**
+     * Sets the imported version of the records inserted by a batch. The
+     * inserts are flushed first as the entity is always inserted with the
+     * first version.
+     *
+     * @param batch
+     *            records of the batch
+     */
+    private void restoreVersions(final List<ImportItem> batch) {
 
-            final Principal createdBy = new DoxPrincipal(mainBody.getHeader("Created-By")[0]);
-            final Principal lastUpdatedBy = new DoxPrincipal(mainBody.getHeader("Last-Updated-By")[0]);
+        final Set<EntityManager> ems = new LinkedHashSet<>();
+        for (final ImportItem item : batch) {
+            if (item.inserted != null && item.record.getInt("version", 1) != 1) {
+                ems.add(getEntityManager(item.config));
+            }
+        }
+        for (final EntityManager em : ems) {
+            em.flush();
+        }
 
-            final Date createdOn = new Date(DatatypeConverter.parseDateTime(mainBody.getHeader("Created-On")[0])
-                .getTimeInMillis());
-            final Date lastUpdatedOn = new Date(DatatypeConverter.parseDateTime(mainBody.getHeader("Last-Updated-On")[0])
-                .getTimeInMillis());
+        for (final ImportItem item : batch) {
+            final int version = item.record.getInt("version", 1);
+            if (item.inserted == null || version == 1) {
+                continue;
+            }
+            final EntityManager em = getEntityManager(item.config);
+            em.createNamedQuery(Dox.UPDATE_VERSION_BY_ID)
+                .setParameter("importedVersion", version)
+                .setParameter("id", item.inserted.getDoxRecordId())
+                .executeUpdate();
+        }
+    }
 
-            final CollectionType config = configurationProvider.getCollection(collectionName);
-            final SchemaType schema = configurationProvider.getCollectionSchema(collectionName);
+    /**
+     * Removes an existing record for a tombstone of a merge and keeps a
+     * tombstone of it.
+     *
+     * @param item
+     *            tombstone
+     * @param existing
+     *            meta data of the record
+     * @param deletedOn
+     *            when the record was deleted
+     */
+    private void removeRecord(final ImportItem item,
+        final DoxMeta existing,
+        final Date deletedOn) {
+
+        final EntityManager em = getEntityManager(item.config);
+        final Dox e = em.find(Dox.class, existing.getId());
+        em.createNamedQuery(DoxUnique.REMOVE_UNIQUE_FOR_DOX).setParameter("dox", e).executeUpdate();
+        uniqueCache.evict(existing.getDoxId());
+        em.createNamedQuery(DoxLookup.REMOVE_LOOKUP_FOR_DOX).setParameter("dox", e).executeUpdate();
+        em.createNamedQuery(DoxOob.REMOVE_BY_PARENT).setParameter(DoxOob.PARENT_DOX, e).executeUpdate();
+
+        e.setContentCodec(contentCodecs.forCollection(item.config));
+        String contentJson = e.getJsonContent();
+        em.persist(e.buildTombstone(dictionary.principal(new DoxPrincipal(item.record.getString("deletedBy"))), deletedOn));
+        em.remove(e);
+
+        if (existing.getCollectionSchemaVersion() != item.schema.getVersion()) {
+            contentJson = migrator.migrate(item.config.getName(), existing.getCollectionSchemaVersion(), item.schema.getVersion(), contentJson);
+        }
+        eventHandler.onRecordDelete(existing, contentJson, EMPTY_EXTRA);
+    }
 
-            final JsonObject content = Json.createReader(mainBody.getInputStream()).readObject();
-            validate(schema, content);
+    /**
+     * Replaces an existing record with a newer one from a merge. The record is
+     * updated by a query so it takes the version of the imported record. Its
+     * lookups are updated and, for a segment which carries every attachment of
+     * the record, its attachments are replaced.
+     *
+     * @param item
+     *            prepared record
+     * @param existing
+     *            meta data of the existing record
+     * @param indexViews
+     *            receives the index views of the record
+     * @return number of attachments written
+     * @throws IOException
+     *             I/O error
+     * @throws SQLException
+     *             SQL error
+     */
+    private int updateRecord(final ImportItem item,
+        final DoxMeta existing,
+        final List<IndexView> indexViews) throws IOException,
+            SQLException {
 
-            final String inputJson = content.toString();
-            final byte[] accessKey = collectionAccessControl.buildAccessKey(collectionName, inputJson, lastUpdatedBy.getName());
+        final JsonObject record = item.record;
+        final CollectionType config = item.config;
+        final SchemaType schema = item.schema;
+        final EntityManager em = getEntityManager(config);
+        final DoxID doxId = existing.getDoxId();
+        final int version = record.getInt("version", 1);
+        final Principal lastUpdatedBy = new DoxPrincipal(record.getString("lastUpdatedBy"));
+        final Date lastUpdatedOn = new Date(DatatypeConverter.parseDateTime(record.getString("lastUpdatedOn"))
+            .getTimeInMillis());
+
+        final int updated = em.createNamedQuery(Dox.UPDATE_IMPORTED_BY_ID_VERSION)
+            .setParameter("content", item.encodedContent)
+            .setParameter("accessKey", item.accessKey)
+            .setParameter("collectionSchemaVersion", record.getInt("collectionSchemaVersion"))
+            .setParameter("lastUpdatedBy", dictionary.principal(lastUpdatedBy))
+            .setParameter("lastUpdatedOn", lastUpdatedOn)
+            .setParameter(Dox.INDEX_NAMES, item.indexNames)
+            .setParameter("importedVersion", version)
+            .setParameter("id", existing.getId())
+            .setParameter("version", existing.getVersion())
+            .executeUpdate();
+        if (updated != 1) {
+            throw new OptimisticLockException("Record " + doxId + " of " + config.getName() + " was changed during the merge");
+        }
+        final Dox e = em.getReference(Dox.class, existing.getId());
+
+        uniqueCache.evict(doxId);
+        for (int i = 0; i < item.uniqueKeys.size(); ++i) {
+            final LookupType unique = schema.getUnique().get(i);
+            final String lookupKey = item.uniqueKeys.get(i);
+            final DoxDictionary lookupNameEntry = dictionary.lookupName(unique.getName());
+            em.createNamedQuery(DoxUnique.UPDATE_UNIQUE_FOR_DOX).setParameter("dox", e).setParameter(DoxUnique.LOOKUP_NAME, lookupNameEntry).setParameter(DoxUnique.LOOKUP_KEY, lookupKey)
+                .setParameter(DoxUnique.LONG_KEY, DoxLookupKeys.toLong(unique, lookupKey))
+                .setParameter(DoxUnique.DECIMAL_KEY, DoxLookupKeys.toDecimal(unique, lookupKey))
+                .setParameter(DoxUnique.DATE_KEY, DoxLookupKeys.toDate(unique, lookupKey))
+                .executeUpdate();
+            uniqueCache.evict(dictionary.collection(config.getName()), lookupNameEntry, lookupKey);
+        }
+        for (int i = 0; i < item.lookupKeys.size(); ++i) {
+            final LookupType lookup = schema.getLookup().get(i);
+            final String lookupKey = item.lookupKeys.get(i);
+            em.createNamedQuery(DoxLookup.UPDATE_LOOKUP_FOR_DOX).setParameter("dox", e).setParameter(DoxLookup.LOOKUP_NAME, dictionary.lookupName(lookup.getName())).setParameter(DoxLookup.LOOKUP_KEY, lookupKey)
+                .setParameter(DoxLookup.LONG_KEY, DoxLookupKeys.toLong(lookup, lookupKey))
+                .setParameter(DoxLookup.DECIMAL_KEY, DoxLookupKeys.toDecimal(lookup, lookupKey))
+                .setParameter(DoxLookup.DATE_KEY, DoxLookupKeys.toDate(lookup, lookupKey))
+                .executeUpdate();
+        }
 
-            final Dox entity = new Dox();
-            entity.setDoxId(doxId);
-            entity.setContent(content);
-            entity.setCreatedBy(createdBy);
-            entity.setCreatedOn(createdOn);
-            entity.setLastUpdatedBy(lastUpdatedBy);
-            entity.setLastUpdatedOn(lastUpdatedOn);
-            entity.setCollectionName(collectionName);
-            entity.setCollectionSchemaVersion(collectionSchemaVersion);
-            entity.setAccessKey(accessKey);
-            entity.setVersion(1);
+        int oobs = 0;
+        if (item.file == null) {
+            em.createNamedQuery(DoxOob.REMOVE_BY_PARENT).setParameter(DoxOob.PARENT_DOX, e).executeUpdate();
+            for (int i = 0; i < item.oobs.size(); ++i) {
+                try (final InputStream content = item.openOob(i)) {
+                    importOob(e, config, item.oobs.get(i), content);
+                }
+            }
+            oobs = item.oobs.size();
+        }
 
-            em.persist(entity);
+        final DoxMeta meta = new DoxMeta();
+        meta.setId(existing.getId());
+        meta.setCollectionName(config.getName());
+        meta.setAccessKey(item.accessKey);
+        meta.setLastUpdatedBy(lastUpdatedBy);
+        meta.setLastUpdatedOn(lastUpdatedOn);
+        meta.setVersion(version);
+        meta.setDoxId(doxId);
+
+        eventHandler.onRecordUpdate(meta, item.inputJson, EMPTY_EXTRA);
+
+        for (final IndexView indexView : item.indexViews) {
+            indexView.setCollection(config.getName());
+            indexView.setDoxID(doxId);
+            indexView.setDoxRecordId(existing.getId());
+            indexView.setVersion(version);
+            indexViews.add(indexView);
+        }
+        return oobs;
+    }
 
-            for (final LookupType unique : schema.getUnique()) {
-                final String lookupKey = JsonPath.compile(unique.getPath()).read(inputJson);
-                final DoxUnique doxUnique = new DoxUnique();
-                doxUnique.setCollectionName(config.getName());
-                doxUnique.setDox(entity);
-                doxUnique.setLookupName(unique.getName());
-                doxUnique.setLookupKey(lookupKey);
-                em.persist(doxUnique);
+    /**
+     * Writes a batch of prepared records in one transaction and sends their
+     * index views in one request once it is committed. If the batch fails it
+     * is written again one record at a time so only the records that fail are
+     * reported.
+     *
+     * @param batch
+     *            prepared records
+     * @param bulkLoad
+     *            <code>true</code> to wait for the search index request
+     * @param merge
+     *            <code>true</code> to merge into existing records
+     * @param failures
+     *            failures
+     * @param counts
+     *            receives the number of attachments, batches and merged
+     *            records
+     * @throws SystemException
+     *             transaction error
+     * @throws NotSupportedException
+     *             transaction error
+     */
+    private void writeImportBatch(final List<ImportItem> batch,
+        final boolean bulkLoad,
+        final boolean merge,
+        final JsonArrayBuilder failures,
+        final int[] counts) throws SystemException,
+            NotSupportedException {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<IndexView> indexViews = new ArrayList<>();
+        final List<DoxMeta> removed = new ArrayList<>();
+        final int[] merged = new int[4];
+        int oobs = 0;
+        try {
+            txn.begin();
+            for (final ImportItem item : batch) {
+                item.inserted = null;
+            }
+            if (merge) {
+                final Map<String, DoxMeta> existing = readExisting(batch);
+                for (final ImportItem item : batch) {
+                    oobs += mergeRecord(item, existing.get(mergeKey(item.config.getName(), item.record.getString("doxId"))), indexViews, removed, merged);
+                }
+            } else {
+                for (final ImportItem item : batch) {
+                    oobs += importRecord(item, indexViews);
+                }
             }
-            for (final LookupType unique : schema.getLookup()) {
-                final String lookupKey = JsonPath.compile(unique.getPath()).read(inputJson);
-                final DoxLookup doxLookup = new DoxLookup();
-                doxLookup.setCollectionName(config.getName());
-                doxLookup.setDox(entity);
-                doxLookup.setLookupName(unique.getName());
-                doxLookup.setLookupKey(lookupKey);
-                em.persist(doxLookup);
+            restoreVersions(batch);
+            txn.commit();
+        } catch (IOException
+            | SQLException
+            | RuntimeException
+            | RollbackException
+            | HeuristicMixedException
+            | HeuristicRollbackException e) {
+            if (txn.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                txn.rollback();
             }
-
-            final DoxMeta meta = new DoxMeta();
-            meta.setCollectionName(collectionName);
-            meta.setAccessKey(accessKey);
-            meta.setLastUpdatedBy(lastUpdatedBy);
-            meta.setLastUpdatedOn(lastUpdatedOn);
-            meta.setVersion(1);
-            meta.setDoxId(doxId);
-
-            eventHandler.onRecordCreate(meta, inputJson, EMPTY_EXTRA);
-
-            final IndexView[] indexViews = indexer.buildIndexViews(config.getName(), inputJson);
-            for (final IndexView indexView : indexViews) {
-                indexView.setCollection(config.getName());
-                indexView.setDoxID(doxId);
+            if (batch.size() == 1) {
+                failures.add(importFailure(batch.get(0).source, e));
+                return;
             }
-            if (indexViews.length > 0) {
-                doxSearchBean.addToIndex(indexViews);
+            for (final ImportItem item : batch) {
+                writeImportBatch(Collections.singletonList(item), bulkLoad, merge, failures, counts);
             }
+            return;
+        }
+        counts[1] += oobs;
+        ++counts[2];
+        for (int i = 0; i < merged.length; ++i) {
+            counts[3 + i] += merged[i];
+        }
+        for (final DoxMeta meta : removed) {
+            doxSearchBean.removeFromIndex(meta.getCollectionName(), meta.getDoxId());
+        }
+        if (bulkLoad && !indexViews.isEmpty()) {
+            doxSearchBean.bulkAddToIndex(indexViews.toArray(new IndexView[indexViews.size()]));
+        } else if (!indexViews.isEmpty()) {
+            doxSearchBean.addToIndex(indexViews.toArray(new IndexView[indexViews.size()]));
         }
-
     }
 
     @EJB
@@ -467,6 +2452,23 @@ public class DoxImportBean {
         this.configurationProvider = configurationProvider;
     }
 
+    @EJB
+    public void setContentCodecs(final DoxContentCodecBean contentCodecs) {
+
+        this.contentCodecs = contentCodecs;
+    }
+
+    @EJB
+    public void setDictionary(final DoxDictionaryBean dictionary) {
+
+        this.dictionary = dictionary;
+    }
+
+    public void setDoxDataSource(final DataSource doxDataSource) {
+
+        this.doxDataSource = doxDataSource;
+    }
+
     @EJB
     public void setDoxSearchBean(final DoxSearch doxSearchBean) {
 
@@ -491,23 +2493,55 @@ public class DoxImportBean {
         this.eventHandler = eventHandler;
     }
 
+    public void setExecutor(final ManagedExecutorService executor) {
+
+        this.executor = executor;
+    }
+
     @EJB
     public void setIndexer(final Indexer indexer) {
 
         this.indexer = indexer;
     }
 
+    @EJB
+    public void setLookupBuild(final DoxLookupBuildBean lookupBuild) {
+
+        this.lookupBuild = lookupBuild;
+    }
+
     @EJB
     public void setMigrator(final Migrator migrator) {
 
         this.migrator = migrator;
     }
 
-    private void validate(final SchemaType schema,
-        final JsonObject content) {
+    @EJB
+    public void setOobStore(final DoxOobStoreBean oobStore) {
+
+        this.oobStore = oobStore;
+    }
+
+    @EJB
+    public void setReplica(final DoxReplicaBean replica) {
+
+        this.replica = replica;
+    }
+
+    @EJB
+    public void setUniqueCache(final DoxUniqueCacheBean uniqueCache) {
+
+        this.uniqueCache = uniqueCache;
+    }
+
+    public void setSessionContext(final SessionContext ctx) {
+
+        this.ctx = ctx;
+    }
 
-        validate(schema, content.toString());
+    public void setUserTransaction(final UserTransaction txn) {
 
+        this.txn = txn;
     }
 
     /**
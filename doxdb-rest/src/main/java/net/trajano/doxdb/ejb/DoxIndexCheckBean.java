@@ -0,0 +1,455 @@
+package net.trajano.doxdb.ejb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.enterprise.context.Dependent;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import net.trajano.doxdb.Dox;
+import net.trajano.doxdb.DoxDictionary;
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.RangeChecksum;
+import net.trajano.doxdb.ejb.internal.DoxStorage;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.Indexer;
+import net.trajano.doxdb.schema.CollectionType;
+import net.trajano.doxdb.schema.IndexType;
+
+/**
+ * <p>
+ * Compares the records of each collection with each search index and repairs
+ * only the documents that differ rather than rebuilding the index with
+ * {@link DoxBean#reindex()}.
+ * </p>
+ * <p>
+ * The whole collection is compared first using a {@link RangeChecksum} from
+ * the database and from the index. The database only counts the records whose
+ * stored index names include the index, so records the indexer leaves out of
+ * an index do not count as drift. A range that differs is split into smaller
+ * ranges of record IDs which are compared in turn, so when the index is mostly
+ * consistent only a few small ranges are read record by record. The records of
+ * such a range are read with one query and passed to the indexer, and the range
+ * is compared again using only the records that have a view for the index. In
+ * those ranges a record is missing if the index does not have it, stale if the
+ * hash of the record ID and version in the index differs and orphaned if the
+ * record no longer exists or the indexer no longer puts it in the index.
+ * </p>
+ * <p>
+ * When repairing, the documents that differ are sent to the index once their
+ * range is compared so only the views of one range are held at a time. The
+ * index names stored with the records of the range are corrected as well so
+ * the next check does not descend into the range again.
+ * </p>
+ * <p>
+ * Documents indexed by earlier versions do not have the record ID in the
+ * index so they are reported as missing and sent again, orphans among them can
+ * only be removed by a full reindex. Documents that have the record ID but not
+ * the hash are reported as stale.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Stateless
+@Dependent
+@LocalBean
+public class DoxIndexCheckBean {
+
+    /**
+     * Drift found in one index for a collection.
+     */
+    private static final class Drift {
+
+        private final String index;
+
+        private long leaves;
+
+        private long missing;
+
+        private long orphaned;
+
+        private long ranges;
+
+        private long stale;
+
+        private Drift(final String index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Number of ranges a range that differs is split into.
+     */
+    private static final int FANOUT = 16;
+
+    /**
+     * Number of records at or below which a range is compared record by
+     * record.
+     */
+    private static final int LEAF_SIZE = 256;
+
+    /**
+     * Upper bound of the whole collection. One less than the maximum so the
+     * exclusive bound used by the index does not overflow.
+     */
+    private static final long MAX_RECORD_ID = Long.MAX_VALUE - 1;
+
+    private ConfigurationProvider configurationProvider;
+
+    private DoxContentCodecBean contentCodecs;
+
+    /**
+     * Session context. Used to look up the persistence contexts of the
+     * collections that have their own storage.
+     */
+    @Resource
+    private SessionContext ctx;
+
+    private DoxDictionaryBean dictionary;
+
+    private DoxSearch doxSearchBean;
+
+    private EntityManager em;
+
+    private Indexer indexer;
+
+    /**
+     * Builds the views the indexer makes for a record.
+     *
+     * @param collection
+     *            collection entry
+     * @param e
+     *            record
+     * @return views
+     */
+    private IndexView[] buildViews(final DoxDictionary collection,
+        final Dox e) {
+
+        e.setContentCodec(contentCodecs.forCollection(configurationProvider.getCollection(collection.getName())));
+        final IndexView[] built = indexer.buildIndexViews(collection.getName(), e.getJsonContent());
+        for (final IndexView indexView : built) {
+            indexView.setCollection(collection.getName());
+            indexView.setDoxID(e.getDoxId());
+            indexView.setDoxRecordId(e.getDoxRecordId());
+            indexView.setVersion(e.getVersion());
+        }
+        return built;
+    }
+
+    /**
+     * Compares the index with the database and optionally repairs the
+     * documents that differ.
+     *
+     * @param repair
+     *            <code>true</code> to send the missing and stale documents to
+     *            the index and remove the orphaned ones.
+     * @return drift report
+     */
+    public JsonObject checkIndex(final boolean repair) {
+
+        final long start = System.currentTimeMillis();
+        final JsonArrayBuilder report = Json.createArrayBuilder();
+        for (final CollectionType config : configurationProvider.getPersistenceConfig().getCollection()) {
+            final EntityManager em = DoxStorage.getEntityManager(config, this.em, ctx);
+            final DoxDictionary collection = dictionary.collection(config.getName());
+
+            for (final IndexType indexType : configurationProvider.getPersistenceConfig().getIndex()) {
+                final Drift drift = new Drift(indexType.getName());
+                compare(em, collection, drift, repair, 0, MAX_RECORD_ID, checksum(em, collection, drift.index, 0, MAX_RECORD_ID), doxSearchBean.checksums(drift.index, config.getName(), new long[] {
+                    0,
+                    MAX_RECORD_ID
+                })[0]);
+                report.add(Json.createObjectBuilder()
+                    .add("collection", config.getName())
+                    .add("index", drift.index)
+                    .add("ranges", drift.ranges)
+                    .add("leaves", drift.leaves)
+                    .add("missing", drift.missing)
+                    .add("stale", drift.stale)
+                    .add("orphaned", drift.orphaned));
+            }
+        }
+        return Json.createObjectBuilder()
+            .add("collections", report)
+            .add("repaired", repair)
+            .add("elapsed_time_millis", System.currentTimeMillis() - start)
+            .build();
+    }
+
+    /**
+     * Computes the checksum of the records of a range in the database that
+     * are stored as being in the index.
+     *
+     * @param em
+     *            entity manager of the collection
+     * @param collection
+     *            collection entry
+     * @param index
+     *            index name
+     * @param after
+     *            record ID after the range
+     * @param until
+     *            last record ID of the range
+     * @return checksum
+     */
+    private RangeChecksum checksum(final EntityManager em,
+        final DoxDictionary collection,
+        final String index,
+        final long after,
+        final long until) {
+
+        final Object[] result = em.createNamedQuery(Dox.RANGE_CHECKSUM, Object[].class)
+            .setParameter(Dox.COLLECTION, collection)
+            .setParameter(Dox.AFTER, after)
+            .setParameter(Dox.UNTIL, until)
+            .setParameter(Dox.INDEX_NAMES, Dox.indexNamePattern(index))
+            .getSingleResult();
+        final long count = ((Number) result[0]).longValue();
+        if (count == 0) {
+            return RangeChecksum.EMPTY;
+        }
+        return new RangeChecksum(count, ((Number) result[1]).longValue(), ((Number) result[2]).longValue());
+    }
+
+    /**
+     * Compares a range. If the checksums differ the range is split and the
+     * parts are compared, small ranges are compared record by record.
+     *
+     * @param em
+     *            entity manager of the collection
+     * @param collection
+     *            collection entry
+     * @param drift
+     *            drift of the index being compared
+     * @param repair
+     *            <code>true</code> to repair the documents that differ
+     * @param after
+     *            record ID after the range
+     * @param until
+     *            last record ID of the range
+     * @param database
+     *            checksum of the range in the database
+     * @param index
+     *            checksum of the range in the index
+     */
+    private void compare(final EntityManager em,
+        final DoxDictionary collection,
+        final Drift drift,
+        final boolean repair,
+        final long after,
+        final long until,
+        final RangeChecksum database,
+        final RangeChecksum index) {
+
+        ++drift.ranges;
+        if (database.matches(index)) {
+            return;
+        }
+        if (database.getCount() <= LEAF_SIZE && index.getCount() <= LEAF_SIZE) {
+            compareRecords(em, collection, drift, repair, after, until, index);
+            return;
+        }
+
+        final long upper = Math.min(until, Math.max(database.getMaxRecordId(), index.getMaxRecordId()));
+        final long step = (upper - after + FANOUT - 1) / FANOUT;
+        final List<Long> boundList = new ArrayList<>(FANOUT + 1);
+        for (long bound = after; bound < upper; bound += step) {
+            boundList.add(bound);
+        }
+        boundList.add(upper);
+        final long[] bounds = new long[boundList.size()];
+        for (int i = 0; i < bounds.length; ++i) {
+            bounds[i] = boundList.get(i);
+        }
+
+        final RangeChecksum[] indexChecksums = doxSearchBean.checksums(drift.index, collection.getName(), bounds);
+        for (int i = 0; i < indexChecksums.length; ++i) {
+            compare(em, collection, drift, repair, bounds[i], bounds[i + 1], checksum(em, collection, drift.index, bounds[i], bounds[i + 1]), indexChecksums[i]);
+        }
+    }
+
+    /**
+     * Compares the records of a range that the indexer puts in the index and
+     * if they differ compares them one by one. When repairing, the documents
+     * that differ are sent to the index before it returns.
+     *
+     * @param em
+     *            entity manager of the collection
+     * @param collection
+     *            collection entry
+     * @param drift
+     *            drift of the index being compared
+     * @param repair
+     *            <code>true</code> to repair the documents that differ
+     * @param after
+     *            record ID after the range
+     * @param until
+     *            last record ID of the range
+     * @param index
+     *            checksum of the range in the index
+     */
+    private void compareRecords(final EntityManager em,
+        final DoxDictionary collection,
+        final Drift drift,
+        final boolean repair,
+        final long after,
+        final long until,
+        final RangeChecksum index) {
+
+        ++drift.leaves;
+        final Map<DoxID, Long> databaseHashes = new HashMap<>();
+        final Map<DoxID, IndexView[]> views = new HashMap<>();
+        final Map<Long, String> changedIndexNames = new HashMap<>();
+        long count = 0;
+        long hashSum = 0;
+        long maxRecordId = 0;
+        for (final Dox e : em.createNamedQuery(Dox.READ_ALL_BY_COLLECTION_NAME_RANGE, Dox.class)
+            .setParameter(Dox.COLLECTION, collection)
+            .setParameter(Dox.AFTER, after)
+            .setParameter(Dox.UNTIL, until)
+            .getResultList()) {
+            final IndexView[] built = buildViews(collection, e);
+            final long hash = RangeChecksum.hash(e.getDoxRecordId(), e.getVersion());
+            databaseHashes.put(e.getDoxId(), hash);
+            views.put(e.getDoxId(), built);
+            if (isInIndex(built, drift.index)) {
+                ++count;
+                hashSum += hash;
+                maxRecordId = Math.max(maxRecordId, e.getDoxRecordId());
+            }
+            final String indexNames = Dox.indexNames(built);
+            if (!indexNames.equals(e.getIndexNames())) {
+                changedIndexNames.put(e.getDoxRecordId(), indexNames);
+            }
+        }
+        em.clear();
+        if (repair) {
+            // bulk update so the versions of the records are kept
+            for (final Map.Entry<Long, String> entry : changedIndexNames.entrySet()) {
+                em.createNamedQuery(Dox.UPDATE_INDEX_NAMES_BY_ID)
+                    .setParameter(Dox.INDEX_NAMES, entry.getValue())
+                    .setParameter("id", entry.getKey())
+                    .executeUpdate();
+            }
+        }
+        if (new RangeChecksum(count, hashSum, maxRecordId).matches(index)) {
+            return;
+        }
+
+        final List<IndexView> reindexed = new ArrayList<>();
+        final List<DoxID> removed = new ArrayList<>();
+
+        final Map<DoxID, Long> indexHashes = doxSearchBean.readHashes(drift.index, collection.getName(), after, until, LEAF_SIZE);
+        for (final Map.Entry<DoxID, Long> entry : databaseHashes.entrySet()) {
+            final DoxID doxId = entry.getKey();
+            final boolean indexed = indexHashes.containsKey(doxId);
+            final Long indexHash = indexHashes.remove(doxId);
+            if (entry.getValue().equals(indexHash)) {
+                continue;
+            }
+            final boolean expected = isInIndex(views.get(doxId), drift.index);
+            if (!indexed) {
+                if (expected) {
+                    ++drift.missing;
+                    Collections.addAll(reindexed, views.get(doxId));
+                }
+            } else if (expected) {
+                ++drift.stale;
+                Collections.addAll(reindexed, views.get(doxId));
+            } else {
+                // removal takes the record out of every index so it is sent again
+                ++drift.orphaned;
+                removed.add(doxId);
+                Collections.addAll(reindexed, views.get(doxId));
+            }
+        }
+        for (final DoxID doxId : indexHashes.keySet()) {
+            ++drift.orphaned;
+            removed.add(doxId);
+        }
+
+        if (repair) {
+            // removal completes before the asynchronous add is sent
+            for (final DoxID doxId : removed) {
+                doxSearchBean.removeFromIndex(collection.getName(), doxId);
+            }
+            if (!reindexed.isEmpty()) {
+                doxSearchBean.addToIndex(reindexed.toArray(new IndexView[reindexed.size()]));
+            }
+        }
+    }
+
+    /**
+     * Checks if one of the views goes to the index.
+     *
+     * @param indexViews
+     *            views
+     * @param index
+     *            index name
+     * @return <code>true</code> if a view is for the index
+     */
+    private boolean isInIndex(final IndexView[] indexViews,
+        final String index) {
+
+        for (final IndexView indexView : indexViews) {
+            if (index.equals(indexView.getIndex())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+
+    @EJB
+    public void setContentCodecs(final DoxContentCodecBean contentCodecs) {
+
+        this.contentCodecs = contentCodecs;
+    }
+
+    @EJB
+    public void setDictionary(final DoxDictionaryBean dictionary) {
+
+        this.dictionary = dictionary;
+    }
+
+    @EJB
+    public void setDoxSearchBean(final DoxSearch doxSearchBean) {
+
+        this.doxSearchBean = doxSearchBean;
+    }
+
+    @PersistenceContext
+    public void setEntityManager(final EntityManager em) {
+
+        this.em = em;
+    }
+
+    @EJB
+    public void setIndexer(final Indexer indexer) {
+
+        this.indexer = indexer;
+    }
+
+    public void setSessionContext(final SessionContext ctx) {
+
+        this.ctx = ctx;
+    }
+}
@@ -1,6 +1,11 @@
 package net.trajano.doxdb.ejb;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
 
 import javax.ejb.Local;
 import javax.json.JsonArray;
@@ -8,6 +13,9 @@ import javax.json.JsonObject;
 
 import net.trajano.doxdb.DoxID;
 import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.DoxOobMeta;
+import net.trajano.doxdb.DoxProjection;
+import net.trajano.doxdb.LookupPage;
 import net.trajano.doxdb.SearchResult;
 import net.trajano.doxdb.schema.DoxPersistence;
 
@@ -21,6 +29,18 @@ public interface DoxLocal {
         String schemaName,
         JsonObject query);
 
+    /**
+     * Counts the records that match all the lookups in a single query.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookups
+     *            lookup keys keyed by lookup name, unique or not
+     * @return number of matching records
+     */
+    long countByLookups(String collectionName,
+        Map<String, String> lookups);
+
     /**
      * Creates a dox record into the database. This will allocate a "_id" value
      * for the record.
@@ -51,6 +71,21 @@ public interface DoxLocal {
         int version,
         JsonObject extra);
 
+    /**
+     * Deletes an attachment of a record.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @return <code>true</code> if the attachment was deleted.
+     */
+    boolean deleteOob(String collectionName,
+        DoxID doxId,
+        String oobName);
+
     DoxPersistence getConfiguration();
 
     /**
@@ -62,6 +97,14 @@ public interface DoxLocal {
      */
     InputStream getSchema(String path);
 
+    /**
+     * Builds the runtime statistics of the DoxDB instance such as the content
+     * compression ratios and codec times.
+     *
+     * @return statistics
+     */
+    JsonObject getStatistics();
+
     boolean isLocked(String collectionName,
         DoxID doxId);
 
@@ -88,6 +131,22 @@ public interface DoxLocal {
     DoxMeta read(String collectionName,
         DoxID id);
 
+    /**
+     * Reads a record returning only the fields in the projection along with
+     * "_id" and "_version". Returns null if the record is not found.
+     *
+     * @param collectionName
+     *            collection name
+     * @param id
+     *            Dox ID
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @return dox meta with the projected contents.
+     */
+    DoxMeta read(String collectionName,
+        DoxID id,
+        DoxProjection projection);
+
     /**
      * <p>
      * Builds a JSON array represented as a string containing the contents of
@@ -117,10 +176,129 @@ public interface DoxLocal {
      */
     String readAll(String schemaName);
 
+    /**
+     * Same as {@link #readAll(String)} but each content entry only contains
+     * the fields in the projection.
+     *
+     * @param schemaName
+     *            schema name
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @return JSON string or file name
+     */
+    String readAll(String schemaName,
+        DoxProjection projection);
+
     JsonArray readByLookup(String collectionName,
         String lookupName,
         String lookupKey);
 
+    /**
+     * Same as {@link #readByLookup(String, String, String)} but each entry
+     * only contains the fields in the projection.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name
+     * @param lookupKey
+     *            lookup key
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @return array of matching records
+     */
+    JsonArray readByLookup(String collectionName,
+        String lookupName,
+        String lookupKey,
+        DoxProjection projection);
+
+    /**
+     * Reads the records whose key is one of the keys using <code>IN</code>
+     * queries rather than a query per key.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name, unique or not
+     * @param lookupKeys
+     *            lookup keys
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @return array of matching records
+     */
+    JsonArray readByLookupKeys(String collectionName,
+        String lookupName,
+        Collection<String> lookupKeys,
+        DoxProjection projection);
+
+    /**
+     * Reads the records of a string lookup whose keys start with a prefix. The
+     * records are ordered by key.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name, unique or not
+     * @param prefix
+     *            key prefix
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @param firstResult
+     *            index of the first result
+     * @param maxResults
+     *            maximum number of results
+     * @return matching records and the number of rows read
+     */
+    LookupPage readByLookupPrefix(String collectionName,
+        String lookupName,
+        String prefix,
+        DoxProjection projection,
+        int firstResult,
+        int maxResults);
+
+    /**
+     * Reads the records of a lookup whose keys are between two keys inclusive.
+     * The keys are compared and ordered using the type of the lookup.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name, unique or not
+     * @param fromKey
+     *            lowest key, if <code>null</code> there is no lower bound.
+     * @param toKey
+     *            highest key, if <code>null</code> there is no upper bound.
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @param firstResult
+     *            index of the first result
+     * @param maxResults
+     *            maximum number of results
+     * @return matching records and the number of rows read
+     */
+    LookupPage readByLookupRange(String collectionName,
+        String lookupName,
+        String fromKey,
+        String toKey,
+        DoxProjection projection,
+        int firstResult,
+        int maxResults);
+
+    /**
+     * Reads the records that match all the lookups in a single query.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookups
+     *            lookup keys keyed by lookup name, unique or not
+     * @param projection
+     *            projection, if <code>null</code> all the fields are returned.
+     * @return array of matching records
+     */
+    JsonArray readByLookups(String collectionName,
+        Map<String, String> lookups,
+        DoxProjection projection);
+
     /**
      * Returns null if the record is not found.
      */
@@ -128,11 +306,87 @@ public interface DoxLocal {
         String lookupName,
         String lookupKey);
 
+    /**
+     * Resolves a unique lookup key to the Dox ID of its record without reading
+     * the record. The result may come from the unique lookup cache.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            unique lookup name
+     * @param lookupKey
+     *            lookup key
+     * @return Dox ID or <code>null</code> if the key was not found.
+     */
+    DoxID readDoxIdByUniqueLookup(String collectionName,
+        String lookupName,
+        String lookupKey);
+
+    /**
+     * Streams part of the content of an attachment. The content is copied
+     * from the database to the output stream without being held in memory.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param contentHash
+     *            hash of the content that is expected, fails if the
+     *            attachment was changed. May be <code>null</code>.
+     * @param offset
+     *            first byte to copy
+     * @param length
+     *            number of bytes to copy
+     * @param os
+     *            output stream
+     * @throws IOException
+     *             unable to write to the output stream
+     */
+    void readOob(String collectionName,
+        DoxID doxId,
+        String oobName,
+        String contentHash,
+        long offset,
+        long length,
+        OutputStream os) throws IOException;
+
+    /**
+     * Reads the meta data of an attachment.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @return meta data or <code>null</code> if there is no attachment.
+     */
+    DoxOobMeta readOobMeta(String collectionName,
+        DoxID doxId,
+        String oobName);
+
     /**
      * Delete all the index data and reindex all the documents.
      */
     void reindex();
 
+    /**
+     * Extends the lease of a lock. The lock must not have expired.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param lockId
+     *            lock ID
+     * @return new expiry time, <code>null</code> if locks do not expire.
+     */
+    Date renewLock(String collectionName,
+        DoxID doxId,
+        int lockId);
+
     SearchResult search(String index,
         String queryString,
         int i);
@@ -202,4 +456,52 @@ public interface DoxLocal {
         int version,
         int lockId);
 
+    /**
+     * Updates a locked Dox record and optionally releases the lock in one
+     * call. The lock and the version are verified by a single query.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            DoxID
+     * @param content
+     *            dox contents as a JSON. The contents MUST be valid for the
+     *            schema.
+     * @param version
+     *            optimistic locking version
+     * @param lockId
+     *            lock ID
+     * @param unlock
+     *            <code>true</code> to release the lock once updated.
+     * @return dox meta with contents with "_id" and "_version" set.
+     */
+    DoxMeta update(String collectionName,
+        DoxID id,
+        JsonObject contents,
+        int version,
+        int lockId,
+        boolean unlock);
+
+    /**
+     * Creates or replaces an attachment of a record. The content is streamed
+     * to the database without being held in memory.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param contentType
+     *            media type of the content, may be <code>null</code>
+     * @param content
+     *            content
+     * @return meta data of the attachment.
+     */
+    DoxOobMeta writeOob(String collectionName,
+        DoxID doxId,
+        String oobName,
+        String contentType,
+        InputStream content);
+
 }
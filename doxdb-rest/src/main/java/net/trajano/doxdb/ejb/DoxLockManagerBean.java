@@ -0,0 +1,575 @@
+package net.trajano.doxdb.ejb;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxLock;
+import net.trajano.doxdb.ejb.internal.DoxAfterCompletion;
+import net.trajano.doxdb.ejb.internal.DoxStorage;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.schema.CollectionType;
+import net.trajano.doxdb.schema.LockLeaseType;
+
+/**
+ * <p>
+ * Keeps the leases of the locks acquired through this node in memory so
+ * checking a lock does not need a query. Every change is written through to
+ * {@link DoxLock} which stays the record of who holds a lock, the memory is
+ * only changed once the transaction that wrote it commits and is only trusted
+ * to say a lock is held. A lock that is not in memory, for example one
+ * acquired through another node, is checked in the database.
+ * </p>
+ * <p>
+ * When a {@link LockLeaseType} is configured locks expire unless they are
+ * renewed and a timer removes expired locks from memory and from the
+ * database. Like the replica the requests of a client holding a lock should be
+ * routed to the same node otherwise a lock released through another node is
+ * only forgotten here when its lease expires. Without a lease a lock would
+ * never be forgotten so the memory is only a hint and every check is
+ * confirmed in the database.
+ * </p>
+ * <p>
+ * The table is split into stripes each with its own lock so requests on
+ * different records rarely wait for each other, the number of times a request
+ * had to wait is reported as contention.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@LocalBean
+@Lock(LockType.READ)
+public class DoxLockManagerBean {
+
+    /**
+     * Lock held on a record.
+     */
+    private static final class Lease {
+
+        /**
+         * Expiry time in milliseconds. Guarded by the stripe lock.
+         */
+        private long expiresOn;
+
+        private final int lockId;
+
+        private Lease(final int lockId,
+            final long expiresOn) {
+            this.lockId = lockId;
+            this.expiresOn = expiresOn;
+        }
+    }
+
+    /**
+     * Part of the lock table guarded by its own lock.
+     */
+    private static final class Stripe {
+
+        private final Map<String, Lease> leases = new HashMap<>();
+
+        private final ReentrantLock lock = new ReentrantLock();
+    }
+
+    /**
+     * Builds the lock table key.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @return key
+     */
+    private static String key(final String collectionName,
+        final DoxID doxId) {
+
+        return collectionName + "\t" + doxId;
+    }
+
+    private final AtomicLong acquired = new AtomicLong();
+
+    private ConfigurationProvider configurationProvider;
+
+    /**
+     * Number of locks released by an update.
+     */
+    private final AtomicLong consumed = new AtomicLong();
+
+    /**
+     * Number of times a request waited for a stripe.
+     */
+    private final AtomicLong contended = new AtomicLong();
+
+    /**
+     * Session context. Used to look up the persistence contexts of the
+     * collections that have their own storage.
+     */
+    @Resource
+    private SessionContext ctx;
+
+    private EntityManager em;
+
+    /**
+     * Number of leases removed by the sweeper.
+     */
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * Number of checks answered from memory.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Total time spent acquiring locks in nanoseconds.
+     */
+    private final AtomicLong lockNanos = new AtomicLong();
+
+    /**
+     * Number of checks that had to query the database.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong released = new AtomicLong();
+
+    private final AtomicLong renewed = new AtomicLong();
+
+    /**
+     * Lock table, created on first use from the configuration.
+     */
+    private volatile Stripe[] stripes;
+
+    private TimerService timerService;
+
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    /**
+     * Total time spent releasing locks in nanoseconds.
+     */
+    private final AtomicLong unlockNanos = new AtomicLong();
+
+    /**
+     * Records a lock that was written to the database once the transaction
+     * commits.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param lockId
+     *            lock ID
+     * @param expiresOn
+     *            expiry time, <code>null</code> if it does not expire
+     * @param nanos
+     *            time taken to acquire the lock
+     */
+    public void acquired(final String collectionName,
+        final DoxID doxId,
+        final int lockId,
+        final Date expiresOn,
+        final long nanos) {
+
+        final String key = key(collectionName, doxId);
+        DoxAfterCompletion.afterCommit(transactionSynchronizationRegistry, new Runnable() {
+
+            @Override
+            public void run() {
+
+                final Stripe stripe = lockStripe(key);
+                try {
+                    stripe.leases.put(key, new Lease(lockId, expiresOn == null ? Long.MAX_VALUE : expiresOn.getTime()));
+                } finally {
+                    stripe.lock.unlock();
+                }
+                acquired.incrementAndGet();
+                lockNanos.addAndGet(nanos);
+            }
+        });
+    }
+
+    /**
+     * Records a lock that was released by the update it was taken for once
+     * the transaction commits.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param lockId
+     *            lock ID
+     */
+    public void consumed(final String collectionName,
+        final DoxID doxId,
+        final int lockId) {
+
+        final String key = key(collectionName, doxId);
+        DoxAfterCompletion.afterCommit(transactionSynchronizationRegistry, new Runnable() {
+
+            @Override
+            public void run() {
+
+                remove(key, lockId);
+                consumed.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Computes the expiry of a lock acquired or renewed now.
+     *
+     * @param now
+     *            current time
+     * @return expiry time, <code>null</code> if locks do not expire
+     */
+    public Date getExpiresOn(final Date now) {
+
+        final LockLeaseType lease = getLockLease();
+        if (lease == null) {
+            return null;
+        }
+        return new Date(now.getTime() + lease.getTtl().longValue());
+    }
+
+    /**
+     * Gets the lease configuration.
+     *
+     * @return lease configuration or <code>null</code> if locks do not expire.
+     */
+    public LockLeaseType getLockLease() {
+
+        return configurationProvider.getPersistenceConfig().getLockLease();
+    }
+
+    /**
+     * Builds the lock statistics.
+     *
+     * @return statistics
+     */
+    public JsonObject getStatistics() {
+
+        int leases = 0;
+        for (final Stripe stripe : getStripes()) {
+            stripe.lock.lock();
+            try {
+                leases += stripe.leases.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        final long acquiredCount = acquired.get();
+        final long releasedCount = released.get();
+        return Json.createObjectBuilder()
+            .add("leases", leases)
+            .add("acquired", acquiredCount)
+            .add("released", releasedCount)
+            .add("released_on_update", consumed.get())
+            .add("renewed", renewed.get())
+            .add("expired", expired.get())
+            .add("hits", hits.get())
+            .add("misses", misses.get())
+            .add("contended", contended.get())
+            .add("lock_average_micros", acquiredCount == 0 ? 0 : lockNanos.get() / acquiredCount / 1000)
+            .add("unlock_average_micros", releasedCount == 0 ? 0 : unlockNanos.get() / releasedCount / 1000)
+            .build();
+    }
+
+    /**
+     * Gets the lock table creating it if needed.
+     *
+     * @return stripes
+     */
+    private Stripe[] getStripes() {
+
+        Stripe[] current = stripes;
+        if (current == null) {
+            synchronized (this) {
+                current = stripes;
+                if (current == null) {
+                    final LockLeaseType lease = getLockLease();
+                    current = new Stripe[lease == null ? 16 : lease.getStripes().intValue()];
+                    for (int i = 0; i < current.length; ++i) {
+                        current[i] = new Stripe();
+                    }
+                    stripes = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Starts the sweeper when leases are configured.
+     */
+    @PostConstruct
+    public void init() {
+
+        final LockLeaseType lease = getLockLease();
+        if (lease != null && timerService != null) {
+            final long interval = lease.getSweepInterval().longValue();
+            timerService.createIntervalTimer(interval, interval, new TimerConfig(null, false));
+        }
+    }
+
+    /**
+     * Checks if a record has an unexpired lock in memory.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @return <code>true</code> if the lock is held, <code>false</code> if it
+     *         needs to be checked in the database.
+     */
+    public boolean isHeld(final String collectionName,
+        final DoxID doxId) {
+
+        return isHeld(collectionName, doxId, null);
+    }
+
+    /**
+     * Checks if a record has an unexpired lock with the lock ID in memory.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param lockId
+     *            lock ID, <code>null</code> for any lock
+     * @return <code>true</code> if the lock is held, <code>false</code> if it
+     *         needs to be checked in the database which is always the case
+     *         for a lock without a lease.
+     */
+    public boolean isHeld(final String collectionName,
+        final DoxID doxId,
+        final Integer lockId) {
+
+        final String key = key(collectionName, doxId);
+        final long now = System.currentTimeMillis();
+        final Stripe stripe = lockStripe(key);
+        final boolean held;
+        try {
+            final Lease lease = stripe.leases.get(key);
+            held = lease != null && lease.expiresOn > now && lease.expiresOn != Long.MAX_VALUE && (lockId == null || lease.lockId == lockId);
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (held) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return held;
+    }
+
+    /**
+     * Locks the stripe of the key counting the times it had to wait.
+     *
+     * @param key
+     *            lock table key
+     * @return locked stripe
+     */
+    private Stripe lockStripe(final String key) {
+
+        final Stripe[] current = getStripes();
+        final Stripe stripe = current[(key.hashCode() & Integer.MAX_VALUE) % current.length];
+        if (!stripe.lock.tryLock()) {
+            contended.incrementAndGet();
+            stripe.lock.lock();
+        }
+        return stripe;
+    }
+
+    /**
+     * Records a lock that was removed from the database once the transaction
+     * commits.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param lockId
+     *            lock ID
+     * @param nanos
+     *            time taken to release the lock
+     */
+    public void released(final String collectionName,
+        final DoxID doxId,
+        final int lockId,
+        final long nanos) {
+
+        final String key = key(collectionName, doxId);
+        DoxAfterCompletion.afterCommit(transactionSynchronizationRegistry, new Runnable() {
+
+            @Override
+            public void run() {
+
+                remove(key, lockId);
+                released.incrementAndGet();
+                unlockNanos.addAndGet(nanos);
+            }
+        });
+    }
+
+    /**
+     * Removes a lease if it is for the lock.
+     *
+     * @param key
+     *            lock table key
+     * @param lockId
+     *            lock ID
+     */
+    private void remove(final String key,
+        final int lockId) {
+
+        final Stripe stripe = lockStripe(key);
+        try {
+            final Lease lease = stripe.leases.get(key);
+            if (lease != null && lease.lockId == lockId) {
+                stripe.leases.remove(key);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Records a lock whose lease was extended in the database once the
+     * transaction commits.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param lockId
+     *            lock ID
+     * @param expiresOn
+     *            new expiry time, <code>null</code> if it does not expire
+     */
+    public void renewed(final String collectionName,
+        final DoxID doxId,
+        final int lockId,
+        final Date expiresOn) {
+
+        final String key = key(collectionName, doxId);
+        final long expiry = expiresOn == null ? Long.MAX_VALUE : expiresOn.getTime();
+        DoxAfterCompletion.afterCommit(transactionSynchronizationRegistry, new Runnable() {
+
+            @Override
+            public void run() {
+
+                final Stripe stripe = lockStripe(key);
+                try {
+                    final Lease lease = stripe.leases.get(key);
+                    if (lease != null && lease.lockId == lockId) {
+                        lease.expiresOn = expiry;
+                    } else {
+                        stripe.leases.put(key, new Lease(lockId, expiry));
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+                renewed.incrementAndGet();
+            }
+        });
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+
+    @PersistenceContext
+    public void setEntityManager(final EntityManager em) {
+
+        this.em = em;
+    }
+
+    public void setSessionContext(final SessionContext ctx) {
+
+        this.ctx = ctx;
+    }
+
+    @Resource
+    public void setTimerService(final TimerService timerService) {
+
+        this.timerService = timerService;
+    }
+
+    @Resource
+    public void setTransactionSynchronizationRegistry(final TransactionSynchronizationRegistry transactionSynchronizationRegistry) {
+
+        this.transactionSynchronizationRegistry = transactionSynchronizationRegistry;
+    }
+
+    /**
+     * Removes the expired leases from memory and the expired locks from the
+     * database including those acquired through other nodes.
+     *
+     * @return number of locks removed from the database
+     */
+    public int sweep() {
+
+        final long now = System.currentTimeMillis();
+        for (final Stripe stripe : getStripes()) {
+            stripe.lock.lock();
+            try {
+                final Iterator<Lease> i = stripe.leases.values().iterator();
+                while (i.hasNext()) {
+                    if (i.next().expiresOn <= now) {
+                        i.remove();
+                        expired.incrementAndGet();
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        int removed = 0;
+        final Set<String> storages = new HashSet<>();
+        for (final CollectionType config : configurationProvider.getPersistenceConfig().getCollection()) {
+            if (!config.isLockable() || !storages.add(config.getStorage() == null ? "" : config.getStorage().getPersistenceContext())) {
+                continue;
+            }
+            removed += DoxStorage.getEntityManager(config, em, ctx).createNamedQuery(DoxLock.REMOVE_EXPIRED_LOCKS)
+                .setParameter(DoxLock.NOW, new Date(now))
+                .executeUpdate();
+        }
+        return removed;
+    }
+
+    /**
+     * Runs {@link #sweep()} from the interval timer. Timeout callbacks must
+     * return <code>void</code>.
+     */
+    @Timeout
+    public void timeout() {
+
+        sweep();
+    }
+}
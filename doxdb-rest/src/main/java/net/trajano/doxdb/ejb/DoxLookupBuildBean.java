@@ -0,0 +1,438 @@
+package net.trajano.doxdb.ejb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionManagement;
+import javax.ejb.TransactionManagementType;
+import javax.enterprise.context.Dependent;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.persistence.TypedQuery;
+import javax.transaction.HeuristicMixedException;
+import javax.transaction.HeuristicRollbackException;
+import javax.transaction.NotSupportedException;
+import javax.transaction.RollbackException;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+
+import net.trajano.doxdb.Dox;
+import net.trajano.doxdb.DoxDictionary;
+import net.trajano.doxdb.DoxLookup;
+import net.trajano.doxdb.DoxUnique;
+import net.trajano.doxdb.ejb.internal.DoxLookupKeys;
+import net.trajano.doxdb.ejb.internal.DoxStorage;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.internal.DoxContentCodec;
+import net.trajano.doxdb.schema.CollectionType;
+import net.trajano.doxdb.schema.LookupType;
+import net.trajano.doxdb.schema.SchemaType;
+
+/**
+ * <p>
+ * Builds the {@link DoxUnique} and {@link DoxLookup} rows of lookups that were
+ * added to a collection schema after its records were written. Unlike
+ * {@link DoxBean#reindex()} only the records that do not have a row for the
+ * lookup are read and the search index is left alone.
+ * </p>
+ * <p>
+ * Each batch is built in its own transaction so the build can run while the
+ * application is in use. The records of a batch are locked while it is built
+ * so a concurrent update either completes before the batch reads the record
+ * or waits for the batch to commit and then updates the new row. Records that
+ * are created during the build get their rows when they are created.
+ * </p>
+ * <p>
+ * The keys of a new unique lookup are checked for duplicates before any row is
+ * written. A duplicate key written by a concurrent request after the check
+ * fails the batch that contains it, the batches that were committed before
+ * remain and the build can be run again once the conflict is resolved.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@TransactionManagement(TransactionManagementType.BEAN)
+@Stateless
+@Dependent
+@LocalBean
+public class DoxLookupBuildBean {
+
+    /**
+     * Default number of records built in a transaction.
+     */
+    public static final int BATCH_SIZE = 100;
+
+    /**
+     * Maximum number of conflicting keys listed in the error message.
+     */
+    private static final int MAX_REPORTED_CONFLICTS = 10;
+
+    private ConfigurationProvider configurationProvider;
+
+    private DoxContentCodecBean contentCodecs;
+
+    /**
+     * Session context. Used to look up the persistence contexts of the
+     * collections that have their own storage.
+     */
+    @Resource
+    private SessionContext ctx;
+
+    private DoxDictionaryBean dictionary;
+
+    private EntityManager em;
+
+    private DoxUniqueCacheBean uniqueCache;
+
+    @Resource
+    private UserTransaction txn;
+
+    /**
+     * Builds a batch of missing rows in its own transaction.
+     *
+     * @param em
+     *            entity manager of the collection
+     * @param collection
+     *            collection entry
+     * @param lookupName
+     *            lookup name entry
+     * @param lookup
+     *            lookup definition
+     * @param unique
+     *            <code>true</code> if the lookup is unique
+     * @param after
+     *            record ID after which records are read
+     * @param until
+     *            last record ID that is read
+     * @return number of rows built
+     */
+    private int buildBatch(final EntityManager em,
+        final DoxDictionary collection,
+        final DoxDictionary lookupName,
+        final LookupType lookup,
+        final boolean unique,
+        final long after,
+        final long until) throws NotSupportedException,
+            SystemException,
+            RollbackException,
+            HeuristicMixedException,
+            HeuristicRollbackException {
+
+        txn.begin();
+        try {
+            final List<Dox> batch = readMissing(em, collection, lookupName, unique, after, until)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+            final DoxContentCodec codec = contentCodecs.forCollection(configurationProvider.getCollection(collection.getName()));
+            for (final Dox e : batch) {
+                e.setContentCodec(codec);
+                final String lookupKey = DoxLookupKeys.read(lookup, e.getJsonContent());
+                if (unique) {
+                    final DoxUnique row = new DoxUnique();
+                    row.setCollection(collection);
+                    row.setDox(e);
+                    row.setLookupName(lookupName);
+                    row.setLookupKey(lookup, lookupKey);
+                    em.persist(row);
+                    uniqueCache.evict(collection, lookupName, lookupKey);
+                } else {
+                    final DoxLookup row = new DoxLookup();
+                    row.setCollection(collection);
+                    row.setDox(e);
+                    row.setLookupName(lookupName);
+                    row.setLookupKey(lookup, lookupKey);
+                    em.persist(row);
+                }
+            }
+            txn.commit();
+            return batch.size();
+        } catch (final RuntimeException e) {
+            txn.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Builds the rows of a lookup for the records that do not have one.
+     *
+     * @param config
+     *            collection configuration
+     * @param lookup
+     *            lookup definition
+     * @param unique
+     *            <code>true</code> if the lookup is unique
+     * @param batchSize
+     *            number of records built in a transaction
+     * @param built
+     *            receives the statistics of the lookup
+     */
+    private void buildLookup(final CollectionType config,
+        final LookupType lookup,
+        final boolean unique,
+        final int batchSize,
+        final JsonArrayBuilder built) {
+
+        final EntityManager em = DoxStorage.getEntityManager(config, this.em, ctx);
+        final DoxDictionary collection = dictionary.collection(config.getName());
+        final DoxDictionary lookupName = dictionary.lookupName(lookup.getName());
+        final long missing = em.createNamedQuery(unique ? Dox.COUNT_MISSING_UNIQUE : Dox.COUNT_MISSING_LOOKUP, Long.class)
+            .setParameter(Dox.COLLECTION, collection)
+            .setParameter(DoxUnique.LOOKUP_NAME, lookupName)
+            .getSingleResult();
+        if (missing == 0) {
+            return;
+        }
+        if (unique) {
+            validateUnique(em, config, collection, lookupName, lookup, batchSize);
+        }
+
+        final long start = System.currentTimeMillis();
+        long count = 0;
+        long after = 0;
+        try {
+            Long until;
+            do {
+                until = nextBatchEnd(em, collection, after, batchSize);
+                count += buildBatch(em, collection, lookupName, lookup, unique, after, until == null ? Long.MAX_VALUE : until);
+                em.clear();
+                after = until == null ? after : until;
+            } while (until != null);
+        } catch (NotSupportedException
+            | SystemException
+            | RollbackException
+            | HeuristicMixedException
+            | HeuristicRollbackException e) {
+            throw new PersistenceException(e);
+        }
+        built.add(Json.createObjectBuilder()
+            .add("collection", config.getName())
+            .add("lookup", lookup.getName())
+            .add("unique", unique)
+            .add("count", count)
+            .add("elapsed_time_millis", System.currentTimeMillis() - start));
+    }
+
+    /**
+     * Builds the rows of the lookups in the current schema of every collection
+     * that are missing for some records.
+     *
+     * @return statistics of the lookups that were built
+     * @throws PersistenceException
+     *             if a new unique lookup has duplicate keys
+     */
+    public JsonObject buildMissingLookups() {
+
+        return buildMissingLookups(BATCH_SIZE);
+    }
+
+    /**
+     * Builds the rows of the lookups in the current schema of every collection
+     * that are missing for some records using the given batch size. The import
+     * uses this to build all the lookups after the records are loaded.
+     *
+     * @param batchSize
+     *            number of records built in a transaction
+     * @return statistics of the lookups that were built
+     * @throws PersistenceException
+     *             if a new unique lookup has duplicate keys
+     */
+    public JsonObject buildMissingLookups(final int batchSize) {
+
+        final long start = System.currentTimeMillis();
+        final JsonArrayBuilder built = Json.createArrayBuilder();
+        for (final CollectionType config : configurationProvider.getPersistenceConfig().getCollection()) {
+            final SchemaType schema = config.getSchema().get(config.getSchema().size() - 1);
+            for (final LookupType unique : schema.getUnique()) {
+                buildLookup(config, unique, true, batchSize, built);
+            }
+            for (final LookupType lookup : schema.getLookup()) {
+                buildLookup(config, lookup, false, batchSize, built);
+            }
+        }
+        return Json.createObjectBuilder()
+            .add("lookups", built)
+            .add("elapsed_time_millis", System.currentTimeMillis() - start)
+            .build();
+    }
+
+    /**
+     * Gets the last record ID of the batch that starts after the given record
+     * ID. Batches are bounded by record IDs rather than a row limit so their
+     * records can be locked by a single query.
+     *
+     * @param em
+     *            entity manager of the collection
+     * @param collection
+     *            collection entry
+     * @param after
+     *            record ID after which the batch starts
+     * @param batchSize
+     *            number of records in a batch
+     * @return last record ID of the batch or <code>null</code> if the batch
+     *         extends to the end of the collection.
+     */
+    private Long nextBatchEnd(final EntityManager em,
+        final DoxDictionary collection,
+        final long after,
+        final int batchSize) {
+
+        final List<Long> end = em.createNamedQuery(Dox.READ_RECORD_ID_AFTER, Long.class)
+            .setParameter(Dox.COLLECTION, collection)
+            .setParameter(Dox.AFTER, after)
+            .setFirstResult(batchSize - 1)
+            .setMaxResults(1)
+            .getResultList();
+        if (end.isEmpty()) {
+            return null;
+        }
+        return end.get(0);
+    }
+
+    /**
+     * Creates the query for the records of a batch that do not have a row for
+     * the lookup.
+     *
+     * @param em
+     *            entity manager of the collection
+     * @param collection
+     *            collection entry
+     * @param lookupName
+     *            lookup name entry
+     * @param unique
+     *            <code>true</code> if the lookup is unique
+     * @param after
+     *            record ID after which records are read
+     * @param until
+     *            last record ID that is read
+     * @return query
+     */
+    private TypedQuery<Dox> readMissing(final EntityManager em,
+        final DoxDictionary collection,
+        final DoxDictionary lookupName,
+        final boolean unique,
+        final long after,
+        final long until) {
+
+        return em.createNamedQuery(unique ? Dox.READ_MISSING_UNIQUE : Dox.READ_MISSING_LOOKUP, Dox.class)
+            .setParameter(Dox.COLLECTION, collection)
+            .setParameter(DoxUnique.LOOKUP_NAME, lookupName)
+            .setParameter(Dox.AFTER, after)
+            .setParameter(Dox.UNTIL, until);
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+
+    @EJB
+    public void setContentCodecs(final DoxContentCodecBean contentCodecs) {
+
+        this.contentCodecs = contentCodecs;
+    }
+
+    @EJB
+    public void setDictionary(final DoxDictionaryBean dictionary) {
+
+        this.dictionary = dictionary;
+    }
+
+    @PersistenceContext
+    public void setEntityManager(final EntityManager em) {
+
+        this.em = em;
+    }
+
+    public void setSessionContext(final SessionContext ctx) {
+
+        this.ctx = ctx;
+    }
+
+    @EJB
+    public void setUniqueCache(final DoxUniqueCacheBean uniqueCache) {
+
+        this.uniqueCache = uniqueCache;
+    }
+
+    public void setUserTransaction(final UserTransaction txn) {
+
+        this.txn = txn;
+    }
+
+    /**
+     * Checks that the keys of the records that do not have a row for the
+     * unique lookup are not duplicated among themselves or with the rows that
+     * already exist.
+     *
+     * @param em
+     *            entity manager of the collection
+     * @param config
+     *            collection configuration
+     * @param collection
+     *            collection entry
+     * @param lookupName
+     *            lookup name entry
+     * @param lookup
+     *            lookup definition
+     * @param batchSize
+     *            number of records read at a time
+     * @throws PersistenceException
+     *             listing some of the duplicate keys
+     */
+    private void validateUnique(final EntityManager em,
+        final CollectionType config,
+        final DoxDictionary collection,
+        final DoxDictionary lookupName,
+        final LookupType lookup,
+        final int batchSize) {
+
+        final Set<String> keys = new HashSet<>();
+        final Set<String> conflicts = new TreeSet<>();
+        final DoxContentCodec codec = contentCodecs.forCollection(config);
+        long after = 0;
+        Long until;
+        do {
+            until = nextBatchEnd(em, collection, after, batchSize);
+            final List<Dox> page = readMissing(em, collection, lookupName, true, after, until == null ? Long.MAX_VALUE : until).getResultList();
+            final List<String> pageKeys = new ArrayList<>(page.size());
+            for (final Dox e : page) {
+                e.setContentCodec(codec);
+                final String lookupKey = DoxLookupKeys.read(lookup, e.getJsonContent());
+                if (lookupKey != null) {
+                    if (!keys.add(lookupKey)) {
+                        conflicts.add(lookupKey);
+                    }
+                    pageKeys.add(lookupKey);
+                }
+            }
+            if (!pageKeys.isEmpty()) {
+                conflicts.addAll(em.createNamedQuery(DoxUnique.UNIQUE_LOOKUP_KEYS_IN, String.class)
+                    .setParameter(DoxUnique.COLLECTION, collection)
+                    .setParameter(DoxUnique.LOOKUP_NAME, lookupName)
+                    .setParameter(DoxUnique.LOOKUP_KEYS, pageKeys)
+                    .getResultList());
+            }
+            em.clear();
+            after = until == null ? after : until;
+        } while (until != null);
+
+        if (!conflicts.isEmpty()) {
+            final List<String> reported = new ArrayList<>(conflicts).subList(0, Math.min(conflicts.size(), MAX_REPORTED_CONFLICTS));
+            throw new PersistenceException("Unique lookup " + lookup.getName() + " of collection " + config.getName() + " has " + conflicts.size() + " duplicate keys " + reported);
+        }
+    }
+}
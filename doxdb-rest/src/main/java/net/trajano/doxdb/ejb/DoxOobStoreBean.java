@@ -0,0 +1,464 @@
+package net.trajano.doxdb.ejb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+
+import net.trajano.doxdb.DoxOob;
+import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ejb.internal.DoxOobInputStream;
+import net.trajano.doxdb.ejb.internal.DoxStorage;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.schema.CollectionType;
+import net.trajano.doxdb.schema.OobStoreType;
+
+/**
+ * <p>
+ * Stores the content of attachments as files named by the SHA-256 of the
+ * content in a two level directory tree so identical attachments share one
+ * file. Only the hash and length are kept in {@link DoxOob}.
+ * </p>
+ * <p>
+ * A file is written to a temporary file, forced to disk and moved into place
+ * atomically so a file that exists is always complete. Files are never
+ * changed once they are in place, a file that is no longer referenced by any
+ * attachment is removed by a timer once it has not been written for the grace
+ * period. Writing an attachment whose content is already stored touches the
+ * file so it is not removed before the transaction referencing it commits.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@LocalBean
+@Lock(LockType.READ)
+public class DoxOobStoreBean {
+
+    /**
+     * Number of hashes checked against the database at once.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * Name of the directory holding files that are being written.
+     */
+    private static final String TEMP_DIRECTORY = "tmp";
+
+    /**
+     * Number of files removed by the collector.
+     */
+    private final AtomicLong collected = new AtomicLong();
+
+    private ConfigurationProvider configurationProvider;
+
+    /**
+     * Session context. Used to look up the persistence contexts of the
+     * collections that have their own storage.
+     */
+    @Resource
+    private SessionContext ctx;
+
+    /**
+     * Number of writes whose content was already stored.
+     */
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    private EntityManager em;
+
+    private TimerService timerService;
+
+    /**
+     * Number of files added to the store.
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * Removes the files in a batch that are not referenced by any attachment.
+     *
+     * @param batch
+     *            files keyed by hash with their last modified time when they
+     *            were listed
+     * @param entityManagers
+     *            entity managers of every storage
+     * @return number of files removed
+     * @throws IOException
+     *             I/O error
+     */
+    private int collect(final Map<String, FileTime> batch,
+        final List<EntityManager> entityManagers) throws IOException {
+
+        for (final EntityManager storageEm : entityManagers) {
+            final List<String> referenced = storageEm.createNamedQuery(DoxOob.READ_CONTENT_HASHES_IN, String.class)
+                .setParameter(DoxOob.CONTENT_HASHES, batch.keySet())
+                .getResultList();
+            batch.keySet().removeAll(referenced);
+        }
+        int removed = 0;
+        for (final Map.Entry<String, FileTime> entry : batch.entrySet()) {
+            final Path path = getPath(entry.getKey());
+            try {
+                // a write may have touched the file since it was listed
+                if (Files.getLastModifiedTime(path).equals(entry.getValue()) && Files.deleteIfExists(path)) {
+                    ++removed;
+                }
+            } catch (final NoSuchFileException e) {
+                // removed by another node
+            }
+        }
+        batch.clear();
+        return removed;
+    }
+
+    /**
+     * Checks if the content is stored.
+     *
+     * @param contentHash
+     *            SHA-256 of the content
+     * @return <code>true</code> if the file exists.
+     */
+    public boolean exists(final String contentHash) {
+
+        return Files.isRegularFile(getPath(contentHash));
+    }
+
+    /**
+     * Removes the files that are not referenced by any attachment and were not
+     * written during the grace period along with abandoned temporary files.
+     *
+     * @return number of files removed
+     */
+    public int gc() {
+
+        final OobStoreType config = getOobStore();
+        if (config == null) {
+            return 0;
+        }
+        final long cutoff = System.currentTimeMillis() - config.getGcGracePeriod().longValue();
+
+        final List<EntityManager> entityManagers = new ArrayList<>();
+        final Set<String> storages = new HashSet<>();
+        for (final CollectionType collection : configurationProvider.getPersistenceConfig().getCollection()) {
+            if (storages.add(collection.getStorage() == null ? "" : collection.getStorage().getPersistenceContext())) {
+                entityManagers.add(DoxStorage.getEntityManager(collection, em, ctx));
+            }
+        }
+
+        final Path root = getDirectory();
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        final Map<String, FileTime> batch = new HashMap<>();
+        final int[] removed = {
+            0
+        };
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) throws IOException {
+
+                    if (attrs.lastModifiedTime().toMillis() >= cutoff) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    if (file.getParent().getFileName().toString().equals(TEMP_DIRECTORY)) {
+                        Files.deleteIfExists(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    batch.put(file.getFileName().toString(), attrs.lastModifiedTime());
+                    if (batch.size() == BATCH_SIZE) {
+                        removed[0] += collect(batch, entityManagers);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if (!batch.isEmpty()) {
+                removed[0] += collect(batch, entityManagers);
+            }
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+        collected.addAndGet(removed[0]);
+        return removed[0];
+    }
+
+    private Path getDirectory() {
+
+        return Paths.get(getOobStore().getDirectory());
+    }
+
+    /**
+     * Gets the largest attachment allowed for a collection. It is the
+     * collection's <code>oobSize</code>, which cannot exceed the size of the
+     * database column when the store is not configured.
+     *
+     * @param config
+     *            collection configuration
+     * @return maximum length in bytes
+     */
+    public long getMaxLength(final CollectionType config) {
+
+        if (!isEnabled()) {
+            return Math.min(config.getOobSize().longValue(), DoxLength.OOB_LENGTH);
+        }
+        return config.getOobSize().longValue();
+    }
+
+    /**
+     * Gets the store configuration.
+     *
+     * @return store configuration or <code>null</code> if the content of
+     *         attachments is stored in the database.
+     */
+    public OobStoreType getOobStore() {
+
+        return configurationProvider.getPersistenceConfig().getOobStore();
+    }
+
+    /**
+     * Opens stored content for reading.
+     *
+     * @param contentHash
+     *            SHA-256 of the content
+     * @return input stream
+     * @throws IOException
+     *             I/O error
+     */
+    public InputStream open(final String contentHash) throws IOException {
+
+        return Files.newInputStream(getPath(contentHash));
+    }
+
+    /**
+     * Gets the path of the file for a hash.
+     *
+     * @param contentHash
+     *            SHA-256 of the content
+     * @return path
+     */
+    private Path getPath(final String contentHash) {
+
+        return getDirectory().resolve(contentHash.substring(0, 2)).resolve(contentHash.substring(2, 4)).resolve(contentHash);
+    }
+
+    /**
+     * Builds the store statistics.
+     *
+     * @return statistics
+     */
+    public JsonObject getStatistics() {
+
+        return Json.createObjectBuilder()
+            .add("enabled", isEnabled())
+            .add("written", written.get())
+            .add("deduplicated", deduplicated.get())
+            .add("collected", collected.get())
+            .build();
+    }
+
+    /**
+     * Starts the collector when the store is configured.
+     */
+    @PostConstruct
+    public void init() {
+
+        final OobStoreType config = getOobStore();
+        if (config != null && timerService != null) {
+            final long interval = config.getGcInterval().longValue();
+            timerService.createIntervalTimer(interval, interval, new TimerConfig(null, false));
+        }
+    }
+
+    /**
+     * Checks if the content of attachments is stored in the file system.
+     *
+     * @return <code>true</code> if a store is configured.
+     */
+    public boolean isEnabled() {
+
+        return getOobStore() != null;
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+
+    @PersistenceContext
+    public void setEntityManager(final EntityManager em) {
+
+        this.em = em;
+    }
+
+    public void setSessionContext(final SessionContext ctx) {
+
+        this.ctx = ctx;
+    }
+
+    @Resource
+    public void setTimerService(final TimerService timerService) {
+
+        this.timerService = timerService;
+    }
+
+    /**
+     * Forces the directory entry of a moved file to disk. Not every platform
+     * allows a directory to be opened so failures are ignored.
+     *
+     * @param directory
+     *            directory
+     */
+    private void syncDirectory(final Path directory) {
+
+        try (final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException e) {
+            // not supported on this platform
+        }
+    }
+
+    /**
+     * Collects the unreferenced files when the interval timer fires. The
+     * count returned by {@link #gc()} is dropped as a timeout callback is
+     * <code>void</code>.
+     */
+    @Timeout
+    public void timeout() {
+
+        gc();
+    }
+
+    /**
+     * Sends part of the content to the output stream. Only the requested range
+     * is read from the file, the bytes still go through a buffer on their way
+     * to the stream unless it is a plain {@link java.io.FileOutputStream}.
+     *
+     * @param contentHash
+     *            SHA-256 of the content
+     * @param offset
+     *            offset of the first byte
+     * @param length
+     *            number of bytes
+     * @param os
+     *            output stream
+     * @throws IOException
+     *             I/O error
+     */
+    public void transferTo(final String contentHash,
+        final long offset,
+        final long length,
+        final OutputStream os) throws IOException {
+
+        try (final FileChannel channel = FileChannel.open(getPath(contentHash), StandardOpenOption.READ)) {
+            final WritableByteChannel target = Channels.newChannel(os);
+            long position = offset;
+            long remaining = Math.min(length, channel.size() - offset);
+            while (remaining > 0) {
+                final long n = channel.transferTo(position, remaining, target);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+                remaining -= n;
+            }
+        }
+    }
+
+    /**
+     * Writes content to the store. Nothing is added if the content is already
+     * stored.
+     *
+     * @param content
+     *            content
+     * @param maxLength
+     *            maximum length of the content
+     * @return the fully read stream which provides the hash and length
+     * @throws IOException
+     *             I/O error or the content is too long
+     */
+    public DoxOobInputStream write(final InputStream content,
+        final long maxLength) throws IOException {
+
+        final Path tempDirectory = getDirectory().resolve(TEMP_DIRECTORY);
+        Files.createDirectories(tempDirectory);
+        final Path temp = Files.createTempFile(tempDirectory, "oob", null);
+        try {
+            final DoxOobInputStream is = new DoxOobInputStream(content, maxLength);
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final ReadableByteChannel source = Channels.newChannel(is);
+                final ByteBuffer buffer = ByteBuffer.allocate(8192);
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                channel.force(true);
+            }
+
+            final Path target = getPath(is.getHash());
+            if (Files.exists(target)) {
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+                deduplicated.incrementAndGet();
+                return is;
+            }
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory(target.getParent());
+                written.incrementAndGet();
+            } catch (final FileAlreadyExistsException e) {
+                // written by another request at the same time
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+                deduplicated.incrementAndGet();
+            }
+            return is;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
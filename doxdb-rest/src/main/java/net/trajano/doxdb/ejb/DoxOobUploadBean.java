@@ -0,0 +1,448 @@
+package net.trajano.doxdb.ejb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxOobUpload;
+import net.trajano.doxdb.ejb.internal.DoxLength;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.schema.CollectionType;
+import net.trajano.doxdb.schema.OobUploadType;
+
+/**
+ * <p>
+ * Keeps the state of resumable attachment uploads. Each upload has a staging
+ * file that chunks are appended to and a properties file describing the
+ * attachment. The number of bytes received is the length of the staging file
+ * which is forced to disk after every chunk. A chunk with a checksum is only
+ * kept once it has been verified, a chunk that fails is truncated away so the
+ * client can resend it from the same offset. A chunk without a checksum keeps
+ * whatever was received before the connection dropped.
+ * </p>
+ * <p>
+ * Once every byte has been received the staging file is written as the
+ * attachment in one transaction and the upload is removed. Uploads that have
+ * not received a chunk within the expiry are removed by a timer.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@Startup
+@LocalBean
+@Lock(LockType.READ)
+public class DoxOobUploadBean {
+
+    private static final String COLLECTION = "collection";
+
+    private static final String CONTENT_TYPE = "contentType";
+
+    private static final String CREATED_BY = "createdBy";
+
+    private static final String DOXID = "doxId";
+
+    private static final String LENGTH = "length";
+
+    private static final String OOB_NAME = "oobName";
+
+    /**
+     * Gets the Java name of a checksum algorithm.
+     *
+     * @param algorithm
+     *            algorithm name as used in the <code>Upload-Checksum</code>
+     *            header
+     * @return Java algorithm name or <code>null</code> if it is not supported.
+     */
+    public static String getDigestAlgorithm(final String algorithm) {
+
+        switch (algorithm) {
+        case "md5":
+            return "MD5";
+        case "sha1":
+            return "SHA-1";
+        case "sha256":
+            return "SHA-256";
+        case "sha512":
+            return "SHA-512";
+        default:
+            return null;
+        }
+    }
+
+    private ConfigurationProvider configurationProvider;
+
+    /**
+     * Session context. Used to get the caller principal.
+     */
+    @Resource
+    private SessionContext ctx;
+
+    private DoxOobStoreBean oobStore;
+
+    private TimerService timerService;
+
+    /**
+     * Appends a chunk to an upload. The chunk is dropped if it does not fit in
+     * the attachment or does not match its checksum.
+     *
+     * @param uploadId
+     *            upload ID
+     * @param offset
+     *            offset the client expects the chunk to be written at
+     * @param digestAlgorithm
+     *            Java name of the checksum algorithm, <code>null</code> if the
+     *            chunk has no checksum
+     * @param checksum
+     *            expected checksum of the chunk
+     * @param chunk
+     *            chunk content
+     * @return upload state or <code>null</code> if the checksum did not
+     *         match.
+     * @throws IOException
+     *             I/O error
+     */
+    public DoxOobUpload append(final String uploadId,
+        final long offset,
+        final String digestAlgorithm,
+        final byte[] checksum,
+        final InputStream chunk) throws IOException {
+
+        final DoxOobUpload upload = read(uploadId);
+        if (upload == null) {
+            throw new EntityNotFoundException("Upload " + uploadId + " was not found");
+        }
+        final MessageDigest digest;
+        try {
+            digest = digestAlgorithm == null ? null : MessageDigest.getInstance(digestAlgorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new PersistenceException(e);
+        }
+
+        try (final FileChannel channel = FileChannel.open(getStagingPath(uploadId), StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (final OverlappingFileLockException e) {
+                // held by another request on this node rather than another process
+                lock = null;
+            }
+            if (lock == null) {
+                throw new OptimisticLockException("Upload " + uploadId + " is receiving another chunk");
+            }
+            final long start = channel.size();
+            if (offset != start) {
+                throw new OptimisticLockException("Upload " + uploadId + " is at offset " + start + " not " + offset);
+            }
+            final ReadableByteChannel source = Channels.newChannel(digest == null ? chunk : new DigestInputStream(chunk, digest));
+            final ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long position = start;
+            try {
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    if (position + buffer.remaining() > upload.getLength()) {
+                        throw new PersistenceException("Upload " + uploadId + " is longer than " + upload.getLength() + " bytes");
+                    }
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+            } catch (final IOException e) {
+                // a dropped connection keeps what was received unless it has to be verified
+                if (digest == null) {
+                    channel.force(true);
+                } else {
+                    channel.truncate(start);
+                }
+                throw e;
+            } catch (final PersistenceException e) {
+                channel.truncate(start);
+                throw e;
+            }
+            if (digest != null && !Arrays.equals(checksum, digest.digest())) {
+                channel.truncate(start);
+                return null;
+            }
+            channel.force(true);
+            return new DoxOobUpload(uploadId, upload.getCollectionName(), upload.getDoxId(), upload.getOobName(), upload.getContentType(), upload.getLength(), position, upload.getCreatedBy());
+        }
+    }
+
+    /**
+     * Starts an upload.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param contentType
+     *            content type of the attachment, may be <code>null</code>
+     * @param length
+     *            total length of the attachment
+     * @return upload state
+     * @throws IOException
+     *             I/O error
+     */
+    public DoxOobUpload create(final String collectionName,
+        final DoxID doxId,
+        final String oobName,
+        final String contentType,
+        final long length) throws IOException {
+
+        final CollectionType config = configurationProvider.getCollection(collectionName);
+        if (config == null) {
+            throw new PersistenceException("Collection " + collectionName + " does not exist");
+        }
+        if (oobName.length() > DoxLength.OOB_NAME_LENGTH) {
+            throw new PersistenceException("Attachment name " + oobName + " is longer than " + DoxLength.OOB_NAME_LENGTH);
+        }
+        final long maxLength = oobStore.getMaxLength(config);
+        if (length < 0 || length > maxLength) {
+            throw new PersistenceException("Attachment length " + length + " is not between 0 and " + maxLength);
+        }
+
+        final String uploadId = DoxID.generate().toString();
+        final String createdBy = ctx.getCallerPrincipal().getName();
+        final Properties properties = new Properties();
+        properties.setProperty(COLLECTION, collectionName);
+        properties.setProperty(DOXID, doxId.toString());
+        properties.setProperty(OOB_NAME, oobName);
+        properties.setProperty(LENGTH, String.valueOf(length));
+        properties.setProperty(CREATED_BY, createdBy);
+        if (contentType != null) {
+            properties.setProperty(CONTENT_TYPE, contentType);
+        }
+
+        final Path directory = getDirectory();
+        Files.createDirectories(directory);
+        Files.createFile(getStagingPath(uploadId));
+        final Path temp = Files.createTempFile(directory, uploadId, null);
+        try {
+            try (final OutputStream os = Files.newOutputStream(temp)) {
+                properties.store(os, null);
+            }
+            Files.move(temp, directory.resolve(uploadId + ".properties"), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new DoxOobUpload(uploadId, collectionName, doxId, oobName, contentType, length, 0, createdBy);
+    }
+
+    /**
+     * Removes an upload.
+     *
+     * @param uploadId
+     *            upload ID
+     * @return <code>true</code> if the upload existed.
+     * @throws IOException
+     *             I/O error
+     */
+    public boolean delete(final String uploadId) throws IOException {
+
+        if (!isValid(uploadId)) {
+            return false;
+        }
+        final boolean existed = Files.deleteIfExists(getDirectory().resolve(uploadId + ".properties"));
+        Files.deleteIfExists(getStagingPath(uploadId));
+        return existed;
+    }
+
+    private Path getDirectory() {
+
+        final OobUploadType config = getOobUpload();
+        if (config.getDirectory() == null) {
+            return Paths.get(System.getProperty("java.io.tmpdir"), "doxdb-uploads");
+        }
+        return Paths.get(config.getDirectory());
+    }
+
+    /**
+     * Gets the upload configuration.
+     *
+     * @return upload configuration, the defaults if it is not specified.
+     */
+    public OobUploadType getOobUpload() {
+
+        final OobUploadType config = configurationProvider.getPersistenceConfig().getOobUpload();
+        if (config == null) {
+            return new OobUploadType();
+        }
+        return config;
+    }
+
+    private Path getStagingPath(final String uploadId) {
+
+        return getDirectory().resolve(uploadId + ".part");
+    }
+
+    /**
+     * Starts the timer that removes expired uploads.
+     */
+    @PostConstruct
+    public void init() {
+
+        if (timerService != null) {
+            final long interval = getOobUpload().getSweepInterval().longValue();
+            timerService.createIntervalTimer(interval, interval, new TimerConfig(null, false));
+        }
+    }
+
+    /**
+     * Checks that an upload ID was generated by {@link #create} so it cannot
+     * refer to a file outside the directory.
+     *
+     * @param uploadId
+     *            upload ID
+     * @return <code>true</code> if the upload ID is valid.
+     */
+    private boolean isValid(final String uploadId) {
+
+        try {
+            new DoxID(uploadId);
+            return true;
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the content of a complete upload.
+     *
+     * @param uploadId
+     *            upload ID
+     * @return input stream
+     * @throws IOException
+     *             I/O error
+     */
+    public InputStream open(final String uploadId) throws IOException {
+
+        return Files.newInputStream(getStagingPath(uploadId));
+    }
+
+    /**
+     * Reads the state of an upload. An upload started by someone else is not
+     * returned so the caller cannot tell it exists.
+     *
+     * @param uploadId
+     *            upload ID
+     * @return upload state or <code>null</code> if the upload does not exist
+     *         or the caller did not start it.
+     * @throws IOException
+     *             I/O error
+     */
+    public DoxOobUpload read(final String uploadId) throws IOException {
+
+        if (!isValid(uploadId)) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (final InputStream is = Files.newInputStream(getDirectory().resolve(uploadId + ".properties"))) {
+            properties.load(is);
+            if (!ctx.getCallerPrincipal().getName().equals(properties.getProperty(CREATED_BY))) {
+                return null;
+            }
+            return new DoxOobUpload(uploadId, properties.getProperty(COLLECTION), new DoxID(properties.getProperty(DOXID)), properties.getProperty(OOB_NAME), properties.getProperty(CONTENT_TYPE), Long.parseLong(properties.getProperty(LENGTH)), Files.size(getStagingPath(uploadId)), properties.getProperty(CREATED_BY));
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+
+    @EJB
+    public void setOobStore(final DoxOobStoreBean oobStore) {
+
+        this.oobStore = oobStore;
+    }
+
+    public void setSessionContext(final SessionContext ctx) {
+
+        this.ctx = ctx;
+    }
+
+    @Resource
+    public void setTimerService(final TimerService timerService) {
+
+        this.timerService = timerService;
+    }
+
+    /**
+     * Removes the uploads that have not received a chunk within the expiry.
+     *
+     * @return number of uploads removed
+     */
+    public int sweep() {
+
+        final Path directory = getDirectory();
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        final long cutoff = System.currentTimeMillis() - getOobUpload().getExpiry().longValue();
+        int removed = 0;
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.part")) {
+            for (final Path staging : stream) {
+                if (Files.getLastModifiedTime(staging).toMillis() < cutoff) {
+                    final String fileName = staging.getFileName().toString();
+                    if (delete(fileName.substring(0, fileName.length() - ".part".length()))) {
+                        ++removed;
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new PersistenceException(e);
+        }
+        return removed;
+    }
+
+    /**
+     * Sweeps the expired uploads from the interval timer, {@link #sweep()}
+     * cannot be the callback as it returns a count.
+     */
+    @Timeout
+    public void timeout() {
+
+        sweep();
+    }
+}
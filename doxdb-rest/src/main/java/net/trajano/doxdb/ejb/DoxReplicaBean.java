@@ -0,0 +1,224 @@
+package net.trajano.doxdb.ejb;
+
+import java.security.Principal;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import net.trajano.doxdb.ejb.internal.DoxAfterCompletion;
+import net.trajano.doxdb.ejb.internal.DoxReadOnly;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.schema.ReadConsistencyType;
+import net.trajano.doxdb.schema.ReplicaType;
+
+/**
+ * <p>
+ * Decides whether a read can go to the read replica based on the consistency
+ * configured in {@link ReplicaType}. For "primaryAfterWrite" the time of the
+ * last write of each principal is kept so that principal reads its own writes
+ * from the primary until the replica is expected to have caught up.
+ * </p>
+ * <p>
+ * The write times are only kept in memory on the node that did the write. When
+ * there is more than one node the requests of a principal should be routed to
+ * the same node otherwise it may read stale data from the replica.
+ * </p>
+ * <p>
+ * Reads from the replica run outside of the caller's transaction so the
+ * replica data source is never enlisted with the primary.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@LocalBean
+@Lock(LockType.READ)
+public class DoxReplicaBean {
+
+    /**
+     * Number of tracked principals above which expired entries are removed
+     * when a write is recorded.
+     */
+    private static final int PURGE_THRESHOLD = 1024;
+
+    /**
+     * Transaction resource set once the transaction has written.
+     */
+    private static final String WRITTEN = DoxReplicaBean.class.getName() + ".written";
+
+    private ConfigurationProvider configurationProvider;
+
+    /**
+     * Last write time keyed by principal name.
+     */
+    private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Number of reads that went to the primary while a replica is configured.
+     */
+    private final AtomicLong primaryReads = new AtomicLong();
+
+    /**
+     * Number of reads that went to the replica.
+     */
+    private final AtomicLong replicaReads = new AtomicLong();
+
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    /**
+     * Gets the replica configuration.
+     *
+     * @return replica configuration or <code>null</code> if there is no
+     *         replica.
+     */
+    public ReplicaType getReplica() {
+
+        return configurationProvider.getPersistenceConfig().getReplica();
+    }
+
+    /**
+     * Builds the read statistics.
+     *
+     * @return statistics
+     */
+    public JsonObject getStatistics() {
+
+        return Json.createObjectBuilder()
+            .add("primary_reads", primaryReads.get())
+            .add("replica_reads", replicaReads.get())
+            .add("tracked_principals", lastWrites.size())
+            .build();
+    }
+
+    /**
+     * Checks if a read by the principal can go to the replica.
+     *
+     * @param principal
+     *            principal
+     * @return <code>true</code> if the read can go to the replica.
+     */
+    public boolean isReplicaReadable(final Principal principal) {
+
+        final ReplicaType replica = getReplica();
+        if (replica == null) {
+            return false;
+        }
+        final boolean readable;
+        if (replica.getConsistency() == ReadConsistencyType.PRIMARY) {
+            readable = false;
+        } else if (replica.getConsistency() == ReadConsistencyType.REPLICA) {
+            readable = true;
+        } else if (isWritten()) {
+            // the replica cannot have what this transaction has not committed
+            readable = false;
+        } else {
+            final Long lastWrite = lastWrites.get(principal.getName());
+            if (lastWrite == null) {
+                readable = true;
+            } else if (System.currentTimeMillis() - lastWrite >= replica.getMaxStaleness().longValue()) {
+                lastWrites.remove(principal.getName(), lastWrite);
+                readable = true;
+            } else {
+                readable = false;
+            }
+        }
+        if (readable) {
+            replicaReads.incrementAndGet();
+        } else {
+            primaryReads.incrementAndGet();
+        }
+        return readable;
+    }
+
+    /**
+     * Checks if the current transaction has recorded a write.
+     *
+     * @return <code>true</code> if it has.
+     */
+    private boolean isWritten() {
+
+        return transactionSynchronizationRegistry != null && transactionSynchronizationRegistry.getTransactionKey() != null && transactionSynchronizationRegistry.getResource(WRITTEN) != null;
+    }
+
+    /**
+     * Runs reads against the replica with the caller's transaction suspended.
+     *
+     * @param em
+     *            replica entity manager
+     * @param work
+     *            reads
+     * @return result of the reads
+     */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public <T> T read(final EntityManager em,
+        final DoxReadOnly<T> work) {
+
+        return work.execute(em);
+    }
+
+    /**
+     * Records a write by the principal once the transaction commits. The
+     * staleness is counted from the commit as that is when the replica starts
+     * to catch up, a write that is rolled back is not recorded. Until then the
+     * rest of the transaction reads from the primary.
+     *
+     * @param principal
+     *            principal
+     */
+    public void recordWrite(final Principal principal) {
+
+        final ReplicaType replica = getReplica();
+        if (replica == null || replica.getConsistency() != ReadConsistencyType.PRIMARY_AFTER_WRITE) {
+            return;
+        }
+        if (transactionSynchronizationRegistry != null && transactionSynchronizationRegistry.getTransactionKey() != null) {
+            transactionSynchronizationRegistry.putResource(WRITTEN, Boolean.TRUE);
+        }
+        final String name = principal.getName();
+        final long maxStaleness = replica.getMaxStaleness().longValue();
+        DoxAfterCompletion.afterCommit(transactionSynchronizationRegistry, new Runnable() {
+
+            @Override
+            public void run() {
+
+                final long now = System.currentTimeMillis();
+                lastWrites.put(name, now);
+                if (lastWrites.size() > PURGE_THRESHOLD) {
+                    final Iterator<Map.Entry<String, Long>> i = lastWrites.entrySet().iterator();
+                    while (i.hasNext()) {
+                        if (now - i.next().getValue() >= maxStaleness) {
+                            i.remove();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+
+    @Resource
+    public void setTransactionSynchronizationRegistry(final TransactionSynchronizationRegistry transactionSynchronizationRegistry) {
+
+        this.transactionSynchronizationRegistry = transactionSynchronizationRegistry;
+    }
+}
@@ -1,10 +1,13 @@
 package net.trajano.doxdb.ejb;
 
+import java.util.Map;
+
 import javax.ejb.Local;
 import javax.json.JsonObject;
 
 import net.trajano.doxdb.DoxID;
 import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.RangeChecksum;
 import net.trajano.doxdb.SearchResult;
 
 @Local
@@ -43,6 +46,75 @@ public interface DoxSearch {
         String collectionName,
         JsonObject query);
 
+    /**
+     * Prepares the indices for a bulk load by disabling the refresh and
+     * removing the replicas.
+     *
+     * @return settings that were replaced, passed to
+     *         {@link #endBulkLoad(JsonObject)}
+     */
+    JsonObject beginBulkLoad();
+
+    /**
+     * Adds to the index and waits for the request to complete. This is used
+     * by bulk loads so the last request is done before the settings are
+     * restored.
+     *
+     * @param indexViews
+     */
+    void bulkAddToIndex(IndexView... indexViews);
+
+    /**
+     * Computes the checksums of the records of a collection in an index for
+     * consecutive ranges of record IDs. The ranges are between each pair of
+     * adjacent bounds, excluding the lower bound and including the upper
+     * bound.
+     *
+     * @param index
+     *            index
+     * @param collectionName
+     *            collection name
+     * @param bounds
+     *            ascending record ID bounds, one more than the number of
+     *            ranges
+     * @return checksum of each range
+     */
+    RangeChecksum[] checksums(String index,
+        String collectionName,
+        long[] bounds);
+
+    /**
+     * Restores the settings replaced by {@link #beginBulkLoad()} and refreshes
+     * the indices.
+     *
+     * @param previous
+     *            settings returned by {@link #beginBulkLoad()}
+     */
+    void endBulkLoad(JsonObject previous);
+
+    /**
+     * Reads the {@link RangeChecksum#hash(long, int)} of the records of a
+     * collection in an index that are in a range of record IDs.
+     *
+     * @param index
+     *            index
+     * @param collectionName
+     *            collection name
+     * @param after
+     *            record ID after which records are read
+     * @param until
+     *            last record ID that is read
+     * @param limit
+     *            maximum number of records
+     * @return hash keyed by Dox ID, <code>null</code> for a document that was
+     *         indexed without it
+     */
+    Map<DoxID, Long> readHashes(String index,
+        String collectionName,
+        long after,
+        long until,
+        int limit);
+
     /**
      * This must only be one thread at a time.
      */
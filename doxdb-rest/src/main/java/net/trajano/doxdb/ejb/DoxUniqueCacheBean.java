@@ -0,0 +1,373 @@
+package net.trajano.doxdb.ejb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Singleton;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import net.trajano.doxdb.DoxDictionary;
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxUnique;
+import net.trajano.doxdb.ejb.internal.DoxAfterCompletion;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.schema.UniqueLookupCacheType;
+
+/**
+ * <p>
+ * Caches the {@link DoxID} of unique lookup keys so frequently resolved keys
+ * do not need a query. Keys that were not found are cached for a shorter time
+ * configured in {@link UniqueLookupCacheType}.
+ * </p>
+ * <p>
+ * Entries are removed rather than replaced when a record is written so a
+ * transaction that is rolled back does not leave a key pointing to the wrong
+ * record. They are removed again once the transaction completes as a
+ * concurrent read may have cached the previous value before the write was
+ * committed. The cache is only kept on the node that did the write, other
+ * nodes see the change once their entry expires.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+@Singleton
+@LocalBean
+@Lock(LockType.READ)
+public class DoxUniqueCacheBean {
+
+    /**
+     * Cached Dox ID with its expiry time.
+     */
+    private static final class CachedDoxID {
+
+        /**
+         * Dox ID or <code>null</code> if the key was not found.
+         */
+        private final DoxID doxId;
+
+        private final long expiresOn;
+
+        private CachedDoxID(final DoxID doxId,
+            final long expiresOn) {
+            this.doxId = doxId;
+            this.expiresOn = expiresOn;
+        }
+    }
+
+    /**
+     * Builds the cache key.
+     *
+     * @param collection
+     *            collection entry
+     * @param lookupName
+     *            lookup name entry
+     * @param lookupKey
+     *            lookup key
+     * @return cache key
+     */
+    private static String key(final DoxDictionary collection,
+        final DoxDictionary lookupName,
+        final String lookupKey) {
+
+        return collection.getId() + ":" + lookupName.getId() + ":" + lookupKey;
+    }
+
+    private ConfigurationProvider configurationProvider;
+
+    /**
+     * Cached entries in access order. Access is synchronized on the map.
+     */
+    private final LinkedHashMap<String, CachedDoxID> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Number of lookups answered by a key that was found.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Keys of the entries that resolve to each record. Guarded by the lock on
+     * {@link #entries}.
+     */
+    private final Map<DoxID, Set<String>> keysByDoxId = new HashMap<>();
+
+    /**
+     * Number of lookups that queried the database.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Number of lookups answered by a key that was not found.
+     */
+    private final AtomicLong negativeHits = new AtomicLong();
+
+    private TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+    /**
+     * Removes the entry of a unique lookup key now and once the transaction
+     * completes.
+     *
+     * @param collection
+     *            collection entry
+     * @param lookupName
+     *            lookup name entry
+     * @param lookupKey
+     *            lookup key
+     */
+    public void evict(final DoxDictionary collection,
+        final DoxDictionary lookupName,
+        final String lookupKey) {
+
+        if (!isEnabled()) {
+            return;
+        }
+        final String key = key(collection, lookupName, lookupKey);
+        remove(key);
+        DoxAfterCompletion.afterCompletion(transactionSynchronizationRegistry, new Runnable() {
+
+            @Override
+            public void run() {
+
+                remove(key);
+            }
+        });
+    }
+
+    /**
+     * Removes the entries that resolve to the record now and once the
+     * transaction completes.
+     *
+     * @param doxId
+     *            Dox ID
+     */
+    public void evict(final DoxID doxId) {
+
+        if (!isEnabled()) {
+            return;
+        }
+        remove(doxId);
+        DoxAfterCompletion.afterCompletion(transactionSynchronizationRegistry, new Runnable() {
+
+            @Override
+            public void run() {
+
+                remove(doxId);
+            }
+        });
+    }
+
+    /**
+     * Builds the cache statistics.
+     *
+     * @return statistics
+     */
+    public JsonObject getStatistics() {
+
+        final long hitCount = hits.get();
+        final long negativeHitCount = negativeHits.get();
+        final long missCount = misses.get();
+        final long total = hitCount + negativeHitCount + missCount;
+        final int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return Json.createObjectBuilder()
+            .add("entries", size)
+            .add("hits", hitCount)
+            .add("negative_hits", negativeHitCount)
+            .add("misses", missCount)
+            .add("hit_rate", total == 0 ? 0.0 : (double) (hitCount + negativeHitCount) / total)
+            .build();
+    }
+
+    /**
+     * Gets the cache configuration.
+     *
+     * @return cache configuration or <code>null</code> if there is no cache.
+     */
+    public UniqueLookupCacheType getUniqueLookupCache() {
+
+        return configurationProvider.getPersistenceConfig().getUniqueLookupCache();
+    }
+
+    /**
+     * Checks if the cache is configured.
+     *
+     * @return <code>true</code> if the cache is configured.
+     */
+    public boolean isEnabled() {
+
+        return getUniqueLookupCache() != null;
+    }
+
+    /**
+     * Resolves a unique lookup key to its {@link DoxID} using the cache when
+     * possible.
+     *
+     * @param em
+     *            entity manager used when the key is not cached
+     * @param collection
+     *            collection entry
+     * @param lookupName
+     *            lookup name entry
+     * @param lookupKey
+     *            lookup key
+     * @return Dox ID or <code>null</code> if the key was not found.
+     */
+    public DoxID resolve(final EntityManager em,
+        final DoxDictionary collection,
+        final DoxDictionary lookupName,
+        final String lookupKey) {
+
+        final UniqueLookupCacheType config = getUniqueLookupCache();
+        if (config == null) {
+            return query(em, collection, lookupName, lookupKey);
+        }
+        final String key = key(collection, lookupName, lookupKey);
+        final long now = System.currentTimeMillis();
+        final CachedDoxID cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null && cached.expiresOn > now) {
+            if (cached.doxId == null) {
+                negativeHits.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return cached.doxId;
+        }
+
+        misses.incrementAndGet();
+        final DoxID doxId = query(em, collection, lookupName, lookupKey);
+        final long ttl = doxId == null ? config.getNegativeTtl().longValue() : config.getTtl().longValue();
+        final int maxEntries = config.getMaxEntries().intValue();
+        synchronized (entries) {
+            unindex(key, entries.put(key, new CachedDoxID(doxId, now + ttl)));
+            if (doxId != null) {
+                Set<String> keys = keysByDoxId.get(doxId);
+                if (keys == null) {
+                    keys = new HashSet<>();
+                    keysByDoxId.put(doxId, keys);
+                }
+                keys.add(key);
+            }
+            final Iterator<Map.Entry<String, CachedDoxID>> i = entries.entrySet().iterator();
+            while (entries.size() > maxEntries) {
+                final Map.Entry<String, CachedDoxID> eldest = i.next();
+                i.remove();
+                unindex(eldest.getKey(), eldest.getValue());
+            }
+        }
+        return doxId;
+    }
+
+    /**
+     * Queries the database for the Dox ID.
+     *
+     * @param em
+     *            entity manager
+     * @param collection
+     *            collection entry
+     * @param lookupName
+     *            lookup name entry
+     * @param lookupKey
+     *            lookup key
+     * @return Dox ID or <code>null</code> if the key was not found.
+     */
+    private DoxID query(final EntityManager em,
+        final DoxDictionary collection,
+        final DoxDictionary lookupName,
+        final String lookupKey) {
+
+        final List<String> results = em.createNamedQuery(DoxUnique.UNIQUE_LOOKUP_DOX_ID, String.class)
+            .setParameter(DoxUnique.COLLECTION, collection)
+            .setParameter(DoxUnique.LOOKUP_NAME, lookupName)
+            .setParameter(DoxUnique.LOOKUP_KEY, lookupKey)
+            .getResultList();
+        if (results.isEmpty()) {
+            return null;
+        }
+        return new DoxID(results.get(0));
+    }
+
+    /**
+     * Removes the entries that resolve to the record.
+     *
+     * @param doxId
+     *            Dox ID
+     */
+    private void remove(final DoxID doxId) {
+
+        synchronized (entries) {
+            final Set<String> keys = keysByDoxId.remove(doxId);
+            if (keys != null) {
+                for (final String key : keys) {
+                    entries.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of a key.
+     *
+     * @param key
+     *            cache key
+     */
+    private void remove(final String key) {
+
+        synchronized (entries) {
+            unindex(key, entries.remove(key));
+        }
+    }
+
+    @EJB
+    public void setConfigurationProvider(final ConfigurationProvider configurationProvider) {
+
+        this.configurationProvider = configurationProvider;
+    }
+
+    @Resource
+    public void setTransactionSynchronizationRegistry(final TransactionSynchronizationRegistry transactionSynchronizationRegistry) {
+
+        this.transactionSynchronizationRegistry = transactionSynchronizationRegistry;
+    }
+
+    /**
+     * Removes a key from the keys of the record of its removed entry. Must be
+     * called holding the lock on {@link #entries}.
+     *
+     * @param key
+     *            cache key
+     * @param removed
+     *            removed entry, may be <code>null</code>
+     */
+    private void unindex(final String key,
+        final CachedDoxID removed) {
+
+        if (removed == null || removed.doxId == null) {
+            return;
+        }
+        final Set<String> keys = keysByDoxId.get(removed.doxId);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByDoxId.remove(removed.doxId);
+            }
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package net.trajano.doxdb.ejb;
 
+import static javax.json.Json.createArrayBuilder;
 import static javax.json.Json.createObjectBuilder;
 
 import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.ejb.Asynchronous;
@@ -12,6 +15,7 @@ import javax.ejb.Stateless;
 import javax.enterprise.context.Dependent;
 import javax.json.Json;
 import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
@@ -24,6 +28,7 @@ import javax.ws.rs.core.MediaType;
 
 import net.trajano.doxdb.DoxID;
 import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.RangeChecksum;
 import net.trajano.doxdb.SearchResult;
 import net.trajano.doxdb.ext.ConfigurationProvider;
 import net.trajano.doxdb.schema.IndexType;
@@ -39,6 +44,37 @@ import net.trajano.doxdb.schema.IndexType;
 public class EsJaxRsSearchBean implements
     DoxSearch {
 
+    /**
+     * Field in the meta data object holding the
+     * {@link RangeChecksum#hash(long, int)} of the record.
+     */
+    private static final String CHECKSUM_FIELD = "_.checksum";
+
+    /**
+     * Number of replicas of an index that does not set it.
+     */
+    private static final String DEFAULT_NUMBER_OF_REPLICAS = "1";
+
+    /**
+     * Refresh interval of an index that does not set it.
+     */
+    private static final String DEFAULT_REFRESH_INTERVAL = "1s";
+
+    /**
+     * Index setting for the number of replicas.
+     */
+    private static final String NUMBER_OF_REPLICAS = "number_of_replicas";
+
+    /**
+     * Field in the meta data object holding the record ID.
+     */
+    private static final String RECORD_ID_FIELD = "_.recordId";
+
+    /**
+     * Index setting for the refresh interval.
+     */
+    private static final String REFRESH_INTERVAL = "refresh_interval";
+
     /**
      * Create a unique ID for the search index record.
      *
@@ -61,37 +97,7 @@ public class EsJaxRsSearchBean implements
     @Asynchronous
     public void addToIndex(final IndexView... indexViews) {
 
-        final WebTarget target = jestProvider.getTarget().path("_bulk");
-
-        final StringBuilder b = new StringBuilder();
-        for (final IndexView indexView : indexViews) {
-            b.append(
-                createObjectBuilder().add("index", createObjectBuilder()
-                    .add("_index", configurationProvider.getMappedIndex(indexView.getIndex()))
-                    .add("_type", indexView.getCollection())
-                    .add("_id", indexView.getDoxID().toString())).build().toString());
-            b.append("\n");
-
-            final JsonObjectBuilder sourceBuilder = createObjectBuilder();
-            for (final Entry<String, BigDecimal> d : indexView.getNumbers()) {
-                sourceBuilder.add(d.getKey(), d.getValue());
-            }
-            for (final Entry<String, String> d : indexView.getStrings()) {
-                sourceBuilder.add(d.getKey(), d.getValue());
-            }
-
-            final JsonObjectBuilder metaBuilder = createObjectBuilder();
-            for (final Entry<String, String> d : indexView.getTexts()) {
-                metaBuilder.add(d.getKey(), d.getValue());
-            }
-            metaBuilder.add("_text", indexView.getText());
-            sourceBuilder.add("_", metaBuilder);
-
-            b.append(sourceBuilder.build().toString());
-            b.append("\n");
-        }
-        target.request(MediaType.APPLICATION_JSON).post(Entity.entity(b.toString(), MediaType.APPLICATION_OCTET_STREAM)).readEntity(JsonObject.class);
-
+        bulkAddToIndex(indexViews);
     }
 
     @Override
@@ -164,6 +170,174 @@ public class EsJaxRsSearchBean implements
         return result;
     }
 
+    /**
+     * {@inheritDoc} The settings of each mapped index are replaced with a
+     * refresh interval of <code>-1</code> and no replicas.
+     */
+    @Override
+    public JsonObject beginBulkLoad() {
+
+        final JsonObjectBuilder previous = createObjectBuilder();
+        for (final IndexType indexType : configurationProvider.getPersistenceConfig().getIndex()) {
+            final String index = configurationProvider.getMappedIndex(indexType.getName());
+            final JsonObject response = jestProvider.getTarget().path(index).path("_settings").request(MediaType.APPLICATION_JSON).get(JsonObject.class);
+            final JsonObject settings = ((JsonObject) response.values().iterator().next()).getJsonObject("settings").getJsonObject("index");
+            previous.add(index, createObjectBuilder()
+                .add(REFRESH_INTERVAL, settings.getString(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL))
+                .add(NUMBER_OF_REPLICAS, settings.getString(NUMBER_OF_REPLICAS, DEFAULT_NUMBER_OF_REPLICAS)));
+            updateSettings(index, "-1", "0");
+        }
+        return previous.build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void bulkAddToIndex(final IndexView... indexViews) {
+
+        final WebTarget target = jestProvider.getTarget().path("_bulk");
+
+        final StringBuilder b = new StringBuilder();
+        for (final IndexView indexView : indexViews) {
+            b.append(
+                createObjectBuilder().add("index", createObjectBuilder()
+                    .add("_index", configurationProvider.getMappedIndex(indexView.getIndex()))
+                    .add("_type", indexView.getCollection())
+                    .add("_id", indexView.getDoxID().toString())).build().toString());
+            b.append("\n");
+
+            final JsonObjectBuilder sourceBuilder = createObjectBuilder();
+            for (final Entry<String, BigDecimal> d : indexView.getNumbers()) {
+                sourceBuilder.add(d.getKey(), d.getValue());
+            }
+            for (final Entry<String, String> d : indexView.getStrings()) {
+                sourceBuilder.add(d.getKey(), d.getValue());
+            }
+
+            final JsonObjectBuilder metaBuilder = createObjectBuilder();
+            for (final Entry<String, String> d : indexView.getTexts()) {
+                metaBuilder.add(d.getKey(), d.getValue());
+            }
+            metaBuilder.add("_text", indexView.getText());
+            metaBuilder.add("recordId", indexView.getDoxRecordId());
+            metaBuilder.add("version", indexView.getVersion());
+            metaBuilder.add("checksum", RangeChecksum.hash(indexView.getDoxRecordId(), indexView.getVersion()));
+            sourceBuilder.add("_", metaBuilder);
+
+            b.append(sourceBuilder.build().toString());
+            b.append("\n");
+        }
+        target.request(MediaType.APPLICATION_JSON).post(Entity.entity(b.toString(), MediaType.APPLICATION_OCTET_STREAM)).readEntity(JsonObject.class);
+    }
+
+    /**
+     * {@inheritDoc} The checksums are computed by a range aggregation on the
+     * record ID stored in the meta data so only the sums are transferred.
+     */
+    @Override
+    public RangeChecksum[] checksums(final String sourceIndex,
+        final String collectionName,
+        final long[] bounds) {
+
+        final String index = configurationProvider.getMappedIndex(sourceIndex);
+        if (index == null) {
+            throw new PersistenceException("index not found");
+        }
+
+        final JsonArrayBuilder ranges = createArrayBuilder();
+        for (int i = 0; i < bounds.length - 1; ++i) {
+            ranges.add(createObjectBuilder()
+                .add("from", bounds[i] + 1)
+                .add("to", bounds[i + 1] + 1));
+        }
+        final JsonObject query = createObjectBuilder()
+            .add("size", 0)
+            .add("aggs", createObjectBuilder()
+                .add("ranges", createObjectBuilder()
+                    .add("range", createObjectBuilder()
+                        .add("field", RECORD_ID_FIELD)
+                        .add("ranges", ranges))
+                    .add("aggs", createObjectBuilder()
+                        .add("checksum", createObjectBuilder()
+                            .add("sum", createObjectBuilder().add("field", CHECKSUM_FIELD)))
+                        .add("last", createObjectBuilder()
+                            .add("max", createObjectBuilder().add("field", RECORD_ID_FIELD))))))
+            .build();
+
+        final JsonObject results = jestProvider.getTarget().path(index).path(collectionName).path("_search").request(MediaType.APPLICATION_JSON).post(Entity.entity(query, MediaType.APPLICATION_JSON)).readEntity(JsonObject.class);
+
+        final JsonArray buckets = results.getJsonObject("aggregations").getJsonObject("ranges").getJsonArray("buckets");
+        final RangeChecksum[] checksums = new RangeChecksum[bounds.length - 1];
+        for (int i = 0; i < checksums.length; ++i) {
+            final JsonObject bucket = buckets.getJsonObject(i);
+            final long count = bucket.getJsonNumber("doc_count").longValue();
+            if (count == 0) {
+                checksums[i] = RangeChecksum.EMPTY;
+            } else {
+                checksums[i] = new RangeChecksum(count,
+                    Math.round(bucket.getJsonObject("checksum").getJsonNumber("value").doubleValue()),
+                    Math.round(bucket.getJsonObject("last").getJsonNumber("value").doubleValue()));
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endBulkLoad(final JsonObject previous) {
+
+        for (final Entry<String, JsonValue> entry : previous.entrySet()) {
+            final JsonObject settings = (JsonObject) entry.getValue();
+            updateSettings(entry.getKey(), settings.getString(REFRESH_INTERVAL), settings.getString(NUMBER_OF_REPLICAS));
+            jestProvider.getTarget().path(entry.getKey()).path("_refresh").request(MediaType.APPLICATION_JSON).post(Entity.entity("", MediaType.APPLICATION_JSON)).readEntity(JsonObject.class);
+        }
+    }
+
+    /**
+     * {@inheritDoc} The meta data is not in the stored source so the hash is
+     * read from the field data.
+     */
+    @Override
+    public Map<DoxID, Long> readHashes(final String sourceIndex,
+        final String collectionName,
+        final long after,
+        final long until,
+        final int limit) {
+
+        final String index = configurationProvider.getMappedIndex(sourceIndex);
+        if (index == null) {
+            throw new PersistenceException("index not found");
+        }
+
+        final JsonObject query = createObjectBuilder()
+            .add("size", limit)
+            .add("_source", false)
+            .add("fielddata_fields", createArrayBuilder().add(CHECKSUM_FIELD))
+            .add("query", createObjectBuilder()
+                .add("range", createObjectBuilder()
+                    .add(RECORD_ID_FIELD, createObjectBuilder()
+                        .add("gt", after)
+                        .add("lte", until))))
+            .build();
+
+        final JsonObject results = jestProvider.getTarget().path(index).path(collectionName).path("_search").request(MediaType.APPLICATION_JSON).post(Entity.entity(query, MediaType.APPLICATION_JSON)).readEntity(JsonObject.class);
+
+        final Map<DoxID, Long> hashes = new HashMap<>();
+        for (final JsonValue hitValue : results.getJsonObject("hits").getJsonArray("hits")) {
+            final JsonObject hit = (JsonObject) hitValue;
+            final JsonObject fields = hit.getJsonObject("fields");
+            if (fields == null || !fields.containsKey(CHECKSUM_FIELD)) {
+                hashes.put(new DoxID(hit.getString("_id")), null);
+            } else {
+                hashes.put(new DoxID(hit.getString("_id")), fields.getJsonArray(CHECKSUM_FIELD).getJsonNumber(0).longValue());
+            }
+        }
+        return hashes;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -332,4 +506,25 @@ public class EsJaxRsSearchBean implements
         jestProvider = provider;
     }
 
+    /**
+     * Updates the bulk load settings of an index.
+     *
+     * @param index
+     *            mapped index
+     * @param refreshInterval
+     *            refresh interval
+     * @param numberOfReplicas
+     *            number of replicas
+     */
+    private void updateSettings(final String index,
+        final String refreshInterval,
+        final String numberOfReplicas) {
+
+        final JsonObject settings = createObjectBuilder()
+            .add("index", createObjectBuilder()
+                .add(REFRESH_INTERVAL, refreshInterval)
+                .add(NUMBER_OF_REPLICAS, numberOfReplicas))
+            .build();
+        jestProvider.getTarget().path(index).path("_settings").request(MediaType.APPLICATION_JSON).put(Entity.entity(settings, MediaType.APPLICATION_JSON)).readEntity(JsonObject.class);
+    }
 }
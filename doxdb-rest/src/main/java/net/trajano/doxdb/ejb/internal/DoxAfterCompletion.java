@@ -0,0 +1,77 @@
+package net.trajano.doxdb.ejb.internal;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Applies changes to the state kept in memory once the transaction that made
+ * them in the database has completed, so other requests never see a change
+ * that may still be rolled back. Without a transaction, or without a registry
+ * outside of a container, the change is applied immediately.
+ *
+ * @author Archimedes Trajano
+ */
+public final class DoxAfterCompletion {
+
+    /**
+     * Applies a change when the current transaction commits. It is dropped if
+     * the transaction rolls back.
+     *
+     * @param registry
+     *            transaction synchronization registry, may be
+     *            <code>null</code>
+     * @param change
+     *            change to apply
+     */
+    public static void afterCommit(final TransactionSynchronizationRegistry registry,
+        final Runnable change) {
+
+        register(registry, change, true);
+    }
+
+    /**
+     * Applies a change when the current transaction completes whether it
+     * commits or rolls back.
+     *
+     * @param registry
+     *            transaction synchronization registry, may be
+     *            <code>null</code>
+     * @param change
+     *            change to apply
+     */
+    public static void afterCompletion(final TransactionSynchronizationRegistry registry,
+        final Runnable change) {
+
+        register(registry, change, false);
+    }
+
+    private static void register(final TransactionSynchronizationRegistry registry,
+        final Runnable change,
+        final boolean committedOnly) {
+
+        if (registry == null || registry.getTransactionKey() == null) {
+            change.run();
+            return;
+        }
+        registry.registerInterposedSynchronization(new Synchronization() {
+
+            @Override
+            public void afterCompletion(final int status) {
+
+                if (!committedOnly || status == Status.STATUS_COMMITTED) {
+                    change.run();
+                }
+            }
+
+            @Override
+            public void beforeCompletion() {
+
+            }
+        });
+    }
+
+    private DoxAfterCompletion() {
+
+    }
+}
@@ -22,6 +22,11 @@ public class DoxLength {
      */
     public static final int CONTENT_LENGTH = 10 * 1024 * 1024;
 
+    /**
+     * Attachment content type length. 128 bytes.
+     */
+    public static final int CONTENT_TYPE_LENGTH = 128;
+
     /**
      * Index file length. 1GB.
      */
@@ -37,6 +42,21 @@ public class DoxLength {
      */
     public static final int INDEX_NAME_LENGTH = 64;
 
+    /**
+     * Length of the index names of a record. 1024 bytes.
+     */
+    public static final int INDEX_NAMES_LENGTH = 1024;
+
+    /**
+     * Precision of decimal lookup keys.
+     */
+    public static final int DECIMAL_KEY_PRECISION = 38;
+
+    /**
+     * Scale of decimal lookup keys.
+     */
+    public static final int DECIMAL_KEY_SCALE = 10;
+
     /**
      * Lookup key length.
      */
@@ -45,9 +65,10 @@ public class DoxLength {
     public static final int LOOKUP_NAME_LENGTH = 32;
 
     /**
-     * OOB length. 20 MB.
+     * OOB length. The largest BLOB the column is declared with, 2 GB less a
+     * byte.
      */
-    public static final int OOB_LENGTH = 20 * 1024 * 1024;
+    public static final int OOB_LENGTH = Integer.MAX_VALUE;
 
     /**
      * OOB name length. 64 bytes.
@@ -0,0 +1,153 @@
+package net.trajano.doxdb.ejb.internal;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import javax.persistence.PersistenceException;
+import javax.xml.bind.DatatypeConverter;
+
+import net.trajano.doxdb.jsonpath.JsonPath;
+import net.trajano.doxdb.schema.LookupKeyType;
+import net.trajano.doxdb.schema.LookupType;
+
+/**
+ * Converts lookup keys to the typed values stored alongside the string key in
+ * {@link net.trajano.doxdb.DoxLookup} and {@link net.trajano.doxdb.DoxUnique}
+ * so range lookups use the order of the type rather than the string.
+ *
+ * @author Archimedes Trajano
+ */
+public final class DoxLookupKeys {
+
+    /**
+     * Gets the name of the entity attribute that holds the typed key.
+     *
+     * @param lookup
+     *            lookup
+     * @return attribute name
+     */
+    public static String getAttributeName(final LookupType lookup) {
+
+        switch (lookup.getType()) {
+        case LONG:
+            return "longKey";
+        case DECIMAL:
+            return "decimalKey";
+        case DATE:
+            return "dateKey";
+        default:
+            return "lookupKey";
+        }
+    }
+
+    /**
+     * Converts the key to the type of the lookup.
+     *
+     * @param lookup
+     *            lookup
+     * @param key
+     *            key
+     * @return typed key
+     * @throws PersistenceException
+     *             if the key is not valid for the type.
+     */
+    public static Object parse(final LookupType lookup,
+        final String key) {
+
+        if (key == null) {
+            return null;
+        }
+        try {
+            switch (lookup.getType()) {
+            case LONG:
+                return Long.valueOf(key);
+            case DECIMAL:
+                return new BigDecimal(key);
+            case DATE:
+                return DatatypeConverter.parseDateTime(key).getTime();
+            default:
+                return key;
+            }
+        } catch (final IllegalArgumentException e) {
+            throw new PersistenceException("lookup key " + key + " is not a valid " + lookup.getType().value() + " for " + lookup.getName(), e);
+        }
+    }
+
+    /**
+     * Reads the key of the lookup from the JSON document. Numbers are
+     * converted to their string form so they can be used in typed lookups.
+     *
+     * @param lookup
+     *            lookup
+     * @param json
+     *            JSON document
+     * @return key or <code>null</code> if the path has no value.
+     */
+    public static String read(final LookupType lookup,
+        final String json) {
+
+        final Object value = JsonPath.compile(lookup.getPath()).read(json);
+        if (value == null) {
+            return null;
+        }
+        return value.toString();
+    }
+
+    /**
+     * Gets the date key.
+     *
+     * @param lookup
+     *            lookup
+     * @param key
+     *            key
+     * @return date or <code>null</code> if the lookup is not a date.
+     */
+    public static Date toDate(final LookupType lookup,
+        final String key) {
+
+        if (lookup.getType() != LookupKeyType.DATE) {
+            return null;
+        }
+        return (Date) parse(lookup, key);
+    }
+
+    /**
+     * Gets the decimal key.
+     *
+     * @param lookup
+     *            lookup
+     * @param key
+     *            key
+     * @return decimal or <code>null</code> if the lookup is not a decimal.
+     */
+    public static BigDecimal toDecimal(final LookupType lookup,
+        final String key) {
+
+        if (lookup.getType() != LookupKeyType.DECIMAL) {
+            return null;
+        }
+        return (BigDecimal) parse(lookup, key);
+    }
+
+    /**
+     * Gets the long key.
+     *
+     * @param lookup
+     *            lookup
+     * @param key
+     *            key
+     * @return long or <code>null</code> if the lookup is not a long.
+     */
+    public static Long toLong(final LookupType lookup,
+        final String key) {
+
+        if (lookup.getType() != LookupKeyType.LONG) {
+            return null;
+        }
+        return (Long) parse(lookup, key);
+    }
+
+    private DoxLookupKeys() {
+
+    }
+}
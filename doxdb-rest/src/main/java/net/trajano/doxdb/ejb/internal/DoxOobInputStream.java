@@ -0,0 +1,124 @@
+package net.trajano.doxdb.ejb.internal;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Counts and hashes the content of an attachment as it is streamed to the
+ * database and stops it once it is larger than allowed.
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxOobInputStream extends FilterInputStream {
+
+    /**
+     * Computes the hash of content that is already in memory.
+     *
+     * @param content
+     *            content
+     * @return SHA-256 in lower case hex.
+     */
+    public static String hash(final byte[] content) {
+
+        final MessageDigest digest = newDigest();
+        digest.update(content);
+        return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+    }
+
+    private static MessageDigest newDigest() {
+
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long count;
+
+    private final MessageDigest digest = newDigest();
+
+    private String hash;
+
+    private final long maxLength;
+
+    public DoxOobInputStream(final InputStream in,
+        final long maxLength) {
+        super(in);
+        this.maxLength = maxLength;
+    }
+
+    private void checkLength(final int len) throws IOException {
+
+        count += len;
+        if (count > maxLength) {
+            throw new IOException("Attachment is larger than " + maxLength + " bytes");
+        }
+    }
+
+    public long getCount() {
+
+        return count;
+    }
+
+    /**
+     * Gets the hash of the content. Only called once the stream has been read
+     * fully, no more content may be read afterwards.
+     *
+     * @return SHA-256 in lower case hex.
+     */
+    public String getHash() {
+
+        if (hash == null) {
+            hash = DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+        }
+        return hash;
+    }
+
+    @Override
+    public void mark(final int readlimit) {
+
+        // not supported
+    }
+
+    @Override
+    public boolean markSupported() {
+
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+
+        final int b = super.read();
+        if (b != -1) {
+            checkLength(1);
+            digest.update((byte) b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b,
+        final int off,
+        final int len) throws IOException {
+
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            checkLength(n);
+            digest.update(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+
+        throw new IOException("skip is not supported");
+    }
+}
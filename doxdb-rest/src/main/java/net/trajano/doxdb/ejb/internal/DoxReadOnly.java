@@ -0,0 +1,24 @@
+package net.trajano.doxdb.ejb.internal;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Work that only reads through an entity manager. It is given the replica or
+ * the primary so everything that touches the entity manager, including lazy
+ * loading, has to be done before it returns.
+ *
+ * @author Archimedes Trajano
+ * @param <T>
+ *            result type
+ */
+public interface DoxReadOnly<T> {
+
+    /**
+     * Does the reads.
+     *
+     * @param em
+     *            entity manager, it may not be joined to a transaction
+     * @return result
+     */
+    T execute(EntityManager em);
+}
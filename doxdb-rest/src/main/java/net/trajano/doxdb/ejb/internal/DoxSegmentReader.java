@@ -0,0 +1,320 @@
+package net.trajano.doxdb.ejb.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+
+/**
+ * Reads the lines of an export segment written by {@link DoxSegmentWriter}
+ * sequentially. The content of an attachment that follows its
+ * <code>oob</code> line is skipped unless it is read with
+ * {@link #openContent()} before the next line.
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxSegmentReader implements
+    Closeable {
+
+    /**
+     * Reads the content of an attachment from the underlying stream.
+     */
+    private static final class ContentInputStream extends FilterInputStream {
+
+        /**
+         * <code>true</code> if closing it closes the underlying stream.
+         */
+        private final boolean owner;
+
+        private long remaining;
+
+        private ContentInputStream(final InputStream in,
+            final long length,
+            final boolean owner) {
+            super(in);
+            remaining = length;
+            this.owner = owner;
+        }
+
+        @Override
+        public int available() throws IOException {
+
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (owner) {
+                in.close();
+            }
+        }
+
+        @Override
+        public void mark(final int readlimit) {
+
+            // not supported
+        }
+
+        @Override
+        public boolean markSupported() {
+
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            if (remaining == 0) {
+                return -1;
+            }
+            final int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Attachment content is truncated");
+            }
+            --remaining;
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b,
+            final int off,
+            final int len) throws IOException {
+
+            if (remaining == 0) {
+                return -1;
+            }
+            final int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n == -1) {
+                throw new EOFException("Attachment content is truncated");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+
+            final long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Opens the content of an attachment without reading the segment from the
+     * start. Only the block holding the attachment is decompressed.
+     *
+     * @param file
+     *            segment file
+     * @param blockOffset
+     *            offset of the block in the file
+     * @param offset
+     *            offset of the content in the decompressed block
+     * @param length
+     *            length of the content
+     * @return content, closing it closes the file
+     * @throws IOException
+     *             I/O error
+     */
+    public static InputStream openContent(final Path file,
+        final long blockOffset,
+        final long offset,
+        final long length) throws IOException {
+
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            channel.position(blockOffset);
+            final InputStream block = new GZIPInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long skipped = 0;
+            while (skipped < offset) {
+                final long n = block.skip(offset - skipped);
+                if (n <= 0) {
+                    throw new EOFException("Block ends before offset " + offset);
+                }
+                skipped += n;
+            }
+            return new ContentInputStream(block, length, true);
+        } catch (final IOException
+            | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Content of the last <code>oob</code> line that was not read yet.
+     */
+    private ContentInputStream content;
+
+    private long contentLength;
+
+    private JsonObject index;
+
+    private final InputStream in;
+
+    /**
+     * Offset in the decompressed segment of the last line read.
+     */
+    private long lineOffset;
+
+    /**
+     * Offset in the decompressed segment of the next byte, not counting the
+     * content of the last attachment.
+     */
+    private long offset;
+
+    private int oobs;
+
+    private int records;
+
+    private int tombstones;
+
+    public DoxSegmentReader(final InputStream in) throws IOException {
+        this.in = new BufferedInputStream(new GZIPInputStream(in));
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        in.close();
+    }
+
+    /**
+     * Gets the index once every line is read.
+     *
+     * @return index or <code>null</code> if the segment did not end with one.
+     */
+    public JsonObject getIndex() {
+
+        return index;
+    }
+
+    /**
+     * Gets the offset in the decompressed segment of the last line read.
+     *
+     * @return offset
+     */
+    public long getLineOffset() {
+
+        return lineOffset;
+    }
+
+    /**
+     * Gets the offset in the decompressed segment of the byte after the last
+     * line read. After an <code>oob</code> line it is the offset of its
+     * content.
+     *
+     * @return offset
+     */
+    public long getOffset() {
+
+        return offset;
+    }
+
+    /**
+     * Checks that every record, attachment and tombstone listed in the index
+     * was read.
+     *
+     * @return <code>true</code> if the segment is complete.
+     */
+    public boolean isComplete() {
+
+        return index != null && index.getInt("records") == records && index.getInt("oobs") == oobs && index.getInt("tombstones", 0) == tombstones;
+    }
+
+    /**
+     * Reads the next <code>dox</code>, <code>oob</code> or
+     * <code>tombstone</code> line.
+     *
+     * @return line or <code>null</code> at the end of the segment.
+     * @throws IOException
+     *             I/O error, including a truncated segment or a line that is
+     *             not a JSON object
+     */
+    public JsonObject next() throws IOException {
+
+        if (content != null) {
+            final byte[] buffer = new byte[8192];
+            while (content.read(buffer) != -1) {
+                // skips the content that was not read
+            }
+            offset += contentLength;
+            content = null;
+        }
+        lineOffset = offset;
+        final String line = readLine();
+        if (line == null) {
+            return null;
+        }
+        final JsonObject json;
+        try {
+            json = Json.createReader(new StringReader(line)).readObject();
+        } catch (final JsonException e) {
+            throw new IOException("Malformed line " + (records + oobs + tombstones + 1), e);
+        }
+        switch (json.getString("type")) {
+        case "dox":
+            ++records;
+            return json;
+        case "oob":
+            ++oobs;
+            contentLength = json.getJsonNumber("contentLength").longValue();
+            content = new ContentInputStream(in, contentLength, false);
+            return json;
+        case "tombstone":
+            ++tombstones;
+            return json;
+        case "index":
+            index = json;
+            return null;
+        default:
+            throw new IOException("Unexpected line type " + json.getString("type"));
+        }
+    }
+
+    /**
+     * Opens the content of the last <code>oob</code> line. It must be read
+     * before the next line.
+     *
+     * @return content
+     */
+    public InputStream openContent() {
+
+        if (content == null) {
+            throw new IllegalStateException("The last line is not an attachment");
+        }
+        return content;
+    }
+
+    private String readLine() throws IOException {
+
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Segment ends in the middle of a line");
+            }
+            line.write(b);
+        }
+        offset += line.size() + 1;
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
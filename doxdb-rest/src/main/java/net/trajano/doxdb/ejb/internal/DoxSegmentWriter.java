@@ -0,0 +1,255 @@
+package net.trajano.doxdb.ejb.internal;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+/**
+ * Writes an export segment. A segment is newline delimited JSON compressed as
+ * a series of gzip members so it can be read with any gzip tool. Each member
+ * is a block of whole records of about {@link #BLOCK_SIZE} bytes, a record is
+ * a <code>dox</code> line followed by an <code>oob</code> line for each of its
+ * attachments. The raw content of an attachment follows its line, the
+ * <code>contentLength</code> of the line tells how many bytes it has, so it is
+ * never held in memory when the segment is written or read. Deleted records
+ * are written as <code>tombstone</code> lines after the records. The last member is an <code>index</code> line with
+ * the offset of the block of every record so a single record can be read
+ * without decompressing the segment.
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxSegmentWriter {
+
+    /**
+     * Counts the bytes written and does not close the underlying stream.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            flush();
+        }
+
+        @Override
+        public void write(final byte[] b,
+            final int off,
+            final int len) throws IOException {
+
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+
+            out.write(b);
+            ++count;
+        }
+    }
+
+    /**
+     * Uncompressed size of a block after which it is ended at the next record.
+     */
+    public static final int BLOCK_SIZE = 65536;
+
+    /**
+     * Number of bytes of attachment content copied at a time.
+     */
+    private static final int CHUNK_SIZE = 16384;
+
+    /**
+     * Uncompressed bytes of the current block.
+     */
+    private CountingOutputStream block;
+
+    /**
+     * Offset of the current block in the segment.
+     */
+    private long blockOffset;
+
+    private GZIPOutputStream gzip;
+
+    private final JsonArrayBuilder index = Json.createArrayBuilder();
+
+    private int oobs;
+
+    private final CountingOutputStream out;
+
+    private int records;
+
+    private int tombstones;
+
+    private Writer writer;
+
+    public DoxSegmentWriter(final OutputStream out) {
+        this.out = new CountingOutputStream(out);
+    }
+
+    /**
+     * Ends the current block if it is large enough. This is called after the
+     * attachments of a record are written.
+     *
+     * @throws IOException
+     *             I/O error
+     */
+    public void endRecord() throws IOException {
+
+        if (block != null && block.count >= BLOCK_SIZE) {
+            endBlock();
+        }
+    }
+
+    private void endBlock() throws IOException {
+
+        writer.close();
+        gzip.close();
+        block = null;
+        gzip = null;
+        writer = null;
+    }
+
+    /**
+     * Ends the segment by writing the index.
+     *
+     * @return segment statistics
+     * @throws IOException
+     *             I/O error
+     */
+    public JsonObject finish() throws IOException {
+
+        if (block != null) {
+            endBlock();
+        }
+        final long indexOffset = out.count;
+        startBlock();
+        writer.write(Json.createObjectBuilder()
+            .add("type", "index")
+            .add("records", records)
+            .add("oobs", oobs)
+            .add("tombstones", tombstones)
+            .add("entries", index)
+            .build()
+            .toString());
+        writer.write('\n');
+        endBlock();
+        out.flush();
+        return Json.createObjectBuilder()
+            .add("records", records)
+            .add("oobs", oobs)
+            .add("tombstones", tombstones)
+            .add("index_offset", indexOffset)
+            .add("size", out.count)
+            .build();
+    }
+
+    /**
+     * Gets the number of compressed bytes written so far.
+     *
+     * @return size
+     */
+    public long getSize() {
+
+        return out.count;
+    }
+
+    private void startBlock() throws IOException {
+
+        blockOffset = out.count;
+        gzip = new GZIPOutputStream(out);
+        block = new CountingOutputStream(gzip);
+        writer = new OutputStreamWriter(block, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes an attachment of the last record.
+     *
+     * @param oob
+     *            <code>oob</code> line, its <code>contentLength</code> is the
+     *            length of the content
+     * @param content
+     *            content, it is not closed
+     * @throws IOException
+     *             I/O error or the content does not have the length of the
+     *             line
+     */
+    public void writeOob(final JsonObject oob,
+        final InputStream content) throws IOException {
+
+        writer.write(oob.toString());
+        writer.write('\n');
+        writer.flush();
+        long remaining = oob.getJsonNumber("contentLength").longValue();
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        while (remaining > 0) {
+            final int n = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n == -1) {
+                throw new EOFException("Content of attachment " + oob.getString("name") + " is shorter than its length");
+            }
+            block.write(buffer, 0, n);
+            remaining -= n;
+        }
+        if (content.read() != -1) {
+            throw new IOException("Content of attachment " + oob.getString("name") + " is longer than its length");
+        }
+        ++oobs;
+    }
+
+    /**
+     * Writes a record. Its attachments are written after it followed by
+     * {@link #endRecord()}.
+     *
+     * @param record
+     *            <code>dox</code> line
+     * @throws IOException
+     *             I/O error
+     */
+    public void writeRecord(final JsonObject record) throws IOException {
+
+        if (block == null) {
+            startBlock();
+        }
+        index.add(Json.createArrayBuilder()
+            .add(record.getString("collection"))
+            .add(record.getString("doxId"))
+            .add(blockOffset));
+        writer.write(record.toString());
+        writer.write('\n');
+        ++records;
+    }
+
+    /**
+     * Writes a deleted record. Tombstones are written after every record and
+     * are not in the index.
+     *
+     * @param tombstone
+     *            <code>tombstone</code> line
+     * @throws IOException
+     *             I/O error
+     */
+    public void writeTombstone(final JsonObject tombstone) throws IOException {
+
+        if (block == null) {
+            startBlock();
+        }
+        writer.write(tombstone.toString());
+        writer.write('\n');
+        ++tombstones;
+    }
+}
@@ -0,0 +1,160 @@
+package net.trajano.doxdb.ejb.internal;
+
+/**
+ * <p>
+ * Defines the table generators for the DoxDB entities. Identifiers are
+ * allocated in blocks so inserts do not need a round trip to obtain their key
+ * and can be sent to the database using JDBC batches.
+ * </p>
+ * <p>
+ * Each generator has its own row in the {@value #TABLE} table named after the
+ * table of its entity. EclipseLink treats generators that share a row as one
+ * sequence with a single allocation size, so the rows cannot be shared.
+ * Databases that used the <code>SEQ_GEN</code> row of
+ * <code>GenerationType.AUTO</code> are given the rows by
+ * <code>META-INF/sql/sequence-migration.sql</code>.
+ * </p>
+ * <p>
+ * The allocation sizes are defaults. They can be changed for a deployment by
+ * defining a <code>table-generator</code> with the same name in an
+ * <code>orm.xml</code> mapping file, which overrides the annotation.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxSequence {
+
+    /**
+     * Allocation size for {@link net.trajano.doxdb.DoxDictionary}. Entries are
+     * rarely created and are expected to be small numbers.
+     */
+    public static final int DICTIONARY_ALLOCATION_SIZE = 1;
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.DoxDictionary}.
+     */
+    public static final String DICTIONARY_GENERATOR = "doxDictionaryGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.DoxDictionary}. It
+     * uses a row of its own so the identifiers stay small.
+     */
+    public static final String DICTIONARY_PK_COLUMN_VALUE = "DOXDICTIONARY";
+
+    /**
+     * Allocation size for {@link net.trajano.doxdb.Dox}.
+     */
+    public static final int DOX_ALLOCATION_SIZE = 100;
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.Dox}.
+     */
+    public static final String DOX_GENERATOR = "doxGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.Dox}.
+     */
+    public static final String DOX_PK_COLUMN_VALUE = "DOX";
+
+    /**
+     * Allocation size for {@link net.trajano.doxdb.DoxLock}.
+     */
+    public static final int LOCK_ALLOCATION_SIZE = 50;
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.DoxLock}.
+     */
+    public static final String LOCK_GENERATOR = "doxLockGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.DoxLock}.
+     */
+    public static final String LOCK_PK_COLUMN_VALUE = "DOXLOCK";
+
+    /**
+     * Allocation size for {@link net.trajano.doxdb.DoxLookup} and
+     * {@link net.trajano.doxdb.DoxUnique}. There are usually several of these
+     * for each {@link net.trajano.doxdb.Dox}.
+     */
+    public static final int LOOKUP_ALLOCATION_SIZE = 500;
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.DoxLookup}.
+     */
+    public static final String LOOKUP_GENERATOR = "doxLookupGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.DoxLookup}.
+     */
+    public static final String LOOKUP_PK_COLUMN_VALUE = "DOXLOOKUP";
+
+    /**
+     * Allocation size for {@link net.trajano.doxdb.DoxOob}.
+     */
+    public static final int OOB_ALLOCATION_SIZE = 50;
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.DoxOob}.
+     */
+    public static final String OOB_GENERATOR = "doxOobGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.DoxOob}.
+     */
+    public static final String OOB_PK_COLUMN_VALUE = "DOXOOB";
+
+    /**
+     * Allocation size for {@link net.trajano.doxdb.DoxOobTombstone}.
+     */
+    public static final int OOB_TOMBSTONE_ALLOCATION_SIZE = 50;
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.DoxOobTombstone}.
+     */
+    public static final String OOB_TOMBSTONE_GENERATOR = "doxOobTombstoneGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.DoxOobTombstone}.
+     */
+    public static final String OOB_TOMBSTONE_PK_COLUMN_VALUE = "DOXOOBTOMBSTONE";
+
+    /**
+     * Primary key column of the sequence table.
+     */
+    public static final String PK_COLUMN_NAME = "SEQ_NAME";
+
+    /**
+     * Sequence table.
+     */
+    public static final String TABLE = "SEQUENCE";
+
+    /**
+     * Allocation size for {@link net.trajano.doxdb.DoxTombstone}.
+     */
+    public static final int TOMBSTONE_ALLOCATION_SIZE = 50;
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.DoxTombstone}.
+     */
+    public static final String TOMBSTONE_GENERATOR = "doxTombstoneGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.DoxTombstone}.
+     */
+    public static final String TOMBSTONE_PK_COLUMN_VALUE = "DOXTOMBSTONE";
+
+    /**
+     * Generator name for {@link net.trajano.doxdb.DoxUnique}.
+     */
+    public static final String UNIQUE_GENERATOR = "doxUniqueGenerator";
+
+    /**
+     * Row in the sequence table for {@link net.trajano.doxdb.DoxUnique}.
+     */
+    public static final String UNIQUE_PK_COLUMN_VALUE = "DOXUNIQUE";
+
+    /**
+     * Value column of the sequence table.
+     */
+    public static final String VALUE_COLUMN_NAME = "SEQ_COUNT";
+}
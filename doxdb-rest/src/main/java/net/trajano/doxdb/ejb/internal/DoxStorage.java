@@ -0,0 +1,71 @@
+package net.trajano.doxdb.ejb.internal;
+
+import javax.ejb.SessionContext;
+import javax.persistence.EntityManager;
+
+import net.trajano.doxdb.schema.CollectionType;
+import net.trajano.doxdb.schema.StorageType;
+
+/**
+ * Routes the persistence operations for a collection to the
+ * {@link EntityManager} of its storage. Collections without a storage use the
+ * default tables.
+ *
+ * @author Archimedes Trajano
+ */
+public final class DoxStorage {
+
+    /**
+     * Gets the {@link EntityManager} for a collection.
+     *
+     * @param config
+     *            collection configuration, may be <code>null</code> for an
+     *            unknown collection.
+     * @param defaultEntityManager
+     *            entity manager for the default tables
+     * @param ctx
+     *            session context used to look up the persistence context of
+     *            the storage
+     * @return entity manager
+     */
+    public static EntityManager getEntityManager(final CollectionType config,
+        final EntityManager defaultEntityManager,
+        final SessionContext ctx) {
+
+        if (config == null || config.getStorage() == null) {
+            return defaultEntityManager;
+        }
+        return (EntityManager) ctx.lookup(config.getStorage().getPersistenceContext());
+    }
+
+    /**
+     * Gets the database schema qualifier of the tables of a collection for
+     * use in SQL statements.
+     *
+     * @param config
+     *            collection configuration
+     * @param defaultSchema
+     *            schema of the default tables, may be <code>null</code>
+     * @return schema followed by a period or an empty string if there is no
+     *         schema.
+     */
+    public static String getSchemaPrefix(final CollectionType config,
+        final String defaultSchema) {
+
+        final StorageType storage = config.getStorage();
+        final String schema;
+        if (storage != null && storage.getSchema() != null) {
+            schema = storage.getSchema();
+        } else {
+            schema = defaultSchema;
+        }
+        if (schema == null) {
+            return "";
+        }
+        return schema + ".";
+    }
+
+    private DoxStorage() {
+
+    }
+}
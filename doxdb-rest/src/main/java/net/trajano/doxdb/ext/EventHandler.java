@@ -50,7 +50,8 @@ public interface EventHandler {
      * @param doxId
      *            Dox ID
      * @param json
-     *            JSON of the record that was read.
+     *            JSON of the record that was read. If a projection was
+     *            requested it only contains the projected fields.
      * @param extra
      *            extra data
      */
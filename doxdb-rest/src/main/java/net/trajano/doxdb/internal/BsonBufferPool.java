@@ -0,0 +1,69 @@
+package net.trajano.doxdb.internal;
+
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * <p>
+ * A thread confined pool of {@link BasicOutputBuffer} used to serialize BSON.
+ * Each thread keeps one buffer which is reset and reused, so only the final
+ * {@link BasicOutputBuffer#toByteArray()} copy is allocated per document.
+ * </p>
+ * <p>
+ * A buffer is taken out of the pool while it is in use so nested use on the
+ * same thread gets a fresh buffer rather than corrupting the one in use.
+ * Buffers that grew beyond {@value #MAX_RETAINED_SIZE} bytes are not kept
+ * to prevent a single large document from pinning memory on every thread.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class BsonBufferPool {
+
+    /**
+     * Buffers for each thread. The value is <code>null</code> while the buffer
+     * is in use.
+     */
+    private static final ThreadLocal<BasicOutputBuffer> BUFFERS = new ThreadLocal<>();
+
+    /**
+     * Largest buffer size that is retained.
+     */
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    /**
+     * Obtains an empty buffer. It must be returned using
+     * {@link #release(BasicOutputBuffer)}.
+     *
+     * @return buffer
+     */
+    public static BasicOutputBuffer acquire() {
+
+        final BasicOutputBuffer buffer = BUFFERS.get();
+        if (buffer == null) {
+            return new BasicOutputBuffer();
+        }
+        BUFFERS.set(null);
+        buffer.truncateToPosition(0);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool for the current thread.
+     *
+     * @param buffer
+     *            buffer obtained from {@link #acquire()}
+     */
+    public static void release(final BasicOutputBuffer buffer) {
+
+        if (buffer.getSize() <= MAX_RETAINED_SIZE) {
+            BUFFERS.set(buffer);
+        }
+    }
+
+    /**
+     * Prevent instantiation of utility class.
+     */
+    private BsonBufferPool() {
+
+    }
+}
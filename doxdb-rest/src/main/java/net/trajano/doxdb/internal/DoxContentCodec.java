@@ -0,0 +1,300 @@
+package net.trajano.doxdb.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.PersistenceException;
+
+import net.trajano.doxdb.schema.CompressionType;
+
+/**
+ * <p>
+ * Encodes the serialized BSON content of a Dox record into its stored form
+ * and back. Compressed content is prefixed with a small header, uncompressed
+ * content is stored as plain BSON so records written before compression was
+ * enabled remain readable.
+ * </p>
+ * <p>
+ * The header is {@value #HEADER_LENGTH} bytes: two magic bytes, the codec
+ * identifier, a marker byte with the high bit set and the uncompressed length
+ * as a big endian integer. A BSON document starts with its length as a little
+ * endian integer which is never negative, so the marker byte in the fourth
+ * position is enough to tell the two formats apart.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class DoxContentCodec {
+
+    /**
+     * Codec identifier for deflate.
+     */
+    private static final byte CODEC_DEFLATE = 1;
+
+    /**
+     * Length of the header.
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * First magic byte.
+     */
+    private static final byte MAGIC0 = (byte) 0xD0;
+
+    /**
+     * Second magic byte.
+     */
+    private static final byte MAGIC1 = 'X';
+
+    /**
+     * Marker byte. The high bit is set.
+     */
+    private static final byte MARKER = (byte) 0x80;
+
+    /**
+     * Codec that stores the content as is.
+     */
+    public static final DoxContentCodec NONE = new DoxContentCodec(CompressionType.NONE, null);
+
+    /**
+     * Checks if the stored content has the compression header.
+     *
+     * @param stored
+     *            stored content
+     * @return <code>true</code> if the content is compressed.
+     */
+    public static boolean isCompressed(final byte[] stored) {
+
+        return stored.length >= HEADER_LENGTH && stored[0] == MAGIC0 && stored[1] == MAGIC1 && stored[3] == MARKER;
+    }
+
+    /**
+     * Compression type.
+     */
+    private final CompressionType compression;
+
+    /**
+     * Time spent decoding in nanoseconds.
+     */
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    /**
+     * Number of compressed records decoded.
+     */
+    private final AtomicLong decodedCount = new AtomicLong();
+
+    /**
+     * Preset dictionary. May be <code>null</code>.
+     */
+    private final byte[] dictionary;
+
+    /**
+     * Preset dictionaries that can be used for decoding keyed by their
+     * Adler-32 checksum which is the identifier that is written in the deflate
+     * stream.
+     */
+    private final ConcurrentMap<Integer, byte[]> dictionaries;
+
+    /**
+     * Time spent encoding in nanoseconds.
+     */
+    private final AtomicLong encodeNanos = new AtomicLong();
+
+    /**
+     * Number of records encoded.
+     */
+    private final AtomicLong encodedCount = new AtomicLong();
+
+    /**
+     * Total number of BSON bytes that were encoded.
+     */
+    private final AtomicLong rawBytes = new AtomicLong();
+
+    /**
+     * Total number of bytes that were produced for storage.
+     */
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    /**
+     * Constructs DoxContentCodec that only decodes with its own dictionary.
+     *
+     * @param compression
+     *            compression type
+     * @param dictionary
+     *            preset dictionary, may be <code>null</code>
+     */
+    public DoxContentCodec(final CompressionType compression,
+        final byte[] dictionary) {
+        this(compression, dictionary, new ConcurrentHashMap<Integer, byte[]>());
+    }
+
+    /**
+     * Constructs DoxContentCodec. The dictionary is added to the dictionaries
+     * so the codecs sharing them can decode content encoded with it.
+     *
+     * @param compression
+     *            compression type
+     * @param dictionary
+     *            preset dictionary, may be <code>null</code>
+     * @param dictionaries
+     *            dictionaries used for decoding
+     */
+    public DoxContentCodec(final CompressionType compression,
+        final byte[] dictionary,
+        final ConcurrentMap<Integer, byte[]> dictionaries) {
+        this.compression = compression;
+        this.dictionary = dictionary;
+        this.dictionaries = dictionaries;
+        if (dictionary != null) {
+            final Adler32 adler = new Adler32();
+            adler.update(dictionary);
+            dictionaries.putIfAbsent((int) adler.getValue(), dictionary);
+        }
+    }
+
+    /**
+     * Decodes the stored content into serialized BSON. The stored form tells
+     * how it was encoded, the codec only provides the dictionaries.
+     *
+     * @param stored
+     *            stored content
+     * @return serialized BSON
+     */
+    public byte[] decode(final byte[] stored) {
+
+        if (!isCompressed(stored)) {
+            return stored;
+        }
+        final long start = System.nanoTime();
+        if (stored[2] != CODEC_DEFLATE) {
+            throw new PersistenceException("Unknown content codec " + stored[2]);
+        }
+        final int length = ByteBuffer.wrap(stored, 4, 4).getInt();
+        final byte[] bson = new byte[length];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH);
+            int offset = 0;
+            while (offset < length) {
+                final int inflated = inflater.inflate(bson, offset, length - offset);
+                if (inflated == 0) {
+                    if (inflater.needsDictionary()) {
+                        final byte[] presetDictionary = dictionaries.get(inflater.getAdler());
+                        if (presetDictionary == null) {
+                            throw new PersistenceException("Compression dictionary " + Integer.toHexString(inflater.getAdler()) + " is not available");
+                        }
+                        inflater.setDictionary(presetDictionary);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new PersistenceException("Compressed content is truncated");
+                    }
+                }
+                offset += inflated;
+            }
+        } catch (final DataFormatException e) {
+            throw new PersistenceException(e);
+        } finally {
+            inflater.end();
+        }
+        decodedCount.incrementAndGet();
+        decodeNanos.addAndGet(System.nanoTime() - start);
+        return bson;
+    }
+
+    /**
+     * Encodes serialized BSON into its stored form. If compression does not
+     * make the content smaller, the content is stored as is.
+     *
+     * @param bson
+     *            serialized BSON
+     * @return stored content
+     */
+    public byte[] encode(final byte[] bson) {
+
+        if (compression == CompressionType.NONE) {
+            return bson;
+        }
+        final long start = System.nanoTime();
+        final Deflater deflater = new Deflater();
+        final byte[] stored;
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(bson);
+            deflater.finish();
+
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(bson.length / 2 + HEADER_LENGTH);
+            baos.write(MAGIC0);
+            baos.write(MAGIC1);
+            baos.write(CODEC_DEFLATE);
+            baos.write(MARKER);
+            final byte[] buffer = new byte[4096];
+            ByteBuffer.wrap(buffer).putInt(bson.length);
+            baos.write(buffer, 0, 4);
+            while (!deflater.finished()) {
+                final int c = deflater.deflate(buffer);
+                baos.write(buffer, 0, c);
+            }
+            if (baos.size() < bson.length) {
+                stored = baos.toByteArray();
+            } else {
+                stored = bson;
+            }
+        } finally {
+            deflater.end();
+        }
+        encodedCount.incrementAndGet();
+        rawBytes.addAndGet(bson.length);
+        storedBytes.addAndGet(stored.length);
+        encodeNanos.addAndGet(System.nanoTime() - start);
+        return stored;
+    }
+
+    /**
+     * Gets the compression type.
+     *
+     * @return compression type
+     */
+    public CompressionType getCompression() {
+
+        return compression;
+    }
+
+    public long getDecodeNanos() {
+
+        return decodeNanos.get();
+    }
+
+    public long getDecodedCount() {
+
+        return decodedCount.get();
+    }
+
+    /**
+     * Builds the encoding statistics of the codec.
+     *
+     * @return statistics
+     */
+    public JsonObject getEncodeStatistics() {
+
+        final long raw = rawBytes.get();
+        final long stored = storedBytes.get();
+        return Json.createObjectBuilder()
+            .add("compression", compression.value())
+            .add("encoded_count", encodedCount.get())
+            .add("raw_bytes", raw)
+            .add("stored_bytes", stored)
+            .add("ratio", stored == 0 ? 1.0 : (double) raw / stored)
+            .add("encode_nanos", encodeNanos.get())
+            .build();
+    }
+}
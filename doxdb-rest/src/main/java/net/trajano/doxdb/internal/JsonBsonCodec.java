@@ -0,0 +1,418 @@
+package net.trajano.doxdb.internal;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.persistence.PersistenceException;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.io.BasicOutputBuffer;
+
+/**
+ * Converts between the JSON-P object model and BSON without going through an
+ * intermediate JSON string. Values are written to a {@link BsonWriter} while
+ * walking the {@link JsonValue} tree and read from a {@link BsonReader} directly
+ * into builders or {@link JsonGenerator} events.
+ * <p>
+ * Integral numbers are stored as 32-bit or 64-bit integers depending on their
+ * size, other numbers are stored as doubles. This matches what
+ * {@link org.bson.BsonDocument#parse(String)} produces.
+ * </p>
+ *
+ * @author Archimedes Trajano
+ */
+public final class JsonBsonCodec {
+
+    /**
+     * Builder factory. This is cached as {@link Json#createObjectBuilder()}
+     * looks up the provider on every call.
+     */
+    private static final JsonBuilderFactory BUILDER_FACTORY = Json.createBuilderFactory(null);
+
+    /**
+     * Decodes serialized BSON into a {@link JsonObject}.
+     *
+     * @param bson
+     *            serialized BSON
+     * @return JSON object
+     */
+    public static JsonObject decode(final byte[] bson) {
+
+        final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bson));
+        try {
+            return readObject(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Encodes a {@link JsonObject} into serialized BSON. The serialization uses
+     * a pooled buffer so the returned array is the only allocation.
+     *
+     * @param json
+     *            JSON object
+     * @return serialized BSON
+     */
+    public static byte[] encode(final JsonObject json) {
+
+        final BasicOutputBuffer buffer = BsonBufferPool.acquire();
+        try {
+            writeObject(json, new BsonBinaryWriter(buffer));
+            return buffer.toByteArray();
+        } finally {
+            BsonBufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads an array from the reader. The reader must be positioned at an
+     * array value.
+     *
+     * @param reader
+     *            BSON reader
+     * @return JSON array
+     */
+    private static JsonArray readArray(final BsonReader reader) {
+
+        final JsonArrayBuilder b = BUILDER_FACTORY.createArrayBuilder();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                b.add(readObject(reader));
+                break;
+            case ARRAY:
+                b.add(readArray(reader));
+                break;
+            case STRING:
+                b.add(reader.readString());
+                break;
+            case INT32:
+                b.add(reader.readInt32());
+                break;
+            case INT64:
+                b.add(reader.readInt64());
+                break;
+            case DOUBLE:
+                b.add(reader.readDouble());
+                break;
+            case BOOLEAN:
+                b.add(reader.readBoolean());
+                break;
+            case NULL:
+                reader.readNull();
+                b.addNull();
+                break;
+            default:
+                b.add(readOther(reader));
+            }
+        }
+        reader.readEndArray();
+        return b.build();
+    }
+
+    /**
+     * Reads a document from the reader. The reader must be positioned at a
+     * document value or at the start of the top level document.
+     *
+     * @param reader
+     *            BSON reader
+     * @return JSON object
+     */
+    public static JsonObject readObject(final BsonReader reader) {
+
+        final JsonObjectBuilder b = BUILDER_FACTORY.createObjectBuilder();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final String name = reader.readName();
+            switch (reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                b.add(name, readObject(reader));
+                break;
+            case ARRAY:
+                b.add(name, readArray(reader));
+                break;
+            case STRING:
+                b.add(name, reader.readString());
+                break;
+            case INT32:
+                b.add(name, reader.readInt32());
+                break;
+            case INT64:
+                b.add(name, reader.readInt64());
+                break;
+            case DOUBLE:
+                b.add(name, reader.readDouble());
+                break;
+            case BOOLEAN:
+                b.add(name, reader.readBoolean());
+                break;
+            case NULL:
+                reader.readNull();
+                b.addNull(name);
+                break;
+            default:
+                b.add(name, readOther(reader));
+            }
+        }
+        reader.readEndDocument();
+        return b.build();
+    }
+
+    /**
+     * Reads the BSON types that have no direct JSON equivalent as strings.
+     * These only appear in content that was not written from JSON.
+     *
+     * @param reader
+     *            BSON reader
+     * @return string representation
+     */
+    private static String readOther(final BsonReader reader) {
+
+        switch (reader.getCurrentBsonType()) {
+        case DATE_TIME:
+            return String.valueOf(reader.readDateTime());
+        case OBJECT_ID:
+            return reader.readObjectId().toHexString();
+        case SYMBOL:
+            return reader.readSymbol();
+        case JAVASCRIPT:
+            return reader.readJavaScript();
+        default:
+            throw new PersistenceException("Unsupported BSON type " + reader.getCurrentBsonType());
+        }
+    }
+
+    /**
+     * Writes the document the reader is positioned at as {@link JsonGenerator}
+     * events. This is used to stream out content without building the object
+     * model.
+     *
+     * @param reader
+     *            BSON reader
+     * @param generator
+     *            JSON generator
+     */
+    public static void write(final BsonReader reader,
+        final JsonGenerator generator) {
+
+        reader.readStartDocument();
+        generator.writeStartObject();
+        writeMembers(reader, generator);
+        generator.writeEnd();
+        reader.readEndDocument();
+    }
+
+    /**
+     * Writes the elements of an array.
+     *
+     * @param reader
+     *            BSON reader positioned after the start of the array
+     * @param generator
+     *            JSON generator positioned in an array
+     */
+    private static void writeElements(final BsonReader reader,
+        final JsonGenerator generator) {
+
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                reader.readStartDocument();
+                generator.writeStartObject();
+                writeMembers(reader, generator);
+                generator.writeEnd();
+                reader.readEndDocument();
+                break;
+            case ARRAY:
+                reader.readStartArray();
+                generator.writeStartArray();
+                writeElements(reader, generator);
+                generator.writeEnd();
+                reader.readEndArray();
+                break;
+            case STRING:
+                generator.write(reader.readString());
+                break;
+            case INT32:
+                generator.write(reader.readInt32());
+                break;
+            case INT64:
+                generator.write(reader.readInt64());
+                break;
+            case DOUBLE:
+                generator.write(reader.readDouble());
+                break;
+            case BOOLEAN:
+                generator.write(reader.readBoolean());
+                break;
+            case NULL:
+                reader.readNull();
+                generator.writeNull();
+                break;
+            default:
+                generator.write(readOther(reader));
+            }
+        }
+    }
+
+    /**
+     * Writes the members of a document.
+     *
+     * @param reader
+     *            BSON reader positioned after the start of the document
+     * @param generator
+     *            JSON generator positioned in an object
+     */
+    private static void writeMembers(final BsonReader reader,
+        final JsonGenerator generator) {
+
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final String name = reader.readName();
+            switch (reader.getCurrentBsonType()) {
+            case DOCUMENT:
+                reader.readStartDocument();
+                generator.writeStartObject(name);
+                writeMembers(reader, generator);
+                generator.writeEnd();
+                reader.readEndDocument();
+                break;
+            case ARRAY:
+                reader.readStartArray();
+                generator.writeStartArray(name);
+                writeElements(reader, generator);
+                generator.writeEnd();
+                reader.readEndArray();
+                break;
+            case STRING:
+                generator.write(name, reader.readString());
+                break;
+            case INT32:
+                generator.write(name, reader.readInt32());
+                break;
+            case INT64:
+                generator.write(name, reader.readInt64());
+                break;
+            case DOUBLE:
+                generator.write(name, reader.readDouble());
+                break;
+            case BOOLEAN:
+                generator.write(name, reader.readBoolean());
+                break;
+            case NULL:
+                reader.readNull();
+                generator.writeNull(name);
+                break;
+            default:
+                generator.write(name, readOther(reader));
+            }
+        }
+    }
+
+    /**
+     * Writes a number value.
+     *
+     * @param number
+     *            JSON number
+     * @param writer
+     *            BSON writer
+     */
+    private static void writeNumber(final JsonNumber number,
+        final BsonWriter writer) {
+
+        if (number.isIntegral()) {
+            final BigDecimal value = number.bigDecimalValue();
+            if (value.compareTo(BigDecimal.valueOf(Integer.MIN_VALUE)) >= 0 && value.compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) <= 0) {
+                writer.writeInt32(value.intValue());
+                return;
+            } else if (value.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) >= 0 && value.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0) {
+                writer.writeInt64(value.longValue());
+                return;
+            }
+        }
+        writer.writeDouble(number.doubleValue());
+    }
+
+    /**
+     * Writes a {@link JsonObject} as a BSON document.
+     *
+     * @param json
+     *            JSON object
+     * @param writer
+     *            BSON writer
+     */
+    public static void writeObject(final JsonObject json,
+        final BsonWriter writer) {
+
+        writer.writeStartDocument();
+        for (final Map.Entry<String, JsonValue> entry : json.entrySet()) {
+            writer.writeName(entry.getKey());
+            writeValue(entry.getValue(), writer);
+        }
+        writer.writeEndDocument();
+    }
+
+    /**
+     * Writes a {@link JsonValue}.
+     *
+     * @param value
+     *            JSON value
+     * @param writer
+     *            BSON writer
+     */
+    private static void writeValue(final JsonValue value,
+        final BsonWriter writer) {
+
+        switch (value.getValueType()) {
+        case OBJECT:
+            writeObject((JsonObject) value, writer);
+            break;
+        case ARRAY:
+            writer.writeStartArray();
+            for (final JsonValue element : (JsonArray) value) {
+                writeValue(element, writer);
+            }
+            writer.writeEndArray();
+            break;
+        case STRING:
+            writer.writeString(((JsonString) value).getString());
+            break;
+        case NUMBER:
+            writeNumber((JsonNumber) value, writer);
+            break;
+        case TRUE:
+            writer.writeBoolean(true);
+            break;
+        case FALSE:
+            writer.writeBoolean(false);
+            break;
+        case NULL:
+            writer.writeNull();
+            break;
+        default:
+            throw new PersistenceException("Unsupported JSON type " + value.getValueType());
+        }
+    }
+
+    /**
+     * Prevent instantiation of utility class.
+     */
+    private JsonBsonCodec() {
+
+    }
+}
@@ -10,9 +10,15 @@ import java.io.PrintStream;
 import java.io.StringReader;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TimeZone;
 
 import javax.ejb.EJB;
 import javax.enterprise.context.RequestScoped;
@@ -22,11 +28,15 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HEAD;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -35,9 +45,14 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
@@ -46,10 +61,19 @@ import javax.xml.bind.DatatypeConverter;
 
 import net.trajano.doxdb.DoxID;
 import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.DoxOobMeta;
+import net.trajano.doxdb.DoxOobUpload;
+import net.trajano.doxdb.DoxProjection;
 import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.LookupPage;
 import net.trajano.doxdb.SearchResult;
 import net.trajano.doxdb.ejb.DoxImport;
+import net.trajano.doxdb.ejb.DoxIndexCheckBean;
 import net.trajano.doxdb.ejb.DoxLocal;
+import net.trajano.doxdb.ejb.DoxLookupBuildBean;
+import net.trajano.doxdb.ejb.DoxOobUploadBean;
+import net.trajano.doxdb.rest.internal.ByteRange;
+import net.trajano.doxdb.rest.internal.PATCH;
 import net.trajano.doxdb.schema.CollectionType;
 import net.trajano.doxdb.schema.LookupType;
 import net.trajano.doxdb.schema.SchemaType;
@@ -76,6 +100,21 @@ public class DoxResource {
      */
     private static final CacheControl OK_CACHE;
 
+    /**
+     * Number of records returned per page of a range or prefix lookup.
+     */
+    private static final int LOOKUP_PAGE_SIZE = 50;
+
+    /**
+     * Status returned when a chunk does not match its checksum.
+     */
+    private static final int CHECKSUM_MISMATCH = 460;
+
+    /**
+     * Version of the resumable upload protocol that is supported.
+     */
+    private static final String TUS_VERSION = "1.0.0";
+
     /**
      * <code>application/json</code> with the the UTF-8 character set. Needs to
      * be a constant string in order to be used in annotations.
@@ -106,9 +145,18 @@ public class DoxResource {
     @EJB
     private DoxImport doxImport;
 
+    @EJB
+    private DoxIndexCheckBean indexCheck;
+
+    @EJB
+    private DoxLookupBuildBean lookupBuild;
+
     @EJB
     private SessionManager sessionManager;
 
+    @EJB
+    private DoxOobUploadBean uploads;
+
     @POST
     @Path("search/{index}")
     @Produces(RESPONSE_TYPE)
@@ -136,6 +184,71 @@ public class DoxResource {
         return Response.ok(resultJson).cacheControl(NO_CACHE).build();
     }
 
+    /**
+     * Builds the entity tag for a record. Projected representations get a
+     * different tag from the full representation.
+     *
+     * @param version
+     *            version
+     * @param projection
+     *            projection, may be <code>null</code>
+     * @return entity tag
+     */
+    private EntityTag entityTag(final int version,
+        final DoxProjection projection) {
+
+        if (projection == null) {
+            return new EntityTag(String.valueOf(version));
+        }
+        return new EntityTag(version + ";" + projection);
+    }
+
+    /**
+     * Checks if an upload exists and is for the attachment in the request
+     * path.
+     *
+     * @param upload
+     *            upload, may be <code>null</code>
+     * @param collection
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @return <code>true</code> if the upload is for the attachment.
+     */
+    private static boolean isUploadFor(final DoxOobUpload upload,
+        final String collection,
+        final DoxID doxId,
+        final String oobName) {
+
+        return upload != null && upload.getCollectionName().equals(collection) && upload.getDoxId().equals(doxId) && upload.getOobName().equals(oobName);
+    }
+
+    /**
+     * Checks if an <code>If-Range</code> header refers to the current
+     * representation, it may be an entity tag or an HTTP date.
+     *
+     * @param ifRange
+     *            header value
+     * @param entityTag
+     *            current entity tag
+     * @param lastModified
+     *            last modified date
+     * @return <code>true</code> if the range may be applied.
+     */
+    private static boolean isIfRangeCurrent(final String ifRange,
+        final EntityTag entityTag,
+        final Date lastModified) {
+
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(entityTag.toString());
+        }
+        final SimpleDateFormat httpDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        httpDate.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return ifRange.equals(httpDate.format(lastModified));
+    }
+
     private String capitalize(final String s) {
 
         if (s == null || s.isEmpty()) {
@@ -146,6 +259,37 @@ public class DoxResource {
         return new String(a);
     }
 
+    /**
+     * Builds the rows of lookups that were added to a schema for the records
+     * that do not have them yet. The search index is not rebuilt.
+     *
+     * @return statistics of the lookups that were built
+     */
+    @POST
+    @Path("lookups/build")
+    @Produces(RESPONSE_TYPE)
+    public Response buildLookups() {
+
+        return Response.ok(lookupBuild.buildMissingLookups()).cacheControl(NO_CACHE).build();
+    }
+
+    /**
+     * Compares the search indices with the database. A <code>repair</code>
+     * query parameter of <code>true</code> sends the documents that differ to
+     * the index.
+     *
+     * @param repair
+     *            <code>true</code> to repair the documents that differ
+     * @return drift report
+     */
+    @POST
+    @Path("index/check")
+    @Produces(RESPONSE_TYPE)
+    public Response checkIndex(@QueryParam("repair") final boolean repair) {
+
+        return Response.ok(indexCheck.checkIndex(repair)).cacheControl(NO_CACHE).build();
+    }
+
     /**
      * This will create the Dox object.
      *
@@ -167,6 +311,59 @@ public class DoxResource {
         return Response.ok(meta.getContentJson()).lastModified(meta.getLastUpdatedOn()).build();
     }
 
+    /**
+     * Starts a resumable upload of an attachment following the tus protocol.
+     * The content type of the attachment is passed as <code>contentType</code>
+     * in <code>Upload-Metadata</code>.
+     *
+     * @param collection
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param uploadLength
+     *            <code>Upload-Length</code> header
+     * @param uploadMetadata
+     *            <code>Upload-Metadata</code> header
+     * @param uriInfo
+     *            context to build the upload URI
+     * @return response with the upload URI
+     * @throws IOException
+     *             I/O error
+     */
+    @POST
+    @Path("{collection}/{id}/oob/{name}/uploads")
+    public Response createOobUpload(@PathParam("collection") final String collection,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("name") final String oobName,
+        @HeaderParam("Upload-Length") final String uploadLength,
+        @HeaderParam("Upload-Metadata") final String uploadMetadata,
+        @Context final UriInfo uriInfo) throws IOException {
+
+        final long length;
+        try {
+            length = Long.parseLong(uploadLength);
+        } catch (final NumberFormatException e) {
+            return Response.status(Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN).entity("Upload-Length is required").header("Tus-Resumable", TUS_VERSION).build();
+        }
+        String contentType = null;
+        if (uploadMetadata != null) {
+            for (final String pair : uploadMetadata.split(",")) {
+                final String[] keyValue = pair.trim().split(" ");
+                if (keyValue.length == 2 && "contentType".equals(keyValue[0])) {
+                    contentType = new String(DatatypeConverter.parseBase64Binary(keyValue[1]), "UTF-8");
+                }
+            }
+        }
+
+        final DoxOobUpload upload = uploads.create(collection, doxId, oobName, contentType, length);
+        return Response.created(uriInfo.getAbsolutePathBuilder().path(upload.getUploadId()).build())
+            .header("Upload-Offset", 0)
+            .header("Tus-Resumable", TUS_VERSION)
+            .build();
+    }
+
     @DELETE
     @Path("{collection}/{id}")
     public Response delete(@PathParam("collection") final String collection,
@@ -185,13 +382,56 @@ public class DoxResource {
         return Response.noContent().build();
     }
 
+    @DELETE
+    @Path("{collection}/{id}/oob/{name}")
+    public Response deleteOob(@PathParam("collection") final String collection,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("name") final String oobName) {
+
+        if (!dox.deleteOob(collection, doxId, oobName)) {
+            return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("Attachment not found").build();
+        }
+        return Response.noContent().build();
+    }
+
+    /**
+     * Abandons a resumable upload.
+     *
+     * @param collection
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param uploadId
+     *            upload ID
+     * @return response
+     * @throws IOException
+     *             I/O error
+     */
+    @DELETE
+    @Path("{collection}/{id}/oob/{name}/uploads/{uploadId}")
+    public Response deleteOobUpload(@PathParam("collection") final String collection,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("name") final String oobName,
+        @PathParam("uploadId") final String uploadId) throws IOException {
+
+        if (!isUploadFor(uploads.read(uploadId), collection, doxId, oobName)) {
+            return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("Upload not found").header("Tus-Resumable", TUS_VERSION).build();
+        }
+        uploads.delete(uploadId);
+        return Response.noContent().header("Tus-Resumable", TUS_VERSION).build();
+    }
+
     @POST
     @Path("export")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Produces(RESPONSE_TYPE)
     public Response doxExport(@FormParam("path") final String exportPath,
         @FormParam("schema") final String schema,
-        @FormParam("from") final String fromLastUpdatedOnString) {
+        @FormParam("from") final String fromLastUpdatedOnString,
+        @FormParam("threads") @DefaultValue("1") final int threads,
+        @FormParam("format") @DefaultValue("files") final String format) {
 
         Date fromLastUpdatedOn;
         if (fromLastUpdatedOnString == null) {
@@ -201,32 +441,199 @@ public class DoxResource {
             fromLastUpdatedOn = DatatypeConverter.parseDateTime(fromLastUpdatedOnString).getTime();
         }
 
-        return Response.ok(doxImport.exportDox(exportPath, schema, fromLastUpdatedOn)).cacheControl(NO_CACHE).build();
+        if ("segments".equals(format)) {
+            return Response.ok(doxImport.exportDoxToSegments(exportPath, schema, fromLastUpdatedOn)).cacheControl(NO_CACHE).build();
+        }
+        return Response.ok(doxImport.exportDox(exportPath, schema, fromLastUpdatedOn, threads)).cacheControl(NO_CACHE).build();
+    }
+
+    /**
+     * Downloads an export as a single segment that is written as the records
+     * are read.
+     *
+     * @param schema
+     *            database schema
+     * @param fromLastUpdatedOnString
+     *            only export records updated since then
+     * @return segment
+     */
+    @GET
+    @Path("export")
+    @Produces("application/gzip")
+    public Response doxExportStream(@QueryParam("schema") final String schema,
+        @QueryParam("from") final String fromLastUpdatedOnString) {
+
+        final Date fromLastUpdatedOn;
+        if (fromLastUpdatedOnString == null) {
+            fromLastUpdatedOn = null;
+        } else {
+            fromLastUpdatedOn = DatatypeConverter.parseDateTime(fromLastUpdatedOnString).getTime();
+        }
+
+        final StreamingOutput out = new StreamingOutput() {
+
+            @Override
+            public void write(final OutputStream os) throws IOException,
+                WebApplicationException {
+
+                doxImport.exportDox(os, schema, fromLastUpdatedOn);
+            }
+        };
+        return Response.ok(out).header("Content-Disposition", "attachment; filename=\"export.doxs\"").cacheControl(NO_CACHE).build();
     }
 
     @POST
     @Path("import")
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @Produces(RESPONSE_TYPE)
-    public Response doxImport(@FormParam("path") final String importPath) {
-
-        return Response.ok(doxImport.importDox(importPath)).cacheControl(NO_CACHE).build();
+    public Response doxImport(@FormParam("path") final String importPath,
+        @FormParam("threads") @DefaultValue("1") final int threads,
+        @FormParam("commitSize") @DefaultValue("100") final int commitSize,
+        @FormParam("defer") @DefaultValue("false") final boolean deferSecondary,
+        @FormParam("suspendRefresh") @DefaultValue("false") final boolean suspendRefresh,
+        @FormParam("merge") @DefaultValue("false") final boolean merge) {
+
+        if (merge) {
+            return Response.ok(doxImport.mergeDox(importPath, threads, commitSize)).cacheControl(NO_CACHE).build();
+        }
+        return Response.ok(doxImport.importDox(importPath, threads, commitSize, deferSecondary, suspendRefresh)).cacheControl(NO_CACHE).build();
     }
 
+    /**
+     * Gets a Dox record. A <code>fields</code> query parameter containing a
+     * comma separated list of fields or paths will limit the content to those
+     * fields.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param projection
+     *            projection, may be <code>null</code>
+     * @return the record.
+     */
     @GET
     @Path("{collection}/{id}")
     @Produces(RESPONSE_TYPE)
     public Response get(@PathParam("collection") final String collectionName,
-        @PathParam("id") final DoxID doxId) {
+        @PathParam("id") final DoxID doxId,
+        @QueryParam("fields") final DoxProjection projection) {
 
-        final DoxMeta meta = dox.read(collectionName, doxId);
+        final DoxMeta meta = dox.read(collectionName, doxId, projection);
         if (meta == null) {
             return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("Dox not found").build();
         }
-        final EntityTag entityTag = new EntityTag(String.valueOf(meta.getVersion()));
+        final EntityTag entityTag = entityTag(meta.getVersion(), projection);
         return Response.ok(meta.getContentJson()).cacheControl(OK_CACHE).tag(entityTag).lastModified(meta.getLastUpdatedOn()).build();
     }
 
+    /**
+     * Streams an attachment. A single byte range is supported with
+     * <code>Range</code> and <code>If-Range</code>, the entity tag is the
+     * SHA-256 of the content.
+     *
+     * @param collectionName
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param rangeHeader
+     *            <code>Range</code> header
+     * @param ifRange
+     *            <code>If-Range</code> header
+     * @param request
+     *            request used to evaluate the preconditions
+     * @return the attachment or the requested part of it.
+     */
+    @GET
+    @Path("{collection}/{id}/oob/{name}")
+    public Response getOob(@PathParam("collection") final String collectionName,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("name") final String oobName,
+        @HeaderParam("Range") final String rangeHeader,
+        @HeaderParam("If-Range") final String ifRange,
+        @Context final Request request) {
+
+        final DoxOobMeta meta = dox.readOobMeta(collectionName, doxId, oobName);
+        if (meta == null) {
+            return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("Attachment not found").build();
+        }
+        final EntityTag entityTag = new EntityTag(meta.getContentHash());
+        final ResponseBuilder preconditionFailed = request.evaluatePreconditions(meta.getLastUpdatedOn(), entityTag);
+        if (preconditionFailed != null) {
+            return preconditionFailed.tag(entityTag).build();
+        }
+
+        ByteRange range = ByteRange.parse(rangeHeader, meta.getContentLength());
+        if (range != null && ifRange != null && !isIfRangeCurrent(ifRange, entityTag, meta.getLastUpdatedOn())) {
+            range = null;
+        }
+        if (range != null && !range.isSatisfiable()) {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", range.getContentRange()).build();
+        }
+
+        final long offset = range == null ? 0 : range.getStart();
+        final long length = range == null ? meta.getContentLength() : range.getLength();
+        final StreamingOutput out = new StreamingOutput() {
+
+            @Override
+            public void write(final OutputStream os) throws IOException,
+                WebApplicationException {
+
+                dox.readOob(collectionName, doxId, oobName, meta.getContentHash(), offset, length, os);
+            }
+        };
+
+        final ResponseBuilder builder;
+        if (range == null) {
+            builder = Response.ok(out);
+        } else {
+            builder = Response.status(Status.PARTIAL_CONTENT).entity(out).header("Content-Range", range.getContentRange());
+        }
+        return builder.type(meta.getContentType() == null ? MediaType.APPLICATION_OCTET_STREAM : meta.getContentType())
+            .header("Accept-Ranges", "bytes")
+            .header("Content-Length", length)
+            .tag(entityTag)
+            .lastModified(meta.getLastUpdatedOn())
+            .cacheControl(OK_CACHE)
+            .build();
+    }
+
+    /**
+     * Gets the number of bytes received by a resumable upload.
+     *
+     * @param collection
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param uploadId
+     *            upload ID
+     * @return response with the offset
+     * @throws IOException
+     *             I/O error
+     */
+    @HEAD
+    @Path("{collection}/{id}/oob/{name}/uploads/{uploadId}")
+    public Response getOobUpload(@PathParam("collection") final String collection,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("name") final String oobName,
+        @PathParam("uploadId") final String uploadId) throws IOException {
+
+        final DoxOobUpload upload = uploads.read(uploadId);
+        if (!isUploadFor(upload, collection, doxId, oobName)) {
+            return Response.status(Status.NOT_FOUND).header("Tus-Resumable", TUS_VERSION).build();
+        }
+        return Response.ok()
+            .header("Upload-Offset", upload.getOffset())
+            .header("Upload-Length", upload.getLength())
+            .header("Tus-Resumable", TUS_VERSION)
+            .cacheControl(NO_CACHE)
+            .build();
+    }
+
     /**
      * In addition to the default operations, the lookup operations will also be
      * provided as the string "getBy{lookupName}" for unique lookups. Note that
@@ -278,6 +685,19 @@ public class DoxResource {
         return Response.ok(out).cacheControl(OK_CACHE).tag(dox.toString()).build();
     }
 
+    /**
+     * Returns the runtime statistics.
+     *
+     * @return statistics
+     */
+    @GET
+    @Path("statistics")
+    @Produces(RESPONSE_TYPE)
+    public Response getStatistics() {
+
+        return Response.ok(dox.getStatistics()).cacheControl(NO_CACHE).build();
+    }
+
     /**
      * Returns the schema document. It does a check to make sure each path
      * segment contains a restricted set of characters.
@@ -348,6 +768,8 @@ public class DoxResource {
      *            lookup name (can be either unique or not)
      * @param lookupKey
      *            lookup key
+     * @param projection
+     *            fields to return, may be <code>null</code>
      * @return array or a single JsobObject depending on whether the lookup is
      *         for unique or not.
      */
@@ -357,6 +779,7 @@ public class DoxResource {
     public Response lookup(@PathParam("collectionName") final String collectionName,
         @PathParam("lookupName") final String lookupName,
         @PathParam("lookupKey") final String lookupKey,
+        @QueryParam("fields") final DoxProjection projection,
         @Context final UriInfo uriInfo) {
 
         SchemaType schema = null;
@@ -372,30 +795,202 @@ public class DoxResource {
 
         for (final LookupType lookup : schema.getUnique()) {
             if (lookup.getName().equals(lookupName)) {
-                final DoxMeta meta = dox.readByUniqueLookup(collectionName, lookupName, lookupKey);
-                if (meta == null) {
+                final DoxID doxId = dox.readDoxIdByUniqueLookup(collectionName, lookupName, lookupKey);
+                if (doxId == null) {
                     return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("Dox not found").build();
                 }
-                final EntityTag entityTag = new EntityTag(String.valueOf(meta.getVersion()));
-                final URI location = uriInfo.getBaseUriBuilder().path(collectionName).path(meta.getDoxId().toString()).build();
-                return Response.seeOther(location).cacheControl(OK_CACHE).tag(entityTag).lastModified(meta.getLastUpdatedOn()).build();
+                final UriBuilder locationBuilder = uriInfo.getBaseUriBuilder().path(collectionName).path(doxId.toString());
+                if (projection != null) {
+                    locationBuilder.queryParam("fields", projection);
+                }
+                final URI location = locationBuilder.build();
+                return Response.seeOther(location).cacheControl(OK_CACHE).build();
             }
         }
         for (final LookupType lookup : schema.getLookup()) {
             if (lookup.getName().equals(lookupName)) {
-                return Response.ok(dox.readByLookup(collectionName, lookupName, lookupKey)).build();
+                return Response.ok(dox.readByLookup(collectionName, lookupName, lookupKey, projection)).build();
             }
         }
         return Response.status(Status.NOT_FOUND).build();
 
     }
 
+    /**
+     * Returns the records whose key is one of the keys passed as the repeated
+     * "key" query parameter.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name (can be either unique or not)
+     * @param lookupKeys
+     *            lookup keys
+     * @param projection
+     *            fields to return, may be <code>null</code>
+     * @return array of records
+     */
+    @GET
+    @Path("keys/{collectionName}/{lookupName}")
+    @Produces(RESPONSE_TYPE)
+    public Response lookupKeys(@PathParam("collectionName") final String collectionName,
+        @PathParam("lookupName") final String lookupName,
+        @QueryParam("key") final List<String> lookupKeys,
+        @QueryParam("fields") final DoxProjection projection) {
+
+        return Response.ok(dox.readByLookupKeys(collectionName, lookupName, lookupKeys, projection)).cacheControl(NO_CACHE).build();
+    }
+
+    /**
+     * Returns the records that match all the lookups. Each query parameter
+     * other than "fields" is a lookup name with its key.
+     *
+     * @param collectionName
+     *            collection name
+     * @param projection
+     *            fields to return, may be <code>null</code>
+     * @return array of records
+     */
+    @GET
+    @Path("match/{collectionName}")
+    @Produces(RESPONSE_TYPE)
+    public Response lookupMatch(@PathParam("collectionName") final String collectionName,
+        @QueryParam("fields") final DoxProjection projection,
+        @Context final UriInfo uriInfo) {
+
+        return Response.ok(dox.readByLookups(collectionName, lookups(uriInfo.getQueryParameters()), projection)).cacheControl(NO_CACHE).build();
+    }
+
+    /**
+     * Returns the number of records that match all the lookups. Each query
+     * parameter is a lookup name with its key.
+     *
+     * @param collectionName
+     *            collection name
+     * @return object with the "count"
+     */
+    @GET
+    @Path("match/{collectionName}/count")
+    @Produces(RESPONSE_TYPE)
+    public Response lookupMatchCount(@PathParam("collectionName") final String collectionName,
+        @Context final UriInfo uriInfo) {
+
+        return Response.ok(Json.createObjectBuilder().add("count", dox.countByLookups(collectionName, lookups(uriInfo.getQueryParameters()))).build()).cacheControl(NO_CACHE).build();
+    }
+
+    /**
+     * Builds the response for a page of a range or prefix lookup. A link to
+     * the next page is added when the query filled the page, even if records
+     * removed while they were migrated were left out of it.
+     *
+     * @param page
+     *            records in the page
+     * @param nextPageBuilder
+     *            URI builder for the request without the page
+     * @param from
+     *            index of the first record in the page
+     * @return response
+     */
+    private Response lookupPage(final LookupPage page,
+        final UriBuilder nextPageBuilder,
+        final int from) {
+
+        final ResponseBuilder responseBuilder = Response.ok(page.getRecords()).cacheControl(NO_CACHE);
+        if (page.getRowCount() == LOOKUP_PAGE_SIZE) {
+            responseBuilder.links(Link.fromUri(nextPageBuilder.replaceQueryParam("f", from + LOOKUP_PAGE_SIZE).build()).rel("next").build());
+        }
+        return responseBuilder.build();
+    }
+
+    /**
+     * Returns the records whose string lookup key starts with the prefix
+     * ordered by key.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name (can be either unique or not)
+     * @param prefix
+     *            key prefix
+     * @param projection
+     *            fields to return, may be <code>null</code>
+     * @param from
+     *            index of the first record, may be <code>null</code>
+     * @return array of records
+     */
+    @GET
+    @Path("prefix/{collectionName}/{lookupName}/{prefix}")
+    @Produces(RESPONSE_TYPE)
+    public Response lookupPrefix(@PathParam("collectionName") final String collectionName,
+        @PathParam("lookupName") final String lookupName,
+        @PathParam("prefix") final String prefix,
+        @QueryParam("fields") final DoxProjection projection,
+        @QueryParam("f") final Integer from,
+        @Context final UriInfo uriInfo) {
+
+        final int first = from == null ? 0 : from;
+        return lookupPage(dox.readByLookupPrefix(collectionName, lookupName, prefix, projection, first, LOOKUP_PAGE_SIZE), uriInfo.getRequestUriBuilder(), first);
+    }
+
+    /**
+     * Returns the records whose lookup key is between two keys inclusive
+     * ordered by key.
+     *
+     * @param collectionName
+     *            collection name
+     * @param lookupName
+     *            lookup name (can be either unique or not)
+     * @param fromKey
+     *            lowest key, may be <code>null</code>
+     * @param toKey
+     *            highest key, may be <code>null</code>
+     * @param projection
+     *            fields to return, may be <code>null</code>
+     * @param from
+     *            index of the first record, may be <code>null</code>
+     * @return array of records
+     */
+    @GET
+    @Path("range/{collectionName}/{lookupName}")
+    @Produces(RESPONSE_TYPE)
+    public Response lookupRange(@PathParam("collectionName") final String collectionName,
+        @PathParam("lookupName") final String lookupName,
+        @QueryParam("from") final String fromKey,
+        @QueryParam("to") final String toKey,
+        @QueryParam("fields") final DoxProjection projection,
+        @QueryParam("f") final Integer from,
+        @Context final UriInfo uriInfo) {
+
+        final int first = from == null ? 0 : from;
+        return lookupPage(dox.readByLookupRange(collectionName, lookupName, fromKey, toKey, projection, first, LOOKUP_PAGE_SIZE), uriInfo.getRequestUriBuilder(), first);
+    }
+
+    /**
+     * Converts the query parameters other than "fields" to lookup keys keyed by
+     * lookup name.
+     *
+     * @param queryParameters
+     *            query parameters
+     * @return lookups
+     */
+    private static Map<String, String> lookups(final MultivaluedMap<String, String> queryParameters) {
+
+        final Map<String, String> lookups = new LinkedHashMap<>();
+        for (final Entry<String, List<String>> entry : queryParameters.entrySet()) {
+            if (!"fields".equals(entry.getKey())) {
+                lookups.put(entry.getKey(), entry.getValue().get(0));
+            }
+        }
+        return lookups;
+    }
+
     @GET
     @Path("{collection}")
     @Produces(RESPONSE_TYPE)
-    public Response readAll(@PathParam("collection") final String collection) {
+    public Response readAll(@PathParam("collection") final String collection,
+        @QueryParam("fields") final DoxProjection projection) {
 
-        final String readAll = dox.readAll(collection);
+        final String readAll = dox.readAll(collection, projection);
         if (readAll.charAt(0) == '[') {
             return Response.ok(readAll).build();
         }
@@ -436,6 +1031,23 @@ public class DoxResource {
         return Response.noContent().build();
     }
 
+    @PUT
+    @Path("{collection}/{id}/lock/{lockId}")
+    @Produces(RESPONSE_TYPE)
+    public Response renewLock(@PathParam("collection") final String collectionName,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("lockId") final int lockId) {
+
+        final Date expiresOn = dox.renewLock(collectionName, doxId, lockId);
+        final JsonObjectBuilder lockJson = Json.createObjectBuilder().add("lockId", lockId);
+        if (expiresOn != null) {
+            final Calendar cal = Calendar.getInstance();
+            cal.setTime(expiresOn);
+            lockJson.add("expiresOn", DatatypeConverter.printDateTime(cal));
+        }
+        return Response.ok(lockJson.build()).cacheControl(NO_CACHE).build();
+    }
+
     @POST
     @Path("{collectionName}/{id}")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -450,14 +1062,119 @@ public class DoxResource {
         return Response.ok(meta.getContentJson()).lastModified(meta.getLastUpdatedOn()).build();
     }
 
+    /**
+     * Updates a locked record and by default releases the lock in the same
+     * transaction.
+     */
     @POST
-    @Path("{collection}/{id}/{oobname}")
-    @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response saveOob(@PathParam("collection") final String collection,
-        @PathParam("id") final DoxID id,
-        @PathParam("oobname") final String oobname) {
+    @Path("{collection}/{id}/lock/{lockId}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(RESPONSE_TYPE)
+    public Response saveLocked(@PathParam("collection") final String collection,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("lockId") final int lockId,
+        final JsonObject json,
+        @QueryParam("v") final int version,
+        @QueryParam("unlock") @DefaultValue("true") final boolean unlock) {
 
-        return Response.ok().type(RESPONSE_TYPE).entity("OOB").build();
+        final DoxMeta meta = dox.update(collection, doxId, json, version, lockId, unlock);
+        sessionManager.sendMessage("UPDATE", meta.getDoxId(), collection, meta.getLastUpdatedOn());
+        if (unlock) {
+            sessionManager.sendMessage("UNLOCK", meta.getDoxId(), collection, new Date());
+        }
+        return Response.ok(meta.getContentJson()).lastModified(meta.getLastUpdatedOn()).build();
+    }
+
+    /**
+     * Appends a chunk to a resumable upload. A chunk may be verified with an
+     * <code>Upload-Checksum</code> header. The attachment is saved once every
+     * byte has been received, if that fails the request can be repeated at the
+     * final offset with an empty body.
+     *
+     * @param collection
+     *            collection name
+     * @param doxId
+     *            Dox ID
+     * @param oobName
+     *            attachment name
+     * @param uploadId
+     *            upload ID
+     * @param uploadOffset
+     *            <code>Upload-Offset</code> header
+     * @param uploadChecksum
+     *            <code>Upload-Checksum</code> header
+     * @param chunk
+     *            chunk content
+     * @return response with the new offset
+     * @throws IOException
+     *             I/O error
+     */
+    @PATCH
+    @Path("{collection}/{id}/oob/{name}/uploads/{uploadId}")
+    @Consumes("application/offset+octet-stream")
+    public Response patchOobUpload(@PathParam("collection") final String collection,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("name") final String oobName,
+        @PathParam("uploadId") final String uploadId,
+        @HeaderParam("Upload-Offset") final long uploadOffset,
+        @HeaderParam("Upload-Checksum") final String uploadChecksum,
+        final InputStream chunk) throws IOException {
+
+        if (!isUploadFor(uploads.read(uploadId), collection, doxId, oobName)) {
+            return Response.status(Status.NOT_FOUND).type(MediaType.TEXT_PLAIN).entity("Upload not found").header("Tus-Resumable", TUS_VERSION).build();
+        }
+        String digestAlgorithm = null;
+        byte[] checksum = null;
+        if (uploadChecksum != null) {
+            final String[] algorithmValue = uploadChecksum.trim().split(" ");
+            digestAlgorithm = DoxOobUploadBean.getDigestAlgorithm(algorithmValue[0]);
+            if (digestAlgorithm == null || algorithmValue.length != 2) {
+                return Response.status(Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN).entity("Unsupported checksum").header("Tus-Resumable", TUS_VERSION).build();
+            }
+            checksum = DatatypeConverter.parseBase64Binary(algorithmValue[1]);
+        }
+
+        final DoxOobUpload upload = uploads.append(uploadId, uploadOffset, digestAlgorithm, checksum, chunk);
+        if (upload == null) {
+            return Response.status(CHECKSUM_MISMATCH).type(MediaType.TEXT_PLAIN).entity("Checksum mismatch").header("Tus-Resumable", TUS_VERSION).build();
+        }
+        final ResponseBuilder builder = Response.noContent()
+            .header("Upload-Offset", upload.getOffset())
+            .header("Tus-Resumable", TUS_VERSION);
+        if (upload.isComplete()) {
+            final DoxOobMeta meta;
+            try (final InputStream content = uploads.open(uploadId)) {
+                meta = dox.writeOob(collection, doxId, oobName, upload.getContentType(), content);
+            }
+            uploads.delete(uploadId);
+            builder.tag(new EntityTag(meta.getContentHash())).lastModified(meta.getLastUpdatedOn());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates or replaces an attachment. The request body is streamed to the
+     * database.
+     */
+    @PUT
+    @Path("{collection}/{id}/oob/{name}")
+    @Consumes(MediaType.WILDCARD)
+    @Produces(RESPONSE_TYPE)
+    public Response putOob(@PathParam("collection") final String collection,
+        @PathParam("id") final DoxID doxId,
+        @PathParam("name") final String oobName,
+        @HeaderParam(HttpHeaders.CONTENT_TYPE) final String contentType,
+        final InputStream content) {
+
+        final DoxOobMeta meta = dox.writeOob(collection, doxId, oobName, contentType, content);
+        final JsonObjectBuilder oobJson = Json.createObjectBuilder()
+            .add("name", meta.getOobName())
+            .add("length", meta.getContentLength())
+            .add("sha256", meta.getContentHash());
+        if (meta.getContentType() != null) {
+            oobJson.add("contentType", meta.getContentType());
+        }
+        return Response.ok(oobJson.build()).tag(new EntityTag(meta.getContentHash())).lastModified(meta.getLastUpdatedOn()).cacheControl(NO_CACHE).build();
     }
 
     /**
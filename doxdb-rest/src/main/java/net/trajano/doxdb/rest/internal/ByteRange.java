@@ -0,0 +1,108 @@
+package net.trajano.doxdb.rest.internal;
+
+/**
+ * A single byte range from a <code>Range</code> header.
+ *
+ * @author Archimedes Trajano
+ */
+public final class ByteRange {
+
+    /**
+     * Parses a <code>Range</code> header. Only a single range is supported,
+     * a header with several ranges or that cannot be parsed is ignored and the
+     * whole content is sent as allowed by RFC 7233.
+     *
+     * @param header
+     *            header value, may be <code>null</code>
+     * @param length
+     *            length of the content
+     * @return range or <code>null</code> if the whole content should be sent.
+     */
+    public static ByteRange parse(final String header,
+        final long length) {
+
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') != -1) {
+            return null;
+        }
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffix range, the last n bytes
+                final long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return new ByteRange(length, length, length);
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1, length);
+            }
+            final long start = Long.parseLong(first);
+            if (last.isEmpty()) {
+                return new ByteRange(start, length - 1, length);
+            }
+            final long end = Long.parseLong(last);
+            if (end < start) {
+                return null;
+            }
+            return new ByteRange(start, Math.min(end, length - 1), length);
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private final long end;
+
+    private final long length;
+
+    private final long start;
+
+    private ByteRange(final long start,
+        final long end,
+        final long length) {
+        this.start = start;
+        this.end = end;
+        this.length = length;
+    }
+
+    /**
+     * Builds the <code>Content-Range</code> header value.
+     *
+     * @return header value
+     */
+    public String getContentRange() {
+
+        if (!isSatisfiable()) {
+            return "bytes */" + length;
+        }
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+
+    /**
+     * Number of bytes in the range.
+     *
+     * @return number of bytes
+     */
+    public long getLength() {
+
+        return end - start + 1;
+    }
+
+    public long getStart() {
+
+        return start;
+    }
+
+    /**
+     * Checks if the range overlaps the content.
+     *
+     * @return <code>true</code> if there is at least one byte to send.
+     */
+    public boolean isSatisfiable() {
+
+        return start < length && start <= end;
+    }
+}
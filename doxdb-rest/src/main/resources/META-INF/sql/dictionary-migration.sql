@@ -0,0 +1,130 @@
+-- Migrates a DoxDB database whose DOX, DOXLOOKUP, DOXUNIQUE, DOXLOCK and
+-- DOXTOMBSTONE tables store collection names, lookup names and principal
+-- names as strings to the DOXDICTIONARY surrogate keys.
+--
+-- Run it with the application stopped. The statements are written in
+-- standard SQL, the ALTER TABLE statements for setting columns to NOT NULL
+-- and dropping constraints may need to be adjusted for the database in use.
+-- The constraint and index names that were generated for the old columns
+-- differ between databases, they need to be dropped before the columns are
+-- dropped.
+
+create table DOXDICTIONARY (
+    ID integer not null,
+    KIND integer not null,
+    NAME varchar(128) not null,
+    primary key (ID),
+    constraint UNQ_DOXDICTIONARY_0 unique (KIND, NAME)
+);
+
+-- The distinct names are staged so they can be numbered without window
+-- functions which are not available on every database.
+create table DOXDICTIONARYNAMES (
+    KIND integer not null,
+    NAME varchar(128) not null
+);
+
+insert into DOXDICTIONARYNAMES (KIND, NAME)
+    select 1, COLLECTIONNAME from DOX
+    union select 1, COLLECTIONNAME from DOXLOOKUP
+    union select 1, COLLECTIONNAME from DOXUNIQUE
+    union select 1, SCHEMANAME from DOXTOMBSTONE
+    union select 2, LOOKUPNAME from DOXLOOKUP
+    union select 2, LOOKUPNAME from DOXUNIQUE
+    union select 3, CREATEDBY from DOX
+    union select 3, LASTUPDATEDBY from DOX
+    union select 3, LOCKEDBY from DOXLOCK
+    union select 3, CREATEDBY from DOXTOMBSTONE
+    union select 3, DELETEDBY from DOXTOMBSTONE
+    union select 3, LASTUPDATEDBY from DOXTOMBSTONE;
+
+insert into DOXDICTIONARY (ID, KIND, NAME)
+select (select count(*) from DOXDICTIONARYNAMES P where P.KIND < N.KIND or (P.KIND = N.KIND and P.NAME <= N.NAME)), N.KIND, N.NAME
+from DOXDICTIONARYNAMES N;
+
+drop table DOXDICTIONARYNAMES;
+
+-- The dictionary uses its own row in the sequence table with an allocation
+-- size of 1 so the next identifier follows the ones assigned above.
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOXDICTIONARY', count(*) from DOXDICTIONARY;
+
+-- DOX
+alter table DOX add column COLLECTIONID integer;
+alter table DOX add column CREATEDBYID integer;
+alter table DOX add column LASTUPDATEDBYID integer;
+update DOX set
+    COLLECTIONID = (select ID from DOXDICTIONARY where KIND = 1 and NAME = DOX.COLLECTIONNAME),
+    CREATEDBYID = (select ID from DOXDICTIONARY where KIND = 3 and NAME = DOX.CREATEDBY),
+    LASTUPDATEDBYID = (select ID from DOXDICTIONARY where KIND = 3 and NAME = DOX.LASTUPDATEDBY);
+alter table DOX alter column COLLECTIONID set not null;
+alter table DOX alter column CREATEDBYID set not null;
+alter table DOX alter column LASTUPDATEDBYID set not null;
+alter table DOX drop column COLLECTIONNAME;
+alter table DOX drop column CREATEDBY;
+alter table DOX drop column LASTUPDATEDBY;
+alter table DOX add constraint UNQ_DOX_0 unique (DOXID, COLLECTIONID);
+create index INDEX_DOX_COLLECTIONID on DOX (COLLECTIONID);
+alter table DOX add constraint FK_DOX_COLLECTIONID foreign key (COLLECTIONID) references DOXDICTIONARY (ID);
+alter table DOX add constraint FK_DOX_CREATEDBYID foreign key (CREATEDBYID) references DOXDICTIONARY (ID);
+alter table DOX add constraint FK_DOX_LASTUPDATEDBYID foreign key (LASTUPDATEDBYID) references DOXDICTIONARY (ID);
+
+-- DOXLOOKUP
+alter table DOXLOOKUP add column COLLECTIONID integer;
+alter table DOXLOOKUP add column LOOKUPNAMEID integer;
+update DOXLOOKUP set
+    COLLECTIONID = (select ID from DOXDICTIONARY where KIND = 1 and NAME = DOXLOOKUP.COLLECTIONNAME),
+    LOOKUPNAMEID = (select ID from DOXDICTIONARY where KIND = 2 and NAME = DOXLOOKUP.LOOKUPNAME);
+alter table DOXLOOKUP alter column COLLECTIONID set not null;
+alter table DOXLOOKUP alter column LOOKUPNAMEID set not null;
+alter table DOXLOOKUP drop column COLLECTIONNAME;
+alter table DOXLOOKUP drop column LOOKUPNAME;
+create index INDEX_DOXLOOKUP_COLLECTIONID_LOOKUPNAMEID_LOOKUPKEY on DOXLOOKUP (COLLECTIONID, LOOKUPNAMEID, LOOKUPKEY);
+alter table DOXLOOKUP add constraint FK_DOXLOOKUP_COLLECTIONID foreign key (COLLECTIONID) references DOXDICTIONARY (ID);
+alter table DOXLOOKUP add constraint FK_DOXLOOKUP_LOOKUPNAMEID foreign key (LOOKUPNAMEID) references DOXDICTIONARY (ID);
+
+-- DOXUNIQUE
+alter table DOXUNIQUE add column COLLECTIONID integer;
+alter table DOXUNIQUE add column LOOKUPNAMEID integer;
+update DOXUNIQUE set
+    COLLECTIONID = (select ID from DOXDICTIONARY where KIND = 1 and NAME = DOXUNIQUE.COLLECTIONNAME),
+    LOOKUPNAMEID = (select ID from DOXDICTIONARY where KIND = 2 and NAME = DOXUNIQUE.LOOKUPNAME);
+alter table DOXUNIQUE alter column COLLECTIONID set not null;
+alter table DOXUNIQUE alter column LOOKUPNAMEID set not null;
+alter table DOXUNIQUE drop column COLLECTIONNAME;
+alter table DOXUNIQUE drop column LOOKUPNAME;
+alter table DOXUNIQUE add constraint UNQ_DOXUNIQUE_0 unique (COLLECTIONID, LOOKUPNAMEID, LOOKUPKEY);
+alter table DOXUNIQUE add constraint FK_DOXUNIQUE_COLLECTIONID foreign key (COLLECTIONID) references DOXDICTIONARY (ID);
+alter table DOXUNIQUE add constraint FK_DOXUNIQUE_LOOKUPNAMEID foreign key (LOOKUPNAMEID) references DOXDICTIONARY (ID);
+
+-- DOXLOCK
+alter table DOXLOCK add column LOCKEDBYID integer;
+update DOXLOCK set
+    LOCKEDBYID = (select ID from DOXDICTIONARY where KIND = 3 and NAME = DOXLOCK.LOCKEDBY);
+alter table DOXLOCK alter column LOCKEDBYID set not null;
+alter table DOXLOCK drop column LOCKEDBY;
+alter table DOXLOCK add constraint FK_DOXLOCK_LOCKEDBYID foreign key (LOCKEDBYID) references DOXDICTIONARY (ID);
+
+-- DOXTOMBSTONE
+alter table DOXTOMBSTONE add column COLLECTIONID integer;
+alter table DOXTOMBSTONE add column CREATEDBYID integer;
+alter table DOXTOMBSTONE add column DELETEDBYID integer;
+alter table DOXTOMBSTONE add column LASTUPDATEDBYID integer;
+update DOXTOMBSTONE set
+    COLLECTIONID = (select ID from DOXDICTIONARY where KIND = 1 and NAME = DOXTOMBSTONE.SCHEMANAME),
+    CREATEDBYID = (select ID from DOXDICTIONARY where KIND = 3 and NAME = DOXTOMBSTONE.CREATEDBY),
+    DELETEDBYID = (select ID from DOXDICTIONARY where KIND = 3 and NAME = DOXTOMBSTONE.DELETEDBY),
+    LASTUPDATEDBYID = (select ID from DOXDICTIONARY where KIND = 3 and NAME = DOXTOMBSTONE.LASTUPDATEDBY);
+alter table DOXTOMBSTONE alter column COLLECTIONID set not null;
+alter table DOXTOMBSTONE alter column CREATEDBYID set not null;
+alter table DOXTOMBSTONE alter column DELETEDBYID set not null;
+alter table DOXTOMBSTONE alter column LASTUPDATEDBYID set not null;
+alter table DOXTOMBSTONE drop column SCHEMANAME;
+alter table DOXTOMBSTONE drop column CREATEDBY;
+alter table DOXTOMBSTONE drop column DELETEDBY;
+alter table DOXTOMBSTONE drop column LASTUPDATEDBY;
+alter table DOXTOMBSTONE add constraint UNQ_DOXTOMBSTONE_0 unique (DOXID, COLLECTIONID);
+alter table DOXTOMBSTONE add constraint FK_DOXTOMBSTONE_COLLECTIONID foreign key (COLLECTIONID) references DOXDICTIONARY (ID);
+alter table DOXTOMBSTONE add constraint FK_DOXTOMBSTONE_CREATEDBYID foreign key (CREATEDBYID) references DOXDICTIONARY (ID);
+alter table DOXTOMBSTONE add constraint FK_DOXTOMBSTONE_DELETEDBYID foreign key (DELETEDBYID) references DOXDICTIONARY (ID);
+alter table DOXTOMBSTONE add constraint FK_DOXTOMBSTONE_LASTUPDATEDBYID foreign key (LASTUPDATEDBYID) references DOXDICTIONARY (ID);
@@ -0,0 +1,27 @@
+-- Migrates a DoxDB database whose entities shared the SEQ_GEN row of the
+-- SEQUENCE table to a row for each table.
+--
+-- Run it with the application stopped. Every row starts from the value of
+-- SEQ_GEN so identifiers that were already allocated are not reused. The
+-- DOXDICTIONARY row is created by dictionary-migration.sql.
+
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOX', SEQ_COUNT from SEQUENCE where SEQ_NAME = 'SEQ_GEN';
+
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOXLOCK', SEQ_COUNT from SEQUENCE where SEQ_NAME = 'SEQ_GEN';
+
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOXLOOKUP', SEQ_COUNT from SEQUENCE where SEQ_NAME = 'SEQ_GEN';
+
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOXOOB', SEQ_COUNT from SEQUENCE where SEQ_NAME = 'SEQ_GEN';
+
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOXOOBTOMBSTONE', SEQ_COUNT from SEQUENCE where SEQ_NAME = 'SEQ_GEN';
+
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOXTOMBSTONE', SEQ_COUNT from SEQUENCE where SEQ_NAME = 'SEQ_GEN';
+
+insert into SEQUENCE (SEQ_NAME, SEQ_COUNT)
+select 'DOXUNIQUE', SEQ_COUNT from SEQUENCE where SEQ_NAME = 'SEQ_GEN';
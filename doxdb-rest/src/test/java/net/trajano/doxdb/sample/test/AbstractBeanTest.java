@@ -24,6 +24,12 @@ import com.google.common.io.Resources;
 
 import net.trajano.doxdb.IndexView;
 import net.trajano.doxdb.ejb.DoxBean;
+import net.trajano.doxdb.ejb.DoxContentCodecBean;
+import net.trajano.doxdb.ejb.DoxDictionaryBean;
+import net.trajano.doxdb.ejb.DoxLockManagerBean;
+import net.trajano.doxdb.ejb.DoxOobStoreBean;
+import net.trajano.doxdb.ejb.DoxReplicaBean;
+import net.trajano.doxdb.ejb.DoxUniqueCacheBean;
 import net.trajano.doxdb.ejb.DoxSearch;
 import net.trajano.doxdb.ext.CollectionAccessControl;
 import net.trajano.doxdb.ext.ConfigurationProvider;
@@ -44,17 +50,29 @@ public class AbstractBeanTest {
 
     protected DoxBean bean;
 
+    protected DoxContentCodecBean contentCodecs;
+
+    protected DoxDictionaryBean dictionary;
+
     protected DoxSearch doxSearchBean;
 
     protected EntityManager em;
 
     protected EntityManagerFactory emf;
 
+    protected DoxLockManagerBean lockManager;
+
+    protected DoxOobStoreBean oobStore;
+
+    protected DoxReplicaBean replica;
+
     @Rule
     public TemporaryFolder testFolder = new TemporaryFolder();
 
     protected EntityTransaction tx;
 
+    protected DoxUniqueCacheBean uniqueCache;
+
     @Before
     public void setUp() throws IOException {
 
@@ -74,6 +92,31 @@ public class AbstractBeanTest {
         final SessionContext sessionContextMock = mock(SessionContext.class);
         when(sessionContextMock.getCallerPrincipal()).thenReturn(new DoxPrincipal("ANONYMOUS"));
 
+        contentCodecs = new DoxContentCodecBean();
+        contentCodecs.setConfigurationProvider(configurationProvider);
+        contentCodecs.init();
+
+        dictionary = new DoxDictionaryBean();
+        dictionary.setEntityManager(em);
+        dictionary.setSessionContext(sessionContextMock);
+        when(sessionContextMock.getBusinessObject(DoxDictionaryBean.class)).thenReturn(dictionary);
+
+        replica = new DoxReplicaBean();
+        replica.setConfigurationProvider(configurationProvider);
+
+        uniqueCache = new DoxUniqueCacheBean();
+        uniqueCache.setConfigurationProvider(configurationProvider);
+
+        lockManager = new DoxLockManagerBean();
+        lockManager.setConfigurationProvider(configurationProvider);
+        lockManager.setEntityManager(em);
+        lockManager.setSessionContext(sessionContextMock);
+
+        oobStore = new DoxOobStoreBean();
+        oobStore.setConfigurationProvider(configurationProvider);
+        oobStore.setEntityManager(em);
+        oobStore.setSessionContext(sessionContextMock);
+
         bean = new DoxBean();
         doxSearchBean = Mockito.mock(DoxSearch.class);
 
@@ -100,6 +143,12 @@ public class AbstractBeanTest {
         });
         bean.setEventHandler(new DefaultEventHandler());
         bean.setConfigurationProvider(configurationProvider);
+        bean.setContentCodecs(contentCodecs);
+        bean.setDictionary(dictionary);
+        bean.setLockManager(lockManager);
+        bean.setOobStore(oobStore);
+        bean.setReplica(replica);
+        bean.setUniqueCache(uniqueCache);
         bean.setDoxSearchBean(doxSearchBean);
 
     }
@@ -0,0 +1,118 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.persistence.PersistenceException;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.Test;
+
+import net.trajano.doxdb.ejb.DoxContentCodecBean;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+import net.trajano.doxdb.internal.DoxContentCodec;
+import net.trajano.doxdb.schema.CompressionType;
+
+/**
+ * Tests {@link DoxContentCodec}.
+ *
+ * @author Archimedes Trajano
+ */
+public class ContentCodecTest {
+
+    private static byte[] bson(final String json) {
+
+        final BasicOutputBuffer basicOutputBuffer = new BasicOutputBuffer();
+        new BsonDocumentCodec().encode(new BsonBinaryWriter(basicOutputBuffer), BsonDocument.parse(json), EncoderContext.builder()
+            .build());
+        return basicOutputBuffer.toByteArray();
+    }
+
+    private static String repeated(final int count) {
+
+        final StringBuilder b = new StringBuilder("{\"values\":[");
+        for (int i = 0; i < count; ++i) {
+            b.append("{\"name\":\"abc\",\"fei\":\"def\"},");
+        }
+        b.append("{}]}");
+        return b.toString();
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+
+        final byte[] raw = bson(repeated(100));
+        final DoxContentCodec codec = new DoxContentCodec(CompressionType.DEFLATE, null);
+        final byte[] stored = codec.encode(raw);
+        assertTrue(DoxContentCodec.isCompressed(stored));
+        assertTrue(stored.length < raw.length);
+        assertArrayEquals(raw, codec.decode(stored));
+    }
+
+    @Test
+    public void testDeflateWithDictionary() throws Exception {
+
+        final byte[] raw = bson(repeated(10));
+        final DoxContentCodec codec = new DoxContentCodec(CompressionType.DEFLATE, "{\"name\":\"abc\",\"fei\":\"def\"}".getBytes("UTF-8"));
+        final byte[] stored = codec.encode(raw);
+        assertTrue(DoxContentCodec.isCompressed(stored));
+        assertArrayEquals(raw, codec.decode(stored));
+        try {
+            DoxContentCodec.NONE.decode(stored);
+            fail();
+        } catch (final PersistenceException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("is not available"));
+        }
+    }
+
+    @Test
+    public void testDictionaryIsRegisteredAtStartup() throws Exception {
+
+        final ConfigurationProvider configurationProvider = new XmlConfigurationProvider("abstractbeantest-dox.xml");
+        final byte[] raw = bson(repeated(10));
+        final byte[] stored = new DoxContentCodecBean().forCollection(configurationProvider.getCollection("compressed")).encode(raw);
+        assertTrue(DoxContentCodec.isCompressed(stored));
+
+        final DoxContentCodecBean notStarted = new DoxContentCodecBean();
+        notStarted.setConfigurationProvider(configurationProvider);
+        try {
+            notStarted.decode(stored);
+            fail();
+        } catch (final PersistenceException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("is not available"));
+        }
+
+        final DoxContentCodecBean started = new DoxContentCodecBean();
+        started.setConfigurationProvider(configurationProvider);
+        started.init();
+        assertArrayEquals(raw, started.decode(stored));
+        assertEquals(1, started.getStatistics().getInt("decoded_count"));
+    }
+
+    @Test
+    public void testIncompressibleIsStoredAsIs() throws Exception {
+
+        final byte[] raw = bson("{}");
+        assertSame(raw, new DoxContentCodec(CompressionType.DEFLATE, null).encode(raw));
+        assertFalse(DoxContentCodec.isCompressed(raw));
+    }
+
+    @Test
+    public void testNone() throws Exception {
+
+        final byte[] raw = bson(repeated(100));
+        final byte[] stored = DoxContentCodec.NONE.encode(raw);
+        assertSame(raw, stored);
+        assertFalse(DoxContentCodec.isCompressed(stored));
+        assertSame(raw, DoxContentCodec.NONE.decode(stored));
+    }
+}
@@ -1,6 +1,8 @@
 package net.trajano.doxdb.sample.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.StringReader;
 
@@ -13,9 +15,42 @@ import org.junit.Test;
 
 import net.trajano.doxdb.DoxID;
 import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.DoxProjection;
+import net.trajano.doxdb.ejb.DoxContentCodecBean;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+import net.trajano.doxdb.internal.DoxContentCodec;
 
 public class DoxBeanTest extends AbstractBeanTest {
 
+    /**
+     * Records of a compressed collection are read back after a restart, that
+     * is with codecs that did not encode them.
+     */
+    @Test
+    public void testCompressedCollection() throws Exception {
+
+        tx.begin();
+        final String inputJson = "{\"name\":\"abc abc abc abc abc abc abc abc abc abc abc abc\",\"fei\":\"def\",\"color\":\"brown\"}";
+        final DoxMeta meta = bean.create("compressed", Json.createReader(new StringReader(inputJson)).readObject());
+        tx.commit();
+        em.clear();
+        emf.getCache().evictAll();
+
+        final byte[] stored = (byte[]) em.createNativeQuery("select CONTENT from DOX where DOXID = '" + meta.getDoxId() + "'").getSingleResult();
+        assertTrue(DoxContentCodec.isCompressed(stored));
+
+        final DoxContentCodecBean restarted = new DoxContentCodecBean();
+        restarted.setConfigurationProvider(new XmlConfigurationProvider("abstractbeantest-dox.xml"));
+        restarted.init();
+        bean.setContentCodecs(restarted);
+
+        tx.begin();
+        assertEquals("def", bean.read("compressed", meta.getDoxId()).getContent().getString("fei"));
+        assertEquals("brown", bean.read("compressed", meta.getDoxId(), new DoxProjection("color")).getContent().getString("color"));
+        assertTrue(bean.readAll("compressed").contains("\"fei\":\"def\""));
+        tx.commit();
+    }
+
     @Test
     public void testCreate() throws Exception {
 
@@ -86,6 +121,25 @@ public class DoxBeanTest extends AbstractBeanTest {
         }
     }
 
+    @Test
+    public void testReadProjection() throws Exception {
+
+        tx.begin();
+        final String inputJson = "{\"name\":\"abc\",\"fei\":\"def\",\"color\":\"brown\"}";
+        final DoxMeta meta = bean.create("horse", Json.createReader(new StringReader(inputJson)).readObject());
+
+        final JsonObject projected = bean.read("horse", meta.getDoxId(), new DoxProjection("name, color")).getContent();
+        assertEquals("abc", projected.getString("name"));
+        assertEquals("brown", projected.getString("color"));
+        assertEquals(meta.getDoxId().toString(), projected.getString("_id"));
+        assertFalse(projected.containsKey("fei"));
+
+        final JsonObject all = Json.createReader(new StringReader(bean.readAll("horse", new DoxProjection("fei")))).readArray().getJsonObject(0);
+        assertEquals("def", all.getString("fei"));
+        assertFalse(all.containsKey("name"));
+        tx.commit();
+    }
+
     @Test(expected = PersistenceException.class)
     public void testFailDuplicateCreate() throws Exception {
 
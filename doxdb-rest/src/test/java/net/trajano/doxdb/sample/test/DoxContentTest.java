@@ -0,0 +1,56 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import javax.json.Json;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.junit.Test;
+
+import net.trajano.doxdb.Dox;
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.internal.JsonBsonCodec;
+
+/**
+ * Tests the content handling of {@link Dox}.
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxContentTest {
+
+    @Test
+    public void testContentIsMemoized() throws Exception {
+
+        final Dox dox = new Dox();
+        dox.setDoxId(DoxID.generate());
+        dox.setContent("{\"name\":\"abc\"}");
+
+        assertSame(dox.getJsonObject(), dox.getJsonObject());
+        assertSame(dox.getJsonContent(), dox.getJsonContent());
+        assertEquals("abc", dox.getJsonObject().getString("name"));
+
+        dox.getContent().put("name", new BsonString("mutated"));
+        assertEquals(new BsonString("abc"), dox.getContent().get("name"));
+
+        dox.setContent("{\"name\":\"xyz\"}");
+        assertEquals("xyz", dox.getJsonObject().getString("name"));
+        assertEquals(new BsonString("xyz"), dox.getContent().get("name"));
+    }
+
+    @Test
+    public void testPooledEncodeReturnsIndependentArrays() throws Exception {
+
+        final Dox dox = new Dox();
+        dox.setDoxId(DoxID.generate());
+        dox.setContent(BsonDocument.parse("{\"name\":\"a long value that fills the buffer\"}"));
+        final byte[] first = JsonBsonCodec.encode(dox.getJsonObject());
+        final byte[] second = JsonBsonCodec.encode(Json.createObjectBuilder()
+            .add("x", 1)
+            .build());
+        assertNotSame(first, second);
+        assertEquals(dox.getJsonObject(), JsonBsonCodec.decode(first));
+    }
+}
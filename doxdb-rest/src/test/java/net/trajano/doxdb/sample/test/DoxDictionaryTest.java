@@ -0,0 +1,67 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+
+import javax.json.Json;
+
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxDictionary;
+import net.trajano.doxdb.DoxMeta;
+
+/**
+ * Tests {@link net.trajano.doxdb.ejb.DoxDictionaryBean}.
+ *
+ * @author Archimedes Trajano
+ */
+public class DoxDictionaryTest extends AbstractBeanTest {
+
+    @Test
+    public void testCreateUsesDictionary() throws Exception {
+
+        tx.begin();
+        final DoxMeta meta = bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\"}")).readObject());
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"xyz\"}")).readObject());
+        tx.commit();
+
+        assertEquals("horse", meta.getCollectionName());
+        assertEquals(1, em.createQuery("select count(e) from DoxDictionary e where e.kind = :kind", Long.class)
+            .setParameter("kind", DoxDictionary.COLLECTION)
+            .getSingleResult()
+            .intValue());
+        assertEquals(1, bean.getStatistics().getJsonObject("dictionary").getInt("collections"));
+        assertEquals(1, bean.getStatistics().getJsonObject("dictionary").getInt("lookups"));
+        assertEquals(1, bean.getStatistics().getJsonObject("dictionary").getInt("principals"));
+
+        tx.begin();
+        assertEquals("ANONYMOUS", bean.read("horse", meta.getDoxId()).getCreatedBy().getName());
+        tx.commit();
+    }
+
+    @Test
+    public void testGetIsCached() {
+
+        tx.begin();
+        final DoxDictionary entry = dictionary.collection("horse");
+        tx.commit();
+
+        assertSame(entry, dictionary.collection("horse"));
+        assertSame(entry, dictionary.find(DoxDictionary.COLLECTION, "horse"));
+        assertNull(dictionary.find(DoxDictionary.LOOKUP, "horse"));
+    }
+
+    @Test
+    public void testReadUnknownLookupName() {
+
+        tx.begin();
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\"}")).readObject());
+        tx.commit();
+
+        assertEquals(0, bean.readByLookup("horse", "unknown", "abc").size());
+        assertNull(dictionary.find(DoxDictionary.LOOKUP, "unknown"));
+    }
+}
@@ -0,0 +1,172 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.RangeChecksum;
+import net.trajano.doxdb.ejb.EsJaxRsProvider;
+import net.trajano.doxdb.ejb.EsJaxRsSearchBean;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests the requests {@link EsJaxRsSearchBean} sends to ElasticSearch and how
+ * it reads the responses.
+ *
+ * @author Archimedes Trajano
+ */
+public class EsJaxRsSearchTest {
+
+    /**
+     * Parses JSON written with single quotes.
+     *
+     * @param json
+     *            JSON with single quotes
+     * @return JSON object
+     */
+    private static JsonObject json(final String json) {
+
+        return Json.createReader(new StringReader(json.replace('\'', '"'))).readObject();
+    }
+
+    private Invocation.Builder request;
+
+    private EsJaxRsSearchBean searchBean;
+
+    private WebTarget target;
+
+    /**
+     * Gets the entity that was posted.
+     *
+     * @return entity
+     */
+    private Object posted() {
+
+        @SuppressWarnings("rawtypes")
+        final ArgumentCaptor<Entity> entity = ArgumentCaptor.forClass(Entity.class);
+        verify(request).post(entity.capture());
+        return entity.getValue().getEntity();
+    }
+
+    /**
+     * Sets the response to the requests.
+     *
+     * @param json
+     *            JSON with single quotes
+     */
+    private void respond(final String json) {
+
+        final Response response = mock(Response.class);
+        when(response.readEntity(JsonObject.class)).thenReturn(json(json));
+        when(request.post(any(Entity.class))).thenReturn(response);
+    }
+
+    @Before
+    public void setUpSearch() {
+
+        target = mock(WebTarget.class);
+        request = mock(Invocation.Builder.class);
+        when(target.path(anyString())).thenReturn(target);
+        when(target.request(MediaType.APPLICATION_JSON)).thenReturn(request);
+        final EsJaxRsProvider provider = mock(EsJaxRsProvider.class);
+        when(provider.getTarget()).thenReturn(target);
+
+        searchBean = new EsJaxRsSearchBean();
+        searchBean.setConfigurationProvider(new XmlConfigurationProvider("abstractbeantest-dox.xml"));
+        searchBean.setJestProvider(provider);
+    }
+
+    @Test
+    public void testBulkAddStoresTheHash() {
+
+        respond("{'items':[]}");
+        final IndexView indexView = new IndexView().setIndex("myindex")
+            .setString("name", "abc");
+        indexView.setCollection("horse");
+        final DoxID doxId = DoxID.generate();
+        indexView.setDoxID(doxId);
+        indexView.setDoxRecordId(5);
+        indexView.setVersion(2);
+        searchBean.bulkAddToIndex(indexView);
+
+        verify(target).path("_bulk");
+        final String[] lines = ((String) posted()).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(json("{'index':{'_index':'testIndex1','_type':'horse','_id':'" + doxId + "'}}"), json(lines[0]));
+        final JsonObject meta = json(lines[1]).getJsonObject("_");
+        assertEquals(5, meta.getInt("recordId"));
+        assertEquals(2, meta.getInt("version"));
+        assertEquals(RangeChecksum.hash(5, 2), meta.getJsonNumber("checksum").longValue());
+    }
+
+    @Test
+    public void testChecksums() {
+
+        respond("{'hits':{'total':2,'hits':[]},'aggregations':{'ranges':{'buckets':["
+            + "{'key':'1.0-101.0','from':1.0,'to':101.0,'doc_count':2,'checksum':{'value':3.5E9},'last':{'value':57.0}},"
+            + "{'key':'101.0-201.0','from':101.0,'to':201.0,'doc_count':0,'checksum':{'value':0.0},'last':{'value':null}}]}}}");
+
+        final RangeChecksum[] checksums = searchBean.checksums("myindex", "horse", new long[] {
+            0,
+            100,
+            200
+        });
+
+        verify(target).path("testIndex1");
+        verify(target).path("horse");
+        verify(target).path("_search");
+        assertEquals(json("{'size':0,'aggs':{'ranges':{"
+            + "'range':{'field':'_.recordId','ranges':[{'from':1,'to':101},{'from':101,'to':201}]},"
+            + "'aggs':{'checksum':{'sum':{'field':'_.checksum'}},'last':{'max':{'field':'_.recordId'}}}}}}"), posted());
+        assertEquals(2, checksums.length);
+        assertEquals(2, checksums[0].getCount());
+        assertEquals(3500000000L, checksums[0].getHashSum());
+        assertEquals(57, checksums[0].getMaxRecordId());
+        assertSame(RangeChecksum.EMPTY, checksums[1]);
+    }
+
+    @Test
+    public void testReadHashes() {
+
+        final DoxID hashed = DoxID.generate();
+        final DoxID unhashed = DoxID.generate();
+        respond("{'hits':{'total':2,'hits':["
+            + "{'_index':'testIndex1','_type':'horse','_id':'" + hashed + "','_score':1.0,'fields':{'_.checksum':[1234567890]}},"
+            + "{'_index':'testIndex1','_type':'horse','_id':'" + unhashed + "','_score':1.0}]}}");
+
+        final Map<DoxID, Long> hashes = searchBean.readHashes("myindex", "horse", 100, 200, 256);
+
+        verify(target).path("testIndex1");
+        verify(target).path("horse");
+        verify(target).path("_search");
+        assertEquals(json("{'size':256,'_source':false,'fielddata_fields':['_.checksum'],"
+            + "'query':{'range':{'_.recordId':{'gt':100,'lte':200}}}}"), posted());
+        assertEquals(2, hashes.size());
+        assertEquals(Long.valueOf(1234567890L), hashes.get(hashed));
+        assertTrue(hashes.containsKey(unhashed));
+        assertNull(hashes.get(unhashed));
+    }
+}
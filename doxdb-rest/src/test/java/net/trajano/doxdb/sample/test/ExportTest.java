@@ -0,0 +1,539 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import javax.ejb.SessionContext;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.persistence.PersistenceException;
+import javax.transaction.Status;
+import javax.transaction.UserTransaction;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.ejb.DoxImportBean;
+import net.trajano.doxdb.ejb.DoxLookupBuildBean;
+import net.trajano.doxdb.ejb.internal.DoxSegmentReader;
+import net.trajano.doxdb.ejb.internal.DoxSegmentWriter;
+import net.trajano.doxdb.ext.CollectionAccessControl;
+import net.trajano.doxdb.ext.DefaultEventHandler;
+import net.trajano.doxdb.ext.Indexer;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests the export of records to files.
+ *
+ * @author Archimedes Trajano
+ */
+public class ExportTest extends AbstractBeanTest {
+
+    /**
+     * Runs the bean managed transactions of the import on the test entity
+     * manager.
+     */
+    private class EntityUserTransaction implements
+        UserTransaction {
+
+        @Override
+        public void begin() {
+
+            tx.begin();
+        }
+
+        @Override
+        public void commit() {
+
+            tx.commit();
+            em.clear();
+        }
+
+        @Override
+        public int getStatus() {
+
+            return tx.isActive() ? Status.STATUS_ACTIVE : Status.STATUS_NO_TRANSACTION;
+        }
+
+        @Override
+        public void rollback() {
+
+            tx.rollback();
+            em.clear();
+        }
+
+        @Override
+        public void setRollbackOnly() {
+
+            tx.setRollbackOnly();
+        }
+
+        @Override
+        public void setTransactionTimeout(final int seconds) {
+
+        }
+    }
+
+    private ExecutorService executorService;
+
+    private DoxID firstHorse;
+
+    private final byte[] photo = new byte[300];
+
+    private DoxID photoUser;
+
+    private DoxImportBean importBean;
+
+    private void deleteAll() {
+
+        tx.begin();
+        for (final String table : new String[] {
+            "DOXOOB",
+            "DOXTOMBSTONE",
+            "DOXUNIQUE",
+            "DOXLOOKUP",
+            "DOX"
+        }) {
+            em.createNativeQuery("delete from " + table).executeUpdate();
+        }
+        tx.commit();
+        em.clear();
+    }
+
+    private int count(final String table) {
+
+        return ((Number) em.createNativeQuery("select count(*) from " + table).getSingleResult()).intValue();
+    }
+
+    private JsonObject horse(final String name,
+        final String color) {
+
+        return Json.createObjectBuilder().add("name", name).add("color", color).build();
+    }
+
+    private Set<String> files(final Path directory) throws IOException {
+
+        final Set<String> files = new TreeSet<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                final BasicFileAttributes attrs) {
+
+                files.add(directory.relativize(file).toString());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    @Before
+    public void setUpExport() {
+
+        final JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL((String) emf.getProperties().get("javax.persistence.jdbc.url"));
+
+        executorService = Executors.newFixedThreadPool(4);
+        importBean = new DoxImportBean();
+        importBean.setConfigurationProvider(new XmlConfigurationProvider("abstractbeantest-dox.xml"));
+        importBean.setContentCodecs(contentCodecs);
+        importBean.setDoxDataSource(dataSource);
+        importBean.setExecutor(mock(ManagedExecutorService.class, AdditionalAnswers.delegatesTo(executorService)));
+        importBean.setOobStore(oobStore);
+        importBean.setReplica(replica);
+        importBean.setUserTransaction(mock(UserTransaction.class));
+        importBean.setEntityManager(em);
+        importBean.setDictionary(dictionary);
+        importBean.setDoxSearchBean(doxSearchBean);
+        importBean.setEventHandler(new DefaultEventHandler());
+        importBean.setIndexer(new Indexer() {
+
+            @Override
+            public IndexView[] buildIndexViews(final String collection,
+                final String json) {
+
+                return new IndexView[0];
+            }
+        });
+        importBean.setCollectionAccessControl(new CollectionAccessControl() {
+
+            @Override
+            public byte[] buildAccessKey(final String collection,
+                final String json,
+                final String principal) {
+
+                return null;
+            }
+        });
+
+        new Random(1).nextBytes(photo);
+        tx.begin();
+        for (int i = 0; i < 20; ++i) {
+            final DoxID horseId = bean.create("horse", horse("horse" + i, "brown")).getDoxId();
+            if (i == 0) {
+                firstHorse = horseId;
+            }
+            final DoxID doxId = bean.create("user", Json.createReader(new StringReader("{\"email\":\"user" + i + "@foryou.com\",\"encodedPassword\":\"abc\",\"name\":\"user" + i + "\",\"roles\":[]}")).readObject()).getDoxId();
+            if (i == 3) {
+                photoUser = doxId;
+            }
+            if (i % 3 == 0) {
+                bean.writeOob("user", doxId, "photo", "image/png", new ByteArrayInputStream(i == 3 ? photo : new byte[i * 100]));
+                bean.writeOob("user", doxId, "thumbnail", "image/png", new ByteArrayInputStream(new byte[i]));
+            }
+        }
+        tx.commit();
+        em.clear();
+    }
+
+    @After
+    public void tearDownExport() {
+
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testDeferredImportBuildsLookupsAfterLoad() throws Exception {
+
+        final int uniques = count("DOXUNIQUE");
+        final Path export = testFolder.newFolder().toPath();
+        importBean.exportDoxToSegments(export.toString(), null, null);
+        deleteAll();
+
+        final DoxLookupBuildBean lookupBuild = new DoxLookupBuildBean();
+        lookupBuild.setConfigurationProvider(new XmlConfigurationProvider("abstractbeantest-dox.xml"));
+        lookupBuild.setContentCodecs(contentCodecs);
+        lookupBuild.setDictionary(dictionary);
+        lookupBuild.setEntityManager(em);
+        lookupBuild.setSessionContext(mock(SessionContext.class));
+        lookupBuild.setUniqueCache(uniqueCache);
+        lookupBuild.setUserTransaction(new EntityUserTransaction());
+        importBean.setLookupBuild(lookupBuild);
+        importBean.setUserTransaction(new EntityUserTransaction());
+        final JsonObject searchSettings = Json.createObjectBuilder().build();
+        when(doxSearchBean.beginBulkLoad()).thenReturn(searchSettings);
+
+        final JsonObject importStats = importBean.importDox(export.toString(), 2, 7, true, true);
+        em.clear();
+        assertEquals(importStats.toString(), 0, importStats.getJsonArray("failures").size());
+        assertEquals(40, importStats.getInt("number_of_indexed_documents"));
+        assertTrue(importStats.getJsonObject("lookups").getJsonArray("lookups").size() > 0);
+        assertEquals(uniques, count("DOXUNIQUE"));
+        verify(doxSearchBean).beginBulkLoad();
+        verify(doxSearchBean).endBulkLoad(searchSettings);
+        verify(doxSearchBean, never()).addToIndex(any(IndexView[].class));
+    }
+
+    @Test
+    public void testMergeAppliesDeltaExport() throws Exception {
+
+        final Path full = testFolder.newFolder().toPath();
+        importBean.exportDoxToSegments(full.toString(), null, null);
+        Thread.sleep(10);
+        final Date from = new Date();
+        Thread.sleep(10);
+
+        tx.begin();
+        final DoxMeta added = bean.create("horse", horse("added", "black"));
+        bean.update("horse", firstHorse, horse("horse0", "white"), 1);
+        bean.deleteOob("user", photoUser, "photo");
+        bean.deleteOob("user", photoUser, "thumbnail");
+        bean.delete("user", photoUser, 1, Json.createObjectBuilder().build());
+        tx.commit();
+        em.clear();
+        tx.begin();
+        bean.update("horse", added.getDoxId(), horse("added", "white"), added.getVersion());
+        tx.commit();
+        em.clear();
+
+        final Path delta = testFolder.newFolder().toPath();
+        final JsonObject deltaStats = importBean.exportDoxToSegments(delta.toString(), null, from);
+        assertEquals(2, deltaStats.getInt("number_of_exported_documents"));
+        assertEquals(1, deltaStats.getInt("number_of_exported_tombstones"));
+
+        deleteAll();
+        importBean.setUserTransaction(new EntityUserTransaction());
+        importBean.setUniqueCache(uniqueCache);
+        importBean.importDox(full.toString(), 2, 100);
+        em.clear();
+
+        final JsonObject stats = importBean.mergeDox(delta.toString(), 2, 100);
+        em.clear();
+        assertEquals(stats.toString(), 0, stats.getJsonArray("failures").size());
+        assertEquals(1, stats.getInt("number_of_inserted_documents"));
+        assertEquals(1, stats.getInt("number_of_updated_documents"));
+        assertEquals(1, stats.getInt("number_of_deleted_documents"));
+        assertEquals(0, stats.getInt("number_of_unchanged_documents"));
+        assertEquals(40, count("DOX"));
+        assertEquals(12, count("DOXOOB"));
+        assertEquals(1, count("DOXTOMBSTONE"));
+        assertEquals(2, ((Number) em.createNativeQuery("select version from DOX where DOXID = '" + added.getDoxId() + "'").getSingleResult()).intValue());
+        assertEquals(2, ((Number) em.createNativeQuery("select version from DOX where DOXID = '" + firstHorse + "'").getSingleResult()).intValue());
+        verify(doxSearchBean, times(2)).removeFromIndex("user", photoUser);
+
+        final JsonObject again = importBean.mergeDox(delta.toString(), 1, 100);
+        em.clear();
+        assertEquals(0, again.getInt("number_of_inserted_documents"));
+        assertEquals(0, again.getInt("number_of_updated_documents"));
+        assertEquals(0, again.getInt("number_of_deleted_documents"));
+        assertEquals(3, again.getInt("number_of_unchanged_documents"));
+    }
+
+    @Test(timeout = 60000)
+    public void testErrorInParseTaskEndsImport() throws Exception {
+
+        final Path export = testFolder.newFolder().toPath();
+        importBean.exportDox(export.toString(), null, null);
+        deleteAll();
+
+        importBean.setCollectionAccessControl(new CollectionAccessControl() {
+
+            @Override
+            public byte[] buildAccessKey(final String collection,
+                final String json,
+                final String principal) {
+
+                throw new NoClassDefFoundError("AccessKeyBuilder");
+            }
+        });
+        importBean.setUserTransaction(new EntityUserTransaction());
+        try {
+            importBean.importDox(export.toString(), 1, 7);
+            fail();
+        } catch (final PersistenceException e) {
+            assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+    }
+
+    @Test
+    public void testParallelImportReportsFailedRecords() throws Exception {
+
+        final Path export = testFolder.newFolder().toPath();
+        importBean.exportDox(export.toString(), null, null);
+        final Set<String> exported = files(export);
+        Files.copy(export.resolve(exported.iterator().next()), export.resolve("duplicate.dox"));
+        Files.write(export.resolve("garbage.dox"), new byte[] {
+            1,
+            2,
+            3
+        });
+        deleteAll();
+
+        importBean.setUserTransaction(new EntityUserTransaction());
+        final JsonObject importStats = importBean.importDox(export.toString(), 3, 7);
+        em.clear();
+        assertEquals(42, importStats.getInt("number_of_imported_documents"));
+        assertEquals(importStats.toString(), 2, importStats.getJsonArray("failures").size());
+        assertEquals(40, count("DOX"));
+    }
+
+    @Test
+    public void testSegmentIndexLocatesRecords() throws Exception {
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final JsonObject stats = importBean.exportDox(os, null, null);
+        assertEquals(40, stats.getInt("number_of_exported_documents"));
+        assertEquals(1, stats.getInt("segments"));
+
+        final byte[] segment = os.toByteArray();
+        int records = 0;
+        try (final DoxSegmentReader reader = new DoxSegmentReader(new ByteArrayInputStream(segment))) {
+            JsonObject line;
+            while ((line = reader.next()) != null) {
+                if ("dox".equals(line.getString("type"))) {
+                    ++records;
+                }
+            }
+            assertEquals(40, records);
+            assertTrue(reader.isComplete());
+
+            final JsonArray entry = reader.getIndex().getJsonArray("entries").getJsonArray(25);
+            final InputStream is = new ByteArrayInputStream(segment);
+            is.skip(entry.getJsonNumber(2).longValue());
+            boolean found = false;
+            try (final BufferedReader block = new BufferedReader(new InputStreamReader(new GZIPInputStream(is), StandardCharsets.UTF_8))) {
+                String blockLine;
+                while (!found && (blockLine = block.readLine()) != null) {
+                    found = blockLine.contains("\"doxId\":\"" + entry.getString(1) + "\"");
+                }
+            }
+            assertTrue(found);
+        }
+    }
+
+    @Test
+    public void testSegmentsRoundTrip() throws Exception {
+
+        final Path segments = testFolder.newFolder().toPath();
+        final JsonObject stats = importBean.exportDoxToSegments(segments.toString(), null, null);
+        assertEquals(40, stats.getInt("number_of_exported_documents"));
+        assertEquals(14, stats.getInt("number_of_exported_oobs"));
+        assertTrue(Files.exists(segments.resolve("manifest.json")));
+        assertEquals(2, files(segments).size());
+
+        deleteAll();
+
+        importBean.setUserTransaction(new EntityUserTransaction());
+        final JsonObject importStats = importBean.importDox(segments.toString(), 2, 100);
+        em.clear();
+        assertEquals(importStats.toString(), 0, importStats.getJsonArray("failures").size());
+        assertEquals(40, importStats.getInt("number_of_imported_documents"));
+        assertEquals(14, count("DOXOOB"));
+
+        tx.begin();
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        bean.readOob("user", photoUser, "photo", bean.readOobMeta("user", photoUser, "photo").getContentHash(), 0, photo.length, os);
+        tx.commit();
+        em.clear();
+        assertArrayEquals(photo, os.toByteArray());
+    }
+
+    @Test
+    public void testLargeAttachmentIsStreamedThroughSegment() throws Exception {
+
+        final byte[] scan = new byte[5 * DoxSegmentWriter.BLOCK_SIZE];
+        new Random(2).nextBytes(scan);
+        tx.begin();
+        bean.writeOob("user", photoUser, "scan", "image/png", new ByteArrayInputStream(scan));
+        tx.commit();
+        em.clear();
+
+        final Path segments = testFolder.newFolder().toPath();
+        importBean.exportDoxToSegments(segments.toString(), null, null);
+        try (final DoxSegmentReader reader = new DoxSegmentReader(Files.newInputStream(segments.resolve("segment-00000.doxs")))) {
+            JsonObject line;
+            while ((line = reader.next()) != null) {
+                if ("scan".equals(line.getString("name", null))) {
+                    assertFalse(line.containsKey("content"));
+                    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    final InputStream is = reader.openContent();
+                    final byte[] buffer = new byte[4096];
+                    int n;
+                    while ((n = is.read(buffer)) != -1) {
+                        content.write(buffer, 0, n);
+                    }
+                    assertArrayEquals(scan, content.toByteArray());
+                }
+            }
+            assertTrue(reader.isComplete());
+        }
+
+        deleteAll();
+
+        importBean.setUserTransaction(new EntityUserTransaction());
+        final JsonObject importStats = importBean.importDox(segments.toString(), 2, 7);
+        em.clear();
+        assertEquals(importStats.toString(), 0, importStats.getJsonArray("failures").size());
+        assertEquals(15, count("DOXOOB"));
+
+        tx.begin();
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        bean.readOob("user", photoUser, "scan", bean.readOobMeta("user", photoUser, "scan").getContentHash(), 0, scan.length, os);
+        bean.readOob("user", photoUser, "photo", bean.readOobMeta("user", photoUser, "photo").getContentHash(), 0, photo.length, os);
+        tx.commit();
+        em.clear();
+        final byte[] read = os.toByteArray();
+        assertArrayEquals(scan, Arrays.copyOf(read, scan.length));
+        assertArrayEquals(photo, Arrays.copyOfRange(read, scan.length, read.length));
+    }
+
+    @Test
+    public void testTruncatedSegmentIsReportedAsFailure() throws Exception {
+
+        final Path segments = testFolder.newFolder().toPath();
+        importBean.exportDoxToSegments(segments.toString(), null, null);
+        final byte[] segment = Files.readAllBytes(segments.resolve("segment-00000.doxs"));
+        Files.write(segments.resolve("segment-00001.doxs"), Arrays.copyOf(segment, segment.length / 2));
+        Files.write(segments.resolve("manifest.json"), Json.createObjectBuilder()
+            .add("format", "segments")
+            .add("segments", Json.createArrayBuilder()
+                .add(Json.createObjectBuilder().add("name", "segment-00001.doxs"))
+                .add(Json.createObjectBuilder().add("name", "segment-00000.doxs")))
+            .build()
+            .toString()
+            .getBytes(StandardCharsets.UTF_8));
+
+        deleteAll();
+
+        importBean.setUserTransaction(new EntityUserTransaction());
+        final JsonObject importStats = importBean.importDox(segments.toString(), 2, 7);
+        em.clear();
+        assertEquals(importStats.toString(), 1, importStats.getJsonArray("failures").size());
+        assertEquals("segment-00001.doxs", importStats.getJsonArray("failures").getJsonObject(0).getString("file"));
+        assertEquals(40, importStats.getInt("number_of_imported_documents"));
+        assertEquals(40, count("DOX"));
+        assertEquals(14, count("DOXOOB"));
+    }
+
+    @Test
+    public void testParallelExportMatchesSequentialExport() throws Exception {
+
+        final Path sequential = testFolder.newFolder().toPath();
+        final Path parallel = testFolder.newFolder().toPath();
+
+        final JsonObject sequentialStats = importBean.exportDox(sequential.toString(), null, null);
+        final JsonObject parallelStats = importBean.exportDox(parallel.toString(), null, null, 4);
+
+        assertEquals(40, sequentialStats.getInt("number_of_exported_documents"));
+        assertEquals(40, parallelStats.getInt("number_of_exported_documents"));
+        assertEquals(14, parallelStats.getInt("number_of_exported_oobs"));
+        assertEquals(4, parallelStats.getJsonArray("workers").size());
+        assertEquals(sequentialStats.getString("most_recent_update_on"), parallelStats.getString("most_recent_update_on"));
+        assertEquals(40, files(parallel).size());
+        assertEquals(files(sequential), files(parallel));
+    }
+
+    @Test
+    public void testParallelExportStreamsAttachments() throws Exception {
+
+        final Path parallel = testFolder.newFolder().toPath();
+        importBean.exportDox(parallel.toString(), null, null, 2);
+
+        int withAttachments = 0;
+        for (final String file : files(parallel)) {
+            if (new String(Files.readAllBytes(parallel.resolve(file)), "US-ASCII").contains("filename=photo")) {
+                ++withAttachments;
+            }
+        }
+        assertEquals(7, withAttachments);
+    }
+}
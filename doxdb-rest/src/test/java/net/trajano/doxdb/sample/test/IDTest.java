@@ -1,8 +1,12 @@
 package net.trajano.doxdb.sample.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.Callable;
 
 import org.junit.Test;
@@ -12,6 +16,17 @@ import net.trajano.doxdb.DoxID;
 
 public class IDTest {
 
+    @Test
+    public void testBinaryForm() throws Exception {
+
+        final DoxID generated = DoxID.generate();
+        assertTrue(generated.isBinary());
+        final byte[] bytes = generated.toByteArray();
+        assertEquals(DoxID.BINARY_LENGTH, bytes.length);
+        assertEquals(generated, new DoxID(bytes));
+        assertArrayEquals(bytes, new DoxID(generated.toString()).toByteArray());
+    }
+
     @Test
     public void testEqualsHashCodeToString() throws Exception {
 
@@ -46,6 +61,17 @@ public class IDTest {
         assertEquals(generated.hashCode(), rebuilt.hashCode());
     }
 
+    @Test
+    public void testHashSpread() throws Exception {
+
+        final Set<Integer> hashes = new HashSet<>();
+        for (int i = 0; i < 10000; ++i) {
+            hashes.add(DoxID.generate().hashCode());
+            hashes.add(new DoxID(String.format("%031dg", i)).hashCode());
+        }
+        assertTrue(hashes.size() > 19990);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidCharacter() throws Exception {
 
@@ -58,12 +84,30 @@ public class IDTest {
         new DoxID("0123456789012345678901234567890A");
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCharacter3() throws Exception {
+
+        new DoxID("0123456789012345678901234567890\u0100");
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidLength() throws Exception {
 
         new DoxID("01234567890123");
     }
 
+    @Test
+    public void testLegacyForm() throws Exception {
+
+        final String legacy = "0123456789abcdefghijklmnopqrstuv";
+        final DoxID id = new DoxID(legacy);
+        assertFalse(id.isBinary());
+        assertEquals(-1, id.getTimestamp());
+        assertEquals(legacy, id.toString());
+        assertEquals(id, new DoxID(legacy));
+        assertEquals(id.hashCode(), new DoxID(legacy).hashCode());
+    }
+
     @Test
     public void testRandomness() throws Exception {
 
@@ -75,4 +119,16 @@ public class IDTest {
         assertFalse(generated.equals(DoxID.generate()));
     }
 
+    @Test
+    public void testTimeOrdered() throws Exception {
+
+        final long start = System.currentTimeMillis();
+        final DoxID first = DoxID.generate();
+        Thread.sleep(2);
+        final DoxID second = DoxID.generate();
+        assertTrue(first.getTimestamp() >= start);
+        assertTrue(first.getTimestamp() < second.getTimestamp());
+        assertTrue(first.toString().compareTo(second.toString()) < 0);
+    }
+
 }
@@ -0,0 +1,333 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.SessionContext;
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.IndexView;
+import net.trajano.doxdb.RangeChecksum;
+import net.trajano.doxdb.SearchResult;
+import net.trajano.doxdb.ejb.DoxContentCodecBean;
+import net.trajano.doxdb.ejb.DoxIndexCheckBean;
+import net.trajano.doxdb.ejb.DoxSearch;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.Indexer;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests {@link DoxIndexCheckBean} against an index kept in memory.
+ *
+ * @author Archimedes Trajano
+ */
+public class IndexCheckTest extends AbstractBeanTest {
+
+    /**
+     * Search index kept in memory with a single index.
+     */
+    private static final class InMemorySearch implements
+        DoxSearch {
+
+        /**
+         * Number of times the hashes of a range were read.
+         */
+        private int hashReads;
+
+        private final Map<DoxID, IndexView> views = new LinkedHashMap<>();
+
+        @Override
+        public void addToIndex(final IndexView... indexViews) {
+
+            for (final IndexView indexView : indexViews) {
+                views.put(indexView.getDoxID(), indexView);
+            }
+        }
+
+        @Override
+        public SearchResult advancedSearch(final String index,
+            final JsonObject query) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SearchResult advancedSearch(final String sourceIndex,
+            final String collectionName,
+            final JsonObject query) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JsonObject beginBulkLoad() {
+
+            return Json.createObjectBuilder().build();
+        }
+
+        @Override
+        public void bulkAddToIndex(final IndexView... indexViews) {
+
+            addToIndex(indexViews);
+        }
+
+        @Override
+        public RangeChecksum[] checksums(final String index,
+            final String collectionName,
+            final long[] bounds) {
+
+            final RangeChecksum[] checksums = new RangeChecksum[bounds.length - 1];
+            for (int i = 0; i < checksums.length; ++i) {
+                long count = 0;
+                long hashSum = 0;
+                long max = 0;
+                for (final IndexView view : views.values()) {
+                    if (view.getDoxRecordId() > bounds[i] && view.getDoxRecordId() <= bounds[i + 1]) {
+                        ++count;
+                        hashSum += RangeChecksum.hash(view.getDoxRecordId(), view.getVersion());
+                        max = Math.max(max, view.getDoxRecordId());
+                    }
+                }
+                checksums[i] = new RangeChecksum(count, hashSum, max);
+            }
+            return checksums;
+        }
+
+        @Override
+        public void endBulkLoad(final JsonObject previous) {
+
+        }
+
+        @Override
+        public Map<DoxID, Long> readHashes(final String index,
+            final String collectionName,
+            final long after,
+            final long until,
+            final int limit) {
+
+            ++hashReads;
+            final Map<DoxID, Long> hashes = new HashMap<>();
+            for (final IndexView view : views.values()) {
+                if (view.getDoxRecordId() > after && view.getDoxRecordId() <= until) {
+                    hashes.put(view.getDoxID(), RangeChecksum.hash(view.getDoxRecordId(), view.getVersion()));
+                }
+            }
+            return hashes;
+        }
+
+        @Override
+        public void removeFromIndex(final String collection,
+            final DoxID doxID) {
+
+            views.remove(doxID);
+        }
+
+        @Override
+        public void reset() {
+
+            views.clear();
+        }
+
+        @Override
+        public SearchResult search(final String index,
+            final String queryString,
+            final int limit,
+            final Integer fromDoc) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SearchResult searchWithSchemaName(final String index,
+            final String schemaName,
+            final String queryString,
+            final int limit,
+            final Integer fromDoc) {
+
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Number of records created, more than are compared record by record.
+     */
+    private static final int RECORDS = 400;
+
+    private DoxIndexCheckBean indexCheck;
+
+    private final List<DoxMeta> metas = new ArrayList<>();
+
+    private InMemorySearch search;
+
+    private JsonObject check(final boolean repair) {
+
+        tx.begin();
+        final JsonObject report = indexCheck.checkIndex(repair);
+        tx.commit();
+        em.clear();
+        return report.getJsonArray("collections").getJsonObject(0);
+    }
+
+    @Before
+    public void setUpIndexCheck() {
+
+        final ConfigurationProvider configurationProvider = new XmlConfigurationProvider("indexchecktest-dox.xml");
+        final Indexer indexer = new Indexer() {
+
+            @Override
+            public IndexView[] buildIndexViews(final String collection,
+                final String json) {
+
+                return new IndexView[] {
+                    new IndexView().setIndex("myindex")
+                        .setString("name", Json.createReader(new StringReader(json)).readObject().getString("name"))
+                };
+            }
+        };
+        search = new InMemorySearch();
+        contentCodecs = new DoxContentCodecBean();
+        contentCodecs.setConfigurationProvider(configurationProvider);
+        contentCodecs.init();
+        bean.setConfigurationProvider(configurationProvider);
+        bean.setContentCodecs(contentCodecs);
+        bean.setIndexer(indexer);
+        bean.setDoxSearchBean(search);
+
+        tx.begin();
+        for (int i = 0; i < RECORDS; ++i) {
+            metas.add(bean.create("horse", Json.createReader(new StringReader("{\"name\":\"H" + i + "\",\"fei\":\"F" + i + "\"}")).readObject()));
+        }
+        tx.commit();
+        em.clear();
+
+        indexCheck = new DoxIndexCheckBean();
+        indexCheck.setConfigurationProvider(configurationProvider);
+        indexCheck.setContentCodecs(contentCodecs);
+        indexCheck.setDictionary(dictionary);
+        indexCheck.setDoxSearchBean(search);
+        indexCheck.setEntityManager(em);
+        indexCheck.setIndexer(indexer);
+        indexCheck.setSessionContext(mock(SessionContext.class));
+    }
+
+    @Test
+    public void testConsistentIndexIsComparedOnce() {
+
+        final JsonObject drift = check(false);
+        assertEquals(1, drift.getInt("ranges"));
+        assertEquals(0, drift.getInt("leaves"));
+        assertEquals(0, drift.getInt("missing"));
+        assertEquals(0, drift.getInt("stale"));
+        assertEquals(0, drift.getInt("orphaned"));
+    }
+
+    @Test
+    public void testDocumentsLeftOutOfTheIndexAreNotDrift() {
+
+        // only the even horses go to the index
+        final Indexer indexer = new Indexer() {
+
+            @Override
+            public IndexView[] buildIndexViews(final String collection,
+                final String json) {
+
+                final String name = Json.createReader(new StringReader(json)).readObject().getString("name");
+                if (Integer.parseInt(name.substring(1)) % 2 != 0) {
+                    return new IndexView[0];
+                }
+                return new IndexView[] {
+                    new IndexView().setIndex("myindex")
+                        .setString("name", name)
+                };
+            }
+        };
+        indexCheck.setIndexer(indexer);
+        for (int i = 1; i < RECORDS; i += 2) {
+            search.views.remove(metas.get(i).getDoxId());
+        }
+
+        final JsonObject drift = check(false);
+        assertEquals(0, drift.getInt("missing") + drift.getInt("stale") + drift.getInt("orphaned"));
+        assertEquals(0, search.hashReads);
+
+        search.views.remove(metas.get(100).getDoxId());
+        final JsonObject missing = check(true);
+        assertEquals(1, missing.getInt("missing"));
+        assertEquals(0, missing.getInt("stale") + missing.getInt("orphaned"));
+        assertEquals(RECORDS / 2, search.views.size());
+
+        // the repair stored which records are in the index
+        final JsonObject repaired = check(false);
+        assertEquals(1, repaired.getInt("ranges"));
+        assertEquals(0, repaired.getInt("leaves"));
+    }
+
+    /**
+     * A copy that is ahead of the database and one that is behind would cancel
+     * out in sums of the record IDs and versions.
+     */
+    @Test
+    public void testDriftInOppositeDirectionsIsFound() {
+
+        tx.begin();
+        bean.update("horse", metas.get(20).getDoxId(), Json.createObjectBuilder().add("name", "X20").add("fei", "F20").build(), 1);
+        tx.commit();
+        em.clear();
+
+        search.views.get(metas.get(10).getDoxId()).setVersion(2);
+        search.views.get(metas.get(20).getDoxId()).setVersion(1);
+
+        final JsonObject drift = check(true);
+        assertEquals(2, drift.getInt("stale"));
+        assertEquals(1, search.views.get(metas.get(10).getDoxId()).getVersion());
+        assertEquals(2, search.views.get(metas.get(20).getDoxId()).getVersion());
+    }
+
+    @Test
+    public void testDriftIsRepaired() {
+
+        tx.begin();
+        bean.update("horse", metas.get(10).getDoxId(), Json.createObjectBuilder().add("name", "X10").add("fei", "F10").build(), 1);
+        tx.commit();
+        em.clear();
+
+        // the update was not indexed, one record was never indexed and one
+        // document is left over from a record that no longer exists
+        search.views.get(metas.get(10).getDoxId()).setVersion(1);
+        search.views.remove(metas.get(200).getDoxId());
+        final IndexView orphan = new IndexView().setIndex("myindex");
+        orphan.setDoxID(DoxID.generate());
+        orphan.setDoxRecordId(metas.get(RECORDS - 1).getId() + 1);
+        orphan.setVersion(1);
+        search.addToIndex(orphan);
+
+        final JsonObject drift = check(false);
+        assertEquals(1, drift.getInt("missing"));
+        assertEquals(1, drift.getInt("stale"));
+        assertEquals(1, drift.getInt("orphaned"));
+        assertTrue(drift.toString(), drift.getInt("leaves") <= 3);
+        assertEquals(RECORDS, search.views.size());
+
+        assertEquals(1, check(true).getInt("stale"));
+        assertEquals(RECORDS, search.views.size());
+        assertEquals(2, search.views.get(metas.get(10).getDoxId()).getVersion());
+
+        final JsonObject repaired = check(false);
+        assertEquals(1, repaired.getInt("ranges"));
+        assertEquals(0, repaired.getInt("missing") + repaired.getInt("stale") + repaired.getInt("orphaned"));
+    }
+}
@@ -0,0 +1,144 @@
+package net.trajano.doxdb.sample.test;
+
+import java.io.File;
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.h2.tools.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.ImmutableMap;
+
+import net.trajano.doxdb.Dox;
+import net.trajano.doxdb.DoxDictionary;
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxLookup;
+
+/**
+ * Measures the number of {@link Dox} records with two {@link DoxLookup}
+ * records each that can be inserted per second on H2 with and without JDBC
+ * batch writing. H2 is accessed through its TCP server so each statement that
+ * is not batched pays for a round trip as it would with a database server.
+ * This is not run as part of the build, run it using the
+ * {@link #main(String[])} method from the test class path.
+ *
+ * @author Archimedes Trajano
+ */
+@State(Scope.Benchmark)
+public class InsertBenchmark {
+
+    /**
+     * Number of records inserted per transaction.
+     */
+    private static final int RECORDS_PER_TRANSACTION = 100;
+
+    public static void main(final String[] args) throws Exception {
+
+        new Runner(new OptionsBuilder().include(InsertBenchmark.class.getSimpleName())
+            .forks(1)
+            .build()).run();
+    }
+
+    @Param({
+        "None",
+        "JDBC"
+    })
+    public String batchWriting;
+
+    private DoxDictionary collection;
+
+    private File databaseFile;
+
+    private EntityManager em;
+
+    private EntityManagerFactory emf;
+
+    private DoxDictionary[] lookupNames;
+
+    private DoxDictionary principal;
+
+    private Server server;
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_TRANSACTION)
+    public void insert() {
+
+        final Date now = new Date();
+        em.getTransaction().begin();
+        for (int i = 0; i < RECORDS_PER_TRANSACTION; ++i) {
+            final Dox dox = new Dox();
+            dox.setDoxId(DoxID.generate());
+            dox.setCollection(collection);
+            dox.setCollectionSchemaVersion(1);
+            dox.setContent("{\"name\":\"abc\",\"fei\":\"def\"}");
+            dox.setCreatedBy(principal);
+            dox.setCreatedOn(now);
+            dox.setLastUpdatedBy(principal);
+            dox.setLastUpdatedOn(now);
+            dox.setVersion(1);
+            em.persist(dox);
+            for (final DoxDictionary lookupName : lookupNames) {
+                final DoxLookup lookup = new DoxLookup();
+                lookup.setCollection(collection);
+                lookup.setDox(dox);
+                lookup.setLookupName(lookupName);
+                lookup.setLookupKey(dox.getDoxId().toString());
+                em.persist(lookup);
+            }
+        }
+        em.getTransaction().commit();
+        em.clear();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+
+        databaseFile = File.createTempFile("insertbenchmark", "");
+        server = Server.createTcpServer("-tcpPort", "0")
+            .start();
+        emf = Persistence.createEntityManagerFactory("default", ImmutableMap.builder()
+            .put("javax.persistence.schema-generation.database.action", "create")
+            .put("javax.persistence.jdbc.url", "jdbc:h2:tcp://localhost:" + server.getPort() + "/" + databaseFile.getAbsolutePath())
+            .put("eclipselink.jdbc.batch-writing", batchWriting)
+            .build());
+        em = emf.createEntityManager();
+
+        collection = new DoxDictionary(DoxDictionary.COLLECTION, "horse");
+        principal = new DoxDictionary(DoxDictionary.PRINCIPAL, "BENCHMARK");
+        lookupNames = new DoxDictionary[] {
+            new DoxDictionary(DoxDictionary.LOOKUP, "name"),
+            new DoxDictionary(DoxDictionary.LOOKUP, "fei")
+        };
+        em.getTransaction().begin();
+        em.persist(collection);
+        em.persist(principal);
+        for (final DoxDictionary lookupName : lookupNames) {
+            em.persist(lookupName);
+        }
+        em.getTransaction().commit();
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        em.close();
+        emf.close();
+        server.stop();
+        for (final File file : databaseFile.getParentFile().listFiles()) {
+            if (file.getName().startsWith(databaseFile.getName())) {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package net.trajano.doxdb.sample.test;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.trajano.doxdb.internal.JsonBsonCodec;
+
+/**
+ * Compares {@link JsonBsonCodec} with the round trip through JSON text that
+ * was used previously. This is not run as part of the build, run it using the
+ * {@link #main(String[])} method from the test class path.
+ *
+ * @author Archimedes Trajano
+ */
+@State(Scope.Benchmark)
+public class JsonBsonCodecBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+
+        new Runner(new OptionsBuilder().include(JsonBsonCodecBenchmark.class.getSimpleName())
+            .forks(1)
+            .build()).run();
+    }
+
+    private byte[] bson;
+
+    private JsonObject json;
+
+    @Benchmark
+    public JsonObject decodeDirect() {
+
+        return JsonBsonCodec.decode(bson);
+    }
+
+    @Benchmark
+    public JsonObject decodeViaText() {
+
+        final BsonDocument decoded = new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder()
+            .build());
+        return Json.createReader(new StringReader(decoded.toJson())).readObject();
+    }
+
+    @Benchmark
+    public byte[] encodeDirect() {
+
+        return JsonBsonCodec.encode(json);
+    }
+
+    @Benchmark
+    public byte[] encodeViaText() {
+
+        final BasicOutputBuffer basicOutputBuffer = new BasicOutputBuffer();
+        new BsonDocumentCodec().encode(new BsonBinaryWriter(basicOutputBuffer), BsonDocument.parse(json.toString()), EncoderContext.builder()
+            .build());
+        return basicOutputBuffer.toByteArray();
+    }
+
+    @Setup
+    public void setUp() {
+
+        final StringBuilder b = new StringBuilder("{\"name\":\"abc\",\"fei\":\"def\",\"items\":[");
+        for (int i = 0; i < 50; ++i) {
+            if (i > 0) {
+                b.append(',');
+            }
+            b.append("{\"id\":").append(i).append(",\"label\":\"item ").append(i).append("\",\"price\":").append(i * 1.25).append(",\"active\":true,\"tags\":[\"a\",\"b\"]}");
+        }
+        b.append("]}");
+        json = Json.createReader(new StringReader(b.toString())).readObject();
+        bson = JsonBsonCodec.encode(json);
+    }
+}
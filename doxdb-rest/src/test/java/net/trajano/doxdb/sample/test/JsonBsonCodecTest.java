@@ -0,0 +1,77 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.Test;
+
+import net.trajano.doxdb.internal.JsonBsonCodec;
+
+/**
+ * Tests {@link JsonBsonCodec}.
+ *
+ * @author Archimedes Trajano
+ */
+public class JsonBsonCodecTest {
+
+    private static final String SAMPLE = "{\"name\":\"abc\",\"count\":12,\"big\":12345678901,\"ratio\":1.5,\"ok\":true,\"no\":false,\"nothing\":null,\"nested\":{\"a\":[1,\"x\",{\"b\":null},[]]}}";
+
+    private static JsonObject json(final String text) {
+
+        return Json.createReader(new StringReader(text)).readObject();
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+
+        final JsonObject expected = json(SAMPLE);
+        assertEquals(expected, JsonBsonCodec.decode(JsonBsonCodec.encode(expected)));
+    }
+
+    @Test
+    public void testEncodeMatchesParse() throws Exception {
+
+        final BasicOutputBuffer basicOutputBuffer = new BasicOutputBuffer();
+        new BsonDocumentCodec().encode(new BsonBinaryWriter(basicOutputBuffer), BsonDocument.parse(SAMPLE), EncoderContext.builder()
+            .build());
+        assertArrayEquals(basicOutputBuffer.toByteArray(), JsonBsonCodec.encode(json(SAMPLE)));
+    }
+
+    @Test
+    public void testIntegerSizes() throws Exception {
+
+        final byte[] bson = JsonBsonCodec.encode(json("{\"i\":2147483647,\"l\":2147483648}"));
+        final BsonDocument decoded = new BsonDocumentCodec().decode(new BsonBinaryReader(ByteBuffer.wrap(bson)), DecoderContext.builder()
+            .build());
+        assertEquals(new BsonInt32(Integer.MAX_VALUE), decoded.get("i"));
+        assertEquals(new BsonInt64(2147483648L), decoded.get("l"));
+    }
+
+    @Test
+    public void testWriteToGenerator() throws Exception {
+
+        final StringWriter sw = new StringWriter();
+        try (final BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(JsonBsonCodec.encode(json(SAMPLE))));
+            final JsonGenerator generator = Json.createGenerator(sw)) {
+            JsonBsonCodec.write(reader, generator);
+        }
+        assertEquals(json(SAMPLE), json(sw.toString()));
+    }
+}
@@ -0,0 +1,206 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import java.io.StringReader;
+import java.util.Date;
+
+import javax.ejb.SessionContext;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.PersistenceException;
+import javax.transaction.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.ejb.DoxLockManagerBean;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests locks with a lease of 500ms.
+ *
+ * @author Archimedes Trajano
+ */
+public class LockLeaseTest extends AbstractBeanTest {
+
+    private static final String USER_JSON = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+
+    private ConfigurationProvider configurationProvider;
+
+    private DoxID doxId;
+
+    private long count() {
+
+        return ((Number) em.createNativeQuery("select count(*) from DOXLOCK")
+            .getSingleResult()).longValue();
+    }
+
+    private boolean isLocked() {
+
+        tx.begin();
+        final boolean locked = bean.isLocked("user", doxId);
+        tx.commit();
+        em.clear();
+        return locked;
+    }
+
+    private int lock() {
+
+        tx.begin();
+        final int lockId = bean.lock("user", doxId);
+        tx.commit();
+        em.clear();
+        return lockId;
+    }
+
+    private Date renew(final int lockId) {
+
+        tx.begin();
+        final Date expiresOn = bean.renewLock("user", doxId, lockId);
+        tx.commit();
+        em.clear();
+        return expiresOn;
+    }
+
+    @Before
+    public void setUpLockLease() {
+
+        configurationProvider = new XmlConfigurationProvider("lockleasetest-dox.xml");
+        bean.setConfigurationProvider(configurationProvider);
+        lockManager.setConfigurationProvider(configurationProvider);
+
+        tx.begin();
+        doxId = bean.create("user", Json.createReader(new StringReader(USER_JSON)).readObject()).getDoxId();
+        tx.commit();
+        em.clear();
+    }
+
+    @Test
+    public void testExpiredLockCanBeTaken() throws Exception {
+
+        final int lockId = lock();
+        assertTrue(isLocked());
+        Thread.sleep(600);
+        assertFalse(isLocked());
+
+        final int newLockId = lock();
+        assertTrue(isLocked());
+        assertEquals(1, count());
+        try {
+            renew(lockId);
+            fail();
+        } catch (final PersistenceException e) {
+            tx.rollback();
+        }
+        renew(newLockId);
+    }
+
+    @Test
+    public void testHeldLockFailsFast() {
+
+        lock();
+        tx.begin();
+        try {
+            bean.lock("user", doxId);
+            fail();
+        } catch (final PersistenceException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("is already locked"));
+        } finally {
+            tx.rollback();
+        }
+
+        final JsonObject statistics = lockManager.getStatistics();
+        assertEquals(1, statistics.getInt("leases"));
+        assertEquals(1, statistics.getInt("acquired"));
+        assertEquals(1, statistics.getInt("hits"));
+    }
+
+    @Test
+    public void testLockFromOtherNodeIsCheckedInDatabase() {
+
+        final int lockId = lock();
+
+        final DoxLockManagerBean otherNode = new DoxLockManagerBean();
+        otherNode.setConfigurationProvider(configurationProvider);
+        otherNode.setEntityManager(em);
+        otherNode.setSessionContext(mock(SessionContext.class));
+        bean.setLockManager(otherNode);
+
+        assertTrue(isLocked());
+        assertEquals(1, otherNode.getStatistics().getInt("misses"));
+
+        tx.begin();
+        bean.update("user", doxId, Json.createReader(new StringReader(USER_JSON)).readObject(), 1, lockId);
+        bean.unlock("user", doxId, lockId);
+        tx.commit();
+        em.clear();
+        assertFalse(isLocked());
+    }
+
+    @Test
+    public void testRolledBackLockIsNotHeld() {
+
+        final TestSynchronizationRegistry registry = new TestSynchronizationRegistry();
+        lockManager.setTransactionSynchronizationRegistry(registry);
+
+        registry.begin();
+        tx.begin();
+        bean.lock("user", doxId);
+        tx.rollback();
+        registry.complete(Status.STATUS_ROLLEDBACK);
+        em.clear();
+
+        assertEquals(0, lockManager.getStatistics().getInt("leases"));
+        assertFalse(isLocked());
+
+        registry.begin();
+        tx.begin();
+        bean.lock("user", doxId);
+        assertEquals(0, lockManager.getStatistics().getInt("leases"));
+        tx.commit();
+        registry.complete(Status.STATUS_COMMITTED);
+        em.clear();
+
+        assertEquals(1, lockManager.getStatistics().getInt("leases"));
+        assertTrue(isLocked());
+    }
+
+    @Test
+    public void testRenewExtendsLease() throws Exception {
+
+        final int lockId = lock();
+        Thread.sleep(300);
+        assertTrue(renew(lockId).after(new Date()));
+        Thread.sleep(300);
+        assertTrue(isLocked());
+
+        tx.begin();
+        bean.update("user", doxId, Json.createReader(new StringReader(USER_JSON)).readObject(), 1, lockId);
+        tx.commit();
+        em.clear();
+    }
+
+    @Test
+    public void testSweepRemovesExpiredLocks() throws Exception {
+
+        lock();
+        Thread.sleep(600);
+
+        tx.begin();
+        assertEquals(1, lockManager.sweep());
+        tx.commit();
+        em.clear();
+
+        assertEquals(0, count());
+        final JsonObject statistics = lockManager.getStatistics();
+        assertEquals(0, statistics.getInt("leases"));
+        assertEquals(1, statistics.getInt("expired"));
+    }
+}
@@ -1,11 +1,13 @@
 package net.trajano.doxdb.sample.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.StringReader;
 
 import javax.json.Json;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.PersistenceException;
 
 import org.junit.Test;
@@ -144,4 +146,163 @@ public class LockTest extends AbstractBeanTest {
             tx.commit();
         }
     }
+
+    @Test
+    public void testLockedUpdateKeepingLock() throws Exception {
+
+        final String inputJson = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+        final DoxID doxId;
+        {
+            tx.begin();
+            doxId = bean.create("user", Json.createReader(new StringReader(inputJson)).readObject()).getDoxId();
+            tx.commit();
+            em.clear();
+        }
+        final int lockId;
+        {
+            tx.begin();
+            lockId = bean.lock("user", doxId);
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            assertEquals(2, bean.update("user", doxId, Json.createReader(new StringReader(inputJson)).readObject(), 1, lockId, false).getVersion());
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            assertEquals(3, bean.update("user", doxId, Json.createReader(new StringReader(inputJson)).readObject(), 2, lockId, true).getVersion());
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            assertFalse(bean.isLocked("user", doxId));
+            assertEquals(3, bean.read("user", doxId).getVersion());
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void testLockedUpdateReleasesLock() throws Exception {
+
+        final String inputJson = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+        final DoxID doxId;
+        {
+            tx.begin();
+            doxId = bean.create("user", Json.createReader(new StringReader(inputJson)).readObject()).getDoxId();
+            tx.commit();
+            em.clear();
+        }
+        final int lockId;
+        {
+            tx.begin();
+            lockId = bean.lock("user", doxId);
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            final String updatedJson = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"def\",\"roles\":[]}";
+            bean.update("user", doxId, Json.createReader(new StringReader(updatedJson)).readObject(), 1, lockId, true);
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            assertFalse(bean.isLocked("user", doxId));
+            assertEquals("def", bean.read("user", doxId).getContent().getString("name"));
+            tx.commit();
+        }
+        {
+            tx.begin();
+            bean.lock("user", doxId);
+            tx.commit();
+        }
+    }
+
+    @Test(expected = OptimisticLockException.class)
+    public void testLockedUpdateWithOldVersion() throws Exception {
+
+        final String inputJson = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+        final DoxID doxId;
+        {
+            tx.begin();
+            doxId = bean.create("user", Json.createReader(new StringReader(inputJson)).readObject()).getDoxId();
+            tx.commit();
+            em.clear();
+        }
+        final int lockId;
+        {
+            tx.begin();
+            lockId = bean.lock("user", doxId);
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            bean.update("user", doxId, Json.createReader(new StringReader(inputJson)).readObject(), 1, lockId, false);
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            bean.update("user", doxId, Json.createReader(new StringReader(inputJson)).readObject(), 1, lockId, true);
+            tx.commit();
+        }
+    }
+
+    @Test
+    public void testLockReleasedElsewhereIsCheckedInDatabase() throws Exception {
+
+        final String inputJson = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+        final DoxID doxId;
+        {
+            tx.begin();
+            doxId = bean.create("user", Json.createReader(new StringReader(inputJson)).readObject()).getDoxId();
+            bean.lock("user", doxId);
+            tx.commit();
+            em.clear();
+        }
+        {
+            // released through another node
+            tx.begin();
+            em.createNativeQuery("delete from DOXLOCK").executeUpdate();
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            assertFalse(bean.isLocked("user", doxId));
+            bean.lock("user", doxId);
+            tx.commit();
+        }
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testLockedUpdateWithWrongLock() throws Exception {
+
+        final String inputJson = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+        final DoxID doxId;
+        {
+            tx.begin();
+            doxId = bean.create("user", Json.createReader(new StringReader(inputJson)).readObject()).getDoxId();
+            tx.commit();
+            em.clear();
+        }
+        final int lockId;
+        {
+            tx.begin();
+            lockId = bean.lock("user", doxId);
+            tx.commit();
+            em.clear();
+        }
+        {
+            tx.begin();
+            bean.update("user", doxId, Json.createReader(new StringReader(inputJson)).readObject(), 1, lockId + 1, true);
+            tx.commit();
+        }
+    }
 }
@@ -0,0 +1,166 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.StringReader;
+
+import javax.ejb.SessionContext;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.PersistenceException;
+import javax.transaction.UserTransaction;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import net.trajano.doxdb.ejb.DoxContentCodecBean;
+import net.trajano.doxdb.ejb.DoxLookupBuildBean;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests {@link DoxLookupBuildBean}. Records are created with a configuration
+ * that only has the "fei" unique lookup, the build runs with a configuration
+ * that adds the "usef" unique lookup and the "color" lookup.
+ *
+ * @author Archimedes Trajano
+ */
+public class LookupBuildTest extends AbstractBeanTest {
+
+    /**
+     * Number of records created, more than a batch.
+     */
+    private static final int RECORDS = 150;
+
+    private DoxLookupBuildBean lookupBuild;
+
+    private long count(final String table) {
+
+        return ((Number) em.createNativeQuery("select count(*) from " + table)
+            .getSingleResult()).longValue();
+    }
+
+    private void create(final String fei,
+        final String usef) {
+
+        tx.begin();
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"" + fei + "\",\"fei\":\"" + fei + "\",\"usef\":\"" + usef + "\",\"color\":\"brown\"}")).readObject());
+        tx.commit();
+        em.clear();
+    }
+
+    @Before
+    public void setUpLookupBuild() throws Exception {
+
+        bean.setConfigurationProvider(new XmlConfigurationProvider("lookupbuildtest-initial-dox.xml"));
+        tx.begin();
+        for (int i = 0; i < RECORDS; ++i) {
+            bean.create("horse", Json.createReader(new StringReader("{\"name\":\"H" + i + "\",\"fei\":\"F" + i + "\",\"usef\":\"U" + i + "\",\"color\":\"" + (i % 2 == 0 ? "brown" : "black") + "\"}")).readObject());
+        }
+        // dictionary entries are created in their own transaction by the container
+        dictionary.lookupName("usef");
+        dictionary.lookupName("color");
+        tx.commit();
+        em.clear();
+
+        final ConfigurationProvider configurationProvider = new XmlConfigurationProvider("lookupbuildtest-dox.xml");
+        contentCodecs = new DoxContentCodecBean();
+        contentCodecs.setConfigurationProvider(configurationProvider);
+        contentCodecs.init();
+        bean.setConfigurationProvider(configurationProvider);
+        bean.setContentCodecs(contentCodecs);
+        uniqueCache.setConfigurationProvider(configurationProvider);
+
+        // the user transaction is backed by the resource local transaction
+        final UserTransaction txn = mock(UserTransaction.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+
+                tx.begin();
+                return null;
+            }
+        }).when(txn).begin();
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+
+                tx.commit();
+                return null;
+            }
+        }).when(txn).commit();
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+
+                tx.rollback();
+                return null;
+            }
+        }).when(txn).rollback();
+
+        lookupBuild = new DoxLookupBuildBean();
+        lookupBuild.setConfigurationProvider(configurationProvider);
+        lookupBuild.setContentCodecs(contentCodecs);
+        lookupBuild.setDictionary(dictionary);
+        lookupBuild.setEntityManager(em);
+        lookupBuild.setSessionContext(mock(SessionContext.class));
+        lookupBuild.setUniqueCache(uniqueCache);
+        lookupBuild.setUserTransaction(txn);
+    }
+
+    @Test
+    public void testBuildMissingLookups() {
+
+        assertEquals(RECORDS, count("DOXUNIQUE"));
+        assertEquals(0, count("DOXLOOKUP"));
+
+        final JsonObject stats = lookupBuild.buildMissingLookups();
+        assertEquals(2, stats.getJsonArray("lookups").size());
+        assertEquals("usef", stats.getJsonArray("lookups").getJsonObject(0).getString("lookup"));
+        assertEquals(RECORDS, stats.getJsonArray("lookups").getJsonObject(0).getInt("count"));
+        assertEquals("color", stats.getJsonArray("lookups").getJsonObject(1).getString("lookup"));
+        assertEquals(RECORDS, stats.getJsonArray("lookups").getJsonObject(1).getInt("count"));
+        assertEquals(RECORDS * 2, count("DOXUNIQUE"));
+        assertEquals(RECORDS, count("DOXLOOKUP"));
+
+        assertEquals("H42", bean.readByUniqueLookup("horse", "usef", "U42").getContent().getString("name"));
+        assertEquals(RECORDS / 2, bean.readByLookup("horse", "color", "black").size());
+
+        // nothing is missing on the second run
+        assertEquals(0, lookupBuild.buildMissingLookups().getJsonArray("lookups").size());
+    }
+
+    @Test
+    public void testNewRecordsAreNotBuiltTwice() {
+
+        create("F" + RECORDS, "U" + RECORDS);
+        assertEquals(RECORDS, lookupBuild.buildMissingLookups().getJsonArray("lookups").getJsonObject(0).getInt("count"));
+        assertEquals((RECORDS + 1) * 2, count("DOXUNIQUE"));
+        assertEquals(RECORDS + 1, count("DOXLOOKUP"));
+    }
+
+    @Test
+    public void testUniqueConflictsAreReportedBeforeBuilding() {
+
+        bean.setConfigurationProvider(new XmlConfigurationProvider("lookupbuildtest-initial-dox.xml"));
+        create("F" + RECORDS, "U7");
+        create("F" + (RECORDS + 1), "U9");
+        try {
+            lookupBuild.buildMissingLookups();
+            fail();
+        } catch (final PersistenceException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("2 duplicate keys [U7, U9]"));
+        }
+        assertEquals(RECORDS + 2, count("DOXUNIQUE"));
+        assertEquals(0, count("DOXLOOKUP"));
+    }
+}
@@ -0,0 +1,126 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.AdditionalAnswers.returnsLastArg;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.persistence.PersistenceException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.LookupPage;
+import net.trajano.doxdb.ext.Migrator;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests {@link net.trajano.doxdb.ejb.DoxLocal#readByLookupRange} and
+ * {@link net.trajano.doxdb.ejb.DoxLocal#readByLookupPrefix}.
+ *
+ * @author Archimedes Trajano
+ */
+public class LookupRangeTest extends AbstractBeanTest {
+
+    private void create(final String name,
+        final int rank,
+        final String dateOfBirth) {
+
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"" + name + "\",\"passport\":\"" + rank + "\",\"dateOfBirth\":\"" + dateOfBirth + "\"}")).readObject());
+    }
+
+    private String name(final JsonArray results,
+        final int i) {
+
+        return results.getJsonObject(i).getString("name");
+    }
+
+    @Before
+    public void setUpHorses() {
+
+        bean.setConfigurationProvider(new XmlConfigurationProvider("lookuprangetest-dox.xml"));
+        tx.begin();
+        create("abby", 10, "2010-05-01");
+        create("abe", 9, "2008-01-31");
+        create("bob", 100, "2012-12-24");
+        create("a_c", 2, "2011-03-15");
+        tx.commit();
+        em.clear();
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testInvalidKey() {
+
+        bean.readByLookupRange("horse", "rank", "ten", null, null, 0, 10);
+    }
+
+    @Test
+    public void testLongRangeIsNumericallyOrdered() {
+
+        final JsonArray results = bean.readByLookupRange("horse", "rank", "9", "100", null, 0, 10).getRecords();
+        assertEquals(3, results.size());
+        assertEquals("abe", name(results, 0));
+        assertEquals("abby", name(results, 1));
+        assertEquals("bob", name(results, 2));
+    }
+
+    @Test
+    public void testOpenDateRangeIsPaged() {
+
+        final JsonArray first = bean.readByLookupRange("horse", "dateOfBirth", "2009-01-01", null, null, 0, 2).getRecords();
+        assertEquals(2, first.size());
+        assertEquals("abby", name(first, 0));
+        assertEquals("a_c", name(first, 1));
+        final JsonArray second = bean.readByLookupRange("horse", "dateOfBirth", "2009-01-01", null, null, 2, 2).getRecords();
+        assertEquals(1, second.size());
+        assertEquals("bob", name(second, 0));
+    }
+
+    @Test
+    public void testOlderSchemaVersionIsMigratedIntoPage() {
+
+        final Migrator migrator = mock(Migrator.class);
+        when(migrator.migrate(anyString(), anyInt(), anyInt(), anyString())).then(returnsLastArg());
+        bean.setMigrator(migrator);
+        tx.begin();
+        em.createNativeQuery("update DOX set COLLECTIONSCHEMAVERSION = 0 where DOXRECORDID = (select min(DOXRECORDID) from DOX)").executeUpdate();
+        tx.commit();
+        em.clear();
+        emf.getCache().evictAll();
+
+        tx.begin();
+        final LookupPage page = bean.readByLookupRange("horse", "rank", "9", "100", null, 0, 2);
+        tx.commit();
+        em.clear();
+        assertEquals(2, page.getRowCount());
+        assertEquals(2, page.getRecords().size());
+        assertEquals("abe", name(page.getRecords(), 0));
+        assertEquals("abby", name(page.getRecords(), 1));
+        verify(migrator).migrate(eq("horse"), eq(0), eq(1), anyString());
+        assertEquals(0, ((Number) em.createNativeQuery("select count(*) from DOX where COLLECTIONSCHEMAVERSION = 0").getSingleResult()).intValue());
+    }
+
+    @Test
+    public void testPrefix() {
+
+        final JsonArray results = bean.readByLookupPrefix("horse", "horseName", "ab", null, 0, 10).getRecords();
+        assertEquals(2, results.size());
+        assertEquals("abby", name(results, 0));
+        assertEquals("abe", name(results, 1));
+        assertEquals(1, bean.readByLookupPrefix("horse", "horseName", "a_", null, 0, 10).getRecords().size());
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testPrefixOnTypedLookup() {
+
+        bean.readByLookupPrefix("horse", "rank", "1", null, 0, 10);
+    }
+}
@@ -0,0 +1,117 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.persistence.PersistenceException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.DoxProjection;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests {@link net.trajano.doxdb.ejb.DoxLocal#readByLookupKeys},
+ * {@link net.trajano.doxdb.ejb.DoxLocal#readByLookups} and
+ * {@link net.trajano.doxdb.ejb.DoxLocal#countByLookups}.
+ *
+ * @author Archimedes Trajano
+ */
+public class MultiLookupTest extends AbstractBeanTest {
+
+    private void create(final String fei,
+        final String color,
+        final String breed) {
+
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"" + fei + "\",\"fei\":\"" + fei + "\",\"color\":\"" + color + "\",\"breed\":\"" + breed + "\"}")).readObject());
+    }
+
+    @Before
+    public void setUpHorses() {
+
+        bean.setConfigurationProvider(new XmlConfigurationProvider("multilookuptest-dox.xml"));
+        tx.begin();
+        create("F1", "brown", "arabian");
+        create("F2", "brown", "mustang");
+        create("F3", "black", "arabian");
+        create("F4", "brown", "arabian");
+        tx.commit();
+        em.clear();
+    }
+
+    @Test
+    public void testConjunction() {
+
+        final Map<String, String> lookups = new LinkedHashMap<>();
+        lookups.put("color", "brown");
+        lookups.put("breed", "arabian");
+        assertEquals(2, bean.countByLookups("horse", lookups));
+        assertEquals(2, bean.readByLookups("horse", lookups, null).size());
+
+        lookups.put("fei", "F4");
+        final JsonArray results = bean.readByLookups("horse", lookups, null);
+        assertEquals(1, results.size());
+        assertEquals("F4", results.getJsonObject(0).getString("fei"));
+
+        lookups.put("fei", "F3");
+        assertEquals(0, bean.countByLookups("horse", lookups));
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testConjunctionWithUnknownLookup() {
+
+        bean.countByLookups("horse", Collections.singletonMap("gender", "mare"));
+    }
+
+    @Test
+    public void testLookupKeys() {
+
+        assertEquals(3, bean.readByLookupKeys("horse", "fei", Arrays.asList("F1", "F3", "F4", "F9", "F1"), null).size());
+        assertEquals(4, bean.readByLookupKeys("horse", "color", Arrays.asList("brown", "black"), null).size());
+        assertEquals(0, bean.readByLookupKeys("horse", "color", Collections.<String> emptyList(), null).size());
+    }
+
+    @Test
+    public void testLookupContentWithProjection() {
+
+        final JsonArray results = bean.readByLookup("horse", "breed", "mustang", new DoxProjection("color"));
+        assertEquals(1, results.size());
+        final JsonObject result = results.getJsonObject(0);
+        assertEquals("brown", result.getString("color"));
+        assertEquals(1, result.getInt("_version"));
+        assertFalse(result.containsKey("fei"));
+    }
+
+    @Test
+    public void testLookupKeysAboveInListLimit() {
+
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1200; ++i) {
+            keys.add("X" + i);
+        }
+        keys.add("F2");
+        assertEquals(1, bean.readByLookupKeys("horse", "fei", keys, null).size());
+    }
+
+    @Test
+    public void testUniqueLookupContent() {
+
+        final DoxMeta meta = bean.readByUniqueLookup("horse", "fei", "F3");
+        assertEquals("black", meta.getContent().getString("color"));
+        assertEquals(meta.getDoxId().toString(), meta.getContent().getString("_id"));
+        assertEquals("ANONYMOUS", meta.getCreatedBy().getName());
+    }
+}
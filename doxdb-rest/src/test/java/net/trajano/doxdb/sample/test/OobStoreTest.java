@@ -0,0 +1,186 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxOobMeta;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests the file system store for attachments.
+ *
+ * @author Archimedes Trajano
+ */
+public class OobStoreTest extends AbstractBeanTest {
+
+    private static final String USER_JSON = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+
+    private final Path directory = Paths.get("target/oobstoretest");
+
+    private DoxID create() {
+
+        tx.begin();
+        final DoxID doxId = bean.create("user", Json.createReader(new StringReader(USER_JSON)).readObject()).getDoxId();
+        tx.commit();
+        em.clear();
+        return doxId;
+    }
+
+    private int files() throws IOException {
+
+        final int[] count = {
+            0
+        };
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                final BasicFileAttributes attrs) {
+
+                ++count[0];
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+
+    private int gc() throws Exception {
+
+        Thread.sleep(10);
+        tx.begin();
+        final int removed = oobStore.gc();
+        tx.commit();
+        em.clear();
+        return removed;
+    }
+
+    @Before
+    public void setUpOobStore() throws IOException {
+
+        if (Files.exists(directory)) {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir,
+                    final IOException e) throws IOException {
+
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file,
+                    final BasicFileAttributes attrs) throws IOException {
+
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        final ConfigurationProvider configurationProvider = new XmlConfigurationProvider("oobstoretest-dox.xml");
+        bean.setConfigurationProvider(configurationProvider);
+        oobStore.setConfigurationProvider(configurationProvider);
+    }
+
+    private DoxOobMeta write(final DoxID doxId,
+        final byte[] content) {
+
+        tx.begin();
+        final DoxOobMeta meta = bean.writeOob("user", doxId, "photo", "image/png", new ByteArrayInputStream(content));
+        tx.commit();
+        em.clear();
+        return meta;
+    }
+
+    @Test
+    public void testGcRemovesUnreferencedContent() throws Exception {
+
+        final byte[] content = new byte[1000];
+        new Random(1).nextBytes(content);
+        final DoxID first = create();
+        final DoxID second = create();
+        write(first, content);
+        write(second, content);
+
+        tx.begin();
+        bean.deleteOob("user", first, "photo");
+        tx.commit();
+        em.clear();
+        assertEquals(0, gc());
+        assertEquals(1, files());
+
+        tx.begin();
+        bean.deleteOob("user", second, "photo");
+        tx.commit();
+        em.clear();
+        assertEquals(1, gc());
+        assertEquals(0, files());
+        assertEquals(1, oobStore.getStatistics().getInt("collected"));
+    }
+
+    @Test
+    public void testIdenticalContentIsStoredOnce() throws Exception {
+
+        final byte[] content = new byte[100000];
+        new Random(1).nextBytes(content);
+        final DoxOobMeta first = write(create(), content);
+        final DoxID doxId = create();
+        final DoxOobMeta second = write(doxId, content);
+
+        assertEquals(first.getContentHash(), second.getContentHash());
+        assertEquals(1, files());
+        assertTrue(oobStore.exists(first.getContentHash()));
+        assertEquals(0, ((Number) em.createNativeQuery("select count(*) from DOXOOB where length(content) > 0").getSingleResult()).intValue());
+
+        final JsonObject statistics = oobStore.getStatistics();
+        assertEquals(1, statistics.getInt("written"));
+        assertEquals(1, statistics.getInt("deduplicated"));
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        tx.begin();
+        bean.readOob("user", doxId, "photo", second.getContentHash(), 1000, 500, os);
+        tx.commit();
+        em.clear();
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 1500), os.toByteArray());
+    }
+
+    @Test
+    public void testOverwriteLeavesOldContentForGc() throws Exception {
+
+        final DoxID doxId = create();
+        write(doxId, new byte[] {
+            1,
+            2,
+            3
+        });
+        final DoxOobMeta meta = write(doxId, new byte[] {
+            4,
+            5
+        });
+        assertEquals(2, files());
+        assertEquals(1, gc());
+        assertTrue(oobStore.exists(meta.getContentHash()));
+    }
+}
@@ -0,0 +1,157 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.json.Json;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.PersistenceException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxOobMeta;
+import net.trajano.doxdb.ejb.internal.DoxOobInputStream;
+import net.trajano.doxdb.rest.internal.ByteRange;
+
+/**
+ * Tests streaming of attachments.
+ *
+ * @author Archimedes Trajano
+ */
+public class OobTest extends AbstractBeanTest {
+
+    private static final String USER_JSON = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+
+    private DoxID doxId;
+
+    private byte[] random(final int length) {
+
+        final byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private byte[] read(final String contentHash,
+        final long offset,
+        final long length) throws Exception {
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        tx.begin();
+        try {
+            bean.readOob("user", doxId, "photo", contentHash, offset, length, os);
+        } finally {
+            tx.commit();
+            em.clear();
+        }
+        return os.toByteArray();
+    }
+
+    @Before
+    public void setUpOob() {
+
+        tx.begin();
+        doxId = bean.create("user", Json.createReader(new StringReader(USER_JSON)).readObject()).getDoxId();
+        tx.commit();
+        em.clear();
+    }
+
+    private DoxOobMeta write(final byte[] content) {
+
+        tx.begin();
+        final DoxOobMeta meta = bean.writeOob("user", doxId, "photo", "image/png", new ByteArrayInputStream(content));
+        tx.commit();
+        em.clear();
+        return meta;
+    }
+
+    @Test
+    public void testByteRange() {
+
+        assertNull(ByteRange.parse(null, 100));
+        assertNull(ByteRange.parse("bytes=0-1,5-6", 100));
+        assertNull(ByteRange.parse("bytes=abc", 100));
+
+        assertEquals("bytes 10-19/100", ByteRange.parse("bytes=10-19", 100).getContentRange());
+        assertEquals("bytes 90-99/100", ByteRange.parse("bytes=90-", 100).getContentRange());
+        assertEquals("bytes 80-99/100", ByteRange.parse("bytes=-20", 100).getContentRange());
+        assertEquals(100, ByteRange.parse("bytes=0-500", 100).getLength());
+
+        final ByteRange unsatisfiable = ByteRange.parse("bytes=100-", 100);
+        assertFalse(unsatisfiable.isSatisfiable());
+        assertEquals("bytes */100", unsatisfiable.getContentRange());
+    }
+
+    @Test
+    public void testDelete() {
+
+        write(random(10));
+
+        tx.begin();
+        assertTrue(bean.deleteOob("user", doxId, "photo"));
+        assertFalse(bean.deleteOob("user", doxId, "photo"));
+        tx.commit();
+        em.clear();
+
+        assertNull(bean.readOobMeta("user", doxId, "photo"));
+    }
+
+    @Test
+    public void testOverwriteChangesHash() throws Exception {
+
+        final DoxOobMeta first = write(random(1000));
+        final byte[] content = random(2000);
+        final DoxOobMeta second = write(content);
+
+        assertEquals(first.getId(), second.getId());
+        assertNotEquals(first.getContentHash(), second.getContentHash());
+        assertEquals(2000, bean.readOobMeta("user", doxId, "photo").getContentLength());
+        assertArrayEquals(content, read(second.getContentHash(), 0, content.length));
+
+        try {
+            read(first.getContentHash(), 0, 1000);
+            fail();
+        } catch (final PersistenceException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void testWriteToMissingDox() {
+
+        tx.begin();
+        try {
+            bean.writeOob("user", DoxID.generate(), "photo", null, new ByteArrayInputStream(new byte[0]));
+        } finally {
+            tx.rollback();
+        }
+    }
+
+    @Test
+    public void testWriteAndReadRange() throws Exception {
+
+        final byte[] content = random(100000);
+        final DoxOobMeta meta = write(content);
+        assertEquals(100000, meta.getContentLength());
+        assertEquals(DoxOobInputStream.hash(content), meta.getContentHash());
+
+        final DoxOobMeta readMeta = bean.readOobMeta("user", doxId, "photo");
+        assertEquals("image/png", readMeta.getContentType());
+        assertEquals(meta.getContentHash(), readMeta.getContentHash());
+
+        assertArrayEquals(content, read(null, 0, content.length));
+        assertArrayEquals(Arrays.copyOfRange(content, 50000, 50100), read(meta.getContentHash(), 50000, 100));
+    }
+}
@@ -0,0 +1,273 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ejb.SessionContext;
+import javax.json.Json;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxOobMeta;
+import net.trajano.doxdb.DoxOobUpload;
+import net.trajano.doxdb.ejb.DoxOobUploadBean;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+import net.trajano.doxdb.internal.DoxPrincipal;
+
+/**
+ * Tests resumable attachment uploads.
+ *
+ * @author Archimedes Trajano
+ */
+public class OobUploadTest extends AbstractBeanTest {
+
+    private static final String USER_JSON = "{\"email\":\"abc@foryou.com\",\"encodedPassword\":\"abc@foryou.com\",\"name\":\"abc@foryou.com\",\"roles\":[]}";
+
+    private final byte[] content = new byte[30000];
+
+    private DoxID doxId;
+
+    private DoxOobUploadBean uploads;
+
+    private DoxOobUpload append(final String uploadId,
+        final long offset,
+        final int from,
+        final int to) throws Exception {
+
+        final byte[] chunk = Arrays.copyOfRange(content, from, to);
+        return uploads.append(uploadId, offset, "SHA-256", MessageDigest.getInstance("SHA-256").digest(chunk), new ByteArrayInputStream(chunk));
+    }
+
+    @Before
+    public void setUpOobUpload() throws IOException {
+
+        final Path directory = Paths.get("target/oobuploadtest");
+        if (Files.exists(directory)) {
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (final Path file : stream) {
+                    Files.delete(file);
+                }
+            }
+        }
+        new Random(1).nextBytes(content);
+        final ConfigurationProvider configurationProvider = new XmlConfigurationProvider("oobuploadtest-dox.xml");
+        bean.setConfigurationProvider(configurationProvider);
+        oobStore.setConfigurationProvider(configurationProvider);
+
+        final SessionContext sessionContextMock = mock(SessionContext.class);
+        when(sessionContextMock.getCallerPrincipal()).thenReturn(new DoxPrincipal("ANONYMOUS"));
+        uploads = new DoxOobUploadBean();
+        uploads.setConfigurationProvider(configurationProvider);
+        uploads.setOobStore(oobStore);
+        uploads.setSessionContext(sessionContextMock);
+
+        tx.begin();
+        doxId = bean.create("user", Json.createReader(new StringReader(USER_JSON)).readObject()).getDoxId();
+        tx.commit();
+        em.clear();
+    }
+
+    @Test
+    public void testChecksumMismatchIsDropped() throws Exception {
+
+        final String uploadId = uploads.create("user", doxId, "photo", null, content.length).getUploadId();
+        append(uploadId, 0, 0, 1000);
+
+        final byte[] chunk = Arrays.copyOfRange(content, 1000, 2000);
+        assertNull(uploads.append(uploadId, 1000, "SHA-256", new byte[32], new ByteArrayInputStream(chunk)));
+        assertEquals(1000, uploads.read(uploadId).getOffset());
+
+        assertEquals(2000, append(uploadId, 1000, 1000, 2000).getOffset());
+    }
+
+    @Test
+    public void testChunksAreCommittedWhenComplete() throws Exception {
+
+        final DoxOobUpload created = uploads.create("user", doxId, "photo", "image/png", content.length);
+        final String uploadId = created.getUploadId();
+        assertEquals(0, created.getOffset());
+
+        assertFalse(append(uploadId, 0, 0, 10000).isComplete());
+        assertEquals(10000, uploads.read(uploadId).getOffset());
+        assertFalse(append(uploadId, 10000, 10000, 20000).isComplete());
+        final DoxOobUpload complete = uploads.append(uploadId, 20000, null, null, new ByteArrayInputStream(Arrays.copyOfRange(content, 20000, 30000)));
+        assertTrue(complete.isComplete());
+
+        tx.begin();
+        final DoxOobMeta meta;
+        try (final InputStream is = uploads.open(uploadId)) {
+            meta = bean.writeOob("user", doxId, "photo", complete.getContentType(), is);
+        }
+        tx.commit();
+        em.clear();
+        assertTrue(uploads.delete(uploadId));
+        assertNull(uploads.read(uploadId));
+        assertEquals("image/png", meta.getContentType());
+        assertEquals(content.length, meta.getContentLength());
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        tx.begin();
+        bean.readOob("user", doxId, "photo", meta.getContentHash(), 0, content.length, os);
+        tx.commit();
+        em.clear();
+        assertArrayEquals(content, os.toByteArray());
+    }
+
+    @Test
+    public void testChunkPastLengthIsRejected() throws Exception {
+
+        final String uploadId = uploads.create("user", doxId, "photo", null, 100).getUploadId();
+        try {
+            append(uploadId, 0, 0, 101);
+            fail();
+        } catch (final PersistenceException e) {
+            assertEquals(0, uploads.read(uploadId).getOffset());
+        }
+    }
+
+    @Test
+    public void testConcurrentAppendConflicts() throws Exception {
+
+        final String uploadId = uploads.create("user", doxId, "photo", null, content.length).getUploadId();
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final InputStream slowChunk = new InputStream() {
+
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+
+                if (position == 0) {
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (final InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return position < 1000 ? content[position++] & 0xff : -1;
+            }
+        };
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<DoxOobUpload> first = executor.submit(new Callable<DoxOobUpload>() {
+
+                @Override
+                public DoxOobUpload call() throws Exception {
+
+                    return uploads.append(uploadId, 0, null, null, slowChunk);
+                }
+            });
+            reading.await();
+            try {
+                append(uploadId, 0, 0, 1000);
+                fail();
+            } catch (final OptimisticLockException e) {
+                assertTrue(e.getMessage(), e.getMessage().endsWith("is receiving another chunk"));
+            } finally {
+                release.countDown();
+            }
+            assertEquals(1000, first.get().getOffset());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1000, uploads.read(uploadId).getOffset());
+    }
+
+    @Test
+    public void testExpiredUploadsAreSwept() throws Exception {
+
+        final String uploadId = uploads.create("user", doxId, "photo", null, content.length).getUploadId();
+        append(uploadId, 0, 0, 1000);
+        assertEquals(0, uploads.sweep());
+        Thread.sleep(300);
+        assertEquals(1, uploads.sweep());
+        assertNull(uploads.read(uploadId));
+    }
+
+    @Test
+    public void testAttachmentPastCollectionSizeIsRejected() throws Exception {
+
+        tx.begin();
+        try {
+            bean.writeOob("user", doxId, "photo", null, new ByteArrayInputStream(new byte[1048577]));
+            fail();
+        } catch (final PersistenceException e) {
+            tx.rollback();
+        }
+        em.clear();
+
+        tx.begin();
+        assertEquals(1048576, bean.writeOob("user", doxId, "photo", null, new ByteArrayInputStream(new byte[1048576])).getContentLength());
+        tx.commit();
+    }
+
+    @Test
+    public void testUploadOfAnotherCallerIsNotFound() throws Exception {
+
+        final String uploadId = uploads.create("user", doxId, "photo", null, content.length).getUploadId();
+        append(uploadId, 0, 0, 1000);
+
+        final SessionContext other = mock(SessionContext.class);
+        when(other.getCallerPrincipal()).thenReturn(new DoxPrincipal("OTHER"));
+        uploads.setSessionContext(other);
+        assertNull(uploads.read(uploadId));
+        try {
+            append(uploadId, 1000, 1000, 2000);
+            fail();
+        } catch (final EntityNotFoundException e) {
+            // the upload is not visible to other callers
+        }
+    }
+
+    @Test
+    public void testWrongOffsetConflicts() throws Exception {
+
+        final String uploadId = uploads.create("user", doxId, "photo", null, content.length).getUploadId();
+        append(uploadId, 0, 0, 1000);
+        try {
+            append(uploadId, 0, 0, 1000);
+            fail();
+        } catch (final OptimisticLockException e) {
+            assertEquals(1000, uploads.read(uploadId).getOffset());
+        }
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void testTooLarge() throws Exception {
+
+        uploads.create("user", doxId, "photo", null, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,54 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxProjection;
+
+/**
+ * Tests {@link DoxProjection}.
+ *
+ * @author Archimedes Trajano
+ */
+public class ProjectionTest {
+
+    private static byte[] bson(final String json) {
+
+        final BasicOutputBuffer basicOutputBuffer = new BasicOutputBuffer();
+        new BsonDocumentCodec().encode(new BsonBinaryWriter(basicOutputBuffer), BsonDocument.parse(json), EncoderContext.builder()
+            .build());
+        return basicOutputBuffer.toByteArray();
+    }
+
+    @Test
+    public void testNestedPath() throws Exception {
+
+        final BsonDocument projected = new DoxProjection("a.b,c").project(bson("{\"a\":{\"b\":1,\"x\":2},\"c\":[1,2],\"d\":\"e\"}"));
+        assertEquals(BsonDocument.parse("{\"a\":{\"b\":1},\"c\":[1,2]}"), projected);
+    }
+
+    @Test
+    public void testPathIntoNonDocument() throws Exception {
+
+        final BsonDocument projected = new DoxProjection("d.x").project(bson("{\"d\":\"e\"}"));
+        assertTrue(projected.isEmpty());
+    }
+
+    @Test
+    public void testWholeWinsOverPath() throws Exception {
+
+        final DoxProjection projection = new DoxProjection("a.b, a,,");
+        assertEquals("a.b,a", projection.toString());
+        final BsonDocument projected = projection.project(bson("{\"a\":{\"b\":1,\"x\":2},\"z\":3}"));
+        assertEquals(BsonDocument.parse("{\"a\":{\"b\":1,\"x\":2}}"), projected);
+        assertFalse(projected.containsKey("z"));
+    }
+}
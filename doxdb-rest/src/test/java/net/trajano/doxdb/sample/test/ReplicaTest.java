@@ -0,0 +1,201 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import javax.ejb.SessionContext;
+import javax.json.Json;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.transaction.Status;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+import net.trajano.doxdb.internal.DoxPrincipal;
+
+/**
+ * Tests {@link net.trajano.doxdb.ejb.DoxReplicaBean}. The replica is a second
+ * H2 database that is brought up to date with a script of the primary.
+ *
+ * @author Archimedes Trajano
+ */
+public class ReplicaTest extends AbstractBeanTest {
+
+    private String primaryUrl;
+
+    private EntityManager replicaEm;
+
+    private EntityManagerFactory replicaEmf;
+
+    private String replicaUrl;
+
+    private SessionContext sessionContextMock;
+
+    private void as(final String principal) {
+
+        when(sessionContextMock.getCallerPrincipal()).thenReturn(new DoxPrincipal(principal));
+    }
+
+    private DoxMeta read(final DoxMeta meta) {
+
+        // the replica is read without a transaction of its own
+        tx.begin();
+        final DoxMeta read = bean.read("horse", meta.getDoxId());
+        tx.commit();
+        em.clear();
+        replicaEm.clear();
+        return read;
+    }
+
+    /**
+     * Copies the primary to the replica.
+     */
+    private void replicate() throws Exception {
+
+        final File script = testFolder.newFile();
+        try (final Connection c = DriverManager.getConnection(primaryUrl);
+            final Statement stmt = c.createStatement()) {
+            stmt.execute("SCRIPT TO '" + script.getAbsolutePath() + "'");
+        }
+        try (final Connection c = DriverManager.getConnection(replicaUrl);
+            final Statement stmt = c.createStatement()) {
+            stmt.execute("DROP ALL OBJECTS");
+            stmt.execute("RUNSCRIPT FROM '" + script.getAbsolutePath() + "'");
+        }
+    }
+
+    @Before
+    public void setUpReplica() throws Exception {
+
+        primaryUrl = emf.getProperties()
+            .get("javax.persistence.jdbc.url")
+            .toString();
+        replicaUrl = "jdbc:h2:file:" + testFolder.newFile().getAbsolutePath();
+        replicaEmf = Persistence.createEntityManagerFactory("replica", ImmutableMap.builder()
+            .put("javax.persistence.jdbc.url", replicaUrl)
+            .build());
+        replicaEm = replicaEmf.createEntityManager();
+
+        final ConfigurationProvider configurationProvider = new XmlConfigurationProvider("replicatest-dox.xml");
+        sessionContextMock = mock(SessionContext.class);
+        when(sessionContextMock.lookup("persistence/replica")).thenReturn(replicaEm);
+        as("ANONYMOUS");
+        bean.setSessionContext(sessionContextMock);
+        bean.setConfigurationProvider(configurationProvider);
+        replica.setConfigurationProvider(configurationProvider);
+
+        tx.begin();
+        dictionary.collection("horse");
+        dictionary.lookupName("horseName");
+        dictionary.principal(new DoxPrincipal("ANONYMOUS"));
+        tx.commit();
+        replicate();
+    }
+
+    @After
+    public void tearDownReplica() {
+
+        replicaEm.close();
+        replicaEmf.close();
+    }
+
+    @Test
+    public void testOtherPrincipalsReadFromReplica() throws Exception {
+
+        tx.begin();
+        final DoxMeta meta = bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\"}")).readObject());
+        tx.commit();
+        em.clear();
+
+        assertNotNull(read(meta));
+        as("OTHER");
+        assertNull(read(meta));
+
+        replicate();
+        assertNotNull(read(meta));
+        assertEquals(2, bean.getStatistics().getJsonObject("replica").getInt("replica_reads"));
+        assertEquals(1, bean.getStatistics().getJsonObject("replica").getInt("primary_reads"));
+    }
+
+    @Test
+    public void testUniqueLookupIsNotCachedFromReplica() throws Exception {
+
+        tx.begin();
+        final DoxMeta meta = bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\"}")).readObject());
+        tx.commit();
+        em.clear();
+
+        as("OTHER");
+        tx.begin();
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "horseName", "abc"));
+        tx.commit();
+    }
+
+    @Test
+    public void testWriteIsRecordedWhenCommitted() throws Exception {
+
+        final TestSynchronizationRegistry registry = new TestSynchronizationRegistry();
+        replica.setTransactionSynchronizationRegistry(registry);
+
+        registry.begin();
+        tx.begin();
+        final DoxMeta meta = bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\"}")).readObject());
+        // the rest of the writing transaction reads from the primary
+        assertNotNull(bean.read("horse", meta.getDoxId()));
+        assertEquals(0, bean.getStatistics().getJsonObject("replica").getInt("tracked_principals"));
+        tx.commit();
+        registry.complete(Status.STATUS_COMMITTED);
+        em.clear();
+
+        assertEquals(1, bean.getStatistics().getJsonObject("replica").getInt("tracked_principals"));
+        assertNotNull(read(meta));
+    }
+
+    @Test
+    public void testRolledBackWriteIsNotRecorded() throws Exception {
+
+        final TestSynchronizationRegistry registry = new TestSynchronizationRegistry();
+        replica.setTransactionSynchronizationRegistry(registry);
+
+        registry.begin();
+        tx.begin();
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\"}")).readObject());
+        tx.rollback();
+        registry.complete(Status.STATUS_ROLLEDBACK);
+        em.clear();
+
+        assertEquals(0, bean.getStatistics().getJsonObject("replica").getInt("tracked_principals"));
+    }
+
+    @Test
+    public void testReadFromReplicaOnceStalenessHasPassed() throws Exception {
+
+        replica.getReplica().setMaxStaleness(BigInteger.ONE);
+        tx.begin();
+        final DoxMeta meta = bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\"}")).readObject());
+        tx.commit();
+        em.clear();
+        Thread.sleep(10);
+
+        assertNull(read(meta));
+        assertEquals(0, bean.getStatistics().getJsonObject("replica").getInt("tracked_principals"));
+    }
+}
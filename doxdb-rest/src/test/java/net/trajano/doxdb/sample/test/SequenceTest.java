@@ -0,0 +1,72 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+
+import javax.json.Json;
+
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.sessions.server.ServerSession;
+import org.junit.Test;
+
+import net.trajano.doxdb.Dox;
+import net.trajano.doxdb.DoxDictionary;
+import net.trajano.doxdb.DoxID;
+import net.trajano.doxdb.DoxLock;
+import net.trajano.doxdb.DoxLookup;
+import net.trajano.doxdb.DoxOob;
+import net.trajano.doxdb.DoxOobTombstone;
+import net.trajano.doxdb.DoxTombstone;
+import net.trajano.doxdb.DoxUnique;
+import net.trajano.doxdb.ejb.internal.DoxSequence;
+
+/**
+ * Tests that every entity allocates its identifiers from its own row with its
+ * own allocation size.
+ *
+ * @author Archimedes Trajano
+ */
+public class SequenceTest extends AbstractBeanTest {
+
+    private void assertSequence(final Class<?> entityClass,
+        final String pkColumnValue,
+        final int allocationSize) {
+
+        final ServerSession session = em.unwrap(JpaEntityManager.class).getServerSession();
+        assertEquals(pkColumnValue, session.getDescriptor(entityClass).getSequence().getName());
+        assertEquals(allocationSize, session.getDescriptor(entityClass).getSequence().getPreallocationSize());
+    }
+
+    private int sequenceCount(final String pkColumnValue) {
+
+        return ((Number) em.createNativeQuery("select SEQ_COUNT from SEQUENCE where SEQ_NAME = '" + pkColumnValue + "'").getSingleResult()).intValue();
+    }
+
+    @Test
+    public void testAllocationSizes() {
+
+        assertSequence(Dox.class, DoxSequence.DOX_PK_COLUMN_VALUE, DoxSequence.DOX_ALLOCATION_SIZE);
+        assertSequence(DoxDictionary.class, DoxSequence.DICTIONARY_PK_COLUMN_VALUE, DoxSequence.DICTIONARY_ALLOCATION_SIZE);
+        assertSequence(DoxLock.class, DoxSequence.LOCK_PK_COLUMN_VALUE, DoxSequence.LOCK_ALLOCATION_SIZE);
+        assertSequence(DoxLookup.class, DoxSequence.LOOKUP_PK_COLUMN_VALUE, DoxSequence.LOOKUP_ALLOCATION_SIZE);
+        assertSequence(DoxOob.class, DoxSequence.OOB_PK_COLUMN_VALUE, DoxSequence.OOB_ALLOCATION_SIZE);
+        assertSequence(DoxOobTombstone.class, DoxSequence.OOB_TOMBSTONE_PK_COLUMN_VALUE, DoxSequence.OOB_TOMBSTONE_ALLOCATION_SIZE);
+        assertSequence(DoxTombstone.class, DoxSequence.TOMBSTONE_PK_COLUMN_VALUE, DoxSequence.TOMBSTONE_ALLOCATION_SIZE);
+        assertSequence(DoxUnique.class, DoxSequence.UNIQUE_PK_COLUMN_VALUE, DoxSequence.LOOKUP_ALLOCATION_SIZE);
+    }
+
+    @Test
+    public void testRowsAreAllocatedInBlocks() {
+
+        tx.begin();
+        final DoxID doxId = bean.create("horse", Json.createObjectBuilder().add("name", "archie").add("color", "brown").build()).getDoxId();
+        bean.writeOob("horse", doxId, "photo", "image/png", new ByteArrayInputStream(new byte[10]));
+        tx.commit();
+
+        assertEquals(DoxSequence.DOX_ALLOCATION_SIZE, sequenceCount(DoxSequence.DOX_PK_COLUMN_VALUE));
+        assertEquals(DoxSequence.LOOKUP_ALLOCATION_SIZE, sequenceCount(DoxSequence.UNIQUE_PK_COLUMN_VALUE));
+        assertEquals(DoxSequence.OOB_ALLOCATION_SIZE, sequenceCount(DoxSequence.OOB_PK_COLUMN_VALUE));
+        assertEquals(0, sequenceCount(DoxSequence.LOOKUP_PK_COLUMN_VALUE));
+    }
+}
@@ -0,0 +1,139 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+
+import javax.ejb.SessionContext;
+import javax.json.Json;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+import net.trajano.doxdb.internal.DoxPrincipal;
+
+/**
+ * Tests {@link net.trajano.doxdb.ejb.internal.DoxStorage}. The "pony"
+ * collection is stored in the DEDICATED schema of the same database.
+ *
+ * @author Archimedes Trajano
+ */
+public class StorageTest extends AbstractBeanTest {
+
+    private EntityManager dedicatedEm;
+
+    private EntityManagerFactory dedicatedEmf;
+
+    private EntityTransaction dedicatedTx;
+
+    /**
+     * Commits both transactions and clears the persistence contexts as the
+     * container would at the end of a transaction.
+     */
+    private void commit() {
+
+        dedicatedTx.commit();
+        tx.commit();
+        dedicatedEm.clear();
+        em.clear();
+    }
+
+    private long count(final EntityManager entityManager,
+        final String table) {
+
+        return ((Number) entityManager.createNativeQuery("select count(*) from " + table)
+            .getSingleResult()).longValue();
+    }
+
+    @Before
+    public void setUpDedicated() {
+
+        final String url = emf.getProperties()
+            .get("javax.persistence.jdbc.url")
+            .toString();
+        dedicatedEmf = Persistence.createEntityManagerFactory("dedicated", ImmutableMap.builder()
+            .put("javax.persistence.schema-generation.database.action", "create")
+            .put("javax.persistence.jdbc.url", url + ";INIT=CREATE SCHEMA IF NOT EXISTS DEDICATED")
+            .build());
+        dedicatedEm = dedicatedEmf.createEntityManager();
+        dedicatedTx = dedicatedEm.getTransaction();
+
+        final SessionContext sessionContextMock = mock(SessionContext.class);
+        when(sessionContextMock.getCallerPrincipal()).thenReturn(new DoxPrincipal("ANONYMOUS"));
+        when(sessionContextMock.lookup("persistence/dedicated")).thenReturn(dedicatedEm);
+        bean.setSessionContext(sessionContextMock);
+        bean.setConfigurationProvider(new XmlConfigurationProvider("storagetest-dox.xml"));
+
+        // dictionary entries are committed before the other connection refers to them
+        tx.begin();
+        dictionary.collection("horse");
+        dictionary.collection("pony");
+        dictionary.lookupName("horseName");
+        dictionary.lookupName("color");
+        dictionary.principal(new DoxPrincipal("ANONYMOUS"));
+        tx.commit();
+    }
+
+    @After
+    public void tearDownDedicated() {
+
+        dedicatedEm.close();
+        dedicatedEmf.close();
+    }
+
+    @Test
+    public void testCollectionsAreStoredSeparately() {
+
+        tx.begin();
+        dedicatedTx.begin();
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\",\"color\":\"brown\"}")).readObject());
+        final DoxMeta meta = bean.create("pony", Json.createReader(new StringReader("{\"name\":\"abc\",\"color\":\"brown\"}")).readObject());
+        commit();
+
+        assertEquals(1, count(em, "PUBLIC.DOX"));
+        assertEquals(1, count(em, "PUBLIC.DOXUNIQUE"));
+        assertEquals(1, count(em, "DEDICATED.DOX"));
+        assertEquals(1, count(em, "DEDICATED.DOXUNIQUE"));
+        assertEquals(1, count(em, "DEDICATED.DOXLOOKUP"));
+
+        tx.begin();
+        dedicatedTx.begin();
+        assertEquals(meta.getDoxId(), bean.readByUniqueLookup("pony", "horseName", "abc").getDoxId());
+        assertEquals(1, bean.readByLookup("pony", "color", "brown").size());
+        assertEquals("abc", bean.read("pony", meta.getDoxId()).getContent().getString("name"));
+        commit();
+    }
+
+    @Test
+    public void testReindexKeepsOtherCollections() {
+
+        tx.begin();
+        dedicatedTx.begin();
+        bean.create("horse", Json.createReader(new StringReader("{\"name\":\"abc\",\"color\":\"brown\"}")).readObject());
+        bean.create("pony", Json.createReader(new StringReader("{\"name\":\"abc\",\"color\":\"brown\"}")).readObject());
+        commit();
+
+        tx.begin();
+        dedicatedTx.begin();
+        bean.reindex();
+        commit();
+
+        assertEquals(1, count(em, "PUBLIC.DOXUNIQUE"));
+        assertEquals(1, count(em, "PUBLIC.DOXLOOKUP"));
+        assertEquals(1, count(em, "DEDICATED.DOXUNIQUE"));
+        assertEquals(1, count(em, "DEDICATED.DOXLOOKUP"));
+        assertEquals(1, bean.readByLookup("horse", "color", "brown").size());
+        assertEquals(1, bean.readByLookup("pony", "color", "brown").size());
+    }
+}
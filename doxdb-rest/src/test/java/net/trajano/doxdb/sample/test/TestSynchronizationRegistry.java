@@ -0,0 +1,96 @@
+package net.trajano.doxdb.sample.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Stands in for the container registry so tests can decide how a transaction
+ * completes.
+ *
+ * @author Archimedes Trajano
+ */
+public class TestSynchronizationRegistry implements
+    TransactionSynchronizationRegistry {
+
+    private final Map<Object, Object> resources = new HashMap<>();
+
+    private boolean rollbackOnly;
+
+    private final List<Synchronization> synchronizations = new ArrayList<>();
+
+    private Object transactionKey;
+
+    /**
+     * Starts a transaction.
+     */
+    public void begin() {
+
+        transactionKey = new Object();
+    }
+
+    /**
+     * Completes the transaction calling the synchronizations.
+     *
+     * @param status
+     *            completion status
+     */
+    public void complete(final int status) {
+
+        transactionKey = null;
+        rollbackOnly = false;
+        resources.clear();
+        for (final Synchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+        synchronizations.clear();
+    }
+
+    @Override
+    public Object getResource(final Object key) {
+
+        return resources.get(key);
+    }
+
+    @Override
+    public boolean getRollbackOnly() {
+
+        return rollbackOnly;
+    }
+
+    @Override
+    public Object getTransactionKey() {
+
+        return transactionKey;
+    }
+
+    @Override
+    public int getTransactionStatus() {
+
+        return transactionKey == null ? Status.STATUS_NO_TRANSACTION : Status.STATUS_ACTIVE;
+    }
+
+    @Override
+    public void putResource(final Object key,
+        final Object value) {
+
+        resources.put(key, value);
+    }
+
+    @Override
+    public void registerInterposedSynchronization(final Synchronization sync) {
+
+        synchronizations.add(sync);
+    }
+
+    @Override
+    public void setRollbackOnly() {
+
+        rollbackOnly = true;
+    }
+}
@@ -0,0 +1,139 @@
+package net.trajano.doxdb.sample.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.trajano.doxdb.DoxMeta;
+import net.trajano.doxdb.ext.ConfigurationProvider;
+import net.trajano.doxdb.ext.XmlConfigurationProvider;
+
+/**
+ * Tests {@link net.trajano.doxdb.ejb.DoxUniqueCacheBean}.
+ *
+ * @author Archimedes Trajano
+ */
+public class UniqueCacheTest extends AbstractBeanTest {
+
+    private DoxMeta create(final String fei) {
+
+        tx.begin();
+        final DoxMeta meta = bean.create("horse", horse(fei));
+        tx.commit();
+        em.clear();
+        return meta;
+    }
+
+    private JsonObject horse(final String fei) {
+
+        return Json.createReader(new StringReader("{\"name\":\"" + fei + "\",\"fei\":\"" + fei + "\"}")).readObject();
+    }
+
+    @Before
+    public void setUpCache() {
+
+        final ConfigurationProvider configurationProvider = new XmlConfigurationProvider("uniquecachetest-dox.xml");
+        bean.setConfigurationProvider(configurationProvider);
+        uniqueCache.setConfigurationProvider(configurationProvider);
+    }
+
+    private JsonObject statistics() {
+
+        return bean.getStatistics().getJsonObject("unique_lookup_cache");
+    }
+
+    @Test
+    public void testCachedResolution() {
+
+        final DoxMeta meta = create("F1");
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        assertEquals(1, statistics().getInt("hits"));
+        assertEquals(1, statistics().getInt("misses"));
+        assertEquals(0.5, statistics().getJsonNumber("hit_rate").doubleValue(), 0.0);
+    }
+
+    @Test
+    public void testDeleteRemovesEntry() {
+
+        final DoxMeta meta = create("F1");
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        tx.begin();
+        bean.delete("horse", meta.getDoxId(), meta.getVersion(), Json.createObjectBuilder().build());
+        tx.commit();
+        em.clear();
+        assertNull(bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+    }
+
+    @Test
+    public void testEntriesAreBounded() {
+
+        create("F1");
+        create("F2");
+        create("F3");
+        bean.readDoxIdByUniqueLookup("horse", "fei", "F1");
+        bean.readDoxIdByUniqueLookup("horse", "fei", "F2");
+        bean.readDoxIdByUniqueLookup("horse", "fei", "F3");
+        assertEquals(2, statistics().getInt("entries"));
+    }
+
+    @Test
+    public void testNegativeEntryIsRemovedOnCreate() {
+
+        create("F2");
+        assertNull(bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        assertNull(bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        assertEquals(1, statistics().getInt("negative_hits"));
+        final DoxMeta meta = create("F1");
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+    }
+
+    @Test
+    public void testReadBeforeCommitIsRemovedOnCompletion() {
+
+        final TestSynchronizationRegistry registry = new TestSynchronizationRegistry();
+        uniqueCache.setTransactionSynchronizationRegistry(registry);
+        final DoxMeta meta = create("F1");
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+
+        registry.begin();
+        tx.begin();
+        bean.update("horse", meta.getDoxId(), horse("F2"), meta.getVersion());
+        final EntityManager otherEm = emf.createEntityManager();
+        try {
+            // a concurrent request still sees the committed key
+            assertEquals(meta.getDoxId(), uniqueCache.resolve(otherEm, dictionary.collection("horse"), dictionary.lookupName("fei"), "F1"));
+        } finally {
+            otherEm.close();
+        }
+        tx.commit();
+        registry.complete(Status.STATUS_COMMITTED);
+        em.clear();
+
+        assertNull(bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F2"));
+    }
+
+    @Test
+    public void testUpdateRemovesPreviousKey() {
+
+        final DoxMeta meta = create("F1");
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        assertNull(bean.readDoxIdByUniqueLookup("horse", "fei", "F2"));
+        tx.begin();
+        bean.update("horse", meta.getDoxId(), horse("F2"), meta.getVersion());
+        tx.commit();
+        em.clear();
+        assertNull(bean.readDoxIdByUniqueLookup("horse", "fei", "F1"));
+        assertEquals(meta.getDoxId(), bean.readDoxIdByUniqueLookup("horse", "fei", "F2"));
+    }
+}